@@ -4,6 +4,7 @@ import emissary.command.converter.PriorityDirectoryConverter;
 import emissary.command.converter.WorkspaceSortModeConverter;
 import emissary.pickup.PriorityDirectory;
 import emissary.pickup.WorkBundle;
+import emissary.pickup.WorkBundleQueue;
 import emissary.pickup.WorkSpace;
 
 import com.beust.jcommander.Parameter;
@@ -13,6 +14,7 @@ import org.apache.commons.collections4.CollectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
 import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -79,6 +81,13 @@ public class FeedCommand extends ServiceCommand {
             description = "set the use of file timestamps to control whether a file is new enough to be added to the queue")
     private boolean fileTimestamp = false;
 
+    @Parameter(names = {"--queueDir"},
+            description = "directory for a durable work bundle queue that is recovered on restart, bundles are only kept in memory when not set")
+    private Path queueDir;
+
+    @Parameter(names = {"--queueWindow"}, description = "number of outbound work bundles to keep in memory when using a durable queue")
+    private int queueWindow = WorkBundleQueue.DEFAULT_WINDOW_SIZE;
+
     @Override
     public String getCommandName() {
         return COMMAND_NAME;
@@ -194,4 +203,12 @@ public class FeedCommand extends ServiceCommand {
         return fileTimestamp;
     }
 
+    public Path getQueueDir() {
+        return queueDir;
+    }
+
+    public int getQueueWindow() {
+        return queueWindow;
+    }
+
 }
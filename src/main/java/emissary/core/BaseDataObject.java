@@ -20,10 +20,10 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SeekableByteChannel;
 import java.rmi.Remote;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +31,8 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 
 /**
@@ -45,6 +47,9 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
     /* Including this here make serialization of this object faster. */
     private static final long serialVersionUID = 7362181964652092657L;
 
+    /* Low half of the internal ids, unique within this process and starting from a random point */
+    private static final AtomicLong INTERNAL_ID_SEQUENCE = new AtomicLong(new SecureRandom().nextLong());
+
     /* Actual data - migrate away from this towards byte channels. */
     protected byte[] theData;
 
@@ -62,7 +67,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
     /**
      * The internal identifier, generated for each constructed object
      */
-    protected UUID internalId = UUID.randomUUID();
+    protected UUID internalId = newInternalId();
 
     /**
      * The currentForm is a stack of the itinerary items. The contents of the list are {@link String} and map to the
@@ -88,7 +93,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
     /**
      * Dynamic facets or metadata attributes of the data
      */
-    protected LinkedListMultimap<String, Object> parameters = LinkedListMultimap.create(100);
+    protected LinkedListMultimap<String, Object> parameters = LinkedListMultimap.create();
 
     /**
      * If this file caused other agents to be sprouted, indicate how many
@@ -107,9 +112,11 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
     protected int birthOrder = 0;
 
     /**
-     * Hash of alternate views of the data {@link String} current form is the key, byte[] is the value
+     * Hash of alternate views of the data {@link String} current form is the key, byte[] is the value. Created when the
+     * first view is added.
      */
-    protected Map<String, byte[]> multipartAlternative = new TreeMap<>();
+    @Nullable
+    protected Map<String, byte[]> multipartAlternative;
 
     /**
      * Any header that goes along with the data
@@ -182,6 +189,18 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
      */
     protected SeekableByteChannelFactory seekableByteChannelFactory;
 
+    /**
+     * The bytes last read out of {@link #seekableByteChannelFactory} by {@link #data()}, see {@link MaterializationCache}
+     */
+    @Nullable
+    protected transient MaterializationCache.Entry materialized;
+
+    /**
+     * The size of {@link #seekableByteChannelFactory}, valid when {@link #channelSizeKnown} is set
+     */
+    protected transient long channelSize;
+    protected transient boolean channelSizeKnown;
+
     protected enum DataState {
         NO_DATA, CHANNEL_ONLY, BYTE_ARRAY_ONLY, BYTE_ARRAY_AND_CHANNEL
     }
@@ -221,6 +240,41 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
         }
     }
 
+    /**
+     * Make a random (version 4) UUID for {@link #internalId} without going through the shared SecureRandom that
+     * {@link UUID#randomUUID()} uses. The high half is random for each thread, the low half comes from a sequence so ids
+     * cannot repeat within a process.
+     *
+     * @return the new id
+     */
+    protected static UUID newInternalId() {
+        final long msb = (ThreadLocalRandom.current().nextLong() & ~0xF000L) | 0x4000L;
+        final long lsb = (INTERNAL_ID_SEQUENCE.getAndIncrement() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * Get the MetadataDictionary used to remap parameter and view names
+     *
+     * @return the dictionary or null if remapping is not enabled
+     */
+    @Nullable
+    protected static MetadataDictionary metadataDictionary() {
+        final Object dict = Namespace.find(MetadataDictionary.DEFAULT_NAMESPACE_NAME);
+        return dict instanceof MetadataDictionary ? (MetadataDictionary) dict : null;
+    }
+
+    /**
+     * Remap a parameter or view name if remapping is enabled
+     *
+     * @param key the name as given
+     * @return the name to store it under
+     */
+    protected static String mapKey(final String key) {
+        final MetadataDictionary dict = metadataDictionary();
+        return dict != null ? dict.map(key) : key;
+    }
+
     /**
      * Create an empty BaseDataObject.
      */
@@ -327,6 +381,41 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
         Validate.notNull(sbcf, "Required: SeekableByteChannelFactory not null");
         this.theData = null;
         this.seekableByteChannelFactory = sbcf;
+        dropMaterialized();
+    }
+
+    /**
+     * Forget the size and bytes read from the channel factory, they belong to data that is being replaced
+     */
+    protected void dropMaterialized() {
+        this.channelSizeKnown = false;
+        if (this.materialized != null) {
+            MaterializationCache.getInstance().release(this.materialized);
+            this.materialized = null;
+        }
+    }
+
+    /**
+     * Read the bytes out of the channel factory, or reuse the ones read last time if they are still held
+     *
+     * @return the data as a byte array
+     */
+    protected byte[] materialize() {
+        final MaterializationCache cache = MaterializationCache.getInstance();
+        final byte[] held = this.materialized == null ? null : this.materialized.get();
+        if (held != null) {
+            cache.hit(history.lastVisit());
+            return held;
+        }
+
+        // Max size here is slightly less than the true max size to avoid memory issues
+        final byte[] bytes = SeekableByteChannelHelper.getByteArrayFromBdo(this, MAX_BYTE_ARRAY_SIZE);
+        cache.miss(history.lastVisit(), bytes.length);
+        if (getDataState() == DataState.CHANNEL_ONLY) {
+            cache.release(this.materialized);
+            this.materialized = cache.isEnabled() ? cache.retain(bytes, this) : null;
+        }
+        return bytes;
     }
 
     /**
@@ -366,6 +455,12 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
      * not be modified.
      * </p>
      * 
+     * <p>
+     * Data read from a backing Channel is kept, within the budget of the {@link MaterializationCache}, and the same array
+     * is returned again until the data or channel factory is replaced. Changing that array changes what later calls to this
+     * method return.
+     * </p>
+     * 
      * @see #getChannelFactory()
      * @return the data as a byte array
      */
@@ -377,8 +472,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
             case BYTE_ARRAY_ONLY:
                 return theData;
             case CHANNEL_ONLY:
-                // Max size here is slightly less than the true max size to avoid memory issues
-                return SeekableByteChannelHelper.getByteArrayFromBdo(this, MAX_BYTE_ARRAY_SIZE);
+                return materialize();
             case NO_DATA:
             default:
                 return null; // NOSONAR maintains backwards compatibility
@@ -391,6 +485,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
     @Override
     public void setData(@Nullable final byte[] newData) {
         this.seekableByteChannelFactory = null;
+        dropMaterialized();
         if (newData == null) {
             this.theData = new byte[0];
         } else {
@@ -416,6 +511,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
     @Override
     public void setData(@Nullable final byte[] newData, final int offset, final int length) {
         this.seekableByteChannelFactory = null;
+        dropMaterialized();
         if (length <= 0 || newData == null) {
             this.theData = new byte[0];
         } else {
@@ -437,9 +533,13 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
             case BYTE_ARRAY_ONLY:
                 return theData.length;
             case CHANNEL_ONLY:
-                try (final SeekableByteChannel sbc = this.seekableByteChannelFactory.create()) {
-                    return sbc.size();
+                if (!this.channelSizeKnown) {
+                    try (final SeekableByteChannel sbc = this.seekableByteChannelFactory.create()) {
+                        this.channelSize = sbc.size();
+                        this.channelSizeKnown = true;
+                    }
                 }
+                return this.channelSize;
             case NO_DATA:
             default:
                 return 0;
@@ -721,6 +821,16 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
         return history.get(includeCoordinated);
     }
 
+    @Override
+    public int transformHistorySize() {
+        return history.size();
+    }
+
+    @Override
+    public List<String> transformHistoryView() {
+        return history.view();
+    }
+
     @Override
     public void clearTransformHistory() {
         this.history.clear();
@@ -760,14 +870,12 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
 
     @Override
     public DirectoryEntry getLastPlaceVisited() {
-        String entry = history.lastVisit();
-        return entry == null ? null : new DirectoryEntry(entry);
+        return history.lastVisitEntry();
     }
 
     @Override
     public DirectoryEntry getPenultimatePlaceVisited() {
-        String entry = history.penultimateVisit();
-        return entry == null ? null : new DirectoryEntry(entry);
+        return history.penultimateVisitEntry();
     }
 
     @Override
@@ -787,14 +895,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
 
     @Override
     public boolean hasParameter(final String key) {
-        // Try remapping
-        try {
-            final MetadataDictionary dict = MetadataDictionary.lookup();
-            return this.parameters.containsKey(dict.map(key));
-        } catch (NamespaceException ex) {
-            // Remapping not enabled
-            return this.parameters.containsKey(key);
-        }
+        return this.parameters.containsKey(mapKey(key));
     }
 
     @Override
@@ -811,15 +912,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
 
     @Override
     public void putParameter(final String key, final Object val) {
-        // Try remapping
-        MetadataDictionary dict = null;
-        try {
-            dict = MetadataDictionary.lookup();
-        } catch (NamespaceException ex) {
-            // Remapping not enabled
-        }
-
-        final String n = dict != null ? dict.map(key) : key;
+        final String n = mapKey(key);
 
         this.parameters.removeAll(n);
 
@@ -870,12 +963,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
     @Override
     public void putParameters(final Map<? extends String, ? extends Object> m, final MergePolicy policy) {
         // Try remapping
-        MetadataDictionary dict = null;
-        try {
-            dict = MetadataDictionary.lookup();
-        } catch (NamespaceException ex) {
-            // Remapping not enabled
-        }
+        final MetadataDictionary dict = metadataDictionary();
 
         for (final Map.Entry<? extends String, ? extends Object> entry : m.entrySet()) {
             final String name = dict != null ? dict.map(entry.getKey()) : entry.getKey();
@@ -913,15 +1001,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
 
     @Override
     public List<Object> getParameter(final String key) {
-        // Try remapping
-        List<Object> v = null;
-        try {
-            final MetadataDictionary dict = MetadataDictionary.lookup();
-            v = this.parameters.get(dict.map(key));
-        } catch (NamespaceException ex) {
-            // Remapping not enabled
-            v = this.parameters.get(key);
-        }
+        final List<Object> v = this.parameters.get(mapKey(key));
         if ((v == null) || v.isEmpty()) {
             return null;
         }
@@ -930,28 +1010,12 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
 
     @Override
     public void appendParameter(final String key, final CharSequence value) {
-        // Try remapping
-        try {
-            final MetadataDictionary dict = MetadataDictionary.lookup();
-            this.parameters.put(dict.map(key), value);
-        } catch (NamespaceException ex) {
-            // Remapping not enabled
-            this.parameters.put(key, value);
-        }
+        this.parameters.put(mapKey(key), value);
     }
 
     @Override
     public void appendParameter(final String key, final Iterable<? extends CharSequence> values) {
-        // Try remapping
-        String pkey = key;
-        try {
-            final MetadataDictionary dict = MetadataDictionary.lookup();
-            pkey = dict.map(key);
-        } catch (NamespaceException ex) {
-            // Remapping not enabled
-        }
-
-        this.parameters.putAll(pkey, values);
+        this.parameters.putAll(mapKey(key), values);
     }
 
     /**
@@ -965,15 +1029,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
      */
     @Override
     public boolean appendUniqueParameter(final String key, final CharSequence value) {
-        // Try remapping
-        MetadataDictionary dict = null;
-        try {
-            dict = MetadataDictionary.lookup();
-        } catch (NamespaceException ex) {
-            // Remapping not enabled
-        }
-
-        final String n = dict != null ? dict.map(key) : key;
+        final String n = mapKey(key);
 
         if (this.parameters.containsEntry(n, value)) {
             return false;
@@ -1046,13 +1102,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
 
     @Override
     public List<Object> deleteParameter(final String key) {
-        try {
-            final MetadataDictionary dict = MetadataDictionary.lookup();
-            return this.parameters.removeAll(dict.map(key));
-        } catch (NamespaceException ex) {
-            // Renaming not enabled
-            return this.parameters.removeAll(key);
-        }
+        return this.parameters.removeAll(mapKey(key));
     }
 
     @Override
@@ -1198,7 +1248,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
 
     @Override
     public int getNumAlternateViews() {
-        return this.multipartAlternative.size();
+        return this.multipartAlternative == null ? 0 : this.multipartAlternative.size();
     }
 
     /**
@@ -1210,12 +1260,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
      */
     @Override
     public byte[] getAlternateView(final String s) {
-        try {
-            final MetadataDictionary dict = MetadataDictionary.lookup();
-            return this.multipartAlternative.get(dict.map(s));
-        } catch (NamespaceException ex) {
-            return this.multipartAlternative.get(s);
-        }
+        return this.multipartAlternative == null ? null : this.multipartAlternative.get(mapKey(s));
     }
 
     @Override
@@ -1257,37 +1302,29 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
      */
     @Override
     public void addAlternateView(final String name, @Nullable final byte[] data) {
-        String mappedName = name;
-        try {
-            final MetadataDictionary dict = MetadataDictionary.lookup();
-            mappedName = dict.map(name);
-        } catch (NamespaceException ex) {
-            // ignore
-        }
+        final String mappedName = mapKey(name);
 
         if (data == null) {
-            this.multipartAlternative.remove(mappedName);
+            if (this.multipartAlternative != null) {
+                this.multipartAlternative.remove(mappedName);
+            }
         } else {
-            this.multipartAlternative.put(mappedName, data);
+            getAlternateViews().put(mappedName, data);
         }
     }
 
     @Override
     public void addAlternateView(final String name, @Nullable final byte[] data, final int offset, final int length) {
-        String mappedName = name;
-        try {
-            final MetadataDictionary dict = MetadataDictionary.lookup();
-            mappedName = dict.map(name);
-        } catch (NamespaceException ex) {
-            // ignore
-        }
+        final String mappedName = mapKey(name);
 
         if (data == null || length <= 0) {
-            this.multipartAlternative.remove(mappedName);
+            if (this.multipartAlternative != null) {
+                this.multipartAlternative.remove(mappedName);
+            }
         } else {
             final byte[] mpa = new byte[length];
             System.arraycopy(data, offset, mpa, 0, length);
-            this.multipartAlternative.put(mappedName, mpa);
+            getAlternateViews().put(mappedName, mpa);
         }
     }
 
@@ -1298,7 +1335,7 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
      */
     @Override
     public Set<String> getAlternateViewNames() {
-        return new TreeSet<>(this.multipartAlternative.keySet());
+        return this.multipartAlternative == null ? new TreeSet<>() : new TreeSet<>(this.multipartAlternative.keySet());
     }
 
     /**
@@ -1309,6 +1346,9 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
      */
     @Override
     public Map<String, byte[]> getAlternateViews() {
+        if (this.multipartAlternative == null) {
+            this.multipartAlternative = new TreeMap<>();
+        }
         return this.multipartAlternative;
     }
 
@@ -1366,6 +1406,8 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
     @Override
     public IBaseDataObject clone() throws CloneNotSupportedException {
         final BaseDataObject c = (BaseDataObject) super.clone();
+        // the bytes held for this object are not the clone's to release
+        c.materialized = null;
         if ((this.theData != null) && (this.theData.length > 0)) {
             c.setData(this.theData, 0, this.theData.length);
         }
@@ -1376,7 +1418,9 @@ public class BaseDataObject implements Serializable, Cloneable, Remote, IBaseDat
 
         c.currentForm = new ArrayList<>(this.currentForm);
         c.history = new TransformHistory(this.history);
-        c.multipartAlternative = new HashMap<>(this.multipartAlternative);
+        if (this.multipartAlternative != null) {
+            c.multipartAlternative = new TreeMap<>(this.multipartAlternative);
+        }
         c.priority = this.priority;
         c.creationTimestamp = this.creationTimestamp;
 
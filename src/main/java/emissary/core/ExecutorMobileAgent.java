@@ -0,0 +1,138 @@
+package emissary.core;
+
+import emissary.log.MDCConstants;
+import emissary.pool.AgentExecutor;
+
+import org.slf4j.MDC;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * An HDMobileAgent without a thread of its own. Instead of waking up a dedicated thread, each payload handed to the
+ * agent with go() or arrive() submits the agent to an {@link AgentExecutor}, which runs it to completion once and
+ * returns it to the pool. Idle agents are just state, so the AgentPool can be sized for thousands of payloads in flight
+ * without thousands of platform threads. Select it in AgentPool.cfg with
+ *
+ * <pre>
+ * agent.class = "emissary.core.ExecutorMobileAgent"
+ * </pre>
+ */
+public class ExecutorMobileAgent extends HDMobileAgent {
+
+    static final long serialVersionUID = -2931470624580174466L;
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    // Runtime to submit to, null for the shared instance
+    @Nullable
+    private final transient AgentExecutor executor;
+
+    // Guards the thread binding so a late interrupt cannot hit the next agent run on the same thread
+    private final transient Object threadLock = new Object();
+
+    /**
+     * Create an agent using the shared runtime
+     */
+    public ExecutorMobileAgent() {
+        this((ThreadGroup) null, "ExecutorMobileAgent-" + COUNTER.getAndIncrement());
+    }
+
+    /**
+     * Constructor for the factory, the thread group is not used since the agent has no thread of its own
+     */
+    public ExecutorMobileAgent(@Nullable final ThreadGroup threadGroup, final String threadName) {
+        super(threadGroup, threadName, false);
+        this.executor = null;
+    }
+
+    /**
+     * Create an agent running on the specified runtime
+     *
+     * @param executor the runtime to submit to
+     * @param name symbolic name for this agent
+     */
+    public ExecutorMobileAgent(final AgentExecutor executor, final String name) {
+        super(null, name, false);
+        this.executor = executor;
+    }
+
+    protected AgentExecutor getExecutor() {
+        return this.executor != null ? this.executor : AgentExecutor.getInstance();
+    }
+
+    /**
+     * Submit ourselves to the runtime now that we have a payload and a place
+     *
+     * @throws IllegalStateException if the runtime is no longer accepting work, the agent is returned to the pool first
+     */
+    @Override
+    protected void dispatch() {
+        if (!isInUse() || this.timeToQuit) {
+            return;
+        }
+        try {
+            getExecutor().execute(this);
+        } catch (RejectedExecutionException e) {
+            logger.error("Agent runtime rejected {}", agentID());
+            agentReturn();
+            throw new IllegalStateException("Agent runtime is not accepting work", e);
+        }
+    }
+
+    /**
+     * Process the current payload once on the calling executor thread and go back to the pool
+     */
+    @Override
+    public void run() {
+        if (this.timeToQuit || !isInUse()) {
+            return;
+        }
+
+        bindThread(Thread.currentThread());
+        logger.debug("Starting work for {}", agentID());
+        MDC.put(MDCConstants.SHORT_NAME, getPayload().shortName());
+        try {
+            agentControl(this.arrivalPlace);
+        } catch (Throwable throwable) {
+            logger.error("Problem with agent", throwable);
+        } finally {
+            bindThread(null);
+            // do not leave an interrupt meant for us on a shared thread
+            Thread.interrupted();
+            if (!this.timeToQuit) {
+                agentReturn();
+            }
+            MDC.clear();
+        }
+    }
+
+    private void bindThread(@Nullable final Thread t) {
+        synchronized (this.threadLock) {
+            this.thread = t;
+        }
+    }
+
+    /**
+     * Interrupt the thread currently running this agent, if any
+     */
+    @Override
+    public void interrupt() {
+        synchronized (this.threadLock) {
+            if (this.thread != null) {
+                this.thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stop the agent, interrupting any work in progress
+     */
+    @Override
+    public void killAgentAsync() {
+        logger.debug("killAgentAsync called on {}", getName());
+        this.timeToQuit = true;
+        interrupt();
+    }
+}
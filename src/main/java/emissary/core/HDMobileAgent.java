@@ -15,6 +15,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import javax.annotation.Nullable;
 
 /**
@@ -32,6 +34,13 @@ public class HDMobileAgent extends MobileAgent {
     // What we carry around with us
     protected List<IBaseDataObject> payloadList = Collections.synchronizedList(new ArrayList<IBaseDataObject>());
 
+    // Pool to route sprouted children on concurrently, null to process the family serially
+    @Nullable
+    protected transient ForkJoinPool familyPool = null;
+
+    // True if this agent is processing one branch of another agent's family
+    protected boolean familyBranch = false;
+
     /**
      * Still have the uncaught exception handler but not really in a true ThreadGroup
      */
@@ -47,6 +56,23 @@ public class HDMobileAgent extends MobileAgent {
         logger.debug("Constructed HD agent {}", threadName);
     }
 
+    /**
+     * Constructor for subclasses that may not want a thread of their own
+     */
+    protected HDMobileAgent(@Nullable final ThreadGroup threadGroup, final String threadName, final boolean dedicatedThread) {
+        super(threadGroup, threadName, dedicatedThread);
+        logger.debug("Constructed HD agent {}", threadName);
+    }
+
+    /**
+     * Constructor for subclasses that may not want a thread of their own or an MBean
+     */
+    protected HDMobileAgent(@Nullable final ThreadGroup threadGroup, final String threadName, final boolean dedicatedThread,
+            final boolean registerMBean) {
+        super(threadGroup, threadName, dedicatedThread, registerMBean);
+        logger.debug("Constructed HD agent {}", threadName);
+    }
+
     /**
      * Override getPayload to just return the first on list or null
      */
@@ -187,6 +213,16 @@ public class HDMobileAgent extends MobileAgent {
         int loopCount = 0;
         boolean nextKeyRecorded = true;
         boolean controlError = false;
+        traceItinerary(mypayload);
+
+        // Family members by form and last place, kept up to date as they are processed
+        final PayloadFormIndex index;
+        synchronized (this.payloadList) {
+            index = new PayloadFormIndex(this.payloadList);
+        }
+
+        // Sprouted children being routed on the family pool
+        final List<ForkJoinTask<List<IBaseDataObject>>> branches = new ArrayList<>();
 
         while (currentPlace != null && newEntry != null && mypayload != null) {
             // One based loop counter
@@ -216,6 +252,9 @@ public class HDMobileAgent extends MobileAgent {
                         nextKeyRecorded = true;
                     }
                     atPlaceHD(currentPlace, this.payloadList);
+                    synchronized (this.payloadList) {
+                        index.updateAll(this.payloadList);
+                    }
                 } else {
                     // Add the primary payload object to a list
                     final List<IBaseDataObject> toBeProcessed = new ArrayList<IBaseDataObject>();
@@ -223,24 +262,18 @@ public class HDMobileAgent extends MobileAgent {
 
                     // Add any other payload that has the same current form
                     // and last place visited as this one while we are here...
-                    for (final IBaseDataObject slug : this.payloadList) {
-                        final DirectoryEntry slugLastPlaceVisited = slug.getLastPlaceVisited();
-
-                        if (slug != mypayload
-                                && slug.searchCurrentForm(primaryCurrentForm) > -1
-                                && ((primaryLastEntry == null && slugLastPlaceVisited == null) || (primaryLastEntry != null
-                                        && slugLastPlaceVisited != null && slugLastPlaceVisited.getKey().equals(primaryLastEntry.getKey())))) {
-                            // We don't need to call getNextKey but do
-                            // need to simulate this side effect of it...
-                            slug.pullFormToTop(primaryCurrentForm);
-
-                            toBeProcessed.add(slug);
-
-                            if (logger.isDebugEnabled()) {
-                                logger.debug("Adding slug {} with key {} to ride with {} having key {} current form {}", slug.shortName(),
-                                        (slugLastPlaceVisited == null ? "null" : slugLastPlaceVisited.getKey()), mypayload.shortName(),
-                                        (primaryLastEntry == null ? "null" : primaryLastEntry.getKey()), primaryCurrentForm);
-                            }
+                    for (final IBaseDataObject slug : index.matching(primaryCurrentForm, primaryLastEntry, mypayload)) {
+                        // We don't need to call getNextKey but do
+                        // need to simulate this side effect of it...
+                        slug.pullFormToTop(primaryCurrentForm);
+
+                        toBeProcessed.add(slug);
+
+                        if (logger.isDebugEnabled()) {
+                            final DirectoryEntry slugLastPlaceVisited = slug.getLastPlaceVisited();
+                            logger.debug("Adding slug {} with key {} to ride with {} having key {} current form {}", slug.shortName(),
+                                    (slugLastPlaceVisited == null ? "null" : slugLastPlaceVisited.getKey()), mypayload.shortName(),
+                                    (primaryLastEntry == null ? "null" : primaryLastEntry.getKey()), primaryCurrentForm);
                         }
                     }
 
@@ -257,19 +290,35 @@ public class HDMobileAgent extends MobileAgent {
                         nextKeyRecorded = true;
                     }
                     final List<IBaseDataObject> sprouts = atPlaceHD(currentPlace, toBeProcessed);
+                    index.updateAll(toBeProcessed);
 
-                    // Add any sprouts collected from the payloads
+                    // Add any sprouts collected from the payloads, or route
+                    // them on their own when processing the family in parallel
                     if (sprouts.size() > 0) {
-                        addPayload(sprouts);
+                        if (this.familyPool != null) {
+                            forkFamilyBranches(currentPlace, sprouts, branches);
+                        } else {
+                            addPayload(sprouts);
+                            index.addAll(sprouts);
+                        }
                     }
                 }
             }
 
             // Where to go next...
             controlError = false;
+            long routeStart = traceStart();
             newEntry = getNextKey(currentPlace, mypayload);
+            traceEnd(RoutingTrace.Phase.ROUTE, newEntry == null ? null : newEntry.getKey(), routeStart);
+            index.update(mypayload);
             nextKeyRecorded = false;
 
+            // The branches have to rejoin the family before anyone else is
+            // picked, before the IO phase and before the family moves
+            if (!branches.isEmpty() && (newEntry == null || "IO".equals(newEntry.getServiceType()) || !newEntry.isLocal())) {
+                joinFamilyBranches(branches, index);
+            }
+
             // Defer IO phase for now if there are attachments to process
             // and we aren't already in the io phase
             if ((newEntry != null) && (payloadCount() > 1) && "IO".equals(newEntry.getServiceType())
@@ -295,7 +344,10 @@ public class HDMobileAgent extends MobileAgent {
                         continue;
                     }
                     setParallelTrackingInfoFor(p);
+                    routeStart = traceStart();
                     newEntry = getNextKey(currentPlace, p);
+                    traceEnd(RoutingTrace.Phase.ROUTE, newEntry == null ? null : newEntry.getKey(), routeStart);
+                    index.update(p);
                     if (newEntry != null) {
                         // Defer IO Phase until sure we are all done
                         if ("IO".equals(newEntry.getServiceType())) {
@@ -315,6 +367,7 @@ public class HDMobileAgent extends MobileAgent {
                         // Found a new top dog to process
                         // Pull it to the top of the list in case we have to move
                         if (i != 0) {
+                            index.swap(getPayload(0), p);
                             switchPrimaryPayload(i);
                         }
                         // Remember it for processing
@@ -328,6 +381,7 @@ public class HDMobileAgent extends MobileAgent {
             if (newEntry == null && haveDropOffFor > -1) {
                 // Pull entry to top
                 if (haveDropOffFor != 0) {
+                    index.swap(getPayload(0), getPayload(haveDropOffFor));
                     switchPrimaryPayload(haveDropOffFor);
                     mypayload = getPayload(0);
                     setParallelTrackingInfoFor(mypayload);
@@ -345,6 +399,13 @@ public class HDMobileAgent extends MobileAgent {
                 break;
             }
 
+            // A branch hands its payloads back to the family agent
+            // rather than dropping off or moving on its own
+            if (this.familyBranch && ("IO".equals(newEntry.getServiceType()) || !newEntry.isLocal())) {
+                logger.debug("Branch stopping before {}", newEntry);
+                break;
+            }
+
             // Local processing, go around the loop and process there
             if (newEntry.isLocal()) {
                 logger.debug("Choosing local place {}", newEntry.getFullKey());
@@ -367,6 +428,12 @@ public class HDMobileAgent extends MobileAgent {
             } else {
                 mypayload.popCurrentForm();
             }
+            index.update(mypayload);
+        }
+
+        // Never lose a branch, even if we left the loop early
+        if (!branches.isEmpty()) {
+            joinFamilyBranches(branches, index);
         }
 
         // If null we are completely finished, otherwise we
@@ -374,6 +441,92 @@ public class HDMobileAgent extends MobileAgent {
         if (newEntry == null) {
             logAgentCompletion();
         }
+        finishItinerary();
+    }
+
+    /**
+     * Route each sprouted child, and anything it sprouts in turn, on the family pool. Each branch runs until its payloads
+     * are ready for the IO phase, finished, or need to leave this machine.
+     *
+     * @param place the place that sprouted the children
+     * @param sprouts the new children
+     * @param branches collects the running branches
+     */
+    protected void forkFamilyBranches(final IServiceProviderPlace place, final List<IBaseDataObject> sprouts,
+            final List<ForkJoinTask<List<IBaseDataObject>>> branches) {
+        logger.debug("Forking {} family branches at {}", sprouts.size(), place);
+        for (final IBaseDataObject sprout : sprouts) {
+            branches.add(this.familyPool.submit(() -> runFamilyBranch(place, sprout)));
+        }
+    }
+
+    /**
+     * Process one sprouted child on the current thread with an agent of its own
+     *
+     * @param place the place that sprouted the child
+     * @param sprout the child
+     * @return the child and all of its descendants, ready to rejoin the family
+     */
+    protected List<IBaseDataObject> runFamilyBranch(final IServiceProviderPlace place, final IBaseDataObject sprout) {
+        final HDMobileAgent branch = newFamilyBranch();
+        branch.addPayload(sprout);
+        branch.setParallelTrackingInfoFor(sprout);
+        // Bind the branch to this worker so place time outs can interrupt it
+        branch.thread = Thread.currentThread();
+        try {
+            branch.agentControl(place);
+        } catch (Throwable t) {
+            logger.error("Problem with family branch for {}", sprout.shortName(), t);
+        } finally {
+            branch.thread = null;
+            // do not leave an interrupt meant for the branch on a shared thread
+            Thread.interrupted();
+        }
+        final List<IBaseDataObject> done;
+        synchronized (branch.payloadList) {
+            done = new ArrayList<>(branch.payloadList);
+        }
+        branch.clear();
+        return done;
+    }
+
+    /**
+     * Create the agent used to process a branch of this agent's family
+     */
+    protected HDMobileAgent newFamilyBranch() {
+        return new FamilyBranch(this);
+    }
+
+    /**
+     * Wait for the branches to finish and bring their payloads back into the family
+     *
+     * @param branches the running branches, cleared on return
+     * @param index the family index to add the payloads to
+     */
+    protected void joinFamilyBranches(final List<ForkJoinTask<List<IBaseDataObject>>> branches, final PayloadFormIndex index) {
+        logger.debug("Joining {} family branches", branches.size());
+        for (final ForkJoinTask<List<IBaseDataObject>> branch : branches) {
+            final List<IBaseDataObject> done = branch.join();
+            addPayload(done);
+            index.addAll(done);
+        }
+        branches.clear();
+    }
+
+    /**
+     * Set the pool used to route sprouted children concurrently
+     *
+     * @param pool the shared pool or null to process families serially
+     */
+    public void setFamilyPool(@Nullable final ForkJoinPool pool) {
+        this.familyPool = pool;
+    }
+
+    /**
+     * Report whether sprouted children are routed concurrently
+     */
+    public boolean isFamilyParallel() {
+        return this.familyPool != null;
     }
 
     /**
@@ -414,7 +567,9 @@ public class HDMobileAgent extends MobileAgent {
                 addMoveErrorCount(payloadListArg);
             }
 
+            final long placeStart = traceStart();
             ret = place.agentProcessHeavyDuty(payloadListArg);
+            traceEnd(RoutingTrace.Phase.PLACE, lastPlaceProcessed, placeStart);
 
             for (Iterator<IBaseDataObject> it = ret.iterator(); it.hasNext();) {
                 final IBaseDataObject ibdo = it.next();
@@ -534,7 +689,7 @@ public class HDMobileAgent extends MobileAgent {
         // We need to do this because this data object may have
         // been processed through some of them as a slug and it
         // will not have filled in the visitedPlace properly.
-        final List<String> history = d.transformHistory();
+        final List<String> history = d.transformHistoryView();
         int lastParallelType = -1;
         for (int i = history.size() - 1; i >= 0; i--) {
             final String key = history.get(i);
@@ -590,7 +745,10 @@ public class HDMobileAgent extends MobileAgent {
      */
     @Override
     public void interrupt() {
-        this.thread.interrupt();
+        final Thread t = this.thread;
+        if (t != null) {
+            t.interrupt();
+        }
     }
 
     /**
@@ -601,4 +759,29 @@ public class HDMobileAgent extends MobileAgent {
         return this.timeToQuit;
     }
 
+    /**
+     * Agent for one branch of a family, runs on the caller's thread and hands its payloads back instead of dropping them
+     * off. The branch is bound to the worker thread while it runs, so place time outs interrupt it as they would the
+     * family.
+     */
+    protected static class FamilyBranch extends HDMobileAgent {
+
+        static final long serialVersionUID = -5183457207749318742L;
+
+        protected FamilyBranch(final HDMobileAgent family) {
+            // Branches live for one sprout, keep them off the MBean server
+            super(null, family.getName() + "-branch", false, false);
+            this.familyBranch = true;
+            this.familyPool = family.familyPool;
+            this.MAX_MOVE_ERRORS = family.MAX_MOVE_ERRORS;
+            this.MAX_ITINERARY_STEPS = family.MAX_ITINERARY_STEPS;
+        }
+
+        /**
+         * The family agent logs completion for everything once the branch has rejoined
+         */
+        @Override
+        protected void logAgentCompletion() {}
+    }
+
 }
@@ -6,6 +6,7 @@ import emissary.directory.DirectoryEntry;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -717,6 +718,26 @@ public interface IBaseDataObject {
      */
     List<String> transformHistory(boolean includeCoordinated);
 
+    /**
+     * Number of places the data object was carried to, not counting coordinated places. Same as the size of
+     * {@link #transformHistory()} without building the list.
+     *
+     * @return number of places visited
+     */
+    default int transformHistorySize() {
+        return transformHistory().size();
+    }
+
+    /**
+     * Read only list of places the data object was carried to, not counting coordinated places. Implementations may back it
+     * by the history itself instead of copying, so it is only good until the history next changes.
+     *
+     * @return List of strings making up the history
+     */
+    default List<String> transformHistoryView() {
+        return Collections.unmodifiableList(transformHistory());
+    }
+
     /**
      * Clear the transformation history
      */
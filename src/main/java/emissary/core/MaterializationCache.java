@@ -0,0 +1,311 @@
+package emissary.core;
+
+import emissary.config.ConfigUtil;
+import emissary.config.Configurator;
+import emissary.directory.KeyManipulator;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the bytes read out of a channel backed {@link BaseDataObject} so repeated calls to
+ * {@link BaseDataObject#data()} share one array instead of reading the channel every time. Each payload holds its own
+ * array by a soft reference until its data or channel factory is replaced. The bytes held across all payloads are
+ * limited to a process wide budget. Arrays that would go over the budget are handed out without being kept. Arrays the
+ * collector clears, and arrays of payloads that are collected without giving theirs back, are given back to the budget.
+ *
+ * <p>
+ * Hits, misses and bytes read are counted overall and, when a MetricsManager is running, per place as
+ * bdo.materialize.hits.&lt;place&gt;, bdo.materialize.misses.&lt;place&gt; and bdo.materialize.bytes.&lt;place&gt;. The
+ * bytes held are the gauge bdo.materialize.held.
+ *
+ * <p>
+ * Configured from MaterializationCache.cfg when there is one
+ * <ul>
+ * <li>CACHE_ENABLED: keep materialized data at all, default true</li>
+ * <li>BUDGET_BYTES: most bytes held across all payloads, default an eighth of the max heap up to 256MB</li>
+ * </ul>
+ */
+public final class MaterializationCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(MaterializationCache.class);
+
+    public static final String HITS_METRIC = "bdo.materialize.hits";
+    public static final String MISSES_METRIC = "bdo.materialize.misses";
+    public static final String BYTES_METRIC = "bdo.materialize.bytes";
+    public static final String HELD_METRIC = "bdo.materialize.held";
+
+    // Place name used before a payload has visited anywhere
+    static final String NO_PLACE = "none";
+
+    @Nullable
+    private static volatile MaterializationCache instance = null;
+
+    private final long budget;
+    private final AtomicLong held = new AtomicLong();
+    private final ReferenceQueue<byte[]> cleared = new ReferenceQueue<>();
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+    // Holds the owner of every live entry so both get queued when the collector is done with them
+    private final Set<Owner> owners = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesMaterialized = new LongAdder();
+    private final LongAdder overBudget = new LongAdder();
+
+    @Nullable
+    private volatile MetricRegistry registry;
+
+    // When to next look for a MetricsManager, the namespace is not cheap to search on every call
+    private volatile long nextRegistryLookup = 0L;
+
+    /**
+     * Create a cache
+     *
+     * @param budget most bytes to hold across all payloads, 0 or less to hold nothing
+     * @param registry where to publish the per place metrics, null to use the MetricsManager once there is one
+     */
+    public MaterializationCache(final long budget, @Nullable final MetricRegistry registry) {
+        this.budget = Math.max(budget, 0L);
+        this.registry = registry;
+        if (registry != null) {
+            registerGauge(registry);
+        }
+    }
+
+    /**
+     * Get the process wide cache, configured on first use
+     */
+    public static MaterializationCache getInstance() {
+        MaterializationCache c = instance;
+        if (c == null) {
+            synchronized (MaterializationCache.class) {
+                c = instance;
+                if (c == null) {
+                    c = configure();
+                    instance = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Replace the process wide cache
+     *
+     * @param cache the new cache or null to configure a fresh one on next use
+     */
+    public static synchronized void setInstance(@Nullable final MaterializationCache cache) {
+        instance = cache;
+    }
+
+    private static MaterializationCache configure() {
+        boolean enabled = true;
+        long budget = Math.min(Runtime.getRuntime().maxMemory() / 8, 256L * 1024 * 1024);
+        try {
+            final Configurator conf = ConfigUtil.getConfigInfo(MaterializationCache.class);
+            enabled = conf.findBooleanEntry("CACHE_ENABLED", enabled);
+            budget = conf.findSizeEntry("BUDGET_BYTES", budget);
+        } catch (IOException e) {
+            logger.debug("Cannot read MaterializationCache.cfg, taking default values");
+        }
+        return new MaterializationCache(enabled ? budget : 0L, null);
+    }
+
+    /**
+     * Keep the bytes just read for a payload if the budget allows
+     *
+     * @param data the bytes read out of the channel
+     * @param owner the payload holding the bytes, when it is collected the bytes are given back to the budget
+     * @return the reference to hold the bytes by, or null if they cannot be kept
+     */
+    @Nullable
+    Entry retain(final byte[] data, final Object owner) {
+        drainCleared();
+        final long size = data.length;
+        long current;
+        do {
+            current = this.held.get();
+            if (current + size > this.budget) {
+                this.overBudget.increment();
+                return null;
+            }
+        } while (!this.held.compareAndSet(current, current + size));
+        final Entry entry = new Entry(data, this.cleared);
+        entry.owner = new Owner(owner, entry, this.collected);
+        this.owners.add(entry.owner);
+        return entry;
+    }
+
+    /**
+     * Give the bytes held by an entry back to the budget. Safe to call more than once.
+     */
+    void release(@Nullable final Entry entry) {
+        if (entry != null && entry.released.compareAndSet(false, true)) {
+            this.held.addAndGet(-entry.size);
+            entry.clear();
+            final Owner owner = entry.owner;
+            if (owner != null) {
+                this.owners.remove(owner);
+                owner.clear();
+            }
+        }
+    }
+
+    private void drainCleared() {
+        Reference<?> ref;
+        while ((ref = this.cleared.poll()) != null) {
+            release((Entry) ref);
+        }
+        while ((ref = this.collected.poll()) != null) {
+            release(((Owner) ref).entry);
+        }
+    }
+
+    /**
+     * Count a call for data answered from the held bytes
+     *
+     * @param placeKey the last place the payload visited, possibly null
+     */
+    void hit(@Nullable final String placeKey) {
+        this.hits.increment();
+        final MetricRegistry r = registry();
+        if (r != null) {
+            r.counter(metricName(HITS_METRIC, placeKey)).inc();
+        }
+    }
+
+    /**
+     * Count a call for data that had to read the channel
+     *
+     * @param placeKey the last place the payload visited, possibly null
+     * @param bytes how many bytes were read
+     */
+    void miss(@Nullable final String placeKey, final long bytes) {
+        this.misses.increment();
+        this.bytesMaterialized.add(bytes);
+        final MetricRegistry r = registry();
+        if (r != null) {
+            r.counter(metricName(MISSES_METRIC, placeKey)).inc();
+            r.counter(metricName(BYTES_METRIC, placeKey)).inc(bytes);
+        }
+    }
+
+    private static String metricName(final String base, @Nullable final String placeKey) {
+        return base + '.' + (placeKey == null ? NO_PLACE : KeyManipulator.getServiceName(placeKey));
+    }
+
+    @Nullable
+    private MetricRegistry registry() {
+        MetricRegistry r = this.registry;
+        if (r == null && System.currentTimeMillis() >= this.nextRegistryLookup) {
+            this.nextRegistryLookup = System.currentTimeMillis() + 1000L;
+            synchronized (this) {
+                r = this.registry;
+                if (r == null) {
+                    try {
+                        if (Namespace.exists(MetricsManager.DEFAULT_NAMESPACE_NAME)) {
+                            r = MetricsManager.lookup().getMetricRegistry();
+                            registerGauge(r);
+                            this.registry = r;
+                        }
+                    } catch (NamespaceException e) {
+                        logger.debug("No MetricsManager available, materialization metrics will not be published");
+                    }
+                }
+            }
+        }
+        return r;
+    }
+
+    private void registerGauge(final MetricRegistry r) {
+        try {
+            r.gauge(HELD_METRIC, () -> (Gauge<Long>) this.held::get);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Metric {} is already registered as something other than a gauge", HELD_METRIC);
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.budget > 0;
+    }
+
+    public long getBudget() {
+        return this.budget;
+    }
+
+    /**
+     * Bytes held across all payloads, including arrays cleared by the collector but not yet given back
+     */
+    public long getHeldBytes() {
+        drainCleared();
+        return this.held.get();
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    public long getBytesMaterialized() {
+        return this.bytesMaterialized.sum();
+    }
+
+    /**
+     * Number of times bytes were read but not kept because the budget was used up
+     */
+    public long getOverBudgetCount() {
+        return this.overBudget.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "MaterializationCache[held=" + this.held.get() + "/" + this.budget + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + "]";
+    }
+
+    /**
+     * Bytes held for one payload
+     */
+    static final class Entry extends SoftReference<byte[]> {
+        final long size;
+        final AtomicBoolean released = new AtomicBoolean();
+        @Nullable
+        volatile Owner owner;
+
+        Entry(final byte[] data, final ReferenceQueue<byte[]> queue) {
+            super(data, queue);
+            this.size = data.length;
+        }
+    }
+
+    /**
+     * Weak reference to the payload holding an entry, queued when the payload is collected
+     */
+    static final class Owner extends WeakReference<Object> {
+        final Entry entry;
+
+        Owner(final Object payload, final Entry entry, final ReferenceQueue<Object> queue) {
+            super(payload, queue);
+            this.entry = entry;
+        }
+    }
+}
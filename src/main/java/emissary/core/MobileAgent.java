@@ -37,7 +37,10 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
     protected static final Logger probeLogger = LoggerFactory.getLogger(MobileAgent.class.getPackage().toString() + ".PROBE");
 
     // The thread we plan to run on (we are autonomous, in a limited sense)
-    protected transient Thread thread = null;
+    protected transient volatile Thread thread = null;
+
+    // Name of this agent, also the name of the dedicated thread if there is one
+    private final String agentName;
 
     // Name for our threads
     public static final String AGENT_THREAD = "MobileAgent-".intern();
@@ -79,6 +82,10 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
     // Track moveErrors on all parts of a given payload
     protected int moveErrorsOccurred = 0;
 
+    // Hop by hop record of this run when it is sampled, see RoutingTrace
+    @Nullable
+    protected transient RoutingTrace.Itinerary itinerary = null;
+
     /**
      * Still have an uncaught exception handler but not really in a true ThreadGroup with other agents
      */
@@ -93,13 +100,44 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
      * @param threadName symbolic name for this agent thread
      */
     public MobileAgent(final ThreadGroup threadGroup, final String threadName) {
+        this(threadGroup, threadName, true);
+    }
+
+    /**
+     * Create a new reusable Agent, optionally without a thread of its own
+     *
+     * @param threadGroup group we operate it
+     * @param threadName symbolic name for this agent thread
+     * @param dedicatedThread true to start a thread running {@link #run()} for the life of the agent, false if the subclass
+     *        arranges for {@link #dispatch()} to run the agent some other way
+     */
+    protected MobileAgent(@Nullable final ThreadGroup threadGroup, final String threadName, final boolean dedicatedThread) {
+        this(threadGroup, threadName, dedicatedThread, true);
+    }
+
+    /**
+     * Create a new Agent, optionally without a thread of its own or an MBean
+     *
+     * @param threadGroup group we operate it
+     * @param threadName symbolic name for this agent thread
+     * @param dedicatedThread true to start a thread running {@link #run()} for the life of the agent, false if the subclass
+     *        arranges for {@link #dispatch()} to run the agent some other way
+     * @param registerMBean true to register the agent with JMX, false for short lived agents that should not be
+     */
+    protected MobileAgent(@Nullable final ThreadGroup threadGroup, final String threadName, final boolean dedicatedThread,
+            final boolean registerMBean) {
         logger.debug("Constructing agent {}", threadName);
-        this.thread = new Thread(threadGroup, this, threadName);
-        this.thread.setPriority(Thread.NORM_PRIORITY);
-        this.thread.setDaemon(true);
-        this.thread.start();
+        this.agentName = threadName;
+        if (dedicatedThread) {
+            this.thread = new Thread(threadGroup, this, threadName);
+            this.thread.setPriority(Thread.NORM_PRIORITY);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
 
-        JMXUtil.registerMBean(this);
+        if (registerMBean) {
+            JMXUtil.registerMBean(this);
+        }
     }
 
     /**
@@ -107,7 +145,7 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
      */
     @Override
     public String getName() {
-        return this.thread.getName();
+        return this.agentName;
     }
 
     /**
@@ -174,8 +212,11 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
         logger.debug("killAgentAsync called on {}", getName());
         this.timeToQuit = true;
         try {
-            this.thread.setPriority(Thread.MIN_PRIORITY);
-            this.thread.interrupt();
+            final Thread t = this.thread;
+            if (t != null) {
+                t.setPriority(Thread.MIN_PRIORITY);
+                t.interrupt();
+            }
         } catch (Exception ignored) {
             // empty catch block
         }
@@ -256,6 +297,7 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
         final IBaseDataObject mypayload = getPayload();
         int loopCount = 0;
         boolean controlError = false;
+        traceItinerary(mypayload);
 
         while (currentPlace != null && newEntry != null && mypayload != null && !this.timeToQuit) {
             // One based counter
@@ -271,7 +313,9 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
 
             // Choose next place
             controlError = false;
+            final long routeStart = traceStart();
             newEntry = getNextKey(currentPlace, mypayload);
+            traceEnd(RoutingTrace.Phase.ROUTE, newEntry == null ? null : newEntry.getKey(), routeStart);
 
             // Nothing to do, bail out,
             // normal processing termination
@@ -296,7 +340,7 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
             }
 
             controlError = true;
-            if (++this.moveErrorsOccurred > this.MAX_MOVE_ERRORS || this.payload.transformHistory().size() > this.MAX_ITINERARY_STEPS) {
+            if (++this.moveErrorsOccurred > this.MAX_MOVE_ERRORS || this.payload.transformHistorySize() > this.MAX_ITINERARY_STEPS) {
                 logger.error("Too many move errors, giving up");
                 newEntry = null;
                 break;
@@ -326,6 +370,52 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
         if (newEntry == null) {
             logAgentCompletion(mypayload);
         }
+        finishItinerary();
+    }
+
+    /**
+     * Start keeping the itinerary of this run if the trace samples it
+     *
+     * @param payloadArg the payload being carried, may be null
+     */
+    protected void traceItinerary(@Nullable final IBaseDataObject payloadArg) {
+        this.itinerary = payloadArg == null ? null : RoutingTrace.getInstance().startItinerary(payloadArg.shortName());
+    }
+
+    /**
+     * Hand the itinerary of this run, if any, over to the trace
+     */
+    protected void finishItinerary() {
+        if (this.itinerary != null) {
+            RoutingTrace.getInstance().finish(this.itinerary);
+            this.itinerary = null;
+        }
+    }
+
+    /**
+     * Start timing a phase
+     *
+     * @return the start time to pass to {@link #traceEnd(RoutingTrace.Phase, String, long)}, or 0 when not tracing
+     */
+    protected static long traceStart() {
+        return RoutingTrace.getInstance().isEnabled() ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Record the time spent on a phase of this hop
+     *
+     * @param phase what the time was spent doing
+     * @param where the place or form involved, possibly null
+     * @param start the value returned by {@link #traceStart()}
+     */
+    protected void traceEnd(final RoutingTrace.Phase phase, @Nullable final String where, final long start) {
+        if (start != 0L) {
+            final long elapsed = System.nanoTime() - start;
+            RoutingTrace.getInstance().record(phase, elapsed);
+            if (this.itinerary != null) {
+                this.itinerary.add(phase, where, elapsed);
+            }
+        }
     }
 
     /**
@@ -343,7 +433,9 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
                 payloadArg.setParameter("AGENT_MOVE_ERRORS", Integer.toString(this.moveErrorsOccurred));
             }
 
+            final long placeStart = traceStart();
             place.agentProcessCall(payloadArg);
+            traceEnd(RoutingTrace.Phase.PLACE, this.lastPlaceProcessed, placeStart);
 
             if (this.moveErrorsOccurred > 0) {
                 payloadArg.deleteParameter("AGENT_MOVE_ERRORS");
@@ -424,7 +516,7 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
         }
 
         // Stop looping from occurring
-        if (payloadArg.transformHistory().size() > this.MAX_ITINERARY_STEPS &&
+        if (payloadArg.transformHistorySize() > this.MAX_ITINERARY_STEPS &&
                 !ERROR_FORM.equals(payloadArg.currentForm())) {
             payloadArg.replaceCurrentForm(ERROR_FORM);
             payloadArg.addProcessingError("Agent stopped due to larger than max transform history size (looping?)");
@@ -595,7 +687,9 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
             logger.debug("Trying nextKey for {} with last={}, atPlace={}", dataID, lastEntry, place);
 
             // Query the directory
+            final long directoryStart = traceStart();
             final List<DirectoryEntry> entries = place.nextKeys(dataID, payloadArg, lastEntry);
+            traceEnd(RoutingTrace.Phase.DIRECTORY, dataID, directoryStart);
 
             // Add the entries returned to the queue
             if ((entries != null) && !entries.isEmpty()) {
@@ -724,6 +818,14 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
 
         // the run() loop now takes over on the agent's thread and we return
         // control of the currentThread to the caller of this method
+        dispatch();
+    }
+
+    /**
+     * Hand the agent, now that it has a payload and a place, over to whatever is going to run it. The default wakes up the
+     * agent's own thread waiting in {@link #run()}. Called while holding the lock on this agent.
+     */
+    protected void dispatch() {
         notifyAll();
     }
 
@@ -782,6 +884,7 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
      */
     protected void recordHistory(final DirectoryEntry placeEntry, final IBaseDataObject payloadArg) {
 
+        final long historyStart = traceStart();
         String placeKey = null;
         final String cf = payloadArg.currentForm();
         final DirectoryEntry dnew = new DirectoryEntry(placeEntry);
@@ -818,8 +921,9 @@ public abstract class MobileAgent implements IMobileAgent, MobileAgentMBean {
         }
 
         payloadArg.appendTransformHistory(placeKey);
+        traceEnd(RoutingTrace.Phase.HISTORY, placeKey, historyStart);
 
-        logger.debug("Appended {} to history which now has size {}", placeKey, payloadArg.transformHistory().size());
+        logger.debug("Appended {} to history which now has size {}", placeKey, payloadArg.transformHistorySize());
     }
 
     /**
@@ -15,6 +15,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
 
 /**
  * This class is used by Emissary core to manage named classes. Each registered place gets a name which includes the
@@ -41,6 +42,22 @@ public class Namespace {
      * @param arg the name of the registered item
      */
     public static Object lookup(final String arg) throws NamespaceException {
+        final Object obj = find(arg);
+        if (obj == null) {
+            throw new NamespaceException("Not found: " + arg);
+        }
+        return obj;
+    }
+
+    /**
+     * Find a registered classname without throwing when it is not there, for callers that look often and expect it to be
+     * missing some of the time
+     * 
+     * @param arg the name of the registered item
+     * @return the item or null if nothing is registered under the name
+     */
+    @Nullable
+    public static Object find(final String arg) {
 
         Object obj = map.get(arg);
         logger.trace("Namespace.lookup({}) returning: {}", arg, obj);
@@ -49,17 +66,13 @@ public class Namespace {
             return obj;
         }
 
+        final String suffix = "/" + arg;
         for (final Map.Entry<String, Object> entry : map.entrySet()) {
-            if (entry.getKey().endsWith("/" + arg)) {
-                obj = entry.getValue();
-                break;
+            if (entry.getKey().endsWith(suffix)) {
+                return entry.getValue();
             }
         }
-
-        if (obj == null) {
-            throw new NamespaceException("Not found: " + arg);
-        }
-        return obj;
+        return null;
     }
 
     /**
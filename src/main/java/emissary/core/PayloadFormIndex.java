@@ -0,0 +1,153 @@
+package emissary.core;
+
+import emissary.directory.DirectoryEntry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Index of the payloads carried by an {@link HDMobileAgent} by current form and key of the last place visited. The
+ * agent uses it to find the payloads that can ride along with the primary payload to a place without scanning the whole
+ * family every time around the control loop.
+ *
+ * <p>
+ * The index does not notice changes to the payloads by itself. Anything that may change the current forms or the
+ * transform history of a payload must be followed by {@link #update(IBaseDataObject)}. Payloads are handed back in
+ * family order, which is the order they were added in adjusted by {@link #swap(IBaseDataObject, IBaseDataObject)}. Not
+ * thread safe.
+ */
+class PayloadFormIndex {
+
+    // Payloads by form and last place key
+    private final Map<String, Set<IBaseDataObject>> byKey = new HashMap<>();
+
+    // Keys each payload is currently indexed under
+    private final Map<IBaseDataObject, List<String>> keysOf = new IdentityHashMap<>();
+
+    // Position of each payload in the family
+    private final Map<IBaseDataObject, Long> order = new IdentityHashMap<>();
+
+    private long nextOrder = 0;
+
+    /**
+     * Create an empty index
+     */
+    PayloadFormIndex() {}
+
+    /**
+     * Create an index of the payloads in family order
+     *
+     * @param payloads the family
+     */
+    PayloadFormIndex(final Collection<IBaseDataObject> payloads) {
+        addAll(payloads);
+    }
+
+    /**
+     * Add a payload to the end of the family, or reindex it if it is already here
+     */
+    void add(final IBaseDataObject d) {
+        if (!this.order.containsKey(d)) {
+            this.order.put(d, this.nextOrder++);
+        }
+        update(d);
+    }
+
+    void addAll(final Collection<IBaseDataObject> payloads) {
+        for (final IBaseDataObject d : payloads) {
+            add(d);
+        }
+    }
+
+    /**
+     * Reindex a payload after its forms or history may have changed
+     */
+    void update(final IBaseDataObject d) {
+        if (!this.order.containsKey(d)) {
+            return;
+        }
+        final List<String> old = this.keysOf.remove(d);
+        if (old != null) {
+            for (final String key : old) {
+                final Set<IBaseDataObject> bucket = this.byKey.get(key);
+                if (bucket != null) {
+                    bucket.remove(d);
+                    if (bucket.isEmpty()) {
+                        this.byKey.remove(key);
+                    }
+                }
+            }
+        }
+
+        final String lastKey = lastKey(d.getLastPlaceVisited());
+        final List<String> keys = new ArrayList<>();
+        for (final String form : new LinkedHashSet<>(d.getAllCurrentForms())) {
+            final String key = key(form, lastKey);
+            keys.add(key);
+            this.byKey.computeIfAbsent(key, k -> Collections.newSetFromMap(new IdentityHashMap<>())).add(d);
+        }
+        this.keysOf.put(d, keys);
+    }
+
+    void updateAll(final Collection<IBaseDataObject> payloads) {
+        for (final IBaseDataObject d : payloads) {
+            update(d);
+        }
+    }
+
+    /**
+     * Exchange the family positions of two payloads
+     */
+    void swap(final IBaseDataObject a, final IBaseDataObject b) {
+        final Long oa = this.order.get(a);
+        final Long ob = this.order.get(b);
+        if (oa != null && ob != null) {
+            this.order.put(a, ob);
+            this.order.put(b, oa);
+        }
+    }
+
+    /**
+     * Find the payloads that have the form somewhere on their current form stack and the same last place visited
+     *
+     * @param form the current form of the primary payload
+     * @param lastPlace the last place visited by the primary payload, possibly null
+     * @param exclude the primary payload, which is never returned
+     * @return the matching payloads in family order
+     */
+    List<IBaseDataObject> matching(final String form, @Nullable final DirectoryEntry lastPlace, final IBaseDataObject exclude) {
+        final Set<IBaseDataObject> bucket = this.byKey.get(key(form, lastKey(lastPlace)));
+        if (bucket == null || bucket.isEmpty() || (bucket.size() == 1 && bucket.contains(exclude))) {
+            return Collections.emptyList();
+        }
+        final List<IBaseDataObject> found = new ArrayList<>(bucket.size());
+        for (final IBaseDataObject d : bucket) {
+            if (d != exclude) {
+                found.add(d);
+            }
+        }
+        found.sort((a, b) -> Long.compare(this.order.get(a), this.order.get(b)));
+        return found;
+    }
+
+    int size() {
+        return this.order.size();
+    }
+
+    @Nullable
+    private static String lastKey(@Nullable final DirectoryEntry entry) {
+        return entry == null ? null : entry.getKey();
+    }
+
+    private static String key(final String form, @Nullable final String lastKey) {
+        return form + '\u0000' + (lastKey == null ? "" : lastKey);
+    }
+}
@@ -2,6 +2,7 @@ package emissary.core;
 
 import emissary.place.IServiceProviderPlace;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.ExponentiallyDecayingReservoir;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
@@ -10,22 +11,35 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Field;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Queue;
 import java.util.SortedMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
 
 /**
  * Track mobile agents and make them obey resource limitations
+ * <p>
+ * Each place visit takes a pooled {@link TimedResource} and, when the place has a time limit, schedules it on a
+ * {@link TimerWheel}. The monitor thread only looks at the resources that are due on each tick and interrupts their
+ * agents until they leave the place. The timer and timeout counter of a place are looked up once and kept with the
+ * place.
  */
 public class ResourceWatcher implements Runnable {
     protected static final Logger LOG = LoggerFactory.getLogger(ResourceWatcher.class);
 
     public static final String DEFAULT_NAMESPACE_NAME = "ResourceWatcher";
 
+    /** Suffix of the per place counter of agents interrupted for running over the time limit */
+    public static final String TIMEOUTS_SUFFIX = ".timeouts";
+
+    // Resolution of the timeout checks
+    protected static final long TICK_MILLIS = 100;
+
+    // Most idle TimedResource instances kept for reuse
+    static final int MAX_POOLED = 1024;
+
     // This is a default that can be modified for every place
     protected long timeLimitMillis = TimeUnit.SECONDS.toMillis(30);
 
@@ -39,15 +53,28 @@ public class ResourceWatcher implements Runnable {
     protected transient Thread monitor = null;
 
     // Loop control
-    protected boolean timeToQuit = false;
+    protected volatile boolean timeToQuit = false;
 
     protected MetricRegistry metrics;
 
     protected MetricsFormatter metricsFormatter = MetricsFormatter.builder().withDurationUnit(TimeUnit.MILLISECONDS).withRateUnit(TimeUnit.SECONDS)
             .build();
 
-    // Things we are tracking
-    protected Queue<TimedResource> tracking = new LinkedBlockingQueue<>();
+    // Timer and limits resolved once for each place
+    protected Map<IServiceProviderPlace, PlaceHandle> placeHandles = new ConcurrentHashMap<>();
+
+    // Guards the wheel, the pool and the tracking count
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Things we are tracking that have a time limit
+    private final TimerWheel wheel = new TimerWheel(TICK_MILLIS, nowMillis());
+
+    private final TimerWheel.Expiry expiry = this::expired;
+
+    @Nullable
+    private TimedResource pool = null;
+    private int pooled = 0;
+    private int tracking = 0;
 
     public ResourceWatcher() {
         this(new MetricsManager());
@@ -86,11 +113,90 @@ public class ResourceWatcher implements Runnable {
      * @return TimedResource for the place and agent
      */
     public TimedResource starting(final IMobileAgent agent, final IServiceProviderPlace place) {
-        TimedResource tr = new TimedResource(agent, place, getPlaceDuration(place), metrics.timer(place.getPlaceName()));
-        tracking.offer(tr);
+        PlaceHandle handle = placeHandles.get(place);
+        if (handle == null) {
+            handle = placeHandles.computeIfAbsent(place, this::resolve);
+        }
+        final int payloadCount = agent.payloadCount();
+        TimedResource tr;
+        lock.lock();
+        try {
+            tr = pool;
+            if (tr == null) {
+                tr = new TimedResource(this);
+            } else {
+                pool = tr.poolNext;
+                tr.poolNext = null;
+                pooled--;
+            }
+            tr.handle = handle;
+            tr.reset(agent, payloadCount, handle.placeName, handle.allowedDuration, handle.timer);
+            if (tr.hasTimeLimit()) {
+                wheel.add(tr, TimeUnit.NANOSECONDS.toMillis(tr.getStartedNanos()) + tr.getTimeLimitMillis());
+            }
+            tracking++;
+        } finally {
+            lock.unlock();
+        }
         return tr;
     }
 
+    /**
+     * Stop tracking a closed resource and keep it for reuse
+     *
+     * @param tr the resource that was closed
+     */
+    void finished(final TimedResource tr) {
+        lock.lock();
+        try {
+            wheel.remove(tr);
+            tracking--;
+            tr.release();
+            if (pooled < MAX_POOLED) {
+                tr.poolNext = pool;
+                pool = tr;
+                pooled++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private PlaceHandle resolve(final IServiceProviderPlace place) {
+        final String placeName = place.getPlaceName();
+        return new PlaceHandle(placeName, getPlaceDuration(place), metrics.timer(placeName), metrics.counter(placeName + TIMEOUTS_SUFFIX));
+    }
+
+    /**
+     * Interrupt an agent that ran over, and keep interrupting it every tick until it leaves the place. Called with the lock
+     * held so the resource cannot be closed and reused underneath us.
+     */
+    private void expired(final TimedResource tr, final long now) {
+        if (tr.isClosed()) {
+            return;
+        }
+        if (!tr.timedOut) {
+            tr.timedOut = true;
+            tr.handle.timeouts.inc();
+        }
+        tr.interruptAgent();
+        wheel.add(tr, now + TICK_MILLIS);
+    }
+
+    /**
+     * Get the number of agents interrupted for running over the time limit in a place
+     *
+     * @param placeName the name of the place
+     * @return count of timeouts
+     */
+    public long getTimeoutCount(final String placeName) {
+        return this.metrics.counter(placeName + TIMEOUTS_SUFFIX).getCount();
+    }
+
+    private static long nowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
     /**
      * Lookup the default ResourceWatcher in the Namespace
      * 
@@ -135,17 +241,15 @@ public class ResourceWatcher implements Runnable {
         while (!this.timeToQuit) {
             // Delay this loop
             try {
-                Thread.sleep(100);
+                Thread.sleep(TICK_MILLIS);
             } catch (InterruptedException ignore) {
                 // Ignore.
             }
-            Iterator<TimedResource> it = tracking.iterator();
-            while (it.hasNext()) {
-                final long now = System.currentTimeMillis();
-                final TimedResource val = it.next();
-                if (val.checkState(now)) {
-                    it.remove();
-                }
+            lock.lock();
+            try {
+                wheel.advance(nowMillis(), expiry);
+            } finally {
+                lock.unlock();
             }
         }
     }
@@ -180,8 +284,25 @@ public class ResourceWatcher implements Runnable {
         return this.metrics.timer(statKey);
     }
 
+    /**
+     * Handles for one place that are resolved once instead of on every visit
+     */
+    static final class PlaceHandle {
+        final String placeName;
+        final long allowedDuration;
+        final Timer timer;
+        final Counter timeouts;
+
+        PlaceHandle(final String placeName, final long allowedDuration, final Timer timer, final Counter timeouts) {
+            this.placeName = placeName;
+            this.allowedDuration = allowedDuration;
+            this.timer = timer;
+            this.timeouts = timeouts;
+        }
+    }
+
     @Override
     public String toString() {
-        return "Watching " + this.tracking.size() + " agents with default time limit " + this.timeLimitMillis + "ms";
+        return "Watching " + this.tracking + " agents with default time limit " + this.timeLimitMillis + "ms";
     }
 }
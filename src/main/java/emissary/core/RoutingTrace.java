@@ -0,0 +1,300 @@
+package emissary.core;
+
+import emissary.config.ConfigUtil;
+import emissary.config.Configurator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * Where agents spend their time between places. The agents time each phase of every hop, routing, directory queries,
+ * place execution, transform history updates and waiting on the MoveSpool, and add the time to a per phase total here.
+ * Every so often an agent also keeps the hop by hop itinerary of the payload it is carrying so the most recent ones can
+ * be looked at in detail. Both are served at /api/routing.
+ *
+ * <p>
+ * Configured from RoutingTrace.cfg when there is one
+ * <ul>
+ * <li>TRACE_ENABLED: time the phases at all, default true</li>
+ * <li>ITINERARY_SAMPLE_EVERY: keep the itinerary of one in this many agent runs, 0 for none, default 100</li>
+ * <li>ITINERARY_HISTORY: how many of the most recent itineraries to keep, default 50</li>
+ * </ul>
+ */
+public final class RoutingTrace {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoutingTrace.class);
+
+    /**
+     * The phases of a hop
+     */
+    public enum Phase {
+        /** Choosing the next place, includes DIRECTORY */
+        ROUTE,
+        /** Asking the directory for the places that handle a form */
+        DIRECTORY,
+        /** Running the place */
+        PLACE,
+        /** Recording the place in the transform history */
+        HISTORY,
+        /** Waiting on the MoveSpool for an agent */
+        QUEUE
+    }
+
+    // Most hops kept for one itinerary, protects against runaway loops
+    static final int MAX_HOPS = 1000;
+
+    @Nullable
+    private static volatile RoutingTrace instance = null;
+
+    private final boolean enabled;
+    private final int sampleEvery;
+    private final int history;
+
+    private final Map<Phase, LongAdder> counts = new EnumMap<>(Phase.class);
+    private final Map<Phase, LongAdder> nanos = new EnumMap<>(Phase.class);
+    private final Map<Phase, LongAccumulator> maxNanos = new EnumMap<>(Phase.class);
+    private final AtomicLong runs = new AtomicLong();
+    private final Deque<Itinerary> recent = new ArrayDeque<>();
+
+    /**
+     * Create a trace
+     *
+     * @param enabled true to time the phases
+     * @param sampleEvery keep the itinerary of one in this many runs, 0 or less for none
+     * @param history how many itineraries to keep
+     */
+    public RoutingTrace(final boolean enabled, final int sampleEvery, final int history) {
+        this.enabled = enabled;
+        this.sampleEvery = enabled ? Math.max(sampleEvery, 0) : 0;
+        this.history = Math.max(history, 0);
+        for (final Phase p : Phase.values()) {
+            this.counts.put(p, new LongAdder());
+            this.nanos.put(p, new LongAdder());
+            this.maxNanos.put(p, new LongAccumulator(Math::max, 0L));
+        }
+    }
+
+    /**
+     * Get the process wide trace, configured on first use
+     */
+    public static RoutingTrace getInstance() {
+        RoutingTrace t = instance;
+        if (t == null) {
+            synchronized (RoutingTrace.class) {
+                t = instance;
+                if (t == null) {
+                    t = configure();
+                    instance = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Replace the process wide trace
+     *
+     * @param trace the new trace or null to configure a fresh one on next use
+     */
+    public static synchronized void setInstance(@Nullable final RoutingTrace trace) {
+        instance = trace;
+    }
+
+    private static RoutingTrace configure() {
+        boolean enabled = true;
+        int sampleEvery = 100;
+        int history = 50;
+        try {
+            final Configurator conf = ConfigUtil.getConfigInfo(RoutingTrace.class);
+            enabled = conf.findBooleanEntry("TRACE_ENABLED", enabled);
+            sampleEvery = conf.findIntEntry("ITINERARY_SAMPLE_EVERY", sampleEvery);
+            history = conf.findIntEntry("ITINERARY_HISTORY", history);
+        } catch (IOException e) {
+            logger.debug("Cannot read RoutingTrace.cfg, taking default values");
+        }
+        return new RoutingTrace(enabled, sampleEvery, history);
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Add the time for one phase
+     *
+     * @param phase what the time was spent doing
+     * @param elapsed nanoseconds spent
+     */
+    public void record(final Phase phase, final long elapsed) {
+        if (this.enabled) {
+            this.counts.get(phase).increment();
+            this.nanos.get(phase).add(elapsed);
+            this.maxNanos.get(phase).accumulate(elapsed);
+        }
+    }
+
+    /**
+     * Start the itinerary for an agent run if this run is sampled
+     *
+     * @param payloadName the name of the payload being carried
+     * @return the itinerary to add hops to or null if this run is not sampled
+     */
+    @Nullable
+    public Itinerary startItinerary(final String payloadName) {
+        if (this.sampleEvery == 0 || this.runs.incrementAndGet() % this.sampleEvery != 0) {
+            return null;
+        }
+        return new Itinerary(payloadName);
+    }
+
+    /**
+     * Keep a finished itinerary, dropping the oldest if there are too many
+     */
+    public void finish(final Itinerary itinerary) {
+        if (this.history == 0) {
+            return;
+        }
+        synchronized (this.recent) {
+            if (this.recent.size() >= this.history) {
+                this.recent.removeFirst();
+            }
+            this.recent.addLast(itinerary);
+        }
+    }
+
+    /**
+     * Time spent by phase
+     *
+     * @return for each phase the count, total, mean and max times in microseconds
+     */
+    public Map<String, Map<String, Long>> getPhaseSummary() {
+        final Map<String, Map<String, Long>> summary = new LinkedHashMap<>();
+        for (final Phase p : Phase.values()) {
+            final long count = this.counts.get(p).sum();
+            final long total = this.nanos.get(p).sum();
+            final Map<String, Long> m = new LinkedHashMap<>();
+            m.put("count", count);
+            m.put("totalMicros", TimeUnit.NANOSECONDS.toMicros(total));
+            m.put("meanMicros", count == 0 ? 0L : TimeUnit.NANOSECONDS.toMicros(total / count));
+            m.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(this.maxNanos.get(p).get()));
+            summary.put(p.name(), m);
+        }
+        return summary;
+    }
+
+    /**
+     * The most recent sampled itineraries, oldest first
+     */
+    public List<Itinerary> getRecentItineraries() {
+        synchronized (this.recent) {
+            return new ArrayList<>(this.recent);
+        }
+    }
+
+    /**
+     * Forget all times and itineraries
+     */
+    public void reset() {
+        for (final Phase p : Phase.values()) {
+            this.counts.get(p).reset();
+            this.nanos.get(p).reset();
+            this.maxNanos.get(p).reset();
+        }
+        synchronized (this.recent) {
+            this.recent.clear();
+        }
+    }
+
+    /**
+     * The hops of one agent run. Only touched by the agent that owns it until it is finished.
+     */
+    public static final class Itinerary {
+        private final String payload;
+        private final long started = System.currentTimeMillis();
+        private final List<Hop> hops = new ArrayList<>();
+
+        Itinerary(final String payload) {
+            this.payload = payload;
+        }
+
+        /**
+         * Add one phase of a hop
+         *
+         * @param phase what the time was spent doing
+         * @param where the place or form involved, possibly null
+         * @param elapsed nanoseconds spent
+         */
+        public void add(final Phase phase, @Nullable final String where, final long elapsed) {
+            if (this.hops.size() < MAX_HOPS) {
+                this.hops.add(new Hop(phase, where, elapsed));
+            }
+        }
+
+        public String getPayload() {
+            return this.payload;
+        }
+
+        public long getStarted() {
+            return this.started;
+        }
+
+        public List<Hop> getHops() {
+            return Collections.unmodifiableList(this.hops);
+        }
+
+        /**
+         * Total time of the itinerary by phase in microseconds
+         */
+        public Map<String, Long> getMicrosByPhase() {
+            final Map<String, Long> m = new LinkedHashMap<>();
+            for (final Hop h : this.hops) {
+                m.merge(h.getPhase().name(), h.getMicros(), Long::sum);
+            }
+            return m;
+        }
+    }
+
+    /**
+     * One timed phase of a hop
+     */
+    public static final class Hop {
+        private final Phase phase;
+        @Nullable
+        private final String where;
+        private final long micros;
+
+        Hop(final Phase phase, @Nullable final String where, final long elapsed) {
+            this.phase = phase;
+            this.where = where;
+            this.micros = TimeUnit.NANOSECONDS.toMicros(elapsed);
+        }
+
+        public Phase getPhase() {
+            return this.phase;
+        }
+
+        @Nullable
+        public String getWhere() {
+            return this.where;
+        }
+
+        public long getMicros() {
+            return this.micros;
+        }
+    }
+}
@@ -6,10 +6,15 @@ import com.codahale.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
 
 /**
  * Class to help track the things we are interested in monitoring
+ * <p>
+ * Instances handed out by {@link ResourceWatcher#starting(IMobileAgent, IServiceProviderPlace)} are pooled and reused
+ * once closed, so they must not be touched after {@link #close()}.
  */
 public class TimedResource implements AutoCloseable {
 
@@ -17,13 +22,31 @@ public class TimedResource implements AutoCloseable {
 
     public static final TimedResource EMPTY = new TimedResource();
 
-    private final IMobileAgent agent;
-    private final int payloadCount;
-    private final long allowedDuration;
-    private final String placeName;
-    private final long started;
+    private IMobileAgent agent;
+    private int payloadCount;
+    private long allowedDuration;
+    private String placeName;
+    private long started;
+    private long startedNanos;
 
-    private final Timer.Context timerContext;
+    private Timer timer;
+
+    // The watcher that pools this instance, null when created directly
+    @Nullable
+    private final ResourceWatcher owner;
+
+    // Per place handles from the owning watcher
+    @Nullable
+    ResourceWatcher.PlaceHandle handle;
+
+    // Timer wheel and pool links, guarded by the owning watcher
+    TimedResource wheelPrev;
+    TimedResource wheelNext;
+    TimedResource poolNext;
+    int wheelLevel = -1;
+    int wheelSlot;
+    long deadlineTick;
+    boolean timedOut;
 
     private final ReentrantLock lock = new ReentrantLock();
 
@@ -36,17 +59,60 @@ public class TimedResource implements AutoCloseable {
         agent = null;
         payloadCount = -1;
         placeName = "NOOP";
-        timerContext = null;
+        timer = null;
+        owner = null;
     }
 
     public TimedResource(final IMobileAgent agent, final IServiceProviderPlace place, final long allowedDuration, final Timer timer) {
+        this.owner = null;
+        reset(agent, agent.payloadCount(), place.getPlaceName(), allowedDuration, timer);
+    }
+
+    /**
+     * Create an idle instance for the pool of a watcher
+     */
+    TimedResource(final ResourceWatcher owner) {
+        this.owner = owner;
+        this.isClosed = true;
+    }
+
+    /**
+     * Start timing, called on a new instance or one taken from the pool
+     */
+    final void reset(final IMobileAgent agent, final int payloadCount, final String placeName, final long allowedDuration, final Timer timer) {
         this.started = System.currentTimeMillis();
+        this.startedNanos = System.nanoTime();
         this.agent = agent;
-        this.payloadCount = agent.payloadCount();
-        this.placeName = place.getPlaceName();
-        this.timerContext = timer.time();
+        this.payloadCount = payloadCount;
+        this.placeName = placeName;
+        this.timer = timer;
         this.allowedDuration = allowedDuration;
+        this.timedOut = false;
+        this.isClosed = false;
+    }
+
+    /**
+     * Drop references held for the last use while the instance sits in the pool
+     */
+    void release() {
+        this.agent = null;
+        this.timer = null;
+        this.handle = null;
+    }
+
+    boolean hasTimeLimit() {
+        return allowedDuration > 0;
+    }
+
+    /**
+     * Time allowed before the agent is interrupted when {@link #hasTimeLimit()}
+     */
+    long getTimeLimitMillis() {
+        return allowedDuration * payloadCount;
+    }
 
+    long getStartedNanos() {
+        return startedNanos;
     }
 
     // checks the state of the current place, returns true if it's closed
@@ -57,6 +123,10 @@ public class TimedResource implements AutoCloseable {
         return isClosed;
     }
 
+    boolean isClosed() {
+        return isClosed;
+    }
+
     // test visibility
     void interruptAgent() {
         // don't grab the lock if we're done
@@ -83,10 +153,13 @@ public class TimedResource implements AutoCloseable {
             if (isClosed) {
                 return;
             }
-            timerContext.stop();
+            timer.update(System.nanoTime() - startedNanos, TimeUnit.NANOSECONDS);
             isClosed = true;
         } finally {
             lock.unlock();
         }
+        if (owner != null) {
+            owner.finished(this);
+        }
     }
 }
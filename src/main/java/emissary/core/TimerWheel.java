@@ -0,0 +1,154 @@
+package emissary.core;
+
+/**
+ * Hierarchical timer wheel for {@link TimedResource} deadlines. Each level has 64 slots and each slot of a level spans
+ * a whole turn of the level below, so four levels of 100ms ticks cover about 19 days. Longer deadlines wait in the last
+ * level and are placed again when it turns. Adding and removing are constant time and advancing one tick only touches
+ * the slots that are due, unlike scanning every tracked resource.
+ * <p>
+ * Resources are linked into the slots through their own fields, so nothing is allocated. The wheel is not thread safe
+ * and callers must hold a lock around every method.
+ */
+final class TimerWheel {
+    static final int BITS = 6;
+    static final int SLOTS = 1 << BITS;
+    static final int LEVELS = 4;
+
+    private static final int MASK = SLOTS - 1;
+    private static final long SPAN = 1L << (BITS * LEVELS);
+
+    /**
+     * Called for each resource whose deadline has passed, after it is removed from the wheel
+     */
+    interface Expiry {
+        void expired(TimedResource tr, long nowMillis);
+    }
+
+    private final long tickMillis;
+    private final long origin;
+    private final TimedResource[][] slots = new TimedResource[LEVELS][SLOTS];
+    private long currentTick = 0;
+    private int size = 0;
+
+    /**
+     * Create a wheel
+     *
+     * @param tickMillis resolution of the wheel
+     * @param nowMillis the time the wheel starts at, on the clock later passed to {@link #add} and {@link #advance}
+     */
+    TimerWheel(long tickMillis, long nowMillis) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("Tick must be at least 1ms, was " + tickMillis);
+        }
+        this.tickMillis = tickMillis;
+        this.origin = nowMillis;
+    }
+
+    /**
+     * Schedule a resource, which expires on the first tick at or after the deadline
+     */
+    void add(TimedResource tr, long deadlineMillis) {
+        long ticks = Math.floorDiv(deadlineMillis - origin + tickMillis - 1, tickMillis);
+        tr.deadlineTick = Math.max(ticks, currentTick + 1);
+        insert(tr);
+        size++;
+    }
+
+    /**
+     * Unschedule a resource if it is in the wheel
+     */
+    void remove(TimedResource tr) {
+        if (tr.wheelLevel >= 0) {
+            unlink(tr);
+            size--;
+        }
+    }
+
+    /**
+     * Move the wheel up to the time given, expiring everything that is due
+     */
+    void advance(long nowMillis, Expiry expiry) {
+        long target = Math.floorDiv(nowMillis - origin, tickMillis);
+        while (currentTick < target) {
+            currentTick++;
+            // Higher levels turn when all the bits below them roll over
+            int level = 1;
+            while (level < LEVELS && (currentTick & ((1L << (BITS * level)) - 1)) == 0) {
+                level++;
+            }
+            for (int l = level - 1; l >= 1; l--) {
+                cascade(l, (int) ((currentTick >>> (BITS * l)) & MASK));
+            }
+
+            int slot = (int) (currentTick & MASK);
+            TimedResource tr = slots[0][slot];
+            slots[0][slot] = null;
+            while (tr != null) {
+                TimedResource next = tr.wheelNext;
+                clear(tr);
+                if (tr.deadlineTick <= currentTick) {
+                    size--;
+                    expiry.expired(tr, nowMillis);
+                } else {
+                    insert(tr);
+                }
+                tr = next;
+            }
+        }
+    }
+
+    /**
+     * Number of scheduled resources
+     */
+    int size() {
+        return size;
+    }
+
+    private void cascade(int level, int slot) {
+        TimedResource tr = slots[level][slot];
+        slots[level][slot] = null;
+        while (tr != null) {
+            TimedResource next = tr.wheelNext;
+            clear(tr);
+            insert(tr);
+            tr = next;
+        }
+    }
+
+    private void insert(TimedResource tr) {
+        long delta = tr.deadlineTick - currentTick;
+        long target = delta < SPAN ? tr.deadlineTick : currentTick + SPAN - 1;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((target >>> (BITS * level)) & MASK);
+        TimedResource head = slots[level][slot];
+        tr.wheelLevel = level;
+        tr.wheelSlot = slot;
+        tr.wheelPrev = null;
+        tr.wheelNext = head;
+        if (head != null) {
+            head.wheelPrev = tr;
+        }
+        slots[level][slot] = tr;
+    }
+
+    private void unlink(TimedResource tr) {
+        if (tr.wheelPrev == null) {
+            slots[tr.wheelLevel][tr.wheelSlot] = tr.wheelNext;
+        } else {
+            tr.wheelPrev.wheelNext = tr.wheelNext;
+        }
+        if (tr.wheelNext != null) {
+            tr.wheelNext.wheelPrev = tr.wheelPrev;
+        }
+        clear(tr);
+    }
+
+    private static void clear(TimedResource tr) {
+        tr.wheelLevel = -1;
+        tr.wheelPrev = null;
+        tr.wheelNext = null;
+    }
+}
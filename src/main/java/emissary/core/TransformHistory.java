@@ -1,23 +1,59 @@
 package emissary.core;
 
+import emissary.directory.DirectoryEntry;
 import emissary.directory.KeyManipulator;
 import emissary.place.IServiceProviderPlace;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.RandomAccess;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
+/**
+ * The places a payload has been carried to. Agents look at the size and the last visit on every hop, so the positions
+ * of the places visited outside of coordination are indexed as keys are appended. Sizes, the last and penultimate
+ * visits and the {@link #view()} lists are answered from that index without copying the history. Each entry parses its
+ * key into a {@link DirectoryEntry} at most once.
+ */
 public class TransformHistory {
 
     private final List<History> history;
 
+    // Positions in history of the entries that were not coordinated, built on first use so a history filled in by
+    // deserialization after the no-arg constructor is indexed
+    @Nullable
+    private transient int[] visits;
+    private transient int visitCount;
+
     public TransformHistory() {
         history = new ArrayList<>();
     }
 
     public TransformHistory(TransformHistory history) {
         this.history = new ArrayList<>(history.history);
+        final int[] v = history.visits();
+        this.visits = Arrays.copyOf(v, Math.max(history.visitCount, 8));
+        this.visitCount = history.visitCount;
+    }
+
+    /**
+     * Get the visit index, building it from the history on first use
+     */
+    private int[] visits() {
+        if (visits == null) {
+            visits = new int[Math.max(history.size(), 8)];
+            visitCount = 0;
+            for (int i = 0; i < history.size(); i++) {
+                if (!history.get(i).wasCoordinated()) {
+                    visits[visitCount++] = i;
+                }
+            }
+        }
+        return visits;
     }
 
     /**
@@ -41,7 +77,21 @@ public class TransformHistory {
     }
 
     private void addAll(List<History> history) {
-        this.history.addAll(history);
+        for (final History h : history) {
+            add(h);
+        }
+    }
+
+    private void add(final History h) {
+        int[] v = visits();
+        if (!h.wasCoordinated()) {
+            if (visitCount == v.length) {
+                v = Arrays.copyOf(v, v.length * 2);
+                visits = v;
+            }
+            v[visitCount++] = history.size();
+        }
+        history.add(h);
     }
 
     /**
@@ -66,7 +116,7 @@ public class TransformHistory {
      * @param coordinated true if history entry is for informational purposes only
      */
     public void append(String key, boolean coordinated) {
-        history.add(new History(key, coordinated));
+        add(new History(key, coordinated));
     }
 
     /**
@@ -74,6 +124,31 @@ public class TransformHistory {
      */
     public void clear() {
         history.clear();
+        visits();
+        visitCount = 0;
+    }
+
+    /**
+     * Number of places visited, not counting places visited during coordination
+     *
+     * @return the size of {@link #get()} without building it
+     */
+    public int size() {
+        return size(false);
+    }
+
+    /**
+     * Number of places visited, optionally counting places visited during coordination
+     *
+     * @param includeCoordinated count the coordinated places too
+     * @return the size of {@link #get(boolean)} without building it
+     */
+    public int size(boolean includeCoordinated) {
+        if (includeCoordinated) {
+            return history.size();
+        }
+        visits();
+        return visitCount;
     }
 
     /**
@@ -97,6 +172,27 @@ public class TransformHistory {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Read only view of the places visited, not including places visited during coordination
+     *
+     * @return a list backed by this history
+     * @see #view(boolean)
+     */
+    public List<String> view() {
+        return view(false);
+    }
+
+    /**
+     * Read only view of the places visited that shares the keys held by this history instead of copying them. The view
+     * follows later changes to the history, take {@link #get(boolean)} for a copy that does not.
+     *
+     * @param includeCoordinated include the places that were coordinated
+     * @return a list backed by this history
+     */
+    public List<String> view(boolean includeCoordinated) {
+        return includeCoordinated ? new AllView() : new VisitView();
+    }
+
     /**
      * Return the full history object
      *
@@ -111,13 +207,10 @@ public class TransformHistory {
      *
      * @return last place visited
      */
+    @Nullable
     public String lastVisit() {
-        List<String> historyList = get();
-        final int sz = historyList.size();
-        if (sz == 0) {
-            return null;
-        }
-        return historyList.get(sz - 1);
+        final History h = visit(1);
+        return h == null ? null : h.getKey();
     }
 
     /**
@@ -125,13 +218,44 @@ public class TransformHistory {
      *
      * @return second-to-last place visited
      */
+    @Nullable
     public String penultimateVisit() {
-        List<String> historyList = get();
-        final int sz = historyList.size();
-        if (sz < 2) {
-            return null;
-        }
-        return historyList.get(sz - 2);
+        final History h = visit(2);
+        return h == null ? null : h.getKey();
+    }
+
+    /**
+     * Get the last place visited as a directory entry (does not include places visited during coordination)
+     *
+     * @return a new entry for the last place visited that the caller may change, or null if there is none
+     */
+    @Nullable
+    public DirectoryEntry lastVisitEntry() {
+        final History h = visit(1);
+        return h == null ? null : new DirectoryEntry(h.getEntry());
+    }
+
+    /**
+     * Get the second-to-last place visited as a directory entry (does not include places visited during coordination)
+     *
+     * @return a new entry for the second-to-last place visited that the caller may change, or null if there is none
+     */
+    @Nullable
+    public DirectoryEntry penultimateVisitEntry() {
+        final History h = visit(2);
+        return h == null ? null : new DirectoryEntry(h.getEntry());
+    }
+
+    /**
+     * Get a visit counting back from the most recent
+     *
+     * @param back 1 for the last visit, 2 for the one before it
+     * @return the history entry or null if there are not that many visits
+     */
+    @Nullable
+    private History visit(final int back) {
+        final int[] v = visits();
+        return visitCount < back ? null : history.get(v[visitCount - back]);
     }
 
     /**
@@ -140,8 +264,8 @@ public class TransformHistory {
      * @return true is place has been visited
      */
     public boolean hasVisited(final String pattern) {
-        for (final String historyValue : get()) {
-            if (KeyManipulator.gmatch(historyValue, pattern)) {
+        for (final History h : history) {
+            if (!h.wasCoordinated() && KeyManipulator.gmatch(h.getKey(), pattern)) {
                 return true;
             }
         }
@@ -154,12 +278,8 @@ public class TransformHistory {
      * @return true if not yet started
      */
     public boolean beforeStart() {
-        List<String> historyList = get();
-        if (historyList.isEmpty()) {
-            return true;
-        }
-        final String s = historyList.get(historyList.size() - 1);
-        return s.contains(IServiceProviderPlace.SPROUT_KEY);
+        final String s = lastVisit();
+        return s == null || s.contains(IServiceProviderPlace.SPROUT_KEY);
     }
 
     @Override
@@ -171,10 +291,43 @@ public class TransformHistory {
         return myOutput.toString();
     }
 
+    private final class AllView extends AbstractList<String> implements RandomAccess {
+        @Override
+        public String get(final int index) {
+            return history.get(index).getKey();
+        }
+
+        @Override
+        public int size() {
+            return history.size();
+        }
+    }
+
+    private final class VisitView extends AbstractList<String> implements RandomAccess {
+        @Override
+        public String get(final int index) {
+            final int[] v = visits();
+            if (index < 0 || index >= visitCount) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + visitCount);
+            }
+            return history.get(v[index]).getKey();
+        }
+
+        @Override
+        public int size() {
+            visits();
+            return visitCount;
+        }
+    }
+
     public static class History {
         String key;
         boolean coordinated;
 
+        // Parsed on first use, entries are shared between copies of a history so this is handed out as a copy
+        @Nullable
+        private transient volatile DirectoryEntry entry;
+
         /**
          * Needed to support Kryo deserialization
          */
@@ -197,6 +350,15 @@ public class TransformHistory {
             return coordinated;
         }
 
+        DirectoryEntry getEntry() {
+            DirectoryEntry e = entry;
+            if (e == null) {
+                e = new DirectoryEntry(key);
+                entry = e;
+            }
+            return e;
+        }
+
         public String toString() {
             String start;
             if (wasCoordinated()) {
@@ -0,0 +1,113 @@
+package emissary.core.channels;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Provide a memory mapped implementation for streaming data to a consumer. The file is mapped once and every channel
+ * created reads from the shared mapping, so segments of it can be handed out with {@link SegmentChannelFactory} without
+ * copying any of the bytes onto the heap.
+ */
+public final class MappedChannelFactory {
+
+    private MappedChannelFactory() {}
+
+    /**
+     * Map the file read only and create a factory over the mapping. The mapping stays valid until the factory and every
+     * channel created from it are unreachable, even if the file is moved or deleted in the meantime. The file must not be
+     * truncated or rewritten while mapped, reading pages that are no longer backed by the file faults the JVM, so only map
+     * files nothing else is writing to.
+     *
+     * @param path containing a reference to the file
+     * @return a new instance
+     * @throws IOException if the file cannot be mapped, including files larger than {@link Integer#MAX_VALUE} bytes
+     */
+    public static SeekableByteChannelFactory create(final Path path) throws IOException {
+        Validate.notNull(path, "Required: path not null");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Cannot map " + path + " of " + size + " bytes into a single buffer");
+            }
+            return create(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Create a new instance of the factory over an existing buffer, typically a {@link MappedByteBuffer}. The bytes from
+     * the buffer's position to its limit are provided.
+     *
+     * @param buffer the bytes to provide to consumers in an immutable manner
+     * @return a new instance
+     */
+    public static SeekableByteChannelFactory create(final ByteBuffer buffer) {
+        return ImmutableChannelFactory.create(new MappedChannelFactoryImpl(buffer));
+    }
+
+    /**
+     * Private class to hide implementation details from callers
+     */
+    private static final class MappedChannelFactoryImpl implements SeekableByteChannelFactory {
+        /**
+         * The read only view of the buffer shared by every channel
+         */
+        private final ByteBuffer buffer;
+
+        private MappedChannelFactoryImpl(final ByteBuffer buffer) {
+            Validate.notNull(buffer, "Required: buffer not null");
+            this.buffer = buffer.slice().asReadOnlyBuffer();
+        }
+
+        /**
+         * Create a channel reading from the shared buffer, no copy is made regardless of how many channels are created
+         *
+         * @return the new channel instance
+         */
+        @Override
+        public SeekableByteChannel create() {
+            return new MappedSeekableByteChannel(buffer.duplicate());
+        }
+    }
+
+    /**
+     * Channel over a private duplicate of the shared buffer
+     */
+    private static final class MappedSeekableByteChannel extends AbstractSeekableByteChannel {
+        private final ByteBuffer buffer;
+
+        private MappedSeekableByteChannel(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        protected void closeImpl() {
+            // Nothing to release, the mapping is shared
+        }
+
+        @Override
+        protected int readImpl(final ByteBuffer byteBuffer) throws IOException {
+            final int start = (int) position();
+            final int count = Math.min(byteBuffer.remaining(), buffer.capacity() - start);
+            if (count <= 0) {
+                return -1;
+            }
+            final ByteBuffer window = buffer.duplicate();
+            window.position(start);
+            window.limit(start + count);
+            byteBuffer.put(window);
+            return count;
+        }
+
+        @Override
+        protected long sizeImpl() {
+            return buffer.capacity();
+        }
+    }
+}
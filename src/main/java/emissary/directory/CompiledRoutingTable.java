@@ -0,0 +1,303 @@
+package emissary.directory;
+
+import emissary.core.MetricsManager;
+import emissary.core.NamespaceException;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import javax.annotation.Nullable;
+
+/**
+ * Cache of wildcarded routing lookups for a DirectoryPlace. Each dataID (dataType::serviceType) seen by the directory
+ * is compiled once into the merged, expense sorted list of every matching wildcard entry. The table observes the
+ * directory and throws away everything it has compiled whenever a place is added, removed or changes cost, so routing
+ * only pays for {@link WildcardEntry#getWildcardedEntry(String, DirectoryEntryMap)} on the first lookup after a change.
+ * The observer events only mark the table as changed and the next lookup does the clearing, so a batch of places
+ * removed together throws the compiled routes away once.
+ *
+ * <p>
+ * Lists handed out by {@link #lookup(String, DirectoryEntryMap)} are shared by every caller and are read only, any
+ * attempt to change one throws {@link UnsupportedOperationException}. The entries in them are the ones held by the
+ * directory.
+ */
+public class CompiledRoutingTable implements PlaceObserver {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompiledRoutingTable.class);
+
+    /** Observe every place in the directory */
+    public static final String PATTERN = "*.*.*.*";
+
+    public static final String HIT_METRIC = "directory.routing.cache.hits";
+    public static final String MISS_METRIC = "directory.routing.cache.misses";
+    public static final String REBUILD_METRIC = "directory.routing.cache.rebuilds";
+
+    /** Compiled entry lists by dataID */
+    protected final Map<String, DirectoryEntryList> compiled = new ConcurrentHashMap<>();
+
+    /** DataIDs thrown away by a change that have not been compiled again yet */
+    protected final Set<String> stale = ConcurrentHashMap.newKeySet();
+
+    /** Bumped on every change so lookups racing with a change do not cache stale results */
+    protected final AtomicLong generation = new AtomicLong();
+
+    /** The generation the compiled routes were last cleared for */
+    protected volatile long clearedGeneration = 0L;
+
+    protected final Counter hits;
+    protected final Counter misses;
+    protected final Counter rebuilds;
+
+    /**
+     * Create a routing table reporting to the MetricsManager bound in the namespace, if there is one
+     */
+    public CompiledRoutingTable() {
+        this(lookupRegistry());
+    }
+
+    /**
+     * Create a routing table reporting to the specified registry
+     *
+     * @param registry the registry to hold the hit/miss/rebuild counters or null to keep them private
+     */
+    public CompiledRoutingTable(@Nullable final MetricRegistry registry) {
+        if (registry != null) {
+            this.hits = registry.counter(HIT_METRIC);
+            this.misses = registry.counter(MISS_METRIC);
+            this.rebuilds = registry.counter(REBUILD_METRIC);
+        } else {
+            this.hits = new Counter();
+            this.misses = new Counter();
+            this.rebuilds = new Counter();
+        }
+    }
+
+    @Nullable
+    private static MetricRegistry lookupRegistry() {
+        try {
+            return MetricsManager.lookup().getMetricRegistry();
+        } catch (NamespaceException e) {
+            logger.debug("No MetricsManager available, routing cache metrics will not be published");
+            return null;
+        }
+    }
+
+    /**
+     * Get the compiled entry list for the dataID, compiling it from the map if it is not already cached
+     *
+     * @param dataID the type of data being queried
+     * @param entries the entry map to compile from on a miss
+     * @return the shared, read only, expense sorted entry list, possibly empty
+     */
+    public DirectoryEntryList lookup(final String dataID, final DirectoryEntryMap entries) {
+        final long gen = clearIfChanged();
+        final DirectoryEntryList found = this.compiled.get(dataID);
+        if (found != null) {
+            this.hits.inc();
+            return found;
+        }
+
+        this.misses.inc();
+        if (this.stale.remove(dataID)) {
+            this.rebuilds.inc();
+        }
+        final DirectoryEntryList list = new CompiledEntryList(WildcardEntry.getWildcardedEntry(dataID, entries));
+
+        // Only keep the result if nothing changed while we were compiling it
+        if (gen == this.generation.get()) {
+            final DirectoryEntryList prev = this.compiled.putIfAbsent(dataID, list);
+            if (gen != this.generation.get()) {
+                this.compiled.remove(dataID);
+            } else if (prev != null) {
+                return prev;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Throw away all compiled routes
+     */
+    public void invalidate() {
+        changed();
+        clearIfChanged();
+    }
+
+    /**
+     * Note that the directory changed, the compiled routes are thrown away by the next lookup
+     */
+    protected void changed() {
+        this.generation.incrementAndGet();
+    }
+
+    /**
+     * Throw away the compiled routes if the directory changed since they were last cleared
+     *
+     * @return the generation the compiled routes are good for
+     */
+    protected long clearIfChanged() {
+        final long gen = this.generation.get();
+        if (this.clearedGeneration < gen) {
+            synchronized (this) {
+                if (this.clearedGeneration < gen) {
+                    this.stale.addAll(this.compiled.keySet());
+                    this.compiled.clear();
+                    this.clearedGeneration = gen;
+                }
+            }
+        }
+        return gen;
+    }
+
+    /**
+     * Number of dataIDs currently compiled
+     */
+    public int size() {
+        clearIfChanged();
+        return this.compiled.size();
+    }
+
+    public long getHitCount() {
+        return this.hits.getCount();
+    }
+
+    public long getMissCount() {
+        return this.misses.getCount();
+    }
+
+    /**
+     * Number of dataIDs compiled again after a change threw them away
+     */
+    public long getRebuildCount() {
+        return this.rebuilds.getCount();
+    }
+
+    @Override
+    public void placeRegistered(final String observableKey, final String placeKey) {
+        changed();
+    }
+
+    @Override
+    public void placeDeregistered(final String observableKey, final String placeKey) {
+        changed();
+    }
+
+    @Override
+    public void placeCostChanged(final String observableKey, final String placeKey) {
+        changed();
+    }
+
+    @Override
+    public String getPattern() {
+        return PATTERN;
+    }
+
+    /**
+     * Compiled entry list that cannot be changed once built
+     */
+    static final class CompiledEntryList extends DirectoryEntryList {
+
+        private static final long serialVersionUID = 4185936237455102337L;
+
+        CompiledEntryList(final DirectoryEntryList compiled) {
+            addAllSorted(compiled);
+        }
+
+        @Override
+        public boolean add(final DirectoryEntry e) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(final int index, final DirectoryEntry e) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean addAll(final Collection<? extends DirectoryEntry> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean addAll(final int index, final Collection<? extends DirectoryEntry> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int addAllAbsent(final Collection<? extends DirectoryEntry> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean addIfAbsent(final DirectoryEntry e) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DirectoryEntry set(final int index, final DirectoryEntry e) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DirectoryEntry remove(final int index) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean remove(final Object o) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean removeAll(final Collection<?> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean retainAll(final Collection<?> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean removeIf(final Predicate<? super DirectoryEntry> filter) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void replaceAll(final UnaryOperator<DirectoryEntry> operator) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sort(@Nullable final Comparator<? super DirectoryEntry> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sort() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<DirectoryEntry> subList(final int fromIndex, final int toIndex) {
+            return Collections.unmodifiableList(super.subList(fromIndex, toIndex));
+        }
+    }
+}
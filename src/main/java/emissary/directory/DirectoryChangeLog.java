@@ -0,0 +1,203 @@
+package emissary.directory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nullable;
+
+/**
+ * Versioned log of the entries added to and removed from a {@link DirectoryEntryMap}, so peers that have already seen
+ * the map up to some version can be sent just what changed since then instead of the whole map.
+ * <p>
+ * Every change gets the next version number. The log keeps the most recent changes up to its capacity, and a peer that
+ * is further behind than that has to be sent a snapshot. Each log also has a random epoch so versions handed out before
+ * a restart are never mistaken for versions of the new log.
+ * <p>
+ * Only adds and removes are logged. Changes made to an entry in place, such as path weight adjustments, are not.
+ */
+public class DirectoryChangeLog {
+
+    /** Default number of changes kept {@value} */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /** What happened to an entry */
+    public enum Op {
+        ADD, REMOVE
+    }
+
+    /**
+     * One logged change
+     */
+    public static final class Change {
+        private final long version;
+        private final Op op;
+        private final DirectoryEntry entry;
+
+        Change(final long version, final Op op, final DirectoryEntry entry) {
+            this.version = version;
+            this.op = op;
+            this.entry = entry;
+        }
+
+        public long getVersion() {
+            return this.version;
+        }
+
+        public Op getOp() {
+            return this.op;
+        }
+
+        public DirectoryEntry getEntry() {
+            return this.entry;
+        }
+
+        @Override
+        public String toString() {
+            return this.version + ":" + this.op + ":" + this.entry.getKey();
+        }
+    }
+
+    /**
+     * How far a peer has seen a log
+     */
+    public static final class Position {
+        private final long epoch;
+        private final long version;
+
+        public Position(final long epoch, final long version) {
+            this.epoch = epoch;
+            this.version = version;
+        }
+
+        public long getEpoch() {
+            return this.epoch;
+        }
+
+        public long getVersion() {
+            return this.version;
+        }
+
+        @Override
+        public String toString() {
+            return this.epoch + ":" + this.version;
+        }
+    }
+
+    private final long epoch;
+    private final int capacity;
+    private final ArrayDeque<Change> changes = new ArrayDeque<>();
+    private long version = 0;
+
+    /**
+     * Create a log keeping the default number of changes
+     */
+    public DirectoryChangeLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a log
+     *
+     * @param capacity number of changes kept
+     */
+    public DirectoryChangeLog(final int capacity) {
+        this(capacity, ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    }
+
+    DirectoryChangeLog(final int capacity, final long epoch) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Change log capacity must be at least 1, was " + capacity);
+        }
+        this.capacity = capacity;
+        this.epoch = epoch;
+    }
+
+    /**
+     * Record an entry being added
+     */
+    public synchronized void added(final DirectoryEntry entry) {
+        record(Op.ADD, entry);
+    }
+
+    /**
+     * Record an entry being removed
+     */
+    public synchronized void removed(final DirectoryEntry entry) {
+        record(Op.REMOVE, entry);
+    }
+
+    private void record(final Op op, final DirectoryEntry entry) {
+        this.version++;
+        if (this.changes.size() == this.capacity) {
+            this.changes.removeFirst();
+        }
+        this.changes.addLast(new Change(this.version, op, entry));
+    }
+
+    /**
+     * The random epoch of this log
+     */
+    public long getEpoch() {
+        return this.epoch;
+    }
+
+    /**
+     * Version of the latest change, 0 if nothing has changed
+     */
+    public synchronized long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * The current position of this log
+     */
+    public synchronized Position getPosition() {
+        return new Position(this.epoch, this.version);
+    }
+
+    /**
+     * Get the changes made after a version, keeping only the latest change to each entry key, in version order
+     *
+     * @param epoch epoch of the log the version came from
+     * @param since the version already seen
+     * @return the changes, empty if there are none, or null if the version is not from this log or changes after it are no
+     *         longer kept
+     */
+    @Nullable
+    public synchronized List<Change> changesSince(final long epoch, final long since) {
+        if (epoch != this.epoch || since < 0 || since > this.version) {
+            return null;
+        }
+        if (since == this.version) {
+            return new ArrayList<>();
+        }
+        if (this.changes.isEmpty() || this.changes.getFirst().getVersion() > since + 1) {
+            return null;
+        }
+
+        final Map<String, Change> latest = new LinkedHashMap<>();
+        for (final Iterator<Change> i = this.changes.descendingIterator(); i.hasNext();) {
+            final Change change = i.next();
+            if (change.getVersion() <= since) {
+                break;
+            }
+            latest.putIfAbsent(change.getEntry().getKey(), change);
+        }
+        final List<Change> result = new ArrayList<>(latest.values());
+        // Collected newest first
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Number of changes kept
+     */
+    public synchronized int size() {
+        return this.changes.size();
+    }
+}
@@ -0,0 +1,311 @@
+package emissary.directory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * The entries of a directory sent to a peer, either as the changes since the version the peer last saw or, when the
+ * peer is too far behind, as a snapshot of every entry. Either way it carries the position of the change log it was
+ * taken from, for the peer to ask from next time.
+ * <p>
+ * On the wire it is a compact JSON object, written and read a token at a time:
+ *
+ * <pre>
+ * {"location":"...","epoch":1,"version":2,"snapshot":false,
+ *  "changes":[{"op":"ADD","key":"...","desc":"...","cost":50,"quality":50},{"op":"REMOVE","key":"..."}]}
+ * </pre>
+ */
+public class DirectoryDelta {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static final String LOCATION = "location";
+    private static final String EPOCH = "epoch";
+    private static final String VERSION = "version";
+    private static final String SNAPSHOT = "snapshot";
+    private static final String CHANGES = "changes";
+    private static final String OP = "op";
+    private static final String KEY = "key";
+    private static final String DESC = "desc";
+    private static final String COST = "cost";
+    private static final String QUALITY = "quality";
+
+    private final String location;
+    private final long epoch;
+    private final long version;
+    private final boolean snapshot;
+    private final List<DirectoryChangeLog.Change> changes;
+    private long wireBytes = -1;
+
+    private DirectoryDelta(final String location, final long epoch, final long version, final boolean snapshot,
+            final List<DirectoryChangeLog.Change> changes) {
+        this.location = location;
+        this.epoch = epoch;
+        this.version = version;
+        this.snapshot = snapshot;
+        this.changes = changes;
+    }
+
+    /**
+     * The changes to a directory since a version
+     *
+     * @param location key of the directory
+     * @param epoch epoch of its change log
+     * @param since the version the changes follow
+     * @param changes the changes in version order
+     */
+    public static DirectoryDelta changes(final String location, final long epoch, final long since, final List<DirectoryChangeLog.Change> changes) {
+        final long version = changes.isEmpty() ? since : changes.get(changes.size() - 1).getVersion();
+        return new DirectoryDelta(location, epoch, version, false, new ArrayList<>(changes));
+    }
+
+    /**
+     * All the entries of a directory
+     *
+     * @param location key of the directory
+     * @param epoch epoch of its change log
+     * @param version version of the log before the entries were collected
+     * @param entries every entry
+     */
+    public static DirectoryDelta snapshot(final String location, final long epoch, final long version, final Collection<DirectoryEntry> entries) {
+        final List<DirectoryChangeLog.Change> adds = new ArrayList<>(entries.size());
+        for (final DirectoryEntry e : entries) {
+            adds.add(new DirectoryChangeLog.Change(version, DirectoryChangeLog.Op.ADD, e));
+        }
+        return new DirectoryDelta(location, epoch, version, true, adds);
+    }
+
+    public String getLocation() {
+        return this.location;
+    }
+
+    public long getEpoch() {
+        return this.epoch;
+    }
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Where the receiver should ask from next time
+     */
+    public DirectoryChangeLog.Position getPosition() {
+        return new DirectoryChangeLog.Position(this.epoch, this.version);
+    }
+
+    /**
+     * True if this holds every entry rather than the changes since a version
+     */
+    public boolean isSnapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * The changes, or an add for every entry of a snapshot
+     */
+    public List<DirectoryChangeLog.Change> getChanges() {
+        return Collections.unmodifiableList(this.changes);
+    }
+
+    /**
+     * Size of the JSON this was read from, or -1 if it was not read
+     */
+    public long getWireBytes() {
+        return this.wireBytes;
+    }
+
+    /**
+     * The added entries collected into a map
+     */
+    public DirectoryEntryMap toEntryMap() {
+        final DirectoryEntryMap map = new DirectoryEntryMap();
+        for (final DirectoryChangeLog.Change change : this.changes) {
+            if (change.getOp() == DirectoryChangeLog.Op.ADD) {
+                map.addEntry(change.getEntry());
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Copy keeping only the changes to entries with one of the dataIDs
+     *
+     * @param dataIds the dataIDs to keep
+     */
+    public DirectoryDelta retainDataIds(final Collection<String> dataIds) {
+        final List<DirectoryChangeLog.Change> kept = new ArrayList<>();
+        for (final DirectoryChangeLog.Change change : this.changes) {
+            if (dataIds.contains(change.getEntry().getDataID())) {
+                kept.add(change);
+            }
+        }
+        final DirectoryDelta copy = new DirectoryDelta(this.location, this.epoch, this.version, this.snapshot, kept);
+        copy.wireBytes = this.wireBytes;
+        return copy;
+    }
+
+    /**
+     * Write the JSON form
+     */
+    public void writeJson(final OutputStream out) throws IOException {
+        try (JsonGenerator gen = JSON.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeStringField(LOCATION, this.location);
+            gen.writeNumberField(EPOCH, this.epoch);
+            gen.writeNumberField(VERSION, this.version);
+            gen.writeBooleanField(SNAPSHOT, this.snapshot);
+            gen.writeArrayFieldStart(CHANGES);
+            for (final DirectoryChangeLog.Change change : this.changes) {
+                final DirectoryEntry e = change.getEntry();
+                gen.writeStartObject();
+                gen.writeStringField(OP, change.getOp().name());
+                gen.writeStringField(KEY, e.getKey());
+                if (change.getOp() == DirectoryChangeLog.Op.ADD) {
+                    if (e.getDescription() != null) {
+                        gen.writeStringField(DESC, e.getDescription());
+                    }
+                    gen.writeNumberField(COST, e.getCost());
+                    gen.writeNumberField(QUALITY, e.getQuality());
+                }
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * The JSON form as a string
+     */
+    public String toJson() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeJson(out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write directory delta", e);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the JSON form
+     *
+     * @param json the JSON text
+     * @return the delta
+     * @throws IOException if the text is not a directory delta
+     */
+    public static DirectoryDelta fromJson(final String json) throws IOException {
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        try (JsonParser parser = JSON.createParser(bytes)) {
+            final DirectoryDelta delta = read(parser);
+            delta.wireBytes = bytes.length;
+            return delta;
+        }
+    }
+
+    private static DirectoryDelta read(final JsonParser parser) throws IOException {
+        expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+        String location = null;
+        long epoch = -1;
+        long version = -1;
+        boolean snapshot = false;
+        final List<DirectoryChangeLog.Change> changes = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            switch (field) {
+                case LOCATION:
+                    location = parser.getValueAsString();
+                    break;
+                case EPOCH:
+                    epoch = parser.getValueAsLong();
+                    break;
+                case VERSION:
+                    version = parser.getValueAsLong();
+                    break;
+                case SNAPSHOT:
+                    snapshot = parser.getValueAsBoolean();
+                    break;
+                case CHANGES:
+                    expect(parser, value, JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        changes.add(readChange(parser, version));
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (location == null || epoch < 0 || version < 0) {
+            throw new IOException("Directory delta is missing its location, epoch or version");
+        }
+        return new DirectoryDelta(location, epoch, version, snapshot, changes);
+    }
+
+    private static DirectoryChangeLog.Change readChange(final JsonParser parser, final long version) throws IOException {
+        String op = null;
+        String key = null;
+        String desc = null;
+        int cost = 0;
+        int quality = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case OP:
+                    op = parser.getValueAsString();
+                    break;
+                case KEY:
+                    key = parser.getValueAsString();
+                    break;
+                case DESC:
+                    desc = parser.getValueAsString();
+                    break;
+                case COST:
+                    cost = parser.getValueAsInt();
+                    break;
+                case QUALITY:
+                    quality = parser.getValueAsInt();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (op == null || key == null || !KeyManipulator.isValid(key)) {
+            throw new IOException("Directory delta has a bad change " + op + " " + key);
+        }
+        final DirectoryChangeLog.Op theOp;
+        try {
+            theOp = DirectoryChangeLog.Op.valueOf(op);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Directory delta has an unknown op " + op, e);
+        }
+        final DirectoryEntry entry = theOp == DirectoryChangeLog.Op.ADD ? new DirectoryEntry(key, desc, cost, quality) : new DirectoryEntry(key);
+        return new DirectoryChangeLog.Change(version, theOp, entry);
+    }
+
+    private static void expect(final JsonParser parser, @Nullable final JsonToken actual, final JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Directory delta expected " + expected + " but found " + actual + " at " + parser.getCurrentLocation());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (this.snapshot ? "snapshot of " : "changes to ") + this.location + " at " + getPosition() + " with " + this.changes.size()
+                + " entries";
+    }
+}
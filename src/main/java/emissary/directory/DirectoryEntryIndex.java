@@ -0,0 +1,198 @@
+package emissary.directory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Secondary indexes of the live entries in a {@link DirectoryEntryMap} by service name, service type and service host,
+ * so wildcarded queries can look at the entries that could match instead of every entry in the map. Each index maps the
+ * entry key to the entry itself, so a candidate does not have to be looked up again in its list.
+ * <p>
+ * A wildcard in a key pattern can match across the tuple separators, so a field of a pattern only narrows the search
+ * when the rest of the pattern pins where that field has to be in the key:
+ * <ul>
+ * <li>a literal {@code .scheme://host:port/} pins the service host, since a key only has one {@code ://}</li>
+ * <li>a literal service name or type pins that field when the fields before it are literal too, or when the pattern
+ * also pins the service host and has no other separators before it</li>
+ * </ul>
+ * Keys that are not shaped the usual way are kept aside and handed back by every host query.
+ */
+final class DirectoryEntryIndex implements Serializable {
+
+    // Serializable
+    private static final long serialVersionUID = -2751963428196376210L;
+
+    private static final String SCHEME_SEPARATOR = "://";
+
+    private final ConcurrentHashMap<String, Map<String, DirectoryEntry>> byServiceName = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Map<String, DirectoryEntry>> byServiceType = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Map<String, DirectoryEntry>> byServiceHost = new ConcurrentHashMap<>();
+
+    /** Entries without a single service host url where we expect it, a candidate for any host query */
+    private final Map<String, DirectoryEntry> unanchored = new ConcurrentHashMap<>();
+
+    /**
+     * Index a live entry, replacing any entry indexed with the same key
+     *
+     * @param entry the entry held by the map
+     */
+    void add(final DirectoryEntry entry) {
+        final String entryKey = entry.getKey();
+        add(this.byServiceName, KeyManipulator.getServiceName(entryKey), entry);
+        add(this.byServiceType, KeyManipulator.getServiceType(entryKey), entry);
+        final String host = getServiceHost(entryKey);
+        if (host != null) {
+            add(this.byServiceHost, host, entry);
+        } else {
+            this.unanchored.put(entryKey, entry);
+        }
+    }
+
+    /**
+     * Stop indexing an entry key
+     *
+     * @param entryKey the key of the entry without expense
+     */
+    void remove(final String entryKey) {
+        remove(this.byServiceName, KeyManipulator.getServiceName(entryKey), entryKey);
+        remove(this.byServiceType, KeyManipulator.getServiceType(entryKey), entryKey);
+        final String host = getServiceHost(entryKey);
+        if (host != null) {
+            remove(this.byServiceHost, host, entryKey);
+        } else {
+            this.unanchored.remove(entryKey);
+        }
+    }
+
+    /**
+     * Drop everything from the indexes
+     */
+    void clear() {
+        this.byServiceName.clear();
+        this.byServiceType.clear();
+        this.byServiceHost.clear();
+        this.unanchored.clear();
+    }
+
+    private static void add(final ConcurrentHashMap<String, Map<String, DirectoryEntry>> index, final String token, final DirectoryEntry entry) {
+        index.compute(token, (k, entries) -> {
+            final Map<String, DirectoryEntry> map = (entries != null) ? entries : new ConcurrentHashMap<>();
+            map.put(entry.getKey(), entry);
+            return map;
+        });
+    }
+
+    private static void remove(final ConcurrentHashMap<String, Map<String, DirectoryEntry>> index, final String token, final String entryKey) {
+        index.computeIfPresent(token, (k, keys) -> {
+            keys.remove(entryKey);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    /**
+     * Get the entries that could match a pattern. Every entry that matches is included but not every entry included
+     * matches, the caller still has to check each one.
+     *
+     * @param pattern the key pattern, can be wildcarded
+     * @return the candidate entries or null if the pattern cannot be answered from the indexes
+     */
+    @Nullable
+    Collection<DirectoryEntry> candidates(final String pattern) {
+        final List<Map<String, DirectoryEntry>> narrowed = new ArrayList<>(3);
+
+        // Where the service host starts in the pattern, if it pins one
+        int hostStart = -1;
+        final int scheme = pattern.indexOf(SCHEME_SEPARATOR);
+        if (scheme > -1) {
+            final int dot = pattern.lastIndexOf(KeyManipulator.SEPARATOR, scheme);
+            final int slash = pattern.indexOf(KeyManipulator.CLASSSEPARATOR, scheme + SCHEME_SEPARATOR.length());
+            if (dot > -1 && slash > -1 && isLiteral(pattern, dot + 1, slash + 1)) {
+                hostStart = dot + 1;
+                narrowed.add(lookup(this.byServiceHost, pattern.substring(hostStart, slash + 1)));
+            }
+        }
+
+        final int first = pattern.indexOf(KeyManipulator.SEPARATOR);
+        final int second = (first > -1) ? pattern.indexOf(KeyManipulator.SEPARATOR, first + 1) : -1;
+        final int third = (second > -1) ? pattern.indexOf(KeyManipulator.SEPARATOR, second + 1) : -1;
+        if (third > -1) {
+            // With the host pinned right after the third separator the literal separators before it can only be the
+            // separators of the key, otherwise only a literal prefix keeps the fields in place
+            final boolean aligned = (hostStart == third + 1);
+            final boolean literalDataType = isLiteral(pattern, 0, first);
+            final boolean literalServiceName = isLiteral(pattern, first + 1, second);
+            if (literalServiceName && (aligned || literalDataType)) {
+                narrowed.add(lookup(this.byServiceName, pattern.substring(first + 1, second)));
+            }
+            if (isLiteral(pattern, second + 1, third) && (aligned || (literalDataType && literalServiceName))) {
+                narrowed.add(lookup(this.byServiceType, pattern.substring(second + 1, third)));
+            }
+        }
+
+        if (narrowed.isEmpty()) {
+            return null;
+        }
+
+        // Intersect starting from the smallest
+        narrowed.sort(Comparator.comparingInt(Map::size));
+        final Map<String, DirectoryEntry> result = new HashMap<>(narrowed.get(0));
+        for (int i = 1; i < narrowed.size() && !result.isEmpty(); i++) {
+            result.keySet().retainAll(narrowed.get(i).keySet());
+        }
+        result.putAll(this.unanchored);
+        return result.values();
+    }
+
+    private static Map<String, DirectoryEntry> lookup(final ConcurrentHashMap<String, Map<String, DirectoryEntry>> index, final String token) {
+        final Map<String, DirectoryEntry> entries = index.get(token);
+        return (entries != null) ? entries : Collections.emptyMap();
+    }
+
+    private static boolean isLiteral(final String pattern, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            final char c = pattern.charAt(i);
+            if (c == '*' || c == '?') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the scheme://host:port/ of an entry key, when it has exactly one right after the third separator
+     *
+     * @param entryKey the key of the entry
+     * @return the service host url or null if the key is not shaped the usual way
+     */
+    @Nullable
+    static String getServiceHost(final String entryKey) {
+        final int scheme = entryKey.indexOf(SCHEME_SEPARATOR);
+        if (scheme < 0 || entryKey.indexOf(SCHEME_SEPARATOR, scheme + 1) > -1) {
+            return null;
+        }
+        final int dot = entryKey.lastIndexOf(KeyManipulator.SEPARATOR, scheme);
+        final int slash = entryKey.indexOf(KeyManipulator.CLASSSEPARATOR, scheme + SCHEME_SEPARATOR.length());
+        if (dot < 0 || slash < 0 || countSeparators(entryKey, dot) != 2) {
+            return null;
+        }
+        return entryKey.substring(dot + 1, slash + 1);
+    }
+
+    private static int countSeparators(final String s, final int end) {
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            if (s.charAt(i) == KeyManipulator.SEPARATOR) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -103,6 +103,16 @@ public class DirectoryEntryList extends CopyOnWriteArrayList<DirectoryEntry> {
         return changed;
     }
 
+    /**
+     * Fill an empty list with entries that are already sorted by expense and free of duplicate keys. The entries are copied
+     * as they are in one pass, without checking either.
+     *
+     * @param sorted the entries in order
+     */
+    protected void addAllSorted(final Collection<? extends DirectoryEntry> sorted) {
+        super.addAll(sorted);
+    }
+
     /**
      * Add a new DirectoryEntry
      * 
@@ -4,7 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -13,6 +13,10 @@ import javax.annotation.Nullable;
 /**
  * Keep a map of DataID to DirectoryEntryList for the Directory Extensible to use other things for the key if desired,
  * just override the methods that figure out the key automatically from the DirectoryEntry or DirectoryEntryList.
+ * <p>
+ * The entries are also indexed by service name, service type and service host so wildcarded queries and removals only
+ * look at the entries that could match. The index follows the entries added and removed through this map, including
+ * whole lists through put, remove and clear, so the lists held by the map should not be changed directly.
  */
 public class DirectoryEntryMap extends ConcurrentHashMap<String, DirectoryEntryList> {
 
@@ -27,6 +31,13 @@ public class DirectoryEntryMap extends ConcurrentHashMap<String, DirectoryEntryL
     /** Value of SHALLOW_COPY flag */
     public static final boolean SHALLOW_COPY = false;
 
+    /** Log of entries added and removed, if anyone needs to know */
+    @Nullable
+    private transient DirectoryChangeLog changeLog;
+
+    /** Index of the live entries in the lists by service name, type and host */
+    private final DirectoryEntryIndex index = new DirectoryEntryIndex();
+
     /**
      * No arg ctor supplies our tuned defaults to the super ctor
      */
@@ -83,6 +94,26 @@ public class DirectoryEntryMap extends ConcurrentHashMap<String, DirectoryEntryL
         }
     }
 
+    /**
+     * Record the entries added to and removed from this map from now on. Changes made by the generic Map methods such as
+     * put and clear are not recorded.
+     *
+     * @param changeLog the log to record to or null to stop recording
+     */
+    public void setChangeLog(@Nullable final DirectoryChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    /**
+     * Get the log the changes to this map are recorded to
+     *
+     * @return the log or null if changes are not recorded
+     */
+    @Nullable
+    public DirectoryChangeLog getChangeLog() {
+        return this.changeLog;
+    }
+
     /**
      * Add a directory entry to the appropriate DirectoryEntryList If it is a duplicate entry in all parts except cost, only
      * the lowest cost entry is kept. Either this entry or the one already in the list will be discarded.
@@ -107,9 +138,17 @@ public class DirectoryEntryMap extends ConcurrentHashMap<String, DirectoryEntryL
             list = new DirectoryEntryList();
             put(key, list);
         }
-        final int beforeSize = list.size();
-        list.add(d);
-        final int afterSize = list.size();
+        final int beforeSize;
+        final int afterSize;
+        synchronized (list) {
+            beforeSize = list.size();
+            list.add(d);
+            afterSize = list.size();
+            indexIfLive(list, d);
+        }
+        if (this.changeLog != null) {
+            this.changeLog.added(d);
+        }
 
         if (logger.isDebugEnabled()) {
             // This check could be wrong since nothing is synchronized.
@@ -187,13 +226,16 @@ public class DirectoryEntryMap extends ConcurrentHashMap<String, DirectoryEntryL
         DirectoryEntry removed = null;
         final DirectoryEntryList list = get(key);
         if (list != null) {
-            // NB: cannot remove from DirectoryEntryList through iterator
-            for (int i = 0; i < list.size(); i++) {
-                final DirectoryEntry entry = list.get(i);
-                if (entry.getKey().equals(entryKey)) {
-                    removed = entry;
-                    list.remove(i);
-                    break;
+            synchronized (list) {
+                // NB: cannot remove from DirectoryEntryList through iterator
+                for (int i = 0; i < list.size(); i++) {
+                    final DirectoryEntry entry = list.get(i);
+                    if (entry.getKey().equals(entryKey)) {
+                        removed = entry;
+                        list.remove(i);
+                        this.index.remove(entryKey);
+                        break;
+                    }
                 }
             }
 
@@ -203,6 +245,10 @@ public class DirectoryEntryMap extends ConcurrentHashMap<String, DirectoryEntryL
             }
         }
 
+        if (removed != null && this.changeLog != null) {
+            this.changeLog.removed(removed);
+        }
+
         return removed;
     }
 
@@ -227,14 +273,11 @@ public class DirectoryEntryMap extends ConcurrentHashMap<String, DirectoryEntryL
     public List<DirectoryEntry> removeAllMatching(final String key, final long checkpoint) {
         final List<DirectoryEntry> removed = new ArrayList<>();
 
-        for (final DirectoryEntryList list : values()) {
-            // NB: cannot remove from DirectoryEntryList through iterator
-            // Need to mark and sweep
-            for (int i = 0; i < list.size(); i++) {
-                final DirectoryEntry entry = list.get(i);
-                if (KeyManipulator.gmatch(entry.getKey(), key) && entry.getAge() < checkpoint) {
-                    removed.add(entry);
-                }
+        // NB: cannot remove from DirectoryEntryList through iterator
+        // Need to mark and sweep
+        for (final DirectoryEntry entry : collectAllMatching(key)) {
+            if (entry.getAge() < checkpoint) {
+                removed.add(entry);
             }
         }
 
@@ -281,6 +324,15 @@ public class DirectoryEntryMap extends ConcurrentHashMap<String, DirectoryEntryL
 
         final String dataId = KeyManipulator.getDataID(key);
         if (dataId.contains("*") || dataId.contains("?")) {
+            final Collection<DirectoryEntry> candidates = this.index.candidates(key);
+            if (candidates != null) {
+                for (final DirectoryEntry entry : candidates) {
+                    if (KeyManipulator.gmatch(entry.getKey(), key)) {
+                        match.add(entry);
+                    }
+                }
+                return match;
+            }
             for (final DirectoryEntryList list : values()) {
                 for (final DirectoryEntry entry : list) {
                     if (KeyManipulator.gmatch(entry.getKey(), key)) {
@@ -301,6 +353,21 @@ public class DirectoryEntryMap extends ConcurrentHashMap<String, DirectoryEntryL
         return match;
     }
 
+    /**
+     * Index an entry just added to a list unless the list kept a better entry with the same key
+     *
+     * @param list the list the entry was added to
+     * @param d the entry added
+     */
+    private void indexIfLive(final DirectoryEntryList list, final DirectoryEntry d) {
+        for (final DirectoryEntry entry : list) {
+            if (entry == d) {
+                this.index.add(d);
+                return;
+            }
+        }
+    }
+
     /**
      * Find all entries on a directory
      * 
@@ -320,17 +387,7 @@ public class DirectoryEntryMap extends ConcurrentHashMap<String, DirectoryEntryL
      * @return count of entries that were matches
      */
     public int countAllMatching(final String key) {
-        int count = 0;
-
-        for (final DirectoryEntryList list : values()) {
-            for (final Iterator<DirectoryEntry> i = list.iterator(); i.hasNext();) {
-                final DirectoryEntry entry = i.next();
-                if (KeyManipulator.gmatch(entry.getKey(), key)) {
-                    count++;
-                }
-            }
-        }
-        return count;
+        return collectAllMatching(key).size();
     }
 
     /**
@@ -372,11 +429,71 @@ public class DirectoryEntryMap extends ConcurrentHashMap<String, DirectoryEntryL
                     list = new DirectoryEntryList();
                     put(entry.getKey(), list);
                 }
-                list.addAll(entry.getValue());
+                synchronized (list) {
+                    list.addAll(entry.getValue());
+                    // Reindex the whole list, duplicates only keep the best entry for a key
+                    for (final DirectoryEntry d : list) {
+                        this.index.add(d);
+                    }
+                }
+                if (this.changeLog != null) {
+                    for (final DirectoryEntry d : entry.getValue()) {
+                        this.changeLog.added(d);
+                    }
+                }
             }
         }
     }
 
+    /**
+     * Put a whole list in the map, indexing its entries in place of any list it replaces
+     *
+     * @param key the key to this map
+     * @param list the list of entries
+     * @return the list replaced or null if none
+     */
+    @Override
+    public DirectoryEntryList put(final String key, final DirectoryEntryList list) {
+        final DirectoryEntryList old = super.put(key, list);
+        if (old != null && old != list) {
+            unindex(old);
+        }
+        for (final DirectoryEntry d : list) {
+            this.index.add(d);
+        }
+        return old;
+    }
+
+    /**
+     * Remove a whole list from the map and the index
+     *
+     * @param key the key to this map
+     * @return the list removed or null if none
+     */
+    @Override
+    public DirectoryEntryList remove(final Object key) {
+        final DirectoryEntryList old = super.remove(key);
+        if (old != null) {
+            unindex(old);
+        }
+        return old;
+    }
+
+    /**
+     * Remove everything from the map and the index
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        this.index.clear();
+    }
+
+    private void unindex(final DirectoryEntryList list) {
+        for (final DirectoryEntry d : list) {
+            this.index.remove(d.getKey());
+        }
+    }
+
     /**
      * Change cost on matching entries
      * 
@@ -7,6 +7,7 @@ import emissary.core.Namespace;
 import emissary.log.MDCConstants;
 import emissary.place.ServiceProviderPlace;
 import emissary.server.mvc.adapters.DirectoryAdapter;
+import emissary.util.DaemonThreadFactory;
 
 import org.slf4j.MDC;
 
@@ -16,9 +17,14 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 /**
@@ -59,9 +65,29 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
     /** Heartbeat manager for checking up on remote directories */
     protected HeartbeatManager heartbeat;
 
+    /** Versioned log of the changes to the entryMap, for peers to sync from */
+    protected DirectoryChangeLog changeLog;
+
+    /** How far we have seen the change log of each peer, for asking for just the changes next time */
+    protected final Map<String, DirectoryChangeLog.Position> peerPositions = new ConcurrentHashMap<>();
+
+    /** Ask peers for changes instead of doing full xml zone transfers */
+    protected boolean deltaSyncEnabled = true;
+
+    /** Pulls changes from the peers on a schedule, null unless PEER_SYNC_INTERVAL_SECONDS is set */
+    @Nullable
+    protected ScheduledExecutorService peerSync;
+
+    /** Meters the syncs with peers */
+    protected DirectorySyncMetrics syncMetrics;
+
     /** Manage observers */
     protected DirectoryObserverManager observerManager;
 
+    /** Compiled wildcard routes for the entryMap, null when ROUTING_CACHE_ENABLED is false */
+    @Nullable
+    protected CompiledRoutingTable routingTable;
+
     /** True if this directory is a rendezvous peer */
     protected boolean rdvPeer = false;
 
@@ -212,6 +238,15 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
      * <li>HEARTBEAT_INTERVAL_SECONDS, default is 30</li>
      * <li>HEARTBEAT_FAILURE_THRESHOLD, set transient failure count, default owned by HeartbeatManager</li>
      * <li>HEARTBEAT_PERMANENT_FAILURE_THRESHOLD, set permanent failure count, default owned by HeartbeatManager</li>
+     * <li>HEARTBEAT_MAX_INTERVAL_SECONDS, longest interval a healthy peer stretches to, default owned by
+     * HeartbeatManager</li>
+     * <li>HEARTBEAT_RETRY_SECONDS, first retry delay after a failure, default owned by HeartbeatManager</li>
+     * <li>HEARTBEAT_TIMEOUT_MILLIS, heartbeats taking longer are aborted, default owned by HeartbeatManager</li>
+     * <li>HEARTBEAT_THREADS, heartbeats in flight at once, default owned by HeartbeatManager</li>
+     * <li>ROUTING_CACHE_ENABLED, cache compiled wildcard routes for nextKeys, default is true</li>
+     * <li>CHANGE_LOG_SIZE, number of entry changes kept for peers to sync from, default is 10000</li>
+     * <li>DELTA_SYNC_ENABLED, ask peers for changes instead of full xml zone transfers, default is true</li>
+     * <li>PEER_SYNC_INTERVAL_SECONDS, how often to pull changes from the live peers, default 0 is only on contact</li>
      * </ul>
      */
     private void setupDirectory() {
@@ -231,6 +266,23 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
             if (heartbeatPermanentFailure > 0) {
                 this.heartbeat.setPermanentFailThreshold(heartbeatPermanentFailure);
             }
+
+            final int heartbeatMaxInterval = configG.findIntEntry("HEARTBEAT_MAX_INTERVAL_SECONDS", -1);
+            if (heartbeatMaxInterval > 0) {
+                this.heartbeat.setMaxIntervalMillis(heartbeatMaxInterval * 1000L);
+            }
+
+            final int heartbeatRetry = configG.findIntEntry("HEARTBEAT_RETRY_SECONDS", -1);
+            if (heartbeatRetry > 0) {
+                this.heartbeat.setRetryIntervalMillis(heartbeatRetry * 1000L);
+            }
+
+            final long heartbeatTimeout = configG.findLongEntry("HEARTBEAT_TIMEOUT_MILLIS", -1L);
+            if (heartbeatTimeout > 0) {
+                this.heartbeat.setProbeTimeoutMillis(heartbeatTimeout);
+            }
+
+            this.heartbeat.setProbeThreads(configG.findIntEntry("HEARTBEAT_THREADS", -1));
         }
 
         // Set up deferred stuff from ServiceProviderPlace
@@ -242,6 +294,18 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
         // Start an observer manager
         this.observerManager = new DirectoryObserverManager(myKey);
 
+        // Record changes for peers to sync from
+        this.changeLog = new DirectoryChangeLog(configG.findIntEntry("CHANGE_LOG_SIZE", DirectoryChangeLog.DEFAULT_CAPACITY));
+        this.entryMap.setChangeLog(this.changeLog);
+        this.deltaSyncEnabled = configG.findBooleanEntry("DELTA_SYNC_ENABLED", true);
+        this.syncMetrics = new DirectorySyncMetrics();
+
+        // Compiled routes are invalidated by the place observer events
+        if (configG.findBooleanEntry("ROUTING_CACHE_ENABLED", true)) {
+            this.routingTable = new CompiledRoutingTable();
+            this.observerManager.addObserver(this.routingTable);
+        }
+
         // Configure my initial rendezvous peers
         configureNetworkTopology();
 
@@ -256,6 +320,28 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
         list.add(keys.get(0));
         addPlaces(list);
         this.running = true;
+
+        final int syncSeconds = configG.findIntEntry("PEER_SYNC_INTERVAL_SECONDS", 0);
+        if (syncSeconds > 0 && this.heartbeat != null) {
+            this.peerSync = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("DirectoryPeerSync-"));
+            this.peerSync.scheduleWithFixedDelay(this::syncPeers, syncSeconds, syncSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Pull the changes from each live peer we have synced with before
+     */
+    protected void syncPeers() {
+        try {
+            for (final DirectoryEntry peer : this.peerDirectories) {
+                final String key = peer.getKey();
+                if (this.peerPositions.containsKey(key) && this.heartbeat.isHealthy(key)) {
+                    loadPeerEntries(key);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Unexpected problem syncing with peers", e);
+        }
     }
 
     /**
@@ -450,6 +536,11 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
      * Retrieve and load (zone transfer) all the entries from specified remote directory into the specified map. Remove any
      * stale entries from the destination map if one is specified and merge in the new entries. Zone transfers do not
      * trigger observables like addPlaces does
+     * <p>
+     * When the remote directory supports it, only the changes since the last sync are transferred and applied. A snapshot
+     * of the remote entries is transferred instead on the first sync, or when the remote has restarted or no longer has all
+     * the changes, and it is loaded like a full zone transfer. Remote directories that do not support either get the full
+     * xml zone transfer.
      *
      * @param key key of the remote directory to transfer from
      * @param loadMap the map to load into or null for no load. Observers are notified if loadMap is not null
@@ -476,8 +567,16 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
         try {
             // Also registers as a peer with them
             // TODO should we need to get the current EmissaryClient to ensure parameters are set correctly
-            final DirectoryAdapter da = new DirectoryAdapter();
-            map = da.outboundRegisterPeer(key, myKey);
+            final DirectoryAdapter da = newDirectoryAdapter();
+            final DirectoryDelta delta = this.deltaSyncEnabled ? da.outboundDirectoryChanges(key, myKey, this.peerPositions.get(key)) : null;
+            if (delta != null && !delta.isSnapshot()) {
+                logger.debug("Retrieved {} from {} in {} millis", delta, key, (System.currentTimeMillis() - startZone));
+                final long startApply = System.nanoTime();
+                map = applyChanges(key, delta, loadMap);
+                recordSync(key, delta, loadMap, startApply);
+                return map;
+            }
+            map = (delta != null) ? delta.toEntryMap() : da.outboundRegisterPeer(key, myKey);
 
             if (logger.isDebugEnabled()) {
                 logger.debug("Retrieved {} entries in zone transfer from {} in {} millis", map.entryCount(), key,
@@ -486,7 +585,9 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
 
             // No entries mean we got the remote message,
             // and they just don't have any places registered yet
+            final long startApply = System.nanoTime();
             if (map.isEmpty()) {
+                recordSync(key, delta, loadMap, startApply);
                 return map;
             }
 
@@ -502,6 +603,7 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
             } else {
                 logger.debug("Skipping load of {} new entries from {} returning list to caller", map.entryCount(), key);
             }
+            recordSync(key, delta, loadMap, startApply);
         } catch (Exception ex) {
             if (logger.isDebugEnabled()) {
                 logger.debug("Unable to zone transfer with {}", key, ex);
@@ -515,6 +617,107 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
         return map;
     }
 
+    /**
+     * Create the client used to talk to remote directories
+     *
+     * @return a new directory adapter
+     */
+    protected DirectoryAdapter newDirectoryAdapter() {
+        return new DirectoryAdapter();
+    }
+
+    /**
+     * Apply the changes a remote directory has made since the last sync. Added entries are loaded like a zone transfer.
+     * Removals are only taken for entries on the remote directory's own node, in line with the stale entry check of a zone
+     * transfer, since entries from elsewhere are looked after by their own directories.
+     *
+     * @param key key of the remote directory
+     * @param delta the changes
+     * @param loadMap the map to load into or null for no load
+     * @return the new and better cost entries that were added
+     */
+    private DirectoryEntryMap applyChanges(final String key, final DirectoryDelta delta, @Nullable final DirectoryEntryMap loadMap) {
+        final DirectoryEntryMap added = new DirectoryEntryMap();
+        final List<DirectoryEntry> removals = new ArrayList<>();
+        final String remoteHost = KeyManipulator.getHostMatchKey(key);
+        for (final DirectoryChangeLog.Change change : delta.getChanges()) {
+            if (change.getOp() == DirectoryChangeLog.Op.ADD) {
+                added.addEntry(new DirectoryEntry(change.getEntry()));
+            } else if (KeyManipulator.gmatch(change.getEntry().getKey(), remoteHost)) {
+                removals.add(change.getEntry());
+            }
+        }
+
+        if (loadMap == null) {
+            logger.debug("Skipping load of {} from {} returning list to caller", delta, key);
+            return added;
+        }
+
+        final List<DirectoryEntry> removed = new ArrayList<>();
+        for (final DirectoryEntry removal : removals) {
+            final DirectoryEntry e = loadMap.removeEntry(removal.getKey());
+            if (e != null) {
+                removed.add(e);
+            }
+        }
+        if (!removed.isEmpty()) {
+            logger.debug("Removed {} entries deleted from {}", removed.size(), key);
+            this.observerManager.placeRemoveEntries(removed);
+        }
+
+        if (!added.isEmpty()) {
+            cleanLoadNotifyEntries(added, loadMap, myKey, REMOTE_COST_OVERHEAD);
+        }
+        return added;
+    }
+
+    /**
+     * Meter a sync with a remote directory and remember how far we got for next time
+     *
+     * @param key key of the remote directory
+     * @param delta what was transferred or null for a legacy xml zone transfer
+     * @param loadMap the map loaded into, nothing is remembered if null
+     * @param startNanos when applying started
+     */
+    private void recordSync(final String key, @Nullable final DirectoryDelta delta, @Nullable final DirectoryEntryMap loadMap,
+            final long startNanos) {
+        final long applyNanos = System.nanoTime() - startNanos;
+        if (delta == null) {
+            this.syncMetrics.syncedLegacy(applyNanos);
+        } else {
+            this.syncMetrics.synced(delta, applyNanos);
+            if (loadMap != null) {
+                this.peerPositions.put(key, delta.getPosition());
+            }
+        }
+    }
+
+    /**
+     * Get the changes to the entries of this directory since a peer last saw them. The snapshot version is taken before the
+     * entries are collected, so a snapshot may already hold some of the changes that follow it. Applying those again on the
+     * next sync does no harm.
+     *
+     * @param epoch epoch of the change log the peer last saw, -1 if none
+     * @param version version of the change log the peer last saw, -1 if none
+     * @return the changes, or a snapshot of all entries if the changes are not all available
+     */
+    @Override
+    public DirectoryDelta irdChangesSince(final long epoch, final long version) {
+        final List<DirectoryChangeLog.Change> changes = this.changeLog.changesSince(epoch, version);
+        if (changes != null) {
+            return DirectoryDelta.changes(myKey, this.changeLog.getEpoch(), version, changes);
+        }
+        final long snapshotVersion = this.changeLog.getVersion();
+        return DirectoryDelta.snapshot(myKey, this.changeLog.getEpoch(), snapshotVersion, this.entryMap.allEntries());
+    }
+
+    /**
+     * Get the meters of the syncs with peers
+     */
+    public DirectorySyncMetrics getSyncMetrics() {
+        return this.syncMetrics;
+    }
+
     /**
      * Remove stale entries from the specified map and notify any observers Nothing older than checkpoint time can be
      * considered stale and nothing that is on the incming newEntries list can be considered stale since we would just be
@@ -762,6 +965,7 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
 
             // Remove from heartbeat manager
             this.heartbeat.removeRemoteDirectory(expeer.getKey());
+            this.peerPositions.remove(expeer.getKey());
 
             // Notify all observers, but don't give them
             // access to our own Set object
@@ -818,6 +1022,8 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
         // Transient failure adjusts weight of entries on failed directory.
         if (permanent) {
             logger.debug("Permanent failure of remote {}", key);
+            // Its entries are gone so the next sync has to start over
+            this.peerPositions.remove(dirKey);
             count += removePlaces(Collections.singletonList(hmKey));
         } else {
             // Change the weight of the paths for all places matching the
@@ -868,7 +1074,7 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
         }
 
         try {
-            new DirectoryAdapter().outboundFailDirectory(directory.getKey(), failKey, permanent);
+            newDirectoryAdapter().outboundFailDirectory(directory.getKey(), failKey, permanent);
         } catch (Exception ex) {
             logger.error("Problem talking to directory {} to fail {}", directory.getKey(), failKey, ex);
         }
@@ -994,7 +1200,7 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
         }
 
         try {
-            new DirectoryAdapter().outboundAddPlaces(dir.getKey(), entryList, propagating);
+            newDirectoryAdapter().outboundAddPlaces(dir.getKey(), entryList, propagating);
             logger.debug("registration succeeded");
         } catch (Exception ex) {
             logger.warn("DirectoryPlace.registerWith: Problem talking to directory {} to add {} entries", dir.getKey(), entryList.size(), ex);
@@ -1108,6 +1314,9 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
         // FOO-BAR(*)-*
         // FOO-*
         // See WildcardEntry for a more thorough example
+        if (this.routingTable != null && entries == this.entryMap) {
+            return this.routingTable.lookup(dataID, entries);
+        }
         return WildcardEntry.getWildcardedEntry(dataID, entries);
     }
 
@@ -1326,7 +1535,7 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
     protected void deregisterFrom(final DirectoryEntry dir, final List<String> keys, final boolean propagating) {
         try {
             // Follow the logic to irdRemovePlaces on the remote side
-            new DirectoryAdapter().outboundRemovePlaces(dir.getKey(), keys, propagating);
+            newDirectoryAdapter().outboundRemovePlaces(dir.getKey(), keys, propagating);
         } catch (Exception ex) {
             logger.error("DirectoryPlace.deregisterFrom: " + "Problem talking to directory " + dir.getKey() + " to deregister keys", ex);
         }
@@ -1364,8 +1573,15 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
             this.observerManager.placeRemove(e.getFullKey());
         }
 
+        if (this.peerSync != null) {
+            this.peerSync.shutdownNow();
+        }
+
         // Nuke em
         this.entryMap.clear();
+        if (this.routingTable != null) {
+            this.routingTable.invalidate();
+        }
 
         // Remove peers and Notify all observers that we are leaving the group
         this.peerDirectories.clear();
@@ -1430,6 +1646,18 @@ public class DirectoryPlace extends ServiceProviderPlace implements IRemoteDirec
         return (this.heartbeat != null) && this.heartbeat.isHealthy(key);
     }
 
+    /**
+     * Get the phi accrual suspicion that a remote directory has failed, as seen from this directory.
+     *
+     * @see HeartbeatManager#getPhi(String)
+     * @param key the key of the remote directory
+     * @return the suspicion level, 0 if unknown
+     */
+    @Override
+    public double getRemoteDirectoryPhi(final String key) {
+        return (this.heartbeat != null) ? this.heartbeat.getPhi(key) : 0.0;
+    }
+
     /**
      * Force a heartbeat with a particular directory represented by key does not necessarily need to be one that the
      * HeartbeatManager is already tracking and calling this method will not add it permanently to any list to be tracked.
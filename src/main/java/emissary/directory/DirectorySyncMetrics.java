@@ -0,0 +1,122 @@
+package emissary.directory;
+
+import emissary.core.MetricsManager;
+import emissary.core.NamespaceException;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Meters the syncs a DirectoryPlace does with its peers: how many were change lists, snapshots or legacy xml zone
+ * transfers, how many bytes came over the wire and how long each took to apply.
+ */
+public class DirectorySyncMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectorySyncMetrics.class);
+
+    public static final String DELTA_METRIC = "directory.sync.deltas";
+    public static final String SNAPSHOT_METRIC = "directory.sync.snapshots";
+    public static final String LEGACY_METRIC = "directory.sync.legacy";
+    public static final String BYTES_METRIC = "directory.sync.bytes";
+    public static final String APPLY_METRIC = "directory.sync.apply";
+
+    protected final Counter deltas;
+    protected final Counter snapshots;
+    protected final Counter legacy;
+    protected final Histogram bytes;
+    protected final Timer apply;
+
+    /**
+     * Create sync metrics reporting to the MetricsManager bound in the namespace, if there is one
+     */
+    public DirectorySyncMetrics() {
+        this(lookupRegistry());
+    }
+
+    /**
+     * Create sync metrics reporting to the specified registry
+     *
+     * @param registry the registry to hold the metrics or null to keep them private
+     */
+    public DirectorySyncMetrics(@Nullable final MetricRegistry registry) {
+        if (registry != null) {
+            this.deltas = registry.counter(DELTA_METRIC);
+            this.snapshots = registry.counter(SNAPSHOT_METRIC);
+            this.legacy = registry.counter(LEGACY_METRIC);
+            this.bytes = registry.histogram(BYTES_METRIC);
+            this.apply = registry.timer(APPLY_METRIC);
+        } else {
+            this.deltas = new Counter();
+            this.snapshots = new Counter();
+            this.legacy = new Counter();
+            this.bytes = new Histogram(new UniformReservoir());
+            this.apply = new Timer();
+        }
+    }
+
+    @Nullable
+    private static MetricRegistry lookupRegistry() {
+        try {
+            return MetricsManager.lookup().getMetricRegistry();
+        } catch (NamespaceException e) {
+            logger.debug("No MetricsManager available, directory sync metrics will not be published");
+            return null;
+        }
+    }
+
+    /**
+     * Record a sync that received a change list or snapshot
+     *
+     * @param delta what was received
+     * @param applyNanos how long it took to apply
+     */
+    public void synced(final DirectoryDelta delta, final long applyNanos) {
+        if (delta.isSnapshot()) {
+            this.snapshots.inc();
+        } else {
+            this.deltas.inc();
+        }
+        if (delta.getWireBytes() >= 0) {
+            this.bytes.update(delta.getWireBytes());
+        }
+        this.apply.update(applyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record a sync that used a legacy xml zone transfer
+     *
+     * @param applyNanos how long it took to apply
+     */
+    public void syncedLegacy(final long applyNanos) {
+        this.legacy.inc();
+        this.apply.update(applyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getDeltaCount() {
+        return this.deltas.getCount();
+    }
+
+    public long getSnapshotCount() {
+        return this.snapshots.getCount();
+    }
+
+    public long getLegacyCount() {
+        return this.legacy.getCount();
+    }
+
+    public Histogram getBytes() {
+        return this.bytes;
+    }
+
+    public Timer getApplyTimer() {
+        return this.apply;
+    }
+}
@@ -5,6 +5,7 @@ import emissary.client.EmissaryResponse;
 import emissary.core.Namespace;
 import emissary.core.NamespaceException;
 import emissary.server.mvc.adapters.HeartbeatAdapter;
+import emissary.util.DaemonThreadFactory;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
@@ -15,16 +16,28 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 /**
  * Facility for directory instances to check up on each other by sending a heartbeat message
+ * <p>
+ * Each remote directory is probed on its own schedule by a small pool of threads, so a slow or dead peer only holds up
+ * its own probe, and a probe that runs past the deadline is aborted and counted as a failure. Healthy peers are probed
+ * less often, stretching from the configured interval up to the maximum interval, while a peer that has just failed is
+ * retried quickly and then backed off. Every delay is jittered so the probes of many peers do not line up.
+ * <p>
+ * Besides the failure counts that drive the fail and contact actions, the arrival times of successful heartbeats give a
+ * phi accrual suspicion level for each peer, see {@link #getPhi(String)}.
  */
 public class HeartbeatManager {
     // Our logger
@@ -36,8 +49,11 @@ public class HeartbeatManager {
     public static final String BAD_RESPOSNE = "Bad request -> status: 500";
 
 
-    /** The timer drives the tasks and scheduling of heartbeat pings */
-    protected Timer timer = null;
+    /** Schedules the heartbeat probes and their deadlines */
+    protected ScheduledThreadPoolExecutor scheduler;
+
+    /** Runs the heartbeat probes */
+    protected ThreadPoolExecutor probes;
 
     /** Directory this instance acts on behalf of */
     protected String thisDirectory;
@@ -58,6 +74,42 @@ public class HeartbeatManager {
      */
     protected int intervalSeconds = DEFAULT_INTERVAL_SECONDS;
 
+    /** Default number of heartbeats that can be in flight at once {@value} */
+    public static final int DEFAULT_PROBE_THREADS = 8;
+
+    /** Default longest time a heartbeat can take before it is aborted {@value} */
+    public static final long DEFAULT_PROBE_TIMEOUT_MILLIS = 10000L;
+
+    /** Default fraction of each delay that is randomized {@value} */
+    public static final double DEFAULT_JITTER = 0.1;
+
+    /** Number of heartbeat arrivals kept for the phi calculation {@value} */
+    public static final int PHI_WINDOW = 100;
+
+    /** When the first probes are due */
+    protected long startMillis;
+
+    /** Delay between probes of a peer that has just become healthy */
+    protected long intervalMillis;
+
+    /** Delay between probes of a peer that stays healthy grows up to this, default twice the interval */
+    protected long maxIntervalMillis;
+
+    /**
+     * Delay before retrying a peer that has just failed, doubling with each further failure, default a sixth of the
+     * interval
+     */
+    protected long retryIntervalMillis;
+
+    /** Longest time a heartbeat can take before it is aborted */
+    protected long probeTimeoutMillis;
+
+    /** Fraction of each delay that is randomized */
+    protected double jitter = DEFAULT_JITTER;
+
+    /** Sends the heartbeats */
+    protected EmissaryClient client = new EmissaryClient();
+
     /** Number of consecutive failures to trigger notice */
     protected int failThreshold = 3;
 
@@ -94,13 +146,35 @@ public class HeartbeatManager {
      */
     public HeartbeatManager(final String directoryKey, @Nullable final List<String> dirList, final int initialDelaySeconds,
             final int intervalSeconds) {
-        this.initialDelaySeconds = initialDelaySeconds;
-        this.intervalSeconds = intervalSeconds;
-
-        logger.debug("Starting with initialDelay={}, interval={}", initialDelaySeconds, intervalSeconds);
+        this(directoryKey, dirList, initialDelaySeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
 
-        // new daemon timer
-        this.timer = new Timer("HeartbeatManager", true);
+    /**
+     * Setup to manage heartbeats to remote directories
+     *
+     * @param directoryKey Key for directory I act on behalf of
+     * @param dirList list of directory keys for remote directories
+     * @param initialDelay time to wait before the first probes
+     * @param interval time between probes of a healthy peer
+     * @param unit unit of the initialDelay and interval
+     */
+    public HeartbeatManager(final String directoryKey, @Nullable final List<String> dirList, final long initialDelay, final long interval,
+            final TimeUnit unit) {
+        this.initialDelaySeconds = (int) unit.toSeconds(initialDelay);
+        this.intervalSeconds = (int) unit.toSeconds(interval);
+        this.intervalMillis = Math.max(1L, unit.toMillis(interval));
+        this.maxIntervalMillis = this.intervalMillis * 2;
+        this.retryIntervalMillis = Math.max(1L, this.intervalMillis / 6);
+        this.probeTimeoutMillis = Math.min(DEFAULT_PROBE_TIMEOUT_MILLIS, this.intervalMillis);
+        this.startMillis = now() + unit.toMillis(initialDelay);
+
+        logger.debug("Starting with initialDelay={}, interval={} {}", initialDelay, interval, unit);
+
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("HeartbeatManager-"));
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        this.probes = new ThreadPoolExecutor(DEFAULT_PROBE_THREADS, DEFAULT_PROBE_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new DaemonThreadFactory("HeartbeatProbe-"));
+        this.probes.allowCoreThreadTimeOut(true);
 
         // Save directory key
         this.thisDirectory = directoryKey;
@@ -112,10 +186,10 @@ public class HeartbeatManager {
                 addRemoteDirectory(key);
             }
         }
+    }
 
-        // "smooth" execution every 30 seconds starting in 2 minutes
-        this.timer.schedule(new HeartbeatTask(), new Date(System.currentTimeMillis() + (this.initialDelaySeconds * 1000L)),
-                (this.intervalSeconds * 1000L));
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
     }
 
     /**
@@ -134,11 +208,58 @@ public class HeartbeatManager {
         logger.debug("Set new permanent fail threshold to {}", t);
     }
 
+    /**
+     * Set the longest time a healthy peer goes between probes
+     */
+    public void setMaxIntervalMillis(final long millis) {
+        this.maxIntervalMillis = Math.max(millis, 1L);
+        logger.debug("Set new max interval to {}ms", millis);
+    }
+
+    /**
+     * Set the delay before retrying a peer that has just failed, which doubles with each further failure
+     */
+    public void setRetryIntervalMillis(final long millis) {
+        this.retryIntervalMillis = Math.max(millis, 1L);
+        logger.debug("Set new retry interval to {}ms", millis);
+    }
+
+    /**
+     * Set the longest time a heartbeat can take before it is aborted and counted as a failure
+     */
+    public void setProbeTimeoutMillis(final long millis) {
+        this.probeTimeoutMillis = millis;
+        logger.debug("Set new probe timeout to {}ms", millis);
+    }
+
+    /**
+     * Set the fraction of each delay that is randomized, between 0 and 1
+     */
+    public void setJitter(final double jitter) {
+        this.jitter = Math.max(0.0, Math.min(jitter, 1.0));
+    }
+
+    /**
+     * Set the number of heartbeats that can be in flight at once
+     */
+    public void setProbeThreads(final int threads) {
+        if (threads > 0) {
+            if (threads > this.probes.getMaximumPoolSize()) {
+                this.probes.setMaximumPoolSize(threads);
+                this.probes.setCorePoolSize(threads);
+            } else {
+                this.probes.setCorePoolSize(threads);
+                this.probes.setMaximumPoolSize(threads);
+            }
+        }
+    }
+
     /**
      * Shutdown processing
      */
     public void shutDown() {
-        this.timer.cancel();
+        this.scheduler.shutdownNow();
+        this.probes.shutdownNow();
     }
 
     /**
@@ -160,7 +281,14 @@ public class HeartbeatManager {
         // Skip if on same JVM
         if (!KeyManipulator.isLocalTo(this.thisDirectory, key)) {
             final String dkey = KeyManipulator.getDefaultDirectoryKey(key);
-            this.directories.put(dkey, new Health(isAlive, "Initial status"));
+            final Health health = new Health(isAlive, "Initial status");
+            final Health previous = this.directories.put(dkey, health);
+            if (previous != null) {
+                previous.cancel();
+            }
+            // Spread the first probes out a little so peers added together are not probed together
+            final long spread = (long) (ThreadLocalRandom.current().nextDouble() * this.intervalMillis * this.jitter);
+            schedule(dkey, health, Math.max(this.startMillis - now(), 0L) + spread);
             logger.debug("Added remote {} with initial status {} now monitoring {} remote directories", dkey, isAlive, this.directories.size());
         } else {
             logger.debug("Skipping local directory {}, is not remote", key);
@@ -173,7 +301,10 @@ public class HeartbeatManager {
      * @param key four-tuple for the remote directory
      */
     public void removeRemoteDirectory(final String key) {
-        this.directories.remove(KeyManipulator.getDefaultDirectoryKey(key));
+        final Health health = this.directories.remove(KeyManipulator.getDefaultDirectoryKey(key));
+        if (health != null) {
+            health.cancel();
+        }
     }
 
     /**
@@ -204,6 +335,36 @@ public class HeartbeatManager {
         return false;
     }
 
+    /**
+     * Phi accrual suspicion that a remote has failed, from how late its next heartbeat is compared to the ones seen so far.
+     * A phi of 1 means about a 10% chance of a false alarm if the remote were declared failed now, 2 means 1%, 3 means 0.1%
+     * and so on. It is 0 until a heartbeat has been answered.
+     *
+     * @param key four-tuple key for remote directory
+     * @return the suspicion level, or 0 if the remote is not monitored
+     */
+    public double getPhi(final String key) {
+        final Health val = this.directories.get(KeyManipulator.getDefaultDirectoryKey(key));
+        if (val != null) {
+            return val.phi(now());
+        }
+        return 0.0;
+    }
+
+    /**
+     * Current delay between probes of a remote
+     *
+     * @param key four-tuple key for remote directory
+     * @return the delay before jitter, or -1 if the remote is not monitored
+     */
+    public long getProbeIntervalMillis(final String key) {
+        final Health val = this.directories.get(KeyManipulator.getDefaultDirectoryKey(key));
+        if (val != null) {
+            return val.getInterval();
+        }
+        return -1L;
+    }
+
     /**
      * Externally set the status. Does not call trigger
      *
@@ -302,20 +463,69 @@ public class HeartbeatManager {
 
 
     /**
-     * The Task thread, monitors all remote directories
+     * Randomize a delay by up to the jitter fraction either way
      */
-    class HeartbeatTask extends TimerTask {
-        @Override
-        public void run() {
-            try {
-                logger.debug("Running timer task on {} directories", HeartbeatManager.this.directories.size());
-                for (final String dir : HeartbeatManager.this.directories.keySet()) {
-                    heartbeat(dir);
-                }
-                logger.debug("Ending the HeartbeatTask run method");
-            } catch (Exception e) {
-                logger.error("Unexpected problem in heartbeat timer", e);
+    long jittered(final long millis) {
+        final double spread = millis * this.jitter;
+        if (spread < 1.0) {
+            return millis;
+        }
+        return millis + (long) ThreadLocalRandom.current().nextDouble(-spread, spread);
+    }
+
+    /**
+     * Delay until the next probe of a remote given its last result. Healthy remotes stretch their interval by a quarter
+     * each time up to the maximum, starting over from the interval when they recover. Failing ones are retried after the
+     * retry interval, doubling with each failure up to the maximum.
+     */
+    long nextInterval(final Health health) {
+        final int failures = health.getFailCounter();
+        final long previous = health.getInterval();
+        if (failures == 0) {
+            if (previous < this.intervalMillis || health.isBackingOff()) {
+                return this.intervalMillis;
             }
+            return Math.min(previous + previous / 4, this.maxIntervalMillis);
+        }
+        final int shift = Math.min(failures - 1, 30);
+        return Math.min(this.retryIntervalMillis << shift, Math.max(this.maxIntervalMillis, this.retryIntervalMillis));
+    }
+
+    /**
+     * Queue the next probe of a remote
+     */
+    private void schedule(final String key, final Health health, final long delayMillis) {
+        try {
+            health.setNext(this.scheduler.schedule(() -> submitProbe(key, health), Math.max(delayMillis, 0L), TimeUnit.MILLISECONDS));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Not scheduling heartbeat to {}, shut down", key);
+        }
+    }
+
+    private void submitProbe(final String key, final Health health) {
+        try {
+            this.probes.execute(() -> probe(key, health));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Not probing {}, shut down", key);
+        }
+    }
+
+    /**
+     * Heartbeat a remote and schedule the next probe, unless it was removed or replaced in the meantime
+     */
+    private void probe(final String key, final Health health) {
+        if (this.directories.get(key) != health) {
+            return;
+        }
+        try {
+            heartbeat(key);
+        } catch (RuntimeException e) {
+            logger.error("Unexpected problem in heartbeat to {}", key, e);
+        }
+        if (this.directories.get(key) == health) {
+            final long interval = nextInterval(health);
+            health.setInterval(interval);
+            schedule(key, health, jittered(interval));
         }
     }
 
@@ -331,7 +541,7 @@ public class HeartbeatManager {
         boolean isup = false;
         try {
             logger.debug("Sending heartbeat msg to {}", key);
-            EmissaryResponse response = getHeartbeat(this.thisDirectory, key);
+            EmissaryResponse response = sendHeartbeat(key);
             if (response.getStatus() == 200) {
                 healthReport(key, true, response.getContentString());
                 isup = true;
@@ -347,11 +557,37 @@ public class HeartbeatManager {
         return isup;
     }
 
+    /**
+     * Send a heartbeat that is aborted if it takes longer than the probe timeout
+     */
+    private EmissaryResponse sendHeartbeat(final String key) {
+        final HttpPost method = createHeartbeatPost(this.thisDirectory, key, this.client);
+        ScheduledFuture<?> deadline = null;
+        if (this.probeTimeoutMillis > 0) {
+            try {
+                deadline = this.scheduler.schedule(method::abort, this.probeTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                logger.debug("No deadline for heartbeat to {}, shut down", key);
+            }
+        }
+        try {
+            return this.client.send(method);
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+        }
+    }
+
     public static EmissaryResponse getHeartbeat(String fromPlace, String toPlace) {
         return getHeartbeat(fromPlace, toPlace, new EmissaryClient());
     }
 
     public static EmissaryResponse getHeartbeat(String fromPlace, String toPlace, EmissaryClient client) {
+        return client.send(createHeartbeatPost(fromPlace, toPlace, client));
+    }
+
+    private static HttpPost createHeartbeatPost(String fromPlace, String toPlace, EmissaryClient client) {
         final String directoryUrl = KeyManipulator.getServiceHostURL(toPlace);
         final HttpPost method = client.createHttpPost(directoryUrl, EmissaryClient.CONTEXT, "/Heartbeat.action");
         final String loc = KeyManipulator.getServiceLocation(toPlace);
@@ -360,8 +596,7 @@ public class HeartbeatManager {
         nvps.add(new BasicNameValuePair(HeartbeatAdapter.FROM_PLACE_NAME, fromPlace));
         nvps.add(new BasicNameValuePair(HeartbeatAdapter.TO_PLACE_NAME, loc));
         method.setEntity(new UrlEncodedFormEntity(nvps, Charset.defaultCharset()));
-
-        return client.send(method);
+        return method;
     }
 
 
@@ -374,6 +609,26 @@ public class HeartbeatManager {
 
         private String lastMessage;
 
+        // Current delay between probes
+        private long interval = HeartbeatManager.this.intervalMillis;
+
+        // Whether the current delay is backing off from failures
+        private boolean backingOff = false;
+
+        // The next probe, cancelled when the remote is no longer monitored
+        @Nullable
+        private ScheduledFuture<?> next;
+
+        private boolean cancelled = false;
+
+        // Recent times between answered heartbeats, a ring of PHI_WINDOW
+        private final long[] arrivals = new long[PHI_WINDOW];
+        private int arrivalCount = 0;
+        private int arrivalPos = 0;
+        private double arrivalSum = 0.0;
+        private double arrivalSquares = 0.0;
+        private long lastArrival = -1L;
+
         /**
          * Create a new Health object with the specified status and msg
          *
@@ -390,22 +645,110 @@ public class HeartbeatManager {
          * @param v the most recent status
          * @param msg the most recent message
          */
-        public void addReport(final boolean v, final String msg) {
+        public synchronized void addReport(final boolean v, final String msg) {
             this.lastMessage = msg;
             if (v) {
                 this.failCounter = 0;
+                arrived(now());
             } else {
                 this.failCounter++;
             }
         }
 
+        private void arrived(final long nowMillis) {
+            if (this.lastArrival >= 0) {
+                final long gap = nowMillis - this.lastArrival;
+                if (this.arrivalCount == PHI_WINDOW) {
+                    final long old = this.arrivals[this.arrivalPos];
+                    this.arrivalSum -= old;
+                    this.arrivalSquares -= (double) old * old;
+                } else {
+                    this.arrivalCount++;
+                }
+                this.arrivals[this.arrivalPos] = gap;
+                this.arrivalPos = (this.arrivalPos + 1) % PHI_WINDOW;
+                this.arrivalSum += gap;
+                this.arrivalSquares += (double) gap * gap;
+            }
+            this.lastArrival = nowMillis;
+        }
+
+        /**
+         * Phi of the time since the last answered heartbeat, taking the gaps between heartbeats as normally distributed. Until
+         * there are gaps to go on the probe interval is the estimate. The probe timeout is allowed on top of the mean since an
+         * answer can legitimately take that long, and the deviation is kept to at least a tenth of the mean so a very regular
+         * peer is not suspected the moment it is a little late.
+         */
+        synchronized double phi(final long nowMillis) {
+            if (this.lastArrival < 0) {
+                return 0.0;
+            }
+            double mean;
+            double deviation;
+            if (this.arrivalCount == 0) {
+                mean = this.interval;
+                deviation = mean / 4;
+            } else {
+                mean = this.arrivalSum / this.arrivalCount;
+                deviation = Math.sqrt(Math.max(this.arrivalSquares / this.arrivalCount - mean * mean, 0.0));
+            }
+            deviation = Math.max(deviation, Math.max(mean / 10, 1.0));
+            mean += Math.max(HeartbeatManager.this.probeTimeoutMillis, 0L);
+
+            // Logistic approximation of the normal distribution
+            final double y = (nowMillis - this.lastArrival - mean) / deviation;
+            final double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            if (y > 0) {
+                return -Math.log10(e / (1.0 + e));
+            }
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+
+        synchronized int getFailCounter() {
+            return this.failCounter;
+        }
+
+        synchronized long getInterval() {
+            return this.interval;
+        }
+
+        synchronized boolean isBackingOff() {
+            return this.backingOff;
+        }
+
+        /**
+         * Set the delay to the next probe, chosen for the current failure count
+         */
+        synchronized void setInterval(final long interval) {
+            this.interval = interval;
+            this.backingOff = this.failCounter > 0;
+        }
+
+        synchronized void setNext(final ScheduledFuture<?> next) {
+            if (this.cancelled) {
+                next.cancel(false);
+            } else {
+                this.next = next;
+            }
+        }
+
+        /**
+         * Stop probing this remote
+         */
+        synchronized void cancel() {
+            this.cancelled = true;
+            if (this.next != null) {
+                this.next.cancel(false);
+            }
+        }
+
         /**
          * Set the status now
          *
          * @param isAlive false means permanent failure indicated
          * @param message message to asocciate with this statsu
          */
-        void setStatus(final boolean isAlive, final String message) {
+        synchronized void setStatus(final boolean isAlive, final String message) {
             if (!isAlive) {
                 this.failCounter = HeartbeatManager.this.permanentFailThreshold;
                 this.lastMessage = message;
@@ -420,7 +763,7 @@ public class HeartbeatManager {
          *
          * @return true if failed less than threshold times
          */
-        public boolean isHealthy() {
+        public synchronized boolean isHealthy() {
             return this.failCounter < HeartbeatManager.this.failThreshold;
         }
 
@@ -429,14 +772,14 @@ public class HeartbeatManager {
          *
          * @return true if failed less than permanent threshold times
          */
-        public boolean isAlive() {
+        public synchronized boolean isAlive() {
             return this.failCounter < HeartbeatManager.this.permanentFailThreshold;
         }
 
         /**
          * Access to the last saved message
          */
-        public String getLastMessage() {
+        public synchronized String getLastMessage() {
             return this.lastMessage;
         }
     }
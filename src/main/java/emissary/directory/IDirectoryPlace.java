@@ -90,6 +90,16 @@ public interface IDirectoryPlace extends IServiceProviderPlace {
      */
     boolean isRemoteDirectoryAvailable(String key);
 
+    /**
+     * Get the phi accrual suspicion that a remote directory has failed, higher is more likely failed.
+     *
+     * @param key the key of the remote directory
+     * @return the suspicion level, 0 if unknown or not tracked by this implementation
+     */
+    default double getRemoteDirectoryPhi(String key) {
+        return 0.0;
+    }
+
     /**
      * Trigger a heartbeat message to the remote directory
      *
@@ -50,6 +50,19 @@ public interface IRemoteDirectory extends IDirectoryPlace {
      */
     void irdAddPeerDirectories(Set<String> keys);
 
+    /**
+     * Get the changes to the entries of this directory since a peer last saw them
+     *
+     * @param epoch epoch of the change log the peer last saw, -1 if none
+     * @param version version of the change log the peer last saw, -1 if none
+     * @return the changes, a snapshot of all entries if the changes are not all available, or null if this directory does
+     *         not track its changes and peers have to use a zone transfer
+     */
+    @Nullable
+    default DirectoryDelta irdChangesSince(long epoch, long version) {
+        return null;
+    }
+
     /**
      * Helper class to look up an instance of the local directory cast to this interface if possible
      */
@@ -3,15 +3,20 @@ package emissary.kff;
 import emissary.core.channels.SeekableByteChannelFactory;
 
 import org.apache.commons.collections4.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.channels.Channels;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.zip.CRC32;
 import javax.annotation.Nullable;
 
@@ -22,6 +27,17 @@ import javax.annotation.Nullable;
  * @see java.security.MessageDigest java.security.MessageDigest
  */
 public class ChecksumCalculator {
+    private static final Logger logger = LoggerFactory.getLogger(ChecksumCalculator.class);
+
+    /** Largest buffer used to read a channel, smaller channels get a buffer of their own size */
+    public static final int CHANNEL_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Channel read buffer kept for each thread, calculators are made per payload so they cannot keep one themselves. Held
+     * softly so idle threads give it back under memory pressure.
+     */
+    private static final ThreadLocal<SoftReference<byte[]>> channelBuffer = new ThreadLocal<>();
+
     /** Used for CRC32 calculations */
     private CRC32 crc = null;
     /** Used for SSDEEP calculations */
@@ -30,6 +46,10 @@ public class ChecksumCalculator {
     /** Used for hash calculations */
     private List<MessageDigest> digest = new ArrayList<>();
 
+    /** Pool used to update the digests of each channel chunk in parallel, null to update them in turn */
+    @Nullable
+    private ForkJoinPool pool = null;
+
     /**
      * Constructor initializes SHA-1 generator and turns on the CRC32 processing as well
      * 
@@ -132,6 +152,32 @@ public class ChecksumCalculator {
         }
     }
 
+    /**
+     * Determine if channel digests are computed in parallel
+     */
+    public boolean getUseParallel() {
+        return (pool != null);
+    }
+
+    /**
+     * Update every digest of each chunk read from a channel as a separate task on the common fork-join pool. This only pays
+     * off for large channels with several expensive digests configured.
+     *
+     * @param use true if parallel digest updates are desired
+     */
+    public void setUseParallel(boolean use) {
+        setParallelPool(use ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * Update every digest of each chunk read from a channel as a separate task on the specified pool
+     *
+     * @param pool the pool to use or null to update the digests in turn on the calling thread
+     */
+    public void setParallelPool(@Nullable ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
     /**
      * Calculates a CRC32 and a digest on a byte array.
      * 
@@ -167,47 +213,120 @@ public class ChecksumCalculator {
     /**
      * Calculates a CRC32 and a digest on a {@link java.nio.channels.SeekableByteChannel} of data.
      *
+     * <p>
+     * The channel is read once, in chunks of up to {@link #CHANNEL_BUFFER_SIZE} bytes, and each chunk is fed to every
+     * configured digest, the CRC and the ssdeep state before the next one is read. The chunks are read into a buffer reused
+     * by each thread.
+     *
      * @param sbcf Provider of data to compute results for
      * @return results of computing the requested hashes on the data
      */
     public ChecksumResults digest(final SeekableByteChannelFactory sbcf) {
         final ChecksumResults res = new ChecksumResults();
-        final byte[] b = new byte[1024];
 
         for (final MessageDigest d : digest) {
-            try (final InputStream is = Channels.newInputStream(sbcf.create());) {
-                d.reset();
-
-                int bytesRead;
-                while ((bytesRead = is.read(b)) != -1) {
-                    d.update(b, 0, bytesRead);
-                }
-
-                res.setHash(d.getAlgorithm(), d.digest());
-            } catch (final IOException ioe) {
-                // Ignore
-            }
+            d.reset();
         }
-
         if (crc != null) {
-            try (final InputStream is = Channels.newInputStream(sbcf.create());) {
-                crc.reset();
+            crc.reset();
+        }
 
-                int bytesRead;
-                while ((bytesRead = is.read(b)) != -1) {
-                    crc.update(b, 0, bytesRead);
+        boolean complete = false;
+        Ssdeep.FuzzyHasher fuzzy = null;
+        try (final SeekableByteChannel sbc = sbcf.create()) {
+            final long size = sbc.size();
+            if (ssdeep != null) {
+                fuzzy = new Ssdeep.FuzzyHasher(size);
+            }
+
+            final int chunk = (int) Math.max(1L, Math.min(size, CHANNEL_BUFFER_SIZE));
+            final byte[] b = channelBuffer(chunk);
+            final ByteBuffer buf = ByteBuffer.wrap(b);
+            while (true) {
+                buf.clear();
+                buf.limit(chunk);
+                while (buf.hasRemaining() && sbc.read(buf) != -1) {
+                    // fill the buffer so each update sees as many bytes as possible
                 }
+                final int len = buf.position();
+                if (len == 0) {
+                    break;
+                }
+                update(b, len, fuzzy);
+            }
+            complete = true;
+        } catch (final IOException ioe) {
+            logger.debug("Unable to read channel for digest", ioe);
+        }
 
+        // Match the previous behavior of leaving out anything that could not be read completely
+        if (complete) {
+            for (final MessageDigest d : digest) {
+                res.setHash(d.getAlgorithm(), d.digest());
+            }
+            if (crc != null) {
                 res.setCrc(crc.getValue());
-            } catch (final IOException ioe) {
-                // Ignore
             }
         }
 
         if (ssdeep != null) {
-            res.setSsdeep(ssdeep.fuzzy_hash(sbcf));
+            final String ss = complete ? fuzzy.digest() : null;
+            // Degenerate data needs the smaller block sizes that only the multi-pass hash tries
+            res.setSsdeep(ss != null ? ss : ssdeep.fuzzy_hash(sbcf));
         }
 
         return res;
     }
+
+    /**
+     * Get this thread's channel read buffer, growing it if it is smaller than needed
+     *
+     * @param size bytes needed
+     * @return a buffer of at least size bytes
+     */
+    private static byte[] channelBuffer(final int size) {
+        final SoftReference<byte[]> ref = channelBuffer.get();
+        byte[] b = (ref != null) ? ref.get() : null;
+        if (b == null || b.length < size) {
+            b = new byte[size];
+            channelBuffer.set(new SoftReference<>(b));
+        }
+        return b;
+    }
+
+    /**
+     * Feed one chunk of data to every digest
+     *
+     * @param b the data
+     * @param len number of valid bytes in the data
+     * @param fuzzy the ssdeep state or null if not in use
+     */
+    private void update(final byte[] b, final int len, @Nullable final Ssdeep.FuzzyHasher fuzzy) {
+        if (pool == null) {
+            for (final MessageDigest d : digest) {
+                d.update(b, 0, len);
+            }
+            if (crc != null) {
+                crc.update(b, 0, len);
+            }
+            if (fuzzy != null) {
+                fuzzy.update(b, 0, len);
+            }
+            return;
+        }
+
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(digest.size() + 2);
+        for (final MessageDigest d : digest) {
+            tasks.add(pool.submit(() -> d.update(b, 0, len)));
+        }
+        if (crc != null) {
+            tasks.add(pool.submit(() -> crc.update(b, 0, len)));
+        }
+        if (fuzzy != null) {
+            tasks.add(pool.submit(() -> fuzzy.update(b, 0, len)));
+        }
+        for (final ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
 }
@@ -18,6 +18,8 @@ public class ChecksumResults implements Serializable {
 
     private long crc = -1L;
     private String ssdeep = null;
+    private String ssdeepMatch = null;
+    private int ssdeepScore = -1;
     Map<String, byte[]> hashComp = new TreeMap<>();
 
     /**
@@ -58,6 +60,35 @@ public class ChecksumResults implements Serializable {
         this.ssdeep = ssdeep;
     }
 
+    /**
+     * Gets the id of the most similar known ssdeep signature, if a filter looked for one
+     *
+     * @return the id of the best match or null
+     */
+    public String getSsdeepMatch() {
+        return this.ssdeepMatch;
+    }
+
+    /**
+     * Gets the score of the most similar known ssdeep signature
+     *
+     * @return the score from 1 to 100 or -1 when there is no match
+     */
+    public int getSsdeepScore() {
+        return this.ssdeepScore;
+    }
+
+    /**
+     * Record the most similar known ssdeep signature
+     *
+     * @param match id of the best match
+     * @param score ssdeep score of the best match
+     */
+    public void setSsdeepMatch(String match, int score) {
+        this.ssdeepMatch = match;
+        this.ssdeepScore = score;
+    }
+
     /**
      * Gets the value of requested computation
      *
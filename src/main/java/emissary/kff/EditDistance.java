@@ -48,28 +48,6 @@ public class EditDistance {
      * terminate if the edit distance is known to exceed MIN_DIST
      */
 
-    private static final int THRESHOLD = 4000; /*
-                                                * worry about allocating more memory only when this # of bytes is exceeded
-                                                */
-
-    private static final int STRLENTHRESHOLD = (THRESHOLD / (Integer.SIZE / 8) - 3) / 2;
-
-    // #define SAFE_ASSIGN(x,y) (((x) != NULL) ? (*(x) = (y)) : (y))
-
-    // #define swap_int(x,y) (_iswap = (x), (x) = (y), (y) = _iswap)
-    private static void swap_int(int[] x, int[] y) {
-        int _iswap = x[0];
-        x[0] = y[0];
-        y[0] = _iswap;
-    }
-
-    // #define swap_char(x,y) (_cswap = (x), (x) = (y), (y) = _cswap)
-    private static void swap_char(/* ref */byte[][] x, /* ref */byte[][] y) {
-        byte[] _cswap = (x[0]);
-        (x[0]) = (y[0]);
-        (y[0]) = _cswap;
-    }
-
     // #define min3(x,y,z) (_mx = (x), _my = (y), _mz = (z), (_mx < _my ? (_mx < _mz ? _mx : _mz) : (_mz < _my) ? _mz :
     // _my))
     private static int min3(int x, int y, int z) {
@@ -86,72 +64,30 @@ public class EditDistance {
         return (_mx < _my ? _mx : _my);
     }
 
-    static int insert_cost = 1;
-    static int delete_cost = 1;
+    static final int insert_cost = 1;
+    static final int delete_cost = 1;
 
-    static int _iswap; /* swap_int temp variable */
-    static char _cswap; /* swap_char temp variable */
-
-    /* min2, min3 temp variables */
-    static int _mx;
-    static int _my;
-    static int _mz;
+    /* Handle trivial cases when one string is empty */
 
-    // dynamic programming counters
-    static int row;
-    static int col;
-    static int index = 0;
-    static int radix; // radix for modular indexing
-    static int low;
-    static int[] buffer; /*
-                          * pointer to storage for one row of the d.p. array
-                          */
+    static final int ins = 1;
+    static final int del = 1;
+    static final int ch = 3;
+    static final int swap_cost = 5;
 
-    static int[] store = new int[THRESHOLD / (Integer.SIZE / 8)];
     /*
-     * a small amount of static storage, to be used when the input strings are small enough
+     * The dynamic programming state is kept in locals so concurrent callers do not share it and each call starts at the
+     * beginning of its buffer
      */
-
-    /* Handle trivial cases when one string is empty */
-
-    static int ins = 1;
-    static int del = 1;
-    static int ch = 3;
-    static int swap_cost = 5;
-
-    static int from_len;
-    static int to_len;
-
-    private static int ar(int x, int y, int index) {
-        return (((x) == 0) ? (y) * del : (((y) == 0) ? (x) * ins : buffer[mod(index)]));
-    }
-
-    private static int NW(int x, int y) {
-        return ar(x, y, index + from_len + 2);
-    }
-
-    private static int N(int x, int y) {
-        return ar(x, y, index + from_len + 3);
-    }
-
-    private static int W(int x, int y) {
-        return ar(x, y, index + radix - 1);
-    }
-
-    private static int NNWW(int x, int y) {
-        return ar(x, y, index + 1);
-    }
-
-    private static int mod(int x) {
-        return ((x) % radix);
+    private static int ar(int[] buffer, int radix, int x, int y, int index) {
+        return (((x) == 0) ? (y) * del : (((y) == 0) ? (x) * ins : buffer[(index) % radix]));
     }
 
     /*
      * edit_distn -- returns the edit distance between two strings, or -1 on failure
      */
     public static int edit_distn(@Nullable byte[] from, int _from_len, @Nullable byte[] to, int _to_len) {
-        from_len = _from_len;
-        to_len = _to_len;
+        final int from_len = _from_len;
+        final int to_len = _to_len;
 
         if (from == null) {
             if (to == null) {
@@ -165,30 +101,15 @@ public class EditDistance {
 
         /* Initialize registers */
 
-        radix = 2 * from_len + 3;
-
-        /* Make from short enough to fit in the static storage, if it's at all possible */
-
-        if (from_len > to_len && from_len > STRLENTHRESHOLD) {
-            int[] x = new int[1];
-            int[] y = new int[1];
-            x[0] = from_len;
-            y[0] = to_len;
-            swap_int(x, y);
-            byte[][] xx = new byte[1][];
-            byte[][] yy = new byte[1][];
-            xx[0] = from;
-            yy[0] = to;
-            swap_char(xx, yy);
-        } // if from_len > to_len
-
-        /* Allocate the array storage (from the heap if necessary) */
-
-        if (from_len <= STRLENTHRESHOLD) {
-            buffer = store;
-        } else {
-            buffer = new int[radix];
-        }
+        final int radix = 2 * from_len + 3;
+
+        /* Allocate the array storage, spamsum strings need at most a few hundred words */
+
+        final int[] buffer = new int[radix];
+        int index = 0;
+        int row;
+        int col;
+        int low;
 
         /*
          * Here's where the fun begins. We will find the minimum edit distance using dynamic programming. We only need to store
@@ -221,7 +142,7 @@ public class EditDistance {
 
         buffer[index++] = min2(ins + del, (from[0] == to[0] ? 0 : ch));
 
-        low = buffer[mod(index + radix - 1)];
+        low = buffer[(index + radix - 1) % radix];
         for (col = 1; col < from_len; col++) {
             buffer[index] = min3(col * del + ((from[col] == to[0]) ? 0 : ch), (col + 1) * del + ins, buffer[index - 1] + del);
             if (buffer[index] < low) {
@@ -233,25 +154,26 @@ public class EditDistance {
         /* Now handle the rest of the matrix */
         for (row = 1; row < to_len; row++) {
             for (col = 0; col < from_len; col++) {
-                buffer[index] = min3(NW(row, col) + ((from[col] == to[row]) ? 0 : ch), N(row, col + 1) + ins, W(row + 1, col) + del);
+                // NW, N and W neighbours of the current cell
+                buffer[index] = min3(ar(buffer, radix, row, col, index + from_len + 2) + ((from[col] == to[row]) ? 0 : ch),
+                        ar(buffer, radix, row, col + 1, index + from_len + 3) + ins, ar(buffer, radix, row + 1, col, index + radix - 1) + del);
 
                 if (from[col] == to[row - 1] && col > 0 && from[col - 1] == to[row]) {
-                    buffer[index] = min2(buffer[index], NNWW(row - 1, col - 1) + swap_cost);
+                    // NNWW
+                    buffer[index] = min2(buffer[index], ar(buffer, radix, row - 1, col - 1, index + 1) + swap_cost);
                 }
 
                 if (buffer[index] < low || col == 0) {
                     low = buffer[index];
                 }
-                index = mod(index + 1);
+                index = (index + 1) % radix;
             }
             if (low > MIN_DIST) {
                 break;
             }
         }
 
-        row = buffer[mod(index + radix - 1)];
-
-        return row;
+        return buffer[(index + radix - 1) % radix];
     } // edit_distn
 
     /** This class is not meant to be instantiated. */
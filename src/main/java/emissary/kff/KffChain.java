@@ -195,6 +195,8 @@ public class KffChain {
                 break;
             }
         }
+        // Similarity filters record their best match in the sums
+        r.setSsdeepMatch(csum.getSsdeepMatch(), csum.getSsdeepScore());
         return r;
     }
 
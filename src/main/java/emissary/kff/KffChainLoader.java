@@ -29,6 +29,8 @@ public class KffChainLoader {
 
     private static KffChain theInstance = null;
     private static Map<String, String> classes;
+    private static boolean memoryMapped = false;
+    private static double bloomFalsePositiveRate = 0.0;
 
     /**
      * Take away the public constructor
@@ -44,6 +46,8 @@ public class KffChainLoader {
             try {
                 Configurator configG = ConfigUtil.getConfigInfo(KffChain.class);
                 classes = configG.findStringMatchMap("KFF_IMPL_");
+                memoryMapped = configG.findBooleanEntry("KFF_FILE_MEMORY_MAPPED", false);
+                bloomFalsePositiveRate = configG.findDoubleEntry("KFF_FILE_BLOOM_FPP", 0.0);
                 loadFrom(chain, configG.findStringMatchMap("KFF_FILE_KNOWN_"), FilterType.Ignore);
                 loadFrom(chain, configG.findStringMatchMap("KFF_FILE_DUPE_"), FilterType.Duplicate);
 
@@ -91,6 +95,11 @@ public class KffChainLoader {
                     k = new KffFile(name, key, filterType);
                 }
 
+                // Fixed record file filters can search a mapped copy of the file
+                if (k instanceof KffFile) {
+                    configureSearch((KffFile) k, memoryMapped, bloomFalsePositiveRate);
+                }
+
                 chain.addFilter(k);
                 countLoaded++;
             } catch (IOException e) {
@@ -100,6 +109,30 @@ public class KffChainLoader {
         return countLoaded;
     }
 
+    /**
+     * Set up the optional faster searches of a KFF file. Neither is needed for lookups, so when one cannot be set up the
+     * file is still searched through its RandomAccessFile.
+     *
+     * @param kf the file filter
+     * @param mapped true to keep searching memory mapped segments of the file
+     * @param falsePositiveRate the bloom filter false positive rate, a filter is only built when between 0 and 1 exclusive
+     */
+    static void configureSearch(KffFile kf, boolean mapped, double falsePositiveRate) {
+        if (falsePositiveRate > 0.0 && falsePositiveRate < 1.0) {
+            try {
+                kf.loadBloomFilter(falsePositiveRate);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Cannot build the bloom filter for KFF file {}, every lookup will search the file", kf.getName(), e);
+            }
+        }
+        // Building the bloom filter maps the file, only keep the mapping when asked to
+        try {
+            kf.setMemoryMapped(mapped);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cannot memory map KFF file {}, searching it through the RandomAccessFile", kf.getName(), e);
+        }
+    }
+
     /**
      * Load the configured chain and run some data
      */
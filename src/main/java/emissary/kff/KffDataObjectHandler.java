@@ -25,6 +25,8 @@ public class KffDataObjectHandler {
     public static final String KFF_PARAM_SHA384 = KFF_PARAM_BASE + "SHA-384";
     public static final String KFF_PARAM_SHA512 = KFF_PARAM_BASE + "SHA-512";
     public static final String KFF_PARAM_SSDEEP = KFF_PARAM_BASE + "SSDEEP";
+    public static final String KFF_PARAM_SSDEEP_MATCH = KFF_PARAM_BASE + "SSDEEP_MATCH";
+    public static final String KFF_PARAM_SSDEEP_SCORE = KFF_PARAM_BASE + "SSDEEP_SCORE";
     public static final String KFF_PARAM_DUPE_HIT = KFF_PARAM_BASE + "KNOWN_FILE";
     public static final String KFF_PARAM_PARENT_HIT = KFF_PARAM_BASE + "PARENT_IS_KNOWN_FILE";
     public static final String KFF_PARAM_KNOWN_FILTER_NAME = KFF_PARAM_BASE + "FILTERED_BY";
@@ -110,6 +112,10 @@ public class KffDataObjectHandler {
                 if (kffCheck.isDupe()) {
                     results.put(prefix + KFF_PARAM_DUPE_FILTER_NAME, kffCheck.getFilterName());
                 }
+                if (kffCheck.getSsdeepScore() > 0) {
+                    results.put(prefix + KFF_PARAM_SSDEEP_MATCH, kffCheck.getSsdeepMatch());
+                    results.put(prefix + KFF_PARAM_SSDEEP_SCORE, Integer.toString(kffCheck.getSsdeepScore()));
+                }
             } catch (Exception kffex) {
                 logger.warn("Unable to compute kff on " + name, kffex);
             }
@@ -153,6 +159,10 @@ public class KffDataObjectHandler {
                     if (kffCheck.isDupe()) {
                         results.put(prefix + KFF_PARAM_DUPE_FILTER_NAME, kffCheck.getFilterName());
                     }
+                    if (kffCheck.getSsdeepScore() > 0) {
+                        results.put(prefix + KFF_PARAM_SSDEEP_MATCH, kffCheck.getSsdeepMatch());
+                        results.put(prefix + KFF_PARAM_SSDEEP_SCORE, Integer.toString(kffCheck.getSsdeepScore()));
+                    }
                 }
             }
         }
@@ -248,6 +258,8 @@ public class KffDataObjectHandler {
         d.deleteParameter(KFF_PARAM_SHA384);
         d.deleteParameter(KFF_PARAM_SHA512);
         d.deleteParameter(KFF_PARAM_SSDEEP);
+        d.deleteParameter(KFF_PARAM_SSDEEP_MATCH);
+        d.deleteParameter(KFF_PARAM_SSDEEP_SCORE);
     }
 
     /**
@@ -1,5 +1,7 @@
 package emissary.kff;
 
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,9 +10,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * KffFile provides access to the known file filter data. The NIST/NSRL data is a CSV file with other information. It
@@ -26,6 +33,11 @@ import javax.annotation.Nonnull;
  *
  * Update: 11/27/2006 Having out-of-memory issues with all the memory mapping we're trying to do, (multiple KFFs, plus
  * HotSpot), so try using just RandomAccessFile instead.
+ *
+ * Update: The RandomAccessFile search is still the default, but {@link #setMemoryMapped(boolean)} switches to a search
+ * over read-only mapped segments of the file. Segments are sized to hold whole records so files past 2 GB are
+ * supported, and lookups do not share a file pointer so they need no locking. An optional Bloom filter built from the
+ * records by {@link #loadBloomFilter(double)} lets most unknown hashes return without touching the file at all.
  */
 public class KffFile implements KffFilter {
     private final Logger logger;
@@ -33,11 +45,22 @@ public class KffFile implements KffFilter {
     /** File containing SHA-1/CRC32 results of known files */
     protected RandomAccessFile knownFile;
 
-    /** Byte buffer that is mapped to the above file */
-    protected ByteBuffer mappedBuf;
+    /** Read-only segments of the above file when memory mapped, each holding a whole number of records */
+    @Nullable
+    protected volatile MappedByteBuffer[] mappedSegments;
+
+    /** Number of records in each mapped segment */
+    protected long recordsPerSegment;
+
+    /** Optional prefilter over the hash portion of every record */
+    @Nullable
+    protected volatile BloomFilter<byte[]> bloomFilter;
+
+    /** Number of leading bytes of each record that were put into the bloom filter */
+    protected int bloomKeyLength;
 
     /** Initial value of high index for binary search */
-    private int bSearchInitHigh;
+    private long bSearchInitHigh;
 
     protected int RECORD_LENGTH = 24;
     protected int recordLength = RECORD_LENGTH;
@@ -85,7 +108,7 @@ public class KffFile implements KffFilter {
         knownFile = new RandomAccessFile(filename, "r");
 
         // Initial high value for binary search is the largest index
-        bSearchInitHigh = ((int) knownFile.length() / recordLength) - 1;
+        bSearchInitHigh = (knownFile.length() / recordLength) - 1;
 
         logger.debug("KFF File {} has {} records", filename, (bSearchInitHigh + 1));
     }
@@ -132,6 +155,119 @@ public class KffFile implements KffFilter {
         return myPreferredAlgorithm;
     }
 
+    /**
+     * Switch between searching the file through the RandomAccessFile and searching read-only memory mapped segments of it
+     *
+     * @param mapped true to map the file, false to go back to seek and read
+     * @throws IOException if the file cannot be mapped
+     */
+    public synchronized void setMemoryMapped(boolean mapped) throws IOException {
+        if (!mapped) {
+            mappedSegments = null;
+            return;
+        }
+        if (mappedSegments != null) {
+            return;
+        }
+
+        // Keep records from straddling segments so each probe reads from exactly one buffer
+        long recordCount = bSearchInitHigh + 1;
+        long perSegment = Integer.MAX_VALUE / recordLength;
+        int segmentCount = (int) ((recordCount + perSegment - 1) / perSegment);
+        MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+        FileChannel channel = knownFile.getChannel();
+        for (int i = 0; i < segmentCount; i++) {
+            long first = i * perSegment;
+            long count = Math.min(perSegment, recordCount - first);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, first * recordLength, count * recordLength);
+        }
+        recordsPerSegment = perSegment;
+        mappedSegments = segments;
+        logger.debug("KFF File {} mapped {} records into {} segments", filterName, recordCount, segmentCount);
+    }
+
+    /**
+     * Is the file being searched through memory mapped segments
+     */
+    public boolean isMemoryMapped() {
+        return mappedSegments != null;
+    }
+
+    /**
+     * Build a Bloom filter over the hash portion of every record so lookups of unknown hashes can skip the binary search.
+     * The hash length is taken from the preferred algorithm, so set that first. The filter is built from a memory mapping
+     * of the file, which is left in place and used for searches; call {@link #setMemoryMapped(boolean)} with false
+     * afterwards to search through the RandomAccessFile instead while keeping the filter.
+     *
+     * @param falsePositiveRate desired false positive probability, between 0 and 1 exclusive
+     * @throws IOException if the file cannot be mapped
+     */
+    public synchronized void loadBloomFilter(double falsePositiveRate) throws IOException {
+        setMemoryMapped(true);
+
+        int keyLength = recordLength;
+        try {
+            int digestLength = MessageDigest.getInstance(myPreferredAlgorithm).getDigestLength();
+            if (digestLength > 0 && digestLength < keyLength) {
+                keyLength = digestLength;
+            }
+        } catch (NoSuchAlgorithmException e) {
+            logger.warn("Unknown algorithm {}, bloom filter will use the whole {} byte record", myPreferredAlgorithm, recordLength);
+        }
+
+        long recordCount = bSearchInitHigh + 1;
+        BloomFilter<byte[]> filter = BloomFilter.create(Funnels.byteArrayFunnel(), Math.max(recordCount, 1L), falsePositiveRate);
+        byte[] key = new byte[keyLength];
+        for (MappedByteBuffer segment : mappedSegments) {
+            ByteBuffer b = segment.duplicate();
+            for (int pos = 0; pos < b.limit(); pos += recordLength) {
+                b.position(pos);
+                b.get(key);
+                filter.put(key);
+            }
+        }
+        bloomKeyLength = keyLength;
+        bloomFilter = filter;
+        logger.debug("KFF File {} bloom filter loaded with {} records, expected fpp {}", filterName, recordCount, filter.expectedFpp());
+    }
+
+    /**
+     * Discard any bloom filter, every lookup will search the file
+     */
+    public synchronized void clearBloomFilter() {
+        bloomFilter = null;
+    }
+
+    /**
+     * Searches the mapped segments of the file to see if a given HASH/CRC is in the list without allocating or moving any
+     * shared position.
+     *
+     * @param segments the mapped file
+     * @param hash Result of HASH calculation
+     * @param crc Result of CRC calculation
+     * @return true if the record is in the list, false if it isn't
+     */
+    private boolean binaryMappedSearch(@Nonnull MappedByteBuffer[] segments, @Nonnull byte[] hash, long crc) {
+        long low = 0;
+        long high = bSearchInitHigh;
+
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            ByteBuffer segment = segments[(int) (mid / recordsPerSegment)];
+            int offset = (int) (mid % recordsPerSegment) * recordLength;
+
+            int c = compare(segment, offset, hash, crc);
+            if (c < 0) {
+                high = mid - 1;
+            } else if (c > 0) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Performs a binary search on the file to see if a given HASH/CRC is in the list.
      *
@@ -139,11 +275,11 @@ public class KffFile implements KffFilter {
      * @param crc Result of CRC calculation
      * @return true if the record is in the list, false if it isn't
      */
-    private boolean binaryFileSearch(@Nonnull byte[] hash, long crc) {
+    private synchronized boolean binaryFileSearch(@Nonnull byte[] hash, long crc) {
 
         // Initialize indexes for binary search
-        int low = 0;
-        int high = bSearchInitHigh;
+        long low = 0;
+        long high = bSearchInitHigh;
 
         /* Buffer to hold a record */
         byte[] rec = new byte[recordLength];
@@ -151,10 +287,10 @@ public class KffFile implements KffFilter {
         // Search until the indexes cross
         while (low <= high) {
             // Calculate the midpoint
-            int mid = (low + high) >> 1;
+            long mid = (low + high) >>> 1;
 
             try {
-                knownFile.seek(rec.length * (long) mid);
+                knownFile.seek(rec.length * mid);
                 int count = knownFile.read(rec);
                 if (count != rec.length) {
                     logger.warn("Short read on KffFile at {} read {} expected {}", (rec.length * mid), count, rec.length);
@@ -220,6 +356,42 @@ public class KffFile implements KffFilter {
         return 0;
     }
 
+    /**
+     * Compares the given hash/crc to the record at an offset in a mapped segment, using the same ordering as
+     * {@link #compare(byte[], byte[], long)}
+     *
+     * @param segment mapped bytes of the kff binary file
+     * @param offset absolute position of the record in the segment
+     * @param hash HASH to compare to record
+     * @param crc CRC to compare to record
+     * @return &lt;0 if given value is less than record, &gt;0 if given value is greater than record, 0 if they match
+     */
+    private int compare(@Nonnull ByteBuffer segment, int offset, @Nonnull byte[] hash, long crc) {
+        int i;
+        for (i = 0; i < hash.length; i++) {
+            int ihash = hash[i] & 0xff;
+            int irec = segment.get(offset + i) & 0xff;
+            if (ihash < irec) {
+                return -1;
+            } else if (ihash > irec) {
+                return 1;
+            }
+        }
+
+        if (crc != -1L) {
+            for (int j = 24; i < recordLength; i++, j -= 8) {
+                int icrc = ((int) crc >> j) & 0xff;
+                int irec = segment.get(offset + i) & 0xff;
+                if (icrc < irec) {
+                    return -1;
+                } else if (icrc > irec) {
+                    return 1;
+                }
+            }
+        }
+        return 0;
+    }
+
     @Override
     public boolean check(String fname, ChecksumResults csum) throws Exception {
         byte[] hash = csum.getHash(myPreferredAlgorithm);
@@ -227,6 +399,17 @@ public class KffFile implements KffFilter {
             logger.warn("Filter cannot be used, {} not computed on {}", myPreferredAlgorithm, fname);
             return false;
         }
+
+        // A bloom filter miss means the hash is definitely not in the file
+        BloomFilter<byte[]> filter = bloomFilter;
+        if (filter != null && hash.length == bloomKeyLength && !filter.mightContain(hash)) {
+            return false;
+        }
+
+        MappedByteBuffer[] segments = mappedSegments;
+        if (segments != null) {
+            return binaryMappedSearch(segments, hash, csum.getCrc());
+        }
         return binaryFileSearch(hash, csum.getCrc());
     }
 
@@ -27,6 +27,8 @@ public class KffResult implements Serializable {
 
     long crc32 = -1L;
     String ssdeep = null;
+    String ssdeepMatch = null;
+    int ssdeepScore = -1;
 
     Map<String, byte[]> hashComp = new TreeMap<String, byte[]>();
 
@@ -43,6 +45,7 @@ public class KffResult implements Serializable {
     public KffResult(ChecksumResults csum) {
         this.setCrc32(csum.getCrc());
         this.setSsdeep(csum.getSsdeep());
+        this.setSsdeepMatch(csum.getSsdeepMatch(), csum.getSsdeepScore());
         for (String alg : csum.getResultsPresent()) {
             hashComp.put(alg, csum.getHash(alg));
         }
@@ -142,6 +145,35 @@ public class KffResult implements Serializable {
         this.ssdeep = ssdeep;
     }
 
+    /**
+     * Gets the id of the most similar known ssdeep signature
+     *
+     * @return the id or null if no filter found one
+     */
+    public String getSsdeepMatch() {
+        return this.ssdeepMatch;
+    }
+
+    /**
+     * Gets the score of the most similar known ssdeep signature
+     *
+     * @return the score from 1 to 100 or -1 when there is no match
+     */
+    public int getSsdeepScore() {
+        return this.ssdeepScore;
+    }
+
+    /**
+     * Sets the most similar known ssdeep signature
+     *
+     * @param match the id of the match
+     * @param score the score of the match
+     */
+    public void setSsdeepMatch(String match, int score) {
+        this.ssdeepMatch = match;
+        this.ssdeepScore = score;
+    }
+
     /**
      * Gets the value of sha[]
      *
@@ -0,0 +1,141 @@
+package emissary.kff;
+
+import emissary.config.ConfigUtil;
+import emissary.config.Configurator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * KffSsdeepIndex checks the ssdeep signature of the data against a {@link SsdeepIndex} file and reports a hit when the
+ * best match scores at least the configured minimum. The best match and its score are recorded in the
+ * {@link ChecksumResults} whether or not it is a hit. SSDEEP must be one of the KFF_ALG algorithms for this filter to
+ * see anything.
+ *
+ * Configuration file options are:
+ *
+ * SSDEEP_MIN_SCORE: lowest score that counts as a hit, default 90. SSDEEP_ADD_UNMATCHED: when true, signatures that do
+ * not hit are added to the index under the item name so later near duplicates of them hit, default false.
+ */
+public class KffSsdeepIndex implements KffFilter, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(KffSsdeepIndex.class);
+
+    /** String logical name for this filter */
+    protected String filterName = "UNKNOWN";
+
+    protected FilterType ftype = FilterType.Unknown;
+
+    /** Lowest score that is reported as a hit */
+    protected int minScore = 90;
+
+    /** Add the signatures that do not hit to the index */
+    protected boolean addUnmatched = false;
+
+    protected SsdeepIndex index;
+
+    /**
+     * Open the index file
+     *
+     * @param filename the index file, created if it does not exist
+     * @param filterName the name of this filter
+     * @param ftype type of this filter
+     * @throws IOException if the index cannot be read
+     */
+    public KffSsdeepIndex(String filename, String filterName, FilterType ftype) throws IOException {
+        this(SsdeepIndex.open(Paths.get(filename)), filterName, ftype);
+        try {
+            Configurator configG = ConfigUtil.getConfigInfo(KffSsdeepIndex.class);
+            minScore = configG.findIntEntry("SSDEEP_MIN_SCORE", minScore);
+            addUnmatched = configG.findBooleanEntry("SSDEEP_ADD_UNMATCHED", addUnmatched);
+        } catch (IOException e) {
+            logger.debug("No configuration for KffSsdeepIndex, using defaults");
+        }
+        logger.debug("KFF ssdeep index {} has {} signatures", filename, index.size());
+    }
+
+    /**
+     * Use an index that is already loaded
+     *
+     * @param index the signatures to match against
+     * @param filterName the name of this filter
+     * @param ftype type of this filter
+     */
+    public KffSsdeepIndex(SsdeepIndex index, String filterName, FilterType ftype) {
+        this.index = index;
+        this.filterName = filterName;
+        this.ftype = ftype;
+    }
+
+    /**
+     * Return the filter name
+     */
+    @Override
+    public String getName() {
+        return filterName;
+    }
+
+    /**
+     * Return the filter type
+     */
+    @Override
+    public FilterType getFilterType() {
+        return ftype;
+    }
+
+    /**
+     * Set the lowest score that is reported as a hit
+     */
+    public void setMinScore(int minScore) {
+        this.minScore = minScore;
+    }
+
+    /**
+     * Set whether signatures that do not hit are added to the index
+     */
+    public void setAddUnmatched(boolean addUnmatched) {
+        this.addUnmatched = addUnmatched;
+    }
+
+    /**
+     * Look up the ssdeep signature of the data
+     *
+     * @param fname name of the item being checked
+     * @param sums the computed checksums, the best match is recorded here
+     * @return true if the best match scores at least the minimum
+     */
+    @Override
+    public boolean check(String fname, ChecksumResults sums) throws Exception {
+        String ssdeep = sums.getSsdeep();
+        if (ssdeep == null) {
+            return false;
+        }
+        SpamSumSignature signature;
+        try {
+            signature = new SpamSumSignature(ssdeep);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Cannot parse ssdeep {} of {}", ssdeep, fname);
+            return false;
+        }
+        SsdeepIndex.Match best = index.findBest(signature, 1);
+        if (best != null) {
+            sums.setSsdeepMatch(best.getId(), best.getScore());
+        }
+        boolean hit = best != null && best.getScore() >= minScore;
+        if (!hit && addUnmatched) {
+            index.add(fname, signature);
+        }
+        return hit;
+    }
+
+    /**
+     * Close the index file
+     */
+    @Override
+    public void close() throws IOException {
+        index.close();
+    }
+}
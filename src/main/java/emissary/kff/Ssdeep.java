@@ -28,13 +28,13 @@ public final class Ssdeep {
 
     private static final Logger logger = LoggerFactory.getLogger(Ssdeep.class);
 
-    private static final int SPAMSUM_LENGTH = 64;
+    static final int SPAMSUM_LENGTH = 64;
     private static final int MIN_BLOCKSIZE = 3;
 
     public final int FUZZY_MAX_RESULT = (SPAMSUM_LENGTH + (SPAMSUM_LENGTH / 2 + 20));
 
     /** The window size for the rolling hash. */
-    private static final int ROLLING_WINDOW_SIZE = 7;
+    static final int ROLLING_WINDOW_SIZE = 7;
 
     /** The buffer size to use when reading data from a file. */
     private static final int BUFFER_SIZE = 8192;
@@ -157,56 +157,63 @@ public final class Ssdeep {
          * @param end The ending offset in {@code buffer}, exclusive.
          */
         private void applyBytes(final RollingState rollState, final byte[] buffer, final int start, final int end) {
-            // At each byte we update the rolling hash and the normal
-            // hash. When the rolling hash hits the reset value, we
-            // emit the normal hash as an element of the signature and
-            // reset both hashes.
             for (int i = start; i < end; i++) {
                 // Get the next input byte and normalize to 0..255.
                 final int nextByte = ((int) buffer[i]) & 0xff;
+                applyByte(nextByte, rollState.roll(nextByte));
+            }
+        }
 
-                // Apply the next byte to the hashes.
-                this.sumHash1 = updateSumHash(nextByte, this.sumHash1);
-                this.sumHash2 = updateSumHash(nextByte, this.sumHash2);
-                final long rollingHash = rollState.roll(nextByte);
-
-                if ((rollingHash % this.blockSize) == (this.blockSize - 1)) {
-                    // We have hit a reset point. We now emit a hash
-                    // which is based on all bytes in the input
-                    // between the last reset point and this one.
-                    if (this.fuzzLen1 < (SPAMSUM_LENGTH - 1)) {
-                        // We can have a problem with the tail
-                        // overflowing. The easiest way to cope with
-                        // this is to only reset the second hash if we
-                        // have room for more characters in our
-                        // signature. This has the effect of combining
-                        // the last few pieces of the message into a
-                        // single piece
-                        this.fuzzHash1[this.fuzzLen1++] = b64EncodeLowBits(this.sumHash1);
-                        this.sumHash1 = HASH_INIT;
-                    }
+        /**
+         * Apply one byte to a SpamSum context whose rolling hash has already been updated with it.
+         *
+         * @param nextByte The input byte, in the range 0..255.
+         * @param rollingHash The rolling hash value after applying {@code nextByte}.
+         */
+        private void applyByte(final int nextByte, final long rollingHash) {
+            // At each byte we update the rolling hash and the normal
+            // hash. When the rolling hash hits the reset value, we
+            // emit the normal hash as an element of the signature and
+            // reset both hashes.
+            this.sumHash1 = updateSumHash(nextByte, this.sumHash1);
+            this.sumHash2 = updateSumHash(nextByte, this.sumHash2);
+
+            if ((rollingHash % this.blockSize) == (this.blockSize - 1)) {
+                // We have hit a reset point. We now emit a hash
+                // which is based on all bytes in the input
+                // between the last reset point and this one.
+                if (this.fuzzLen1 < (SPAMSUM_LENGTH - 1)) {
+                    // We can have a problem with the tail
+                    // overflowing. The easiest way to cope with
+                    // this is to only reset the second hash if we
+                    // have room for more characters in our
+                    // signature. This has the effect of combining
+                    // the last few pieces of the message into a
+                    // single piece
+                    this.fuzzHash1[this.fuzzLen1++] = b64EncodeLowBits(this.sumHash1);
+                    this.sumHash1 = HASH_INIT;
+                }
 
-                    // This produces a second signature with a block size
-                    // of blockSize*2. By producing dual signatures in
-                    // this way the effect of small changes in the message
-                    // size near a block size boundary is greatly reduced.
-                    //
-                    // NOTE: we only have to check this when the main
-                    // signature has hit a reset point, because
-                    // mathematically:
-                    //
-                    // [ h === -1 (mod 2*bs) ] --implies--> [ h === -1 (mod bs) ]
-                    //
-                    // In other words, if this condition is true then the
-                    // main signature condition must always also be true.
-                    // Therefore this secondary signature condition can
-                    // only potentially be true if the main signature
-                    // condition (which we've already checked) is true.
-                    if ((rollingHash % (this.blockSize * 2)) == ((this.blockSize * 2) - 1)) {
-                        if (this.fuzzLen2 < (SPAMSUM_LENGTH / 2 - 1)) {
-                            this.fuzzHash2[this.fuzzLen2++] = b64EncodeLowBits(this.sumHash2);
-                            this.sumHash2 = HASH_INIT;
-                        }
+                // This produces a second signature with a block size
+                // of blockSize*2. By producing dual signatures in
+                // this way the effect of small changes in the message
+                // size near a block size boundary is greatly reduced.
+                //
+                // NOTE: we only have to check this when the main
+                // signature has hit a reset point, because
+                // mathematically:
+                //
+                // [ h === -1 (mod 2*bs) ] --implies--> [ h === -1 (mod bs) ]
+                //
+                // In other words, if this condition is true then the
+                // main signature condition must always also be true.
+                // Therefore this secondary signature condition can
+                // only potentially be true if the main signature
+                // condition (which we've already checked) is true.
+                if ((rollingHash % (this.blockSize * 2)) == ((this.blockSize * 2) - 1)) {
+                    if (this.fuzzLen2 < (SPAMSUM_LENGTH / 2 - 1)) {
+                        this.fuzzHash2[this.fuzzLen2++] = b64EncodeLowBits(this.sumHash2);
+                        this.sumHash2 = HASH_INIT;
                     }
                 }
             }
@@ -392,6 +399,111 @@ public final class Ssdeep {
         }
     }
 
+    /**
+     * Incremental SpamSum hash for data that is only read once, such as a channel feeding several digests at the same time.
+     *
+     * <p>
+     * The one-shot methods guess a block size from the input length and hash the data again with half the block size each
+     * time the signature comes out too short. This class instead tracks the guessed block size and the next few smaller
+     * ones side by side from the same rolling hash, and stops tracking the smaller ones as soon as a larger one is certain
+     * to be long enough. For all but degenerate input (for example long runs of a single byte value) the result matches
+     * {@link #fuzzy_hash(byte[])}. When none of the tracked block sizes produced a usable signature {@link #digest()}
+     * returns null and the caller has to fall back to one of the one-shot methods.
+     */
+    public static final class FuzzyHasher {
+
+        /** Number of block sizes tracked at once, starting from the guess */
+        public static final int DEFAULT_LEVELS = 3;
+
+        private final RollingState rollState = new RollingState();
+
+        /** Contexts for successively halved block sizes, the guess first */
+        private final SsContext[] levels;
+
+        /** Number of levels still being tracked */
+        private int active;
+
+        /**
+         * Create a hasher for input of about the expected length
+         *
+         * @param expectedInputLength the number of bytes that will be applied, or 0 if not known
+         */
+        public FuzzyHasher(final long expectedInputLength) {
+            this(expectedInputLength, DEFAULT_LEVELS);
+        }
+
+        /**
+         * Create a hasher for input of about the expected length
+         *
+         * @param expectedInputLength the number of bytes that will be applied, or 0 if not known
+         * @param maxLevels the maximum number of block sizes to track at once
+         */
+        public FuzzyHasher(final long expectedInputLength, final int maxLevels) {
+            long blockSize = SsContext.estimateBlockSize(expectedInputLength);
+            int count = 1;
+            for (long bs = blockSize; bs > MIN_BLOCKSIZE && count < maxLevels; bs /= 2) {
+                count++;
+            }
+            this.levels = new SsContext[count];
+            for (int i = 0; i < count; i++) {
+                this.levels[i] = new SsContext((byte[]) null);
+                this.levels[i].blockSize = blockSize;
+                this.levels[i].beginHashing();
+                blockSize /= 2;
+            }
+            this.active = count;
+        }
+
+        /**
+         * Apply some bytes to the hash
+         *
+         * @param buffer A buffer containing the input bytes.
+         * @param start The starting offset in {@code buffer}, inclusive.
+         * @param end The ending offset in {@code buffer}, exclusive.
+         */
+        public void update(final byte[] buffer, final int start, final int end) {
+            final SsContext[] ctxs = this.levels;
+            final int n = this.active;
+            if (n == 1) {
+                ctxs[0].applyBytes(this.rollState, buffer, start, end);
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                final int nextByte = ((int) buffer[i]) & 0xff;
+                final long rollingHash = this.rollState.roll(nextByte);
+                for (int l = 0; l < n; l++) {
+                    ctxs[l].applyByte(nextByte, rollingHash);
+                }
+            }
+
+            // A level that already has a long enough signature will be chosen
+            // over every smaller block size, so quit tracking those
+            for (int l = 0; l < n - 1; l++) {
+                if (ctxs[l].fuzzLen1 >= (SPAMSUM_LENGTH / 2)) {
+                    this.active = l + 1;
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Finish hashing
+         *
+         * @return the SpamSum signature, or null if a smaller block size than was tracked is needed
+         */
+        @Nullable
+        public String digest() {
+            for (int l = 0; l < this.active; l++) {
+                final SsContext ctx = this.levels[l];
+                final SpamSumSignature signature = ctx.finishHashing(this.rollState);
+                if ((ctx.blockSize <= MIN_BLOCKSIZE) || (ctx.fuzzLen1 >= (SPAMSUM_LENGTH / 2))) {
+                    return signature.toString();
+                }
+            }
+            return null;
+        }
+    }
+
     public Ssdeep() {}
 
     /**
@@ -538,7 +650,7 @@ public final class Ssdeep {
      * @return An array containing the same content as {@code in}, except that any sequences of more than 3 identical bytes
      *         are truncated to 3 bytes. For example "aaabbbbcddddd" becomes "aaabbbcddd".
      */
-    private static byte[] eliminateLongSequences(final byte[] in) {
+    static byte[] eliminateLongSequences(final byte[] in) {
         if (in.length < 4) {
             return in; // There is not enough input to require any change.
         }
@@ -689,6 +801,17 @@ public final class Ssdeep {
         final byte[] s2First = eliminateLongSequences(signature2.getHashPart1());
         final byte[] s2Second = eliminateLongSequences(signature2.getHashPart2());
 
+        return compareNormalized(blockSize1, s1First, s1Second, blockSize2, s2First, s2Second);
+    }
+
+    /**
+     * Score two signatures whose hash parts have already been through {@link #eliminateLongSequences(byte[])}, so callers
+     * comparing one signature against many only normalize it once.
+     *
+     * @return the score in the range 0..100, 0 when the block sizes cannot be compared
+     */
+    static int compareNormalized(final long blockSize1, final byte[] s1First, final byte[] s1Second, final long blockSize2,
+            final byte[] s2First, final byte[] s2Second) {
         // Each signature has a string for two block sizes. We now
         // choose how to combine the two block sizes. We checked above
         // that they have at least one block size in common.
@@ -701,9 +824,11 @@ public final class Ssdeep {
         } else if (blockSize1 == (blockSize2 * 2)) {
             // The first signature has twice the block size of the second.
             score = scoreStrings(s1First, s2Second, blockSize1);
-        } else {
+        } else if (blockSize2 == (blockSize1 * 2)) {
             // The second signature has twice the block size of the first.
             score = scoreStrings(s1Second, s2First, blockSize2);
+        } else {
+            score = 0;
         }
 
         return (int) score;
@@ -0,0 +1,498 @@
+package emissary.kff;
+
+import com.google.common.io.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.Nullable;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * An index of ssdeep signatures that finds the best matches for a signature without comparing it to every entry.
+ * <p>
+ * Two signatures only score above zero when a pair of hash parts with the same block size has a run of
+ * {@value Ssdeep#ROLLING_WINDOW_SIZE} bytes in common. Every hash part is posted under each of its 7-grams together
+ * with its block size, the first part at the block size of the signature and the second at twice that. A query looks up
+ * its own 7-grams at the same block sizes, which finds exactly the entries with the same block size or one that is half
+ * or double its own, and only those candidates are scored. Hash parts are stored after
+ * {@link Ssdeep#eliminateLongSequences(byte[])} so they are not normalized again for every comparison.
+ * <p>
+ * The postings are held in flat arrays chained from an open addressed table of keys, so an entry costs its hash parts,
+ * its id and around 80 postings of 8 bytes plus their keys.
+ * <p>
+ * An index opened on a file loads the entries in it and appends every entry added afterwards. The file is a header of
+ * {@link #MAGIC} and {@link #VERSION} followed by one record per entry: the block size as a long, the length and bytes
+ * of each hash part and the id written with {@link DataOutputStream#writeUTF(String)}. Postings are rebuilt on load. A
+ * record torn by a crash is truncated away when the file is opened.
+ */
+public class SsdeepIndex implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SsdeepIndex.class);
+
+    public static final int MAGIC = 0x53534458; // SSDX
+    public static final int VERSION = 1;
+
+    private static final int GRAM = Ssdeep.ROLLING_WINDOW_SIZE;
+    private static final int HEADER_LENGTH = 8;
+    private static final long EMPTY = 0L;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Entries
+    private int count = 0;
+    private long[] blockSizes = new long[16];
+    private byte[][] parts1 = new byte[16][];
+    private byte[][] parts2 = new byte[16][];
+    private String[] ids = new String[16];
+
+    // Posting key table, EMPTY marks a free slot
+    private long[] keys = new long[1024];
+    private int[] heads = new int[1024];
+    private int keyCount = 0;
+
+    // Posting chains
+    private int[] postEntry = new int[1024];
+    private int[] postNext = new int[1024];
+    private int postCount = 0;
+
+    @Nullable
+    private DataOutputStream journal;
+
+    /**
+     * Create an empty index held only in memory
+     */
+    public SsdeepIndex() {}
+
+    /**
+     * Open an index file, creating it if needed. Entries added to the returned index are appended to the file.
+     *
+     * @param file the index file
+     * @return the loaded index
+     * @throws IOException if the file cannot be read or is not an index
+     */
+    public static SsdeepIndex open(Path file) throws IOException {
+        SsdeepIndex index = new SsdeepIndex();
+        long good = HEADER_LENGTH;
+        if (Files.exists(file) && Files.size(file) > 0) {
+            good = index.load(file);
+            if (good < Files.size(file)) {
+                logger.warn("Dropping {} bytes of a torn record at the end of {}", Files.size(file) - good, file);
+                try (FileChannel channel = FileChannel.open(file, WRITE)) {
+                    channel.truncate(good);
+                }
+            }
+        }
+        boolean fresh = !Files.exists(file) || Files.size(file) == 0;
+        index.journal = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, CREATE, WRITE, APPEND)));
+        if (fresh) {
+            index.journal.writeInt(MAGIC);
+            index.journal.writeInt(VERSION);
+            index.journal.flush();
+        }
+        logger.debug("Opened ssdeep index {} with {} entries", file, index.size());
+        return index;
+    }
+
+    /**
+     * Read the records of a file into this index
+     *
+     * @return the length of the file up to the end of the last whole record
+     */
+    private long load(Path file) throws IOException {
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file)));
+                DataInputStream in = new DataInputStream(counter)) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not an ssdeep index");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported ssdeep index version " + version + " in " + file);
+            }
+            long good = counter.getCount();
+            while (true) {
+                try {
+                    long blockSize = in.readLong();
+                    byte[] part1 = readPart(in);
+                    byte[] part2 = readPart(in);
+                    String id = in.readUTF();
+                    insert(id, blockSize, part1, part2);
+                    good = counter.getCount();
+                } catch (EOFException eof) {
+                    return good;
+                }
+            }
+        }
+    }
+
+    private static byte[] readPart(DataInputStream in) throws IOException {
+        byte[] part = new byte[in.readUnsignedByte()];
+        in.readFully(part);
+        return part;
+    }
+
+    /**
+     * Add a signature to the index
+     *
+     * @param id name reported when the signature matches
+     * @param signature the signature to add
+     * @throws IOException if the entry cannot be appended to the index file
+     */
+    public void add(String id, SpamSumSignature signature) throws IOException {
+        byte[] part1 = Ssdeep.eliminateLongSequences(signature.getHashPart1());
+        byte[] part2 = Ssdeep.eliminateLongSequences(signature.getHashPart2());
+        if (part1.length > 255 || part2.length > 255) {
+            throw new IllegalArgumentException("Hash part too long in " + signature);
+        }
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                write(journal, id, signature.getBlockSize(), part1, part2);
+                journal.flush();
+            }
+            insert(id, signature.getBlockSize(), part1, part2);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add every signature in the output of the ssdeep program, lines of {@code signature,"name"}
+     *
+     * @param reader the ssdeep output
+     * @return the number of signatures added
+     * @throws IOException if reading or appending fails
+     */
+    public int addAll(BufferedReader reader) throws IOException {
+        int added = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int comma = line.indexOf(',');
+            if (line.startsWith("ssdeep,") || comma < 0) {
+                continue;
+            }
+            String name = line.substring(comma + 1).trim();
+            if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")) {
+                name = name.substring(1, name.length() - 1);
+            }
+            try {
+                add(name, new SpamSumSignature(line.substring(0, comma)));
+                added++;
+            } catch (IllegalArgumentException e) {
+                logger.debug("Skipping bad ssdeep line {}", line);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Find the entry that best matches a signature
+     *
+     * @param signature the signature to look up
+     * @param minScore lowest score to report, at least 1
+     * @return the best match or null when no entry scores at least minScore
+     */
+    @Nullable
+    public Match findBest(SpamSumSignature signature, int minScore) {
+        List<Match> matches = find(signature, minScore, true);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    /**
+     * Find every entry that matches a signature
+     *
+     * @param signature the signature to look up
+     * @param minScore lowest score to report, at least 1
+     * @return matches with the best first
+     */
+    public List<Match> findAll(SpamSumSignature signature, int minScore) {
+        return find(signature, minScore, false);
+    }
+
+    private List<Match> find(SpamSumSignature signature, int minScore, boolean bestOnly) {
+        final int threshold = Math.max(1, minScore);
+        final long blockSize = signature.getBlockSize();
+        final byte[] part1 = Ssdeep.eliminateLongSequences(signature.getHashPart1());
+        final byte[] part2 = Ssdeep.eliminateLongSequences(signature.getHashPart2());
+        List<Match> matches = new ArrayList<>();
+        Candidates candidates = CANDIDATES.get();
+        candidates.size = 0;
+        lock.readLock().lock();
+        try {
+            collect(blockSize, part1, candidates);
+            collect(blockSize * 2, part2, candidates);
+            int[] found = candidates.entries;
+            Arrays.sort(found, 0, candidates.size);
+
+            Match best = null;
+            for (int i = 0; i < candidates.size; i++) {
+                int entry = found[i];
+                if (i > 0 && entry == found[i - 1]) {
+                    continue;
+                }
+                int score = Ssdeep.compareNormalized(blockSize, part1, part2, blockSizes[entry], parts1[entry], parts2[entry]);
+                if (score < threshold) {
+                    continue;
+                }
+                if (!bestOnly) {
+                    matches.add(new Match(ids[entry], score));
+                } else if (best == null || score > best.getScore()) {
+                    best = new Match(ids[entry], score);
+                }
+            }
+            if (best != null) {
+                matches.add(best);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!bestOnly) {
+            Collections.sort(matches, (a, b) -> Integer.compare(b.getScore(), a.getScore()));
+        }
+        return matches;
+    }
+
+    /**
+     * Add the entries posted under each 7-gram of a hash part to the candidates
+     */
+    private void collect(long blockSize, byte[] part, Candidates candidates) {
+        for (int i = 0; i + GRAM <= part.length; i++) {
+            int slot = slot(key(blockSize, part, i));
+            if (keys[slot] == EMPTY) {
+                continue;
+            }
+            for (int p = heads[slot]; p >= 0; p = postNext[p]) {
+                candidates.add(postEntry[p]);
+            }
+        }
+    }
+
+    // Candidate entries of the current query, reused by each thread
+    private static final ThreadLocal<Candidates> CANDIDATES = ThreadLocal.withInitial(Candidates::new);
+
+    private static final class Candidates {
+        int[] entries = new int[64];
+        int size;
+
+        void add(int entry) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = entry;
+        }
+    }
+
+    /**
+     * Number of signatures in the index
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write a copy of the index to a file, replacing it
+     *
+     * @param file where to write
+     * @throws IOException on error
+     */
+    public void save(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        lock.readLock().lock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int i = 0; i < count; i++) {
+                write(out, ids[i], blockSizes[i], parts1[i], parts2[i]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Stop appending to the index file
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void write(DataOutputStream out, String id, long blockSize, byte[] part1, byte[] part2) throws IOException {
+        out.writeLong(blockSize);
+        out.writeByte(part1.length);
+        out.write(part1);
+        out.writeByte(part2.length);
+        out.write(part2);
+        out.writeUTF(id);
+    }
+
+    private void insert(String id, long blockSize, byte[] part1, byte[] part2) {
+        if (count == ids.length) {
+            int capacity = count * 2;
+            blockSizes = Arrays.copyOf(blockSizes, capacity);
+            parts1 = Arrays.copyOf(parts1, capacity);
+            parts2 = Arrays.copyOf(parts2, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+        }
+        int entry = count++;
+        blockSizes[entry] = blockSize;
+        parts1[entry] = part1;
+        parts2[entry] = part2;
+        ids[entry] = id;
+        post(entry, blockSize, part1);
+        post(entry, blockSize * 2, part2);
+    }
+
+    private void post(int entry, long blockSize, byte[] part) {
+        for (int i = 0; i + GRAM <= part.length; i++) {
+            long key = key(blockSize, part, i);
+            int slot = slot(key);
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                heads[slot] = -1;
+                keyCount++;
+            } else if (postEntry[heads[slot]] == entry) {
+                // Repeated gram in the same part
+                continue;
+            }
+            if (postCount == postEntry.length) {
+                postEntry = Arrays.copyOf(postEntry, postCount * 2);
+                postNext = Arrays.copyOf(postNext, postCount * 2);
+            }
+            postEntry[postCount] = entry;
+            postNext[postCount] = heads[slot];
+            heads[slot] = postCount++;
+            if (keyCount * 4 > keys.length * 3) {
+                rehash();
+            }
+        }
+    }
+
+    /**
+     * Find the slot holding a key or the free slot where it belongs
+     */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldHeads = heads;
+        keys = new long[oldKeys.length * 2];
+        heads = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                heads[slot] = oldHeads[i];
+            }
+        }
+    }
+
+    /**
+     * The key of the 7-gram at an offset of a hash part. Each character is folded to its low 6 bits, so the gram fills the
+     * low 42 bits and the block size is mixed into the rest. The fold is lossy, some Base64 characters such as 'p' and '0'
+     * share their low bits, but grams or keys that collide only add candidates that then fail scoring.
+     */
+    private static long key(long blockSize, byte[] part, int offset) {
+        long gram = 0;
+        for (int i = offset; i < offset + GRAM; i++) {
+            gram = (gram << 6) | (part[i] & 0x3F);
+        }
+        long key = gram ^ (blockSize << 42) ^ (blockSize >>> 22);
+        return key == EMPTY ? 1 : key;
+    }
+
+    /**
+     * An entry that matched a query
+     */
+    public static final class Match {
+        private final String id;
+        private final int score;
+
+        public Match(String id, int score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        /**
+         * The id the matching signature was added with
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * The ssdeep score from 1 to 100
+         */
+        public int getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return id + ":" + score;
+        }
+    }
+
+    /**
+     * Build or extend an index file from ssdeep program output
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: SsdeepIndex index-file ssdeep-output...");
+            System.exit(1);
+        }
+        try (SsdeepIndex index = open(Paths.get(args[0]))) {
+            for (int i = 1; i < args.length; i++) {
+                try (InputStream is = Files.newInputStream(Paths.get(args[i]));
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+                    System.out.println(args[i] + ": " + index.addAll(reader));
+                }
+            }
+            System.out.println(args[0] + " holds " + index.size() + " signatures");
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package emissary.output;
 
+import emissary.config.ConfigEntry;
 import emissary.config.ConfigUtil;
 import emissary.config.Configurator;
 import emissary.core.Family;
@@ -8,6 +9,7 @@ import emissary.util.ShortNameComparator;
 import emissary.util.TimeUtil;
 import emissary.util.shell.Executrix;
 
+import org.apache.commons.collections4.map.LRUMap;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +35,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SimpleTimeZone;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.annotation.Nullable;
 
 import static emissary.core.Form.PREFIXES_LANG;
@@ -64,6 +67,16 @@ public class DropOffUtil {
     /** Output directories */
     protected Map<String, File> outputDirectories = new HashMap<>();
 
+    /** Directories setupPath has already created or checked, null when not caching */
+    @Nullable
+    protected Map<String, Boolean> knownDirectories;
+    protected int directoryCacheSize = 1000;
+
+    /** Specs compiled for getPathFromSpec, package visible for tests */
+    final Map<String, PathSpec> compiledSpecs = new ConcurrentHashMap<>();
+    private static final int MAX_COMPILED_SPECS = 256;
+    private static final PathSpec DEFAULT_SPEC = PathSpec.compile("%R%/@TLD{'TARGETBIN'}/%S%");
+
     protected Executrix executrix;
 
     // Items for generating random filenames
@@ -108,6 +121,9 @@ public class DropOffUtil {
      * <li>OUTPUT_FILE_PREFIX: string to use when generating random filenames, dflt: TXT</li>
      * <li>UUID_IN_OUTPUT_FILENAMES: boolean [true]</li>
      * <li>AUTO_GENERATED_ID_PREFIX: prefix to use for an auto-generated id</li>
+     * <li>OUTPUT_DIR_CACHE_SIZE: number of output directories remembered as already set up, 0 to check every time
+     * [1000]</li>
+     * <li>OUTPUT_SPEC_* and ERROR_SPEC_*: filter output specs, compiled up front for getPathFromSpec</li>
      * </ul>
      */
     protected void configure(final Configurator configG) {
@@ -148,10 +164,20 @@ public class DropOffUtil {
             if (this.maxFilextLen < 0) {
                 this.maxFilextLen = Integer.MAX_VALUE;
             }
+            this.directoryCacheSize = actualConfigG.findIntEntry("OUTPUT_DIR_CACHE_SIZE", this.directoryCacheSize);
+
+            for (final String specPrefix : new String[] {"OUTPUT_SPEC_", "ERROR_SPEC_"}) {
+                for (final ConfigEntry entry : actualConfigG.findStringMatchEntries(specPrefix)) {
+                    if (entry.getValue() != null) {
+                        compileSpec(entry.getValue());
+                    }
+                }
+            }
         } else {
             logger.debug("Configuration is null for DropOffUtil, using defaults");
             this.executrix = new Executrix();
         }
+        this.knownDirectories = this.directoryCacheSize > 0 ? Collections.synchronizedMap(new LRUMap<>(this.directoryCacheSize)) : null;
     }
 
     /**
@@ -244,6 +270,10 @@ public class DropOffUtil {
      */
     public boolean setupPath(final String fileName) {
         final String pathName = fileName.substring(0, fileName.lastIndexOf(SEPARATOR));
+        // get rather than containsKey so a hit counts as a use in the LRU order
+        if (this.knownDirectories != null && this.knownDirectories.get(pathName) != null) {
+            return true;
+        }
         final Path thePath = Paths.get(pathName);
 
         // If the specified output directory doesn't exist try creating it
@@ -285,9 +315,24 @@ public class DropOffUtil {
             }
         }
 
+        if (this.knownDirectories != null) {
+            this.knownDirectories.put(pathName, Boolean.TRUE);
+        }
         return true;
     }
 
+    /**
+     * Forget that the directory of a file was set up, so the next setupPath for it checks the filesystem again. Used when a
+     * write fails because something else removed the directory.
+     *
+     * @param fileName the file name, including directory and filename parts
+     */
+    public void forgetPath(final String fileName) {
+        if (this.knownDirectories != null) {
+            this.knownDirectories.remove(fileName.substring(0, fileName.lastIndexOf(SEPARATOR)));
+        }
+    }
+
     public String getOutputDirectory() {
         return this.placeOutputData;
     }
@@ -339,156 +384,40 @@ public class DropOffUtil {
      * @return string path name with correct separators for this OS
      */
     public String getPathFromSpec(final String specArg, @Nullable final IBaseDataObject d, @Nullable final IBaseDataObject tld) {
-        final StringBuffer sb = new StringBuffer(128);
-
         // Provide a default spec, just like the old days...
-        String spec = specArg;
-        if (spec == null) {
-            spec = "%R%/@TLD{'TARGETBIN'}/%S%";
-        }
-
-        for (int i = 0; i < spec.length(); i++) {
-            final char c = spec.charAt(i);
-
-            if (c == '%' && i < spec.length() - 2) {
-                final char t = spec.charAt(i + 1);
-                final char x = spec.charAt(i + 2);
-
-                if (x == c) {
-                    switch (t) {
-                        case 'U':
-                            if (tld != null) {
-                                sb.append(nvl(tld.getParameter("UserName"), "no-userid"));
-                            } else if (d != null) {
-                                sb.append(nvl(d.getParameter("UserName"), "no-userid"));
-                            }
-                            break;
-                        case 'S':
-                            if (d != null) {
-                                sb.append(d.shortName());
-                            }
-                            break;
-                        case 'I':
-                            if (d != null) {
-                                sb.append(d.getFilename());
-                            }
-                            break;
-                        case 'i':
-                            if (d != null) {
-                                sb.append(d.getFilename().replaceAll("[/\\\\]", "_"));
-                            }
-                            break;
-                        case 'P':
-                            if (d != null) {
-                                sb.append(d.getFilename().substring(0, d.getFilename().length() - d.shortName().length()));
-                            }
-                            break;
-                        case 'p':
-                            if (d != null) {
-                                sb.append(d.getFilename().substring(0, d.getFilename().length() - d.shortName().length()).replaceAll("[/\\\\]", "_"));
-                            }
-                            break;
-                        case 'F':
-                            if (d != null) {
-                                sb.append(nvl(cleanSpecPath(d.getFileType()), "NONE"));
-                            }
-                            break;
-                        case 'L':
-                            if (d != null) {
-                                sb.append(nvl(d.getParameter("LANGUAGE"), "NONE"));
-                            }
-                            break;
-                        case 'G':
-                            if (tld != null) {
-                                sb.append(datePath(cleanSpecPath(tld.getStringParameter("DTG"))));
-                            } else if (d != null) {
-                                sb.append(datePath(cleanSpecPath(d.getStringParameter("DTG"))));
-                            }
-                            break;
-                        case 'R':
-                            sb.append(getRootPath());
-                            break;
-                        case 'B':
-                            if (tld != null) {
-                                sb.append(cleanSpecPath(getBestIdFrom(tld)));
-                            } else if (d != null) {
-                                sb.append(cleanSpecPath(getBestIdFrom(d)));
-                            }
-                            break;
-                        case 'b':
-                            sb.append(cleanSpecPath((tld != null) ? getBestIdFrom(tld) : getBestIdFrom(d)));
-                            final String sn = d.shortName();
-                            final int pos = sn.indexOf(emissary.core.Family.SEP);
-                            if (pos > 0) {
-                                sb.append(sn.substring(pos));
-                            }
-                            break;
-                        case 'Y':
-                            sb.append(TimeUtil.getDate("yyyy", "GMT"));
-                            break;
-                        case 'M':
-                            sb.append(TimeUtil.getDate("MM", "GMT"));
-                            break;
-                        case 'D':
-                            sb.append(TimeUtil.getDate("dd", "GMT"));
-                            break;
-                        case 'J':
-                            sb.append(TimeUtil.getDate("DDD", "GMT"));
-                            break;
-                        default:
-                            sb.append(c).append(t).append(x);
-                    }
-                    i += 2; // SUPPRESS CHECKSTYLE ModifiedControlVariable
-                } else {
-                    // No trailing % after character
-                    sb.append(c);
-                }
-
-            } else if (c == '@' && i < spec.length() - 8 && spec.charAt(i + 1) == 'M' && spec.charAt(i + 2) == 'E' && spec.charAt(i + 3) == 'T'
-                    && spec.charAt(i + 4) == 'A' && spec.charAt(i + 5) == '{' && spec.charAt(i + 6) == '\'') {
+        return (specArg == null ? DEFAULT_SPEC : compileSpec(specArg)).render(this, d, tld);
+    }
 
-                final int endpos = spec.indexOf("'", i + 7);
-                if (endpos > i + 7) {
-                    final String token = spec.substring(i + 7, endpos);
-                    final String value = cleanSpecPath(d.getStringParameter(token));
-                    sb.append(nvl(value, "NO-" + token));
-                    i += 8 + token.length(); // META{'token'} SUPPRESS CHECKSTYLE ModifiedControlVariable
-                } else {
-                    sb.append(c);
-                }
-            } else if (c == '@' && i < spec.length() - 7 && spec.charAt(i + 1) == 'T' && spec.charAt(i + 2) == 'L' && spec.charAt(i + 3) == 'D'
-                    && spec.charAt(i + 4) == '{' && spec.charAt(i + 5) == '\'' && tld != null) {
-                final int endpos = spec.indexOf("'", i + 6);
-                if (endpos > i + 6) {
-                    final String token = spec.substring(i + 6, endpos);
-                    final String value = cleanSpecPath(tld.getStringParameter(token));
-                    sb.append(nvl(value, "NO-" + token));
-                    i += 7 + token.length(); // TLD{'token'} SUPPRESS CHECKSTYLE ModifiedControlVariable
-                } else {
-                    sb.append(c);
-                }
-            } else {
-                sb.append(c);
+    /**
+     * Get the compiled form of a spec, compiling and caching it the first time it is seen
+     *
+     * @param spec the path spec
+     * @return the compiled spec
+     */
+    PathSpec compileSpec(final String spec) {
+        PathSpec compiled = this.compiledSpecs.get(spec);
+        if (compiled == null) {
+            compiled = PathSpec.compile(spec);
+            // Specs normally come from configuration, don't let generated ones grow the cache without bound
+            if (this.compiledSpecs.size() < MAX_COMPILED_SPECS) {
+                this.compiledSpecs.putIfAbsent(spec, compiled);
             }
-
-        }
-
-        String answer = sb.toString();
-
-        // Set the proper path separator
-        if (osIsWindows) {
-            answer = answer.replace('/', '\\');
-        } else {
-            answer = answer.replace('\\', '/');
         }
-
-        answer = answer.replaceAll("\\.([/\\\\])", "_$1");
-
-        return answer;
+        return compiled;
     }
 
     protected String cleanSpecPath(@Nullable String token) {
-        return token == null ? null : token.replaceAll("[.]+", ".");
+        if (token == null || !token.contains("..")) {
+            return token;
+        }
+        final StringBuilder sb = new StringBuilder(token.length());
+        for (int i = 0; i < token.length(); i++) {
+            final char c = token.charAt(i);
+            if (c != '.' || i == 0 || token.charAt(i - 1) != '.') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
     }
 
     /**
@@ -0,0 +1,255 @@
+package emissary.output;
+
+import emissary.core.Family;
+import emissary.core.IBaseDataObject;
+import emissary.util.TimeUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * A path spec for {@link DropOffUtil#getPathFromSpec(String, IBaseDataObject, IBaseDataObject)} parsed once into a list
+ * of literal and token steps, so rendering a path is a walk over the steps instead of interpreting the spec a character
+ * at a time.
+ * <p>
+ * A {@code @TLD{'KEY'}} token is only a token when there is a top level document and is literal text otherwise, so a
+ * spec is compiled twice, once for each case.
+ */
+final class PathSpec {
+
+    // Step kinds besides the single letter %X% tokens
+    private static final char LITERAL = 0;
+    private static final char META = 1;
+    private static final char TLD = 2;
+
+    private static final class Step {
+        final char kind;
+        final String text;
+
+        Step(char kind, String text) {
+            this.kind = kind;
+            this.text = text;
+        }
+    }
+
+    private final String spec;
+    private final Step[] withTld;
+    private final Step[] withoutTld;
+
+    private PathSpec(String spec) {
+        this.spec = spec;
+        this.withTld = parse(spec, true);
+        this.withoutTld = parse(spec, false);
+    }
+
+    /**
+     * Compile a spec
+     *
+     * @param spec the path spec
+     * @return the compiled spec
+     */
+    static PathSpec compile(String spec) {
+        return new PathSpec(spec);
+    }
+
+    String getSpec() {
+        return spec;
+    }
+
+    /**
+     * Split the spec into steps the same way the spec language has always been read, anything not understood is literal
+     */
+    private static Step[] parse(final String spec, final boolean hasTld) {
+        final List<Step> steps = new ArrayList<>();
+        final StringBuilder literal = new StringBuilder();
+        final int len = spec.length();
+        for (int i = 0; i < len; i++) {
+            final char c = spec.charAt(i);
+            if (c == '%' && i < len - 2) {
+                final char t = spec.charAt(i + 1);
+                if (spec.charAt(i + 2) == c) {
+                    if ("USIiPpFLGRBbYMDJ".indexOf(t) >= 0) {
+                        flush(steps, literal);
+                        steps.add(new Step(t, null));
+                    } else {
+                        literal.append(c).append(t).append(c);
+                    }
+                    i += 2; // SUPPRESS CHECKSTYLE ModifiedControlVariable
+                } else {
+                    literal.append(c);
+                }
+            } else if (c == '@' && i < len - 8 && spec.startsWith("META{'", i + 1)) {
+                final int endpos = spec.indexOf('\'', i + 7);
+                if (endpos > i + 7) {
+                    flush(steps, literal);
+                    steps.add(new Step(META, spec.substring(i + 7, endpos)));
+                    i = endpos + 1; // skip the closing brace SUPPRESS CHECKSTYLE ModifiedControlVariable
+                } else {
+                    literal.append(c);
+                }
+            } else if (hasTld && c == '@' && i < len - 7 && spec.startsWith("TLD{'", i + 1)) {
+                final int endpos = spec.indexOf('\'', i + 6);
+                if (endpos > i + 6) {
+                    flush(steps, literal);
+                    steps.add(new Step(TLD, spec.substring(i + 6, endpos)));
+                    i = endpos + 1; // skip the closing brace SUPPRESS CHECKSTYLE ModifiedControlVariable
+                } else {
+                    literal.append(c);
+                }
+            } else {
+                literal.append(c);
+            }
+        }
+        flush(steps, literal);
+        return steps.toArray(new Step[0]);
+    }
+
+    private static void flush(final List<Step> steps, final StringBuilder literal) {
+        if (literal.length() > 0) {
+            steps.add(new Step(LITERAL, literal.toString()));
+            literal.setLength(0);
+        }
+    }
+
+    /**
+     * Fill in the spec for a payload
+     *
+     * @param util supplies the ids, root and cleaning rules
+     * @param d the payload we are making a path for
+     * @param tld the top level document in the d family, possibly null
+     * @return the path with the separators for this OS
+     */
+    String render(final DropOffUtil util, @Nullable final IBaseDataObject d, @Nullable final IBaseDataObject tld) {
+        final StringBuilder sb = new StringBuilder(128);
+        // The best id can be generated, so look it up once per payload
+        String tldBestId = null;
+        String bestId = null;
+
+        for (final Step step : (tld != null ? withTld : withoutTld)) {
+            switch (step.kind) {
+                case LITERAL:
+                    sb.append(step.text);
+                    break;
+                case META:
+                    sb.append(util.nvl(util.cleanSpecPath(d.getStringParameter(step.text)), "NO-" + step.text));
+                    break;
+                case TLD:
+                    sb.append(util.nvl(util.cleanSpecPath(tld.getStringParameter(step.text)), "NO-" + step.text));
+                    break;
+                case 'U':
+                    if (tld != null) {
+                        sb.append(util.nvl(tld.getParameter("UserName"), "no-userid"));
+                    } else if (d != null) {
+                        sb.append(util.nvl(d.getParameter("UserName"), "no-userid"));
+                    }
+                    break;
+                case 'S':
+                    if (d != null) {
+                        sb.append(d.shortName());
+                    }
+                    break;
+                case 'I':
+                    if (d != null) {
+                        sb.append(d.getFilename());
+                    }
+                    break;
+                case 'i':
+                    if (d != null) {
+                        appendFlattened(sb, d.getFilename());
+                    }
+                    break;
+                case 'P':
+                    if (d != null) {
+                        sb.append(d.getFilename(), 0, d.getFilename().length() - d.shortName().length());
+                    }
+                    break;
+                case 'p':
+                    if (d != null) {
+                        appendFlattened(sb, d.getFilename().substring(0, d.getFilename().length() - d.shortName().length()));
+                    }
+                    break;
+                case 'F':
+                    if (d != null) {
+                        sb.append(util.nvl(util.cleanSpecPath(d.getFileType()), "NONE"));
+                    }
+                    break;
+                case 'L':
+                    if (d != null) {
+                        sb.append(util.nvl(d.getParameter("LANGUAGE"), "NONE"));
+                    }
+                    break;
+                case 'G':
+                    if (tld != null) {
+                        sb.append(util.datePath(util.cleanSpecPath(tld.getStringParameter("DTG"))));
+                    } else if (d != null) {
+                        sb.append(util.datePath(util.cleanSpecPath(d.getStringParameter("DTG"))));
+                    }
+                    break;
+                case 'R':
+                    sb.append(util.getRootPath());
+                    break;
+                case 'B':
+                case 'b':
+                    if (tld != null) {
+                        if (tldBestId == null) {
+                            tldBestId = util.cleanSpecPath(util.getBestIdFrom(tld));
+                        }
+                        sb.append(tldBestId);
+                    } else if (d != null || step.kind == 'b') {
+                        if (bestId == null) {
+                            bestId = util.cleanSpecPath(util.getBestIdFrom(d));
+                        }
+                        sb.append(bestId);
+                    }
+                    if (step.kind == 'b') {
+                        final String sn = d.shortName();
+                        final int pos = sn.indexOf(Family.SEP);
+                        if (pos > 0) {
+                            sb.append(sn, pos, sn.length());
+                        }
+                    }
+                    break;
+                case 'Y':
+                    sb.append(TimeUtil.getDate("yyyy", "GMT"));
+                    break;
+                case 'M':
+                    sb.append(TimeUtil.getDate("MM", "GMT"));
+                    break;
+                case 'D':
+                    sb.append(TimeUtil.getDate("dd", "GMT"));
+                    break;
+                case 'J':
+                    sb.append(TimeUtil.getDate("DDD", "GMT"));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown path spec step " + (int) step.kind);
+            }
+        }
+
+        // Set the proper path separator and replace a dot ending a directory name, which windows would strip
+        final char separator = DropOffUtil.osIsWindows ? '\\' : '/';
+        final char other = DropOffUtil.osIsWindows ? '/' : '\\';
+        for (int i = sb.length() - 1; i >= 0; i--) {
+            final char c = sb.charAt(i);
+            if (c == other) {
+                sb.setCharAt(i, separator);
+            } else if (c == '.' && i + 1 < sb.length() && sb.charAt(i + 1) == separator) {
+                sb.setCharAt(i, '_');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendFlattened(final StringBuilder sb, final String path) {
+        for (int i = 0; i < path.length(); i++) {
+            final char c = path.charAt(i);
+            sb.append(c == '/' || c == '\\' ? '_' : c);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -4,6 +4,7 @@ import emissary.config.ConfigUtil;
 import emissary.config.Configurator;
 import emissary.core.IBaseDataObject;
 import emissary.output.io.DateStampFilenameGenerator;
+import emissary.output.roller.BlockCompressor;
 import emissary.output.roller.IJournaler;
 import emissary.output.roller.JournaledCoalescer;
 import emissary.output.roller.journal.KeyedOutput;
@@ -16,6 +17,7 @@ import org.apache.commons.lang3.StringUtils;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -34,6 +36,11 @@ public abstract class AbstractRollableFilter extends AbstractFilter {
     public static final String MAX_ROLL_FILE_SIZE = "MAX_FILE_SIZE";
     public static final String MAX_OUTPUT_APPENDERS = "MAX_OUTPUT_APPENDERS";
     public static final String ROLL_INTERVAL_UNIT = "ROLL_INTERVAL_UNIT";
+    public static final String COALESCE_THREADS = "COALESCE_THREADS";
+    public static final String COMPRESSION = "COMPRESSION";
+    public static final String COMPRESSION_BLOCK_SIZE = "COMPRESSION_BLOCK_SIZE";
+
+    private static final byte[] NEW_LINE = "\n".getBytes(StandardCharsets.UTF_8);
 
     protected String defaultOutputPath = "./out";
     protected Path outputPath;
@@ -41,6 +48,9 @@ public abstract class AbstractRollableFilter extends AbstractFilter {
     protected int maxOutputAppenders;
     protected long rollInterval = 10L;
     protected TimeUnit rollIntervalUnits = TimeUnit.MINUTES;
+    protected int coalesceThreads = 1;
+    protected BlockCompressor.Format compression = BlockCompressor.Format.NONE;
+    protected int compressionBlockSize = BlockCompressor.DEFAULT_BLOCK_SIZE;
     protected Roller roller;
     protected IJournaler rollable;
     protected FileNameGenerator fileNameGenerator;
@@ -56,6 +66,20 @@ public abstract class AbstractRollableFilter extends AbstractFilter {
      */
     public abstract byte[] convert(final List<IBaseDataObject> list, final Map<String, Object> params) throws IOException;
 
+    /**
+     * Method to write payload(s) in the output type directly to the output. This is what
+     * {@link #filter(List, Map, OutputStream)} uses, so filters that can serialize incrementally should override it to
+     * avoid holding the whole family in memory. The default writes the result of {@link #convert(List, Map)}.
+     *
+     * @param list the payload list
+     * @param params the list of parameters
+     * @param output the stream to write to, which must be left open
+     * @throws IOException if there is an issue outputting the data
+     */
+    public void convert(final List<IBaseDataObject> list, final Map<String, Object> params, final OutputStream output) throws IOException {
+        output.write(convert(list, params));
+    }
+
     /**
      * Initialization phase hook for the filter with provided filter configuration
      *
@@ -96,6 +120,9 @@ public abstract class AbstractRollableFilter extends AbstractFilter {
         this.maxOutputAppenders = this.filterConfig.findIntEntry(MAX_OUTPUT_APPENDERS, AgentPool.computePoolSize());
         this.rollInterval = this.filterConfig.findLongEntry(CFG_ROLL_INTERVAL, rollInterval);
         this.rollIntervalUnits = TimeUnit.valueOf(this.filterConfig.findStringEntry(ROLL_INTERVAL_UNIT, rollIntervalUnits.toString()));
+        this.coalesceThreads = this.filterConfig.findIntEntry(COALESCE_THREADS, coalesceThreads);
+        this.compression = BlockCompressor.Format.valueOf(this.filterConfig.findStringEntry(COMPRESSION, compression.toString()).toUpperCase());
+        this.compressionBlockSize = (int) this.filterConfig.findSizeEntry(COMPRESSION_BLOCK_SIZE, compressionBlockSize);
     }
 
     /**
@@ -137,7 +164,9 @@ public abstract class AbstractRollableFilter extends AbstractFilter {
      * @throws InterruptedException if the journal is interrupted
      */
     protected IJournaler createRollable() throws IOException, InterruptedException {
-        return new JournaledCoalescer(this.outputPath, this.fileNameGenerator, this.maxOutputAppenders);
+        final BlockCompressor compressor =
+                this.compression == BlockCompressor.Format.NONE ? null : new BlockCompressor(this.compression, this.compressionBlockSize);
+        return new JournaledCoalescer(this.outputPath, this.fileNameGenerator, this.maxOutputAppenders, this.coalesceThreads, compressor);
     }
 
     /**
@@ -190,9 +219,9 @@ public abstract class AbstractRollableFilter extends AbstractFilter {
         list.get(0).putParameter("DESCENDANT_COUNT", list.size() - 1);
 
         try {
-            output.write(convert(list, params));
+            convert(list, params, output);
             if (appendNewLine) {
-                output.write("\n".getBytes());
+                output.write(NEW_LINE);
             }
         } catch (IOException iox) {
             logger.warn("Could not write to log filter", iox);
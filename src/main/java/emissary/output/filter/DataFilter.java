@@ -2,13 +2,19 @@ package emissary.output.filter;
 
 import emissary.config.ConfigUtil;
 import emissary.config.Configurator;
+import emissary.core.BaseDataObject;
 import emissary.core.IBaseDataObject;
+import emissary.core.channels.SeekableByteChannelFactory;
+import emissary.core.channels.SeekableByteChannelHelper;
 import emissary.output.DropOffPlace;
 import emissary.output.DropOffUtil;
 
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Set;
@@ -19,6 +25,8 @@ import javax.annotation.Nullable;
  */
 public class DataFilter extends AbstractFilter {
 
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
     /**
      * Initialize reads the configuration items for this filter
      * 
@@ -101,8 +109,7 @@ public class DataFilter extends AbstractFilter {
         int writeCount = 0;
 
         if (isPrimaryViewOutputtable(lang, fileType, currentForm)) {
-            final byte[] data = d.data();
-            final boolean status = writeDataStream(d, tld, output, data, null);
+            final boolean status = writeDataStream(d, tld, output, d.getChannelFactory(), null);
             writeCount += (status ? 1 : -1);
         }
 
@@ -163,7 +170,7 @@ public class DataFilter extends AbstractFilter {
         }
 
         // Write it out
-        try (FileOutputStream fos = new FileOutputStream(fileName)) {
+        try (FileOutputStream fos = openOutput(fileName)) {
             fos.write(data, 0, data.length);
         } catch (IOException ex) {
             logger.error("Cannot write output to {}", fileName, ex);
@@ -173,6 +180,21 @@ public class DataFilter extends AbstractFilter {
         return true;
     }
 
+    /**
+     * Open a file for writing, setting its directory up again if it was removed since setupPath last saw it
+     */
+    private FileOutputStream openOutput(final String fileName) throws IOException {
+        try {
+            return new FileOutputStream(fileName);
+        } catch (FileNotFoundException ex) {
+            dropOffUtil.forgetPath(fileName);
+            if (!dropOffUtil.setupPath(fileName)) {
+                throw ex;
+            }
+            return new FileOutputStream(fileName);
+        }
+    }
+
     protected boolean writeDataStream(final IBaseDataObject d, final IBaseDataObject tld, final OutputStream output, final byte[] data,
             final String type) {
         try {
@@ -184,6 +206,59 @@ public class DataFilter extends AbstractFilter {
         return true;
     }
 
+    /**
+     * Copy the data from a channel to the output through a fixed size buffer, so channel backed payloads are never
+     * materialized. Like {@link IBaseDataObject#data()} no more than {@link BaseDataObject#MAX_BYTE_ARRAY_SIZE} bytes are
+     * written. When {@link #streamPrimaryView()} is false the data is read into an array and handed to
+     * {@link #writeDataStream(IBaseDataObject, IBaseDataObject, OutputStream, byte[], String)} instead.
+     *
+     * @param d the DataObject to output
+     * @param tld the TLD Object to extract metadata (if applicable)
+     * @param output the stream to write to
+     * @param sbcf the data to write, null if there is none
+     * @param type of data
+     */
+    protected boolean writeDataStream(final IBaseDataObject d, final IBaseDataObject tld, final OutputStream output,
+            @Nullable final SeekableByteChannelFactory sbcf, @Nullable final String type) {
+        if (sbcf == null) {
+            return true;
+        }
+        if (!streamPrimaryView()) {
+            final byte[] data;
+            try {
+                data = SeekableByteChannelHelper.getByteArrayFromChannel(sbcf, BaseDataObject.MAX_BYTE_ARRAY_SIZE);
+            } catch (IOException ex) {
+                logger.error("Cannot read data for output", ex);
+                return false;
+            }
+            return writeDataStream(d, tld, output, data, type);
+        }
+        try (InputStream is = Channels.newInputStream(sbcf.create())) {
+            final byte[] buf = new byte[COPY_BUFFER_SIZE];
+            long remaining = BaseDataObject.MAX_BYTE_ARRAY_SIZE;
+            int len;
+            while (remaining > 0 && (len = is.read(buf, 0, (int) Math.min(buf.length, remaining))) != -1) {
+                output.write(buf, 0, len);
+                remaining -= len;
+            }
+        } catch (IOException ex) {
+            logger.error("Cannot write output", ex);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether channel backed data is copied straight to the output. Subclasses that override
+     * {@link #writeDataStream(IBaseDataObject, IBaseDataObject, OutputStream, byte[], String)} return false to keep
+     * receiving all the data as byte arrays.
+     *
+     * @return true to stream the data, the default
+     */
+    protected boolean streamPrimaryView() {
+        return true;
+    }
+
     /**
      * Main to test output types
      */
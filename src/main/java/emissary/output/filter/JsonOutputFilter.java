@@ -1,6 +1,7 @@
 package emissary.output.filter;
 
 import emissary.config.Configurator;
+import emissary.core.BaseDataObject;
 import emissary.core.IBaseDataObject;
 import emissary.core.channels.SeekableByteChannelFactory;
 import emissary.directory.DirectoryEntry;
@@ -18,6 +19,7 @@ import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.ser.BeanSerializerFactory;
 import com.fasterxml.jackson.databind.ser.PropertyWriter;
@@ -27,7 +29,11 @@ import com.fasterxml.jackson.databind.ser.std.MapProperty;
 import org.apache.commons.collections4.CollectionUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -87,6 +93,19 @@ public class JsonOutputFilter extends AbstractRollableFilter {
         return jsonMapper.writeValueAsBytes(list);
     }
 
+    /**
+     * Serialize the payload list straight to the output through a generator, so only the generator's buffer is held in
+     * memory no matter how large the family is
+     */
+    @Override
+    public void convert(final List<IBaseDataObject> list, final Map<String, Object> params, final OutputStream output) throws IOException {
+        try (JsonGenerator generator = jsonMapper.getFactory().createGenerator(output)) {
+            // the output belongs to the caller
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            jsonMapper.writeValue(generator, list);
+        }
+    }
+
     class IbdoParameterFilter extends SimpleBeanPropertyFilter implements Serializable {
 
         private static final long serialVersionUID = 1L;
@@ -237,6 +256,30 @@ public class JsonOutputFilter extends AbstractRollableFilter {
         }
     }
 
+    /**
+     * Write the payload as base64 straight from its channel rather than from a materialized byte array. The length is
+     * capped the same way {@link IBaseDataObject#data()} caps it.
+     */
+    static class ChannelFactorySerializer extends JsonSerializer<SeekableByteChannelFactory> {
+
+        @Override
+        public void serialize(SeekableByteChannelFactory sbcf, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+            try (SeekableByteChannel sbc = sbcf.create(); InputStream is = Channels.newInputStream(sbc)) {
+                final int length = (int) Math.min(sbc.size(), BaseDataObject.MAX_BYTE_ARRAY_SIZE);
+                jgen.writeBinary(provider.getConfig().getBase64Variant(), is, length);
+            }
+        }
+
+        @Override
+        public boolean isEmpty(SerializerProvider provider, SeekableByteChannelFactory sbcf) {
+            try (SeekableByteChannel sbc = sbcf.create()) {
+                return sbc.size() == 0;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
     /**
      * This class is used so we do not have to annotate the IBaseDataObject. Set custom annotations on the method signatures
      * to include/exclude fields in the ibdo.
@@ -260,7 +303,7 @@ public class JsonOutputFilter extends AbstractRollableFilter {
         abstract List<IBaseDataObject> getExtractedRecords();
 
         @JsonIgnore
-        abstract SeekableByteChannelFactory getChannelFactory();
+        abstract byte[] data();
 
         @JsonIgnore
         abstract int dataLength();
@@ -331,7 +374,7 @@ public class JsonOutputFilter extends AbstractRollableFilter {
 
     static abstract class IbdoParameterMixin extends IbdoMixin {
         @JsonIgnore
-        abstract byte[] data();
+        abstract SeekableByteChannelFactory getChannelFactory();
 
         @JsonIgnore
         abstract Map<String, byte[]> getAlternateViews();
@@ -340,7 +383,8 @@ public class JsonOutputFilter extends AbstractRollableFilter {
     static abstract class IbdoPayloadMixin extends IbdoMixin {
         @JsonProperty("payload")
         @JsonInclude(NON_EMPTY)
-        abstract byte[] data();
+        @JsonSerialize(using = ChannelFactorySerializer.class)
+        abstract SeekableByteChannelFactory getChannelFactory();
 
         @JsonProperty("views")
         @JsonInclude(NON_EMPTY)
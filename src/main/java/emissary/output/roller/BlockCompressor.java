@@ -0,0 +1,316 @@
+package emissary.output.roller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import javax.annotation.Nullable;
+
+/**
+ * Compresses a file in independent blocks that can be compressed in parallel, and writes an index of where each block
+ * starts after the compressed data so a reader can start decompressing at any block.
+ *
+ * <p>
+ * In {@link Format#GZIP} each block is its own gzip member, and the index is carried in the extra field of empty gzip
+ * members after them, so the file is still an ordinary gzip file that decompresses to exactly the input. In
+ * {@link Format#DEFLATE} the blocks make up one raw deflate stream, each flushed to a byte boundary and compressed
+ * without the data before it, and the index is appended after the end of the stream.
+ *
+ * <p>
+ * The index lists the uncompressed and compressed offset of each block, followed by the uncompressed length. It is
+ * found from the fixed size trailer at the end of the file, see {@link #readIndex(SeekableByteChannel, Format)}.
+ */
+public class BlockCompressor {
+
+    public enum Format {
+        NONE, GZIP, DEFLATE
+    }
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    static final long MAGIC = 0x454d4953424c4b31L; // EMISBLK1
+
+    // Gzip extra subfield ids for the index and the trailer pointing at it
+    private static final byte[] INDEX_FIELD = {'I', 'X'};
+    private static final byte[] TRAILER_FIELD = {'I', 'T'};
+    private static final int MAX_FIELD = 65535 - 4;
+
+    private static final int GZIP_HEADER = 10;
+    // Header, extra length, subfield header, 16 bytes of data, empty deflate block, crc and size
+    static final int GZIP_TRAILER_SIZE = GZIP_HEADER + 2 + 4 + 16 + 2 + 8;
+    static final int DEFLATE_TRAILER_SIZE = 16;
+
+    private final Format format;
+    private final int blockSize;
+    private final int level;
+
+    /**
+     * Create a compressor with the default compression level
+     *
+     * @param format how to compress, not {@link Format#NONE}
+     * @param blockSize uncompressed bytes in each block
+     */
+    public BlockCompressor(Format format, int blockSize) {
+        this(format, blockSize, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Create a compressor
+     *
+     * @param format how to compress, not {@link Format#NONE}
+     * @param blockSize uncompressed bytes in each block
+     * @param level the deflate compression level
+     */
+    public BlockCompressor(Format format, int blockSize, int level) {
+        if (format == Format.NONE) {
+            throw new IllegalArgumentException("No compressor for format " + format);
+        }
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.format = format;
+        this.blockSize = blockSize;
+        this.level = level;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Compress the first length bytes of a file to an output. Blocks are read and compressed on the executor, with at most
+     * inFlight of them waiting to be written at once.
+     *
+     * @param in the file to compress, read with positional reads
+     * @param length how many bytes of the file to compress
+     * @param out where to write the compressed file, from its current position
+     * @param executor runs the block compression, null to compress on the calling thread
+     * @param inFlight most blocks compressed ahead of the one being written
+     * @return the number of bytes written
+     * @throws IOException if the file cannot be read or the output written
+     */
+    public long compress(FileChannel in, long length, WritableByteChannel out, @Nullable Executor executor, int inFlight) throws IOException {
+        int blocks = (int) Math.max(1L, (length + blockSize - 1) / blockSize);
+        long[] uncompressedOffsets = new long[blocks];
+        long[] compressedOffsets = new long[blocks];
+        Deque<Future<byte[]>> queue = new ArrayDeque<>();
+        int submitted = 0;
+        long written = 0L;
+        try {
+            for (int i = 0; i < blocks; i++) {
+                while (submitted < blocks && (submitted == i || queue.size() < Math.max(1, inFlight))) {
+                    queue.addLast(submit(in, submitted, length, blocks, executor));
+                    submitted++;
+                }
+                byte[] block = get(queue.removeFirst());
+                uncompressedOffsets[i] = (long) i * blockSize;
+                compressedOffsets[i] = written;
+                written += write(out, ByteBuffer.wrap(block));
+            }
+        } finally {
+            for (Future<byte[]> f : queue) {
+                f.cancel(true);
+            }
+        }
+        byte[] index = index(uncompressedOffsets, compressedOffsets, length);
+        return written + (format == Format.GZIP ? writeGzipFooter(out, index, written) : writeDeflateFooter(out, index, written));
+    }
+
+    private Future<byte[]> submit(FileChannel in, int block, long length, int blocks, @Nullable Executor executor) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        Executor runner = executor == null ? Runnable::run : executor;
+        runner.execute(() -> {
+            try {
+                result.complete(compressBlock(in, block, length, block == blocks - 1));
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private static byte[] get(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted compressing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed compressing", e.getCause());
+        }
+    }
+
+    /**
+     * Read and compress one block of the file
+     */
+    byte[] compressBlock(FileChannel in, int block, long length, boolean last) throws IOException {
+        long position = (long) block * blockSize;
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(blockSize, length - position));
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("File ends at " + (position + buffer.position()) + " before " + length);
+            }
+        }
+        byte[] data = buffer.array();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2 + 64);
+        if (format == Format.GZIP) {
+            bytes.write(gzipHeader(false), 0, GZIP_HEADER);
+        }
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data);
+            byte[] out = new byte[64 * 1024];
+            if (format == Format.GZIP || last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    bytes.write(out, 0, deflater.deflate(out));
+                }
+            } else {
+                // Flush to a byte boundary so the next block can be appended to the stream
+                int n;
+                do {
+                    n = deflater.deflate(out, 0, out.length, Deflater.SYNC_FLUSH);
+                    bytes.write(out, 0, n);
+                } while (n == out.length || !deflater.needsInput());
+            }
+        } finally {
+            deflater.end();
+        }
+        if (format == Format.GZIP) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putInt((int) crc.getValue()).putInt(data.length);
+            bytes.write(trailer.array(), 0, 8);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] index(long[] uncompressedOffsets, long[] compressedOffsets, long length) {
+        ByteBuffer index = ByteBuffer.allocate(4 + uncompressedOffsets.length * 16 + 8);
+        index.putInt(uncompressedOffsets.length);
+        for (int i = 0; i < uncompressedOffsets.length; i++) {
+            index.putLong(uncompressedOffsets[i]).putLong(compressedOffsets[i]);
+        }
+        index.putLong(length);
+        return index.array();
+    }
+
+    private static long writeDeflateFooter(WritableByteChannel out, byte[] index, long start) throws IOException {
+        ByteBuffer trailer = ByteBuffer.allocate(DEFLATE_TRAILER_SIZE);
+        trailer.putLong(start).putLong(MAGIC).flip();
+        return write(out, ByteBuffer.wrap(index)) + write(out, trailer);
+    }
+
+    private static long writeGzipFooter(WritableByteChannel out, byte[] index, long start) throws IOException {
+        long written = 0L;
+        for (int offset = 0; offset < index.length; offset += MAX_FIELD) {
+            written += write(out, emptyMember(INDEX_FIELD, index, offset, Math.min(MAX_FIELD, index.length - offset)));
+        }
+        ByteBuffer pointer = ByteBuffer.allocate(16);
+        pointer.putLong(start).putLong(MAGIC);
+        return written + write(out, emptyMember(TRAILER_FIELD, pointer.array(), 0, 16));
+    }
+
+    /**
+     * An empty gzip member carrying data in an extra subfield
+     */
+    private static ByteBuffer emptyMember(byte[] id, byte[] data, int offset, int length) {
+        ByteBuffer member = ByteBuffer.allocate(GZIP_HEADER + 2 + 4 + length + 2 + 8).order(ByteOrder.LITTLE_ENDIAN);
+        member.put(gzipHeader(true));
+        member.putShort((short) (4 + length)).put(id).putShort((short) length).put(data, offset, length);
+        // Final empty deflate block, then the crc and size of no data
+        member.put((byte) 0x03).put((byte) 0x00).putInt(0).putInt(0);
+        member.flip();
+        return member;
+    }
+
+    private static byte[] gzipHeader(boolean extra) {
+        return new byte[] {0x1f, (byte) 0x8b, Deflater.DEFLATED, (byte) (extra ? 0x04 : 0x00), 0, 0, 0, 0, 0, (byte) 0xff};
+    }
+
+    private static long write(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        long n = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        return n;
+    }
+
+    /**
+     * Read the block index of a compressed file. Row i holds the uncompressed and compressed offset of block i, the last
+     * row holds the uncompressed length and the offset where the index starts.
+     *
+     * @param in the compressed file
+     * @param format how it was compressed
+     * @return the index rows
+     * @throws IOException if the file has no index
+     */
+    public static long[][] readIndex(SeekableByteChannel in, Format format) throws IOException {
+        long size = in.size();
+        int trailerSize = format == Format.GZIP ? GZIP_TRAILER_SIZE : DEFLATE_TRAILER_SIZE;
+        if (size < trailerSize) {
+            throw new IOException("Too short for a block index: " + size);
+        }
+        ByteBuffer trailer = readAt(in, size - trailerSize, trailerSize);
+        long start = trailer.getLong(trailerSize - (format == Format.GZIP ? 26 : 16));
+        if (trailer.getLong(trailerSize - (format == Format.GZIP ? 18 : 8)) != MAGIC || start < 0 || start > size - trailerSize) {
+            throw new IOException("No block index found");
+        }
+        ByteBuffer footer = readAt(in, start, (int) (size - trailerSize - start));
+        ByteBuffer index;
+        if (format == Format.GZIP) {
+            // Gather the index subfields from the empty members
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(footer.remaining());
+            footer.order(ByteOrder.LITTLE_ENDIAN);
+            while (footer.hasRemaining()) {
+                footer.position(footer.position() + GZIP_HEADER + 2 + 2);
+                int length = footer.getShort() & 0xffff;
+                bytes.write(footer.array(), footer.position(), length);
+                footer.position(footer.position() + length + 2 + 8);
+            }
+            index = ByteBuffer.wrap(bytes.toByteArray());
+        } else {
+            index = footer;
+        }
+        int blocks = index.getInt();
+        long[][] rows = new long[blocks + 1][];
+        for (int i = 0; i < blocks; i++) {
+            rows[i] = new long[] {index.getLong(), index.getLong()};
+        }
+        rows[blocks] = new long[] {index.getLong(), start};
+        return rows;
+    }
+
+    private static ByteBuffer readAt(SeekableByteChannel in, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        in.position(position);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                throw new EOFException("File ends at " + in.position());
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
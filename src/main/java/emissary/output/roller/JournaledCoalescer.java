@@ -1,12 +1,18 @@
 package emissary.output.roller;
 
+import emissary.core.MetricsManager;
+import emissary.core.Namespace;
+import emissary.core.NamespaceException;
 import emissary.output.roller.journal.Journal;
 import emissary.output.roller.journal.JournalEntry;
 import emissary.output.roller.journal.JournalReader;
 import emissary.output.roller.journal.JournaledChannelPool;
 import emissary.output.roller.journal.KeyedOutput;
+import emissary.util.DaemonThreadFactory;
 import emissary.util.io.FileNameGenerator;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,7 +28,15 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
 
 import static emissary.output.roller.journal.Journal.EXT;
 import static emissary.output.roller.journal.JournaledChannelPool.EXTENSION;
@@ -40,8 +54,12 @@ import static java.nio.file.StandardOpenOption.WRITE;
  * Journal serves as a write ahead log and records positions of all open file handles until rolled.
  * <p>
  * During a roll, all Journals are identified and their outputs are combined into a destination filename denoted by the
- * FileNameGenerator.
- *
+ * FileNameGenerator. Destination files are combined on a pool of threads when there is more than one, and can be
+ * compressed with a {@link BlockCompressor} before they are moved into place, keeping the destination name.
+ * <p>
+ * When a MetricsManager is running each roll is timed as coalescer.&lt;dir&gt;.roll, the bytes combined and written are
+ * counted as coalescer.&lt;dir&gt;.bytesIn and coalescer.&lt;dir&gt;.bytesOut, and the output to input ratio of the
+ * last roll is the gauge coalescer.&lt;dir&gt;.compressionRatio, where dir is the name of the output directory.
  */
 public class JournaledCoalescer implements IJournaler, ICoalescer {
 
@@ -82,6 +100,40 @@ public class JournaledCoalescer implements IJournaler, ICoalescer {
      * File extension used while cleanup of part files after coalescing has completed
      */
     static final String ERROR_EXT = ".error";
+    /**
+     * File extension used while compressing the coalesced output
+     */
+    static final String COMPRESSING_EXT = ".compressing";
+    /**
+     * Prefix for the roll metrics
+     */
+    public static final String METRIC_PREFIX = "coalescer";
+    /**
+     * Number of destination files combined at once
+     */
+    private final int parallelism;
+    /**
+     * Compresses the combined output, null to leave it as is
+     */
+    @Nullable
+    private final BlockCompressor compressor;
+    /**
+     * Threads for combining destination files and compressing blocks, created on the first roll that needs them
+     */
+    @Nullable
+    private ExecutorService coalescePool;
+    @Nullable
+    private ExecutorService compressionPool;
+    /**
+     * Bytes combined and written by the roll in progress, and the totals and time of the last roll
+     */
+    private final LongAdder rollBytesIn = new LongAdder();
+    private final LongAdder rollBytesOut = new LongAdder();
+    private volatile long lastRollBytesIn;
+    private volatile long lastRollBytesOut;
+    private volatile long lastRollMillis;
+    @Nullable
+    private MetricRegistry registry;
     /**
      * Part/journal file matcher
      */
@@ -105,9 +157,26 @@ public class JournaledCoalescer implements IJournaler, ICoalescer {
      * @param poolsize The max number of outputs for the pool.
      */
     public JournaledCoalescer(final Path outPath, final FileNameGenerator fileNameGenerator, int poolsize) throws IOException, InterruptedException {
+        this(outPath, fileNameGenerator, poolsize, 1, null);
+    }
+
+    /**
+     * The Rollable with take all files in a Path and combine them into a single destination file on each roll, several
+     * destination files at a time, optionally compressing them.
+     *
+     * @param outPath The Path to use for reading input and writing combined output
+     * @param fileNameGenerator The FileNameGenerator to use for unique destination file names
+     * @param poolsize The max number of outputs for the pool.
+     * @param parallelism The number of destination files to combine at once, and blocks to compress at once for each
+     * @param compressor Compresses the destination files, null to leave them uncompressed
+     */
+    public JournaledCoalescer(final Path outPath, final FileNameGenerator fileNameGenerator, int poolsize, int parallelism,
+            @Nullable BlockCompressor compressor) throws IOException, InterruptedException {
         this.outputPath = outPath.toAbsolutePath();
         this.fileNameGenerator = fileNameGenerator;
         this.poolsize = poolsize;
+        this.parallelism = Math.max(1, parallelism);
+        this.compressor = compressor;
         validateOutputPath();
         cleanupOrphanedRolledFiles();
         initializeNextPool();
@@ -188,10 +257,22 @@ public class JournaledCoalescer implements IJournaler, ICoalescer {
     @Override
     public void close() throws IOException {
         roll();
+        synchronized (this) {
+            for (ExecutorService pool : new ExecutorService[] {this.coalescePool, this.compressionPool}) {
+                if (pool != null) {
+                    pool.shutdown();
+                }
+            }
+            this.coalescePool = null;
+            this.compressionPool = null;
+        }
     }
 
     @Override
     public void roll() {
+        long start = System.nanoTime();
+        this.rollBytesIn.reset();
+        this.rollBytesOut.reset();
         try {
             this.rolling = true;
             Collection<Path> paths = initializeNextPool();
@@ -202,9 +283,92 @@ public class JournaledCoalescer implements IJournaler, ICoalescer {
             LOG.warn("Roll interrupted during execution. Should continue on next roll.", ex);
         } finally {
             this.rolling = false;
+            recordRoll(System.nanoTime() - start);
         }
     }
 
+    /**
+     * Keep the totals of a roll that did some work and publish them
+     *
+     * @param nanos how long the roll took
+     */
+    private void recordRoll(long nanos) {
+        long in = this.rollBytesIn.sum();
+        long out = this.rollBytesOut.sum();
+        if (in == 0L && out == 0L) {
+            return;
+        }
+        this.lastRollBytesIn = in;
+        this.lastRollBytesOut = out;
+        this.lastRollMillis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        LOG.debug("Rolled {} bytes into {} bytes in {}ms", in, out, this.lastRollMillis);
+        MetricRegistry r = registry();
+        if (r != null) {
+            String prefix = MetricRegistry.name(METRIC_PREFIX, String.valueOf(this.outputPath.getFileName()));
+            r.timer(MetricRegistry.name(prefix, "roll")).update(nanos, TimeUnit.NANOSECONDS);
+            r.counter(MetricRegistry.name(prefix, "bytesIn")).inc(in);
+            r.counter(MetricRegistry.name(prefix, "bytesOut")).inc(out);
+        }
+    }
+
+    @Nullable
+    private synchronized MetricRegistry registry() {
+        if (this.registry == null) {
+            try {
+                if (Namespace.exists(MetricsManager.DEFAULT_NAMESPACE_NAME)) {
+                    setMetricRegistry(MetricsManager.lookup().getMetricRegistry());
+                }
+            } catch (NamespaceException e) {
+                LOG.debug("No MetricsManager available, roll metrics will not be published");
+            }
+        }
+        return this.registry;
+    }
+
+    /**
+     * Publish the roll metrics to a registry instead of the one from the MetricsManager
+     *
+     * @param registry where to publish
+     */
+    public synchronized void setMetricRegistry(MetricRegistry registry) {
+        this.registry = registry;
+        String name = MetricRegistry.name(METRIC_PREFIX, String.valueOf(this.outputPath.getFileName()), "compressionRatio");
+        try {
+            registry.gauge(name, () -> (Gauge<Double>) this::getCompressionRatio);
+        } catch (IllegalArgumentException e) {
+            LOG.debug("Metric {} is already registered as something other than a gauge", name);
+        }
+    }
+
+    /**
+     * Bytes combined from part files by the last roll that had any
+     */
+    public long getLastRollBytesIn() {
+        return this.lastRollBytesIn;
+    }
+
+    /**
+     * Bytes written to destination files by the last roll that had any
+     */
+    public long getLastRollBytesOut() {
+        return this.lastRollBytesOut;
+    }
+
+    /**
+     * How long the last roll that had any files took, in millis
+     */
+    public long getLastRollMillis() {
+        return this.lastRollMillis;
+    }
+
+    /**
+     * Bytes written over bytes combined for the last roll that had any, 1.0 when nothing is compressed
+     */
+    public double getCompressionRatio() {
+        long in = this.lastRollBytesIn;
+        return in == 0L ? 1.0 : (double) this.lastRollBytesOut / in;
+    }
+
     @Override
     public void coalesce() throws IOException {
         throw new UnsupportedOperationException();
@@ -218,7 +382,38 @@ public class JournaledCoalescer implements IJournaler, ICoalescer {
         }
         HashMap<String, Collection<Journal>> outputMap = new HashMap<>();
         journalPaths.forEach(path -> loadJournal(path, outputMap));
-        outputMap.forEach(this::coalesceFiles);
+        if (this.parallelism == 1 || outputMap.size() == 1) {
+            outputMap.forEach(this::coalesceFiles);
+            return;
+        }
+        ExecutorService pool = coalescePool();
+        List<Future<?>> futures = new ArrayList<>(outputMap.size());
+        outputMap.forEach((key, journals) -> futures.add(pool.submit(() -> coalesceFiles(key, journals))));
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for files to coalesce", e);
+            } catch (ExecutionException e) {
+                LOG.error("Error coalescing files", e.getCause());
+            }
+        }
+    }
+
+    private synchronized ExecutorService coalescePool() {
+        if (this.coalescePool == null) {
+            this.coalescePool = Executors.newFixedThreadPool(this.parallelism, new DaemonThreadFactory("JournaledCoalescer-daemon-"));
+        }
+        return this.coalescePool;
+    }
+
+    @Nullable
+    private synchronized ExecutorService compressionPool() {
+        if (this.parallelism > 1 && this.compressionPool == null) {
+            this.compressionPool = Executors.newFixedThreadPool(this.parallelism, new DaemonThreadFactory("JournaledCoalescer-compress-"));
+        }
+        return this.compressionPool;
     }
 
     private void loadJournal(Path path, HashMap<String, Collection<Journal>> outputMap) {
@@ -263,8 +458,16 @@ public class JournaledCoalescer implements IJournaler, ICoalescer {
                 workingOutputChannel.force(true);
             }
 
-            Files.move(workingOutputPath, rolledOutputPath);
-            LOG.info("Successfully coalesced {} files into: {}. Size: {}", journals.size(), rolledOutputPath, Files.size(rolledOutputPath));
+            long size = Files.size(workingOutputPath);
+            if (this.compressor != null && size > 0L) {
+                compress(workingOutputPath, size, this.outputPath.resolve(key + COMPRESSING_EXT), rolledOutputPath);
+            } else {
+                Files.move(workingOutputPath, rolledOutputPath);
+            }
+            long rolledSize = Files.size(rolledOutputPath);
+            this.rollBytesIn.add(size);
+            this.rollBytesOut.add(rolledSize);
+            LOG.info("Successfully coalesced {} files into: {}. Size: {}", journals.size(), rolledOutputPath, rolledSize);
 
             finalize(journals, rolledOutputPath, finalOutputPath);
         } catch (IOException ex) {
@@ -272,6 +475,25 @@ public class JournaledCoalescer implements IJournaler, ICoalescer {
         }
     }
 
+    /**
+     * Compress the combined output into the rolled file, truncating a bad compressed file from a crashed run
+     *
+     * @param workingOutputPath the combined output
+     * @param size bytes of combined output
+     * @param compressingPath where to write the compressed output
+     * @param rolledOutputPath where the compressed output ends up
+     */
+    private void compress(Path workingOutputPath, long size, Path compressingPath, Path rolledOutputPath) throws IOException {
+        try (FileChannel in = FileChannel.open(workingOutputPath, READ);
+                FileChannel out = FileChannel.open(compressingPath, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            this.compressor.compress(in, size, out, compressionPool(), 2 * this.parallelism);
+            out.force(true);
+        }
+        // The part files are still there to start again until the rolled file exists
+        Files.delete(workingOutputPath);
+        Files.move(compressingPath, rolledOutputPath);
+    }
+
     /**
      * Copies all bytes from all paths that match to an output stream.
      *
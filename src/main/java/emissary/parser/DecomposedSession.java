@@ -1,6 +1,7 @@
 package emissary.parser;
 
 import emissary.core.IBaseDataObject;
+import emissary.core.channels.SeekableByteChannelFactory;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
@@ -30,6 +31,7 @@ public class DecomposedSession {
     protected byte[] header = null;
     protected byte[] footer = null;
     protected byte[] data = null;
+    protected SeekableByteChannelFactory dataChannelFactory = null;
     protected String classification = null;
     protected List<String> initialForms = new ArrayList<>();
     protected ArrayListMultimap<String, Object> metadata = ArrayListMultimap.create(100, 1);
@@ -80,6 +82,26 @@ public class DecomposedSession {
         setData(d, false);
     }
 
+    /**
+     * Set the data entry as a channel factory instead of a byte array, so the bytes are only read if someone needs them.
+     * Previously existing data is lost
+     *
+     * @param sbcf factory for the data
+     */
+    public void setDataChannelFactory(@Nullable SeekableByteChannelFactory sbcf) {
+        data = null;
+        dataChannelFactory = sbcf;
+    }
+
+    /**
+     * Get the data entry if it was set as a channel factory
+     *
+     * @return the data channel factory or null if none
+     */
+    public SeekableByteChannelFactory getDataChannelFactory() {
+        return dataChannelFactory;
+    }
+
     /**
      * Set the data entry using the passed in byte array or a copy Previously existing data is lost
      *
@@ -87,6 +109,7 @@ public class DecomposedSession {
      * @param copy make a copy when true
      */
     public void setData(@Nullable byte[] d, boolean copy) {
+        dataChannelFactory = null;
         if (d == null || !copy) {
             data = d;
         } else {
@@ -102,6 +125,7 @@ public class DecomposedSession {
      * @param end ending offset
      */
     public void setData(byte[] d, int start, int end) {
+        dataChannelFactory = null;
         data = new byte[end - start];
         System.arraycopy(d, start, data, 0, data.length);
     }
@@ -194,10 +218,10 @@ public class DecomposedSession {
     /**
      * Test for data presence
      *
-     * @return true if there is a data entry
+     * @return true if there is a data entry, as bytes or as a channel factory
      */
     public boolean hasData() {
-        return data != null;
+        return data != null || dataChannelFactory != null;
     }
 
     /**
@@ -1,5 +1,7 @@
 package emissary.parser;
 
+import emissary.core.channels.SeekableByteChannelFactory;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,6 +27,13 @@ public abstract class NIOSessionParser extends SessionParser {
     /** The data source for this parser */
     protected SeekableByteChannel channel;
 
+    /**
+     * Factory for the same bytes as the channel, when set parsers may hand out session data as windows onto it instead of
+     * copies
+     */
+    @Nullable
+    protected SeekableByteChannelFactory channelFactory = null;
+
     /** The start position of the current chunk relative to the data source */
     protected int chunkStart = 0;
 
@@ -62,6 +71,25 @@ public abstract class NIOSessionParser extends SessionParser {
         this.channel = channel;
     }
 
+    /**
+     * Set the factory for the bytes of the channel being parsed
+     *
+     * @param channelFactory factory providing exactly the bytes of the channel, or null to copy session data
+     */
+    public void setChannelFactory(@Nullable SeekableByteChannelFactory channelFactory) {
+        this.channelFactory = channelFactory;
+    }
+
+    /**
+     * Get the factory for the bytes of the channel being parsed
+     *
+     * @return the factory or null if session data is copied
+     */
+    @Nullable
+    public SeekableByteChannelFactory getChannelFactory() {
+        return channelFactory;
+    }
+
     /**
      * Get the chunking size
      */
@@ -66,6 +66,10 @@ public class SessionProducer {
         }
 
         IBaseDataObject dataObject = DataObjectFactory.getInstance(new Object[] {theData, sName});
+        if (session.getDataChannelFactory() != null) {
+            // Only read the bytes if someone asks for them
+            dataObject.setChannelFactory(session.getDataChannelFactory());
+        }
 
         // Pop default form if we have something to say
         if (initialForms != null && initialForms.size() > 0) {
@@ -1,5 +1,8 @@
 package emissary.parser;
 
+import emissary.core.channels.SeekableByteChannelFactory;
+import emissary.core.channels.SegmentChannelFactory;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,8 +48,15 @@ public class SimpleNioParser extends NIOSessionParser {
 
                 d.setFooter(makeDataSlice(session.getFooter()));
 
-                d.setData(makeDataSlice(session.getData()));
-                long length = d.getData() == null ? -1L : d.getData().length;
+                long length;
+                SeekableByteChannelFactory window = makeDataWindow(session.getData());
+                if (window != null) {
+                    d.setDataChannelFactory(window);
+                    length = session.getData().get(0).getLength();
+                } else {
+                    d.setData(makeDataSlice(session.getData()));
+                    length = d.getData() == null ? -1L : d.getData().length;
+                }
 
                 // Cook the raw metadata and transfer to DecomposedSession
                 Map<String, Object> md = session.getMetaData();
@@ -168,6 +178,22 @@ public class SimpleNioParser extends NIOSessionParser {
         return n.array();
     }
 
+    /**
+     * Make a window onto the parser's channel factory for session data that is one contiguous region, so no bytes are
+     * copied while parsing
+     *
+     * @param records the list of position records indicating absolute offsets
+     * @return the window or null if there is no channel factory or the data is not a single region
+     */
+    @Nullable
+    SeekableByteChannelFactory makeDataWindow(@Nullable List<PositionRecord> records) {
+        if (channelFactory == null || records == null || records.size() != 1) {
+            return null;
+        }
+        PositionRecord r = records.get(0);
+        return SegmentChannelFactory.create(channelFactory, r.getPosition(), r.getLength());
+    }
+
     /**
      * Slice data from a buffer based on a single position record
      *
@@ -6,7 +6,10 @@ import emissary.core.Form;
 import emissary.core.IBaseDataObject;
 import emissary.core.IMobileAgent;
 import emissary.core.NamespaceException;
+import emissary.core.channels.MappedChannelFactory;
+import emissary.core.channels.SeekableByteChannelFactory;
 import emissary.log.MDCConstants;
+import emissary.parser.NIOSessionParser;
 import emissary.parser.ParserEOFException;
 import emissary.parser.ParserException;
 import emissary.parser.ParserFactory;
@@ -26,10 +29,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.SeekableByteChannel;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 import static emissary.core.constants.Parameters.FILE_DATE;
@@ -66,11 +73,18 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
     // the simple parsers
     protected boolean simpleMode = false;
 
+    // True to parse sessions from a memory mapping of the input file
+    // and hand out session data as windows onto it instead of copies
+    protected boolean mappedSessions = false;
+
     // Reference to global agent pool for out payloads
     protected AgentPool agentPool;
 
     protected static final boolean OS_IS_WINDOWS = System.getProperty("os.name").toUpperCase().contains("WINDOWS");
 
+    // Longest single wait for an agent, the pool works in nanoseconds
+    private static final long MAX_BORROW_WAIT_MILLIS = TimeUnit.NANOSECONDS.toMillis(Long.MAX_VALUE);
+
     // Initial forms for new data, read from config file
     protected List<String> initialFormValues = Collections.emptyList();
 
@@ -147,6 +161,8 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
      * <li>ERROR_DATA: where to put things that have errors</li>
      * <li>DONE_DATA: where it goes when done</li>
      * <li>SIMPLE_MODE: boolean when true turns off DataIdentification engine</li>
+     * <li>MAPPED_SESSIONS: boolean when true session data is left in a memory mapping of the input file until a place asks
+     * for the bytes</li>
      * <li>INITIAL_FORM: one or more forms for new payloads</li>
      * </ul>
      */
@@ -156,6 +172,7 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
         oversizeArea = configG.findStringEntry("OVERSIZE_DATA_HOLDING_AREA", oversizeArea);
 
         simpleMode = configG.findBooleanEntry("SIMPLE_MODE", false);
+        mappedSessions = configG.findBooleanEntry("MAPPED_SESSIONS", mappedSessions);
         holdingArea = configG.findCanonicalFileNameEntry("HOLDING_AREA", null);
         doneArea = configG.findCanonicalFileNameEntry("DONE_DATA", doneArea);
         errorArea = configG.findCanonicalFileNameEntry("ERROR_DATA", "errorArea");
@@ -569,11 +586,23 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
         // is available so start by getting the file opened
         logger.debug("PickUpPlace: Starting on {}", theFile.getName());
         int sessionNum = 0;
-        try (RandomAccessFile raf = new RandomAccessFile(theFile, "r")) {
-
-            // Get the right type of session parser
-            SessionParser sp = parserFactory.makeSessionParser(raf.getChannel());
-            logger.debug("Using session parser from raf ident {}", sp.getClass().getName());
+        // Get the right type of session parser, reading from a
+        // mapping of the file if we can leave the data there
+        SeekableByteChannelFactory mapped = mappedSessions ? mapSessionFile(theFile) : null;
+        try (RandomAccessFile raf = new RandomAccessFile(theFile, "r");
+                SeekableByteChannel mappedChannel = (mapped != null) ? mapped.create() : null) {
+
+            SessionParser sp;
+            if (mappedChannel != null) {
+                sp = parserFactory.makeSessionParser(mappedChannel);
+                if (sp instanceof NIOSessionParser) {
+                    ((NIOSessionParser) sp).setChannelFactory(mapped);
+                }
+                logger.debug("Using session parser from mapped ident {}", sp.getClass().getName());
+            } else {
+                sp = parserFactory.makeSessionParser(raf.getChannel());
+                logger.debug("Using session parser from raf ident {}", sp.getClass().getName());
+            }
 
             // .. and a session producer to crank out the data objects...
             SessionProducer dof = new SessionProducer(sp, myKey, null);
@@ -591,9 +620,10 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
                     logger.debug("Pulled session {} from {} shortName={}", sessionName, theFile.getName(), dataObject.shortName());
                     sessionNum++;
                     long sessionEnd = System.currentTimeMillis();
-                    totalSize += dataObject.data().length;
+                    long sessionSize = dataObject.getChannelSize();
+                    totalSize += sessionSize;
                     logger.info("sessionParseMetric:{},{},{},{},{},{}", sessionEnd - sessionStart, sp.getClass().getName(), theFile, sessionName,
-                            sessionNum, dataObject.data().length);
+                            sessionNum, sessionSize);
                     processDataObject(dataObject, sessionName, theFile, false);
                 } catch (ParserEOFException eof) {
                     // expected at end of file
@@ -612,6 +642,56 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
         return sessionNum;
     }
 
+    /**
+     * Map the input file for session parsing. The mapping outlives the file being moved or deleted once it is done, but not
+     * the file being truncated or rewritten in place, which faults any thread touching the lost pages. Only files that have
+     * been claimed by moving them into the holding area are mapped, anything else is read instead.
+     *
+     * @param theFile file to map
+     * @return factory over the mapping or null if the file cannot be mapped and has to be read instead
+     */
+    @Nullable
+    protected SeekableByteChannelFactory mapSessionFile(File theFile) {
+        if (!isInHoldingArea(theFile)) {
+            logger.debug("Not mapping {} outside of the holding area, reading it instead", theFile.getName());
+            return null;
+        }
+        try {
+            return MappedChannelFactory.create(theFile.toPath());
+        } catch (IOException ex) {
+            logger.debug("Cannot map {}, reading it instead", theFile.getName(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * Check if a file has been claimed by this place, i.e. is in the holding area where no one else writes to it
+     *
+     * @param theFile the file to check
+     * @return true if the file is in the holding area
+     */
+    protected boolean isInHoldingArea(File theFile) {
+        return isInArea(theFile, holdingArea);
+    }
+
+    /**
+     * Check if a file is somewhere under an area
+     *
+     * @param theFile the file to check
+     * @param area the directory of the area, can be null
+     * @return true if the area is set and the file resolves to a path under it
+     */
+    static boolean isInArea(File theFile, @Nullable String area) {
+        if (area == null) {
+            return false;
+        }
+        try {
+            return theFile.getCanonicalFile().toPath().startsWith(new File(area).getCanonicalFile().toPath());
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
     /**
      * Parse out sessions and process data from a byte array
      * 
@@ -695,9 +775,7 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
      * Retrieve and agent from the pool and assign the payload to it
      * 
      * @param payload the payload for the agent
-     * @param timeoutMs maximum time in millis to wait for an agent from the pool. Set to -1 to wait forever. The specified
-     *        time will not be strictly observed because the pool itself blocks for a configurable amount of time when
-     *        requesting an agent. We will wait no more than the specified timeoutMs + the configured pool timeout value.
+     * @param timeoutMs maximum time in millis to wait for an agent from the pool. Set to -1 to wait forever.
      * @throws EmissaryException when an agent cannot be obtained
      */
     public void assignToPooledAgent(IBaseDataObject payload, long timeoutMs) throws EmissaryException {
@@ -706,13 +784,13 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
 
     /**
      * Retrieve and agent from the specified pool and assign the payload to it
-     * 
+     *
      * @param payload the payload for the agent
      * @param agentPool the pool of agents
      * @param startingLocation the agent launch point
-     * @param timeoutMs maximum time in millis to wait for an agent from the pool. Set to -1 to wait forever. The specified
-     *        time will not be strictly observed because the pool itself blocks for a configurable amount of time when
-     *        requesting an agent. We will wait no more than the specified timeoutMs + the configured pool timeout value.
+     * @param timeoutMs maximum time in millis to wait for an agent from the pool. Set to -1 to wait forever. The caller
+     *        blocks in the pool's wait queue until an agent is returned, so a busy pool slows the caller down instead of
+     *        making it spin.
      * @return mobile agent assigned to pool
      * @throws EmissaryException when an agent cannot be obtained
      */
@@ -720,7 +798,7 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
             long timeoutMs) throws EmissaryException {
         IMobileAgent agent = null;
         long startTime = System.currentTimeMillis();
-        boolean warningGiven = false;
+        long deadline = timeoutMs < 0 ? Long.MAX_VALUE : startTime + timeoutMs;
         int loopCount = 0;
 
         MDC.put(MDCConstants.SHORT_NAME, payload.shortName());
@@ -730,17 +808,20 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
                 agentPool = AgentPool.lookup();
             }
 
+            // Each pass blocks for as long as we are allowed to wait, bounded by
+            // the pool's own maximum wait so a closed pool is noticed eventually
+            long remaining = deadline - startTime;
             do {
                 loopCount++;
                 try {
-                    agent = agentPool.borrowAgent();
+                    agent = agentPool.borrowAgent(borrowWait(remaining, agentPool.getMaxWaitDuration()));
+                } catch (NoSuchElementException e) {
+                    slogger.debug("No agent returned to the pool in time, {} tries so far", loopCount);
                 } catch (Exception e) {
-                    if (!warningGiven) {
-                        slogger.debug("Cannot get agent from pool, trying again ", e);
-                        warningGiven = true;
-                    }
+                    throw new EmissaryException("Cannot get agent from pool for " + payload.shortName(), e);
                 }
-            } while (agent == null && (timeoutMs < 0 || (startTime + timeoutMs) < System.currentTimeMillis()));
+                remaining = deadline - System.currentTimeMillis();
+            } while (agent == null && remaining > 0);
 
             if (agent == null) {
                 throw new EmissaryException("No agent found for " + payload.shortName() + " after " + loopCount + " tries.");
@@ -749,7 +830,6 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
             }
 
             agent.go(payload, startingLocation);
-            Thread.yield();
         } finally {
             MDC.remove(MDCConstants.SHORT_NAME);
         }
@@ -757,6 +837,19 @@ public abstract class PickUpPlace extends ServiceProviderPlace implements IPickU
         return agent;
     }
 
+    /**
+     * Work out how long one pass may block in the pool
+     *
+     * @param remaining millis left before the caller gives up
+     * @param maxWait the pool's own maximum wait, negative when the pool waits forever
+     * @return the remaining time bounded by the pool's maximum wait, never negative and never more than the pool can wait
+     *         for without overflowing
+     */
+    static Duration borrowWait(long remaining, Duration maxWait) {
+        long wait = maxWait.isNegative() ? remaining : Math.min(remaining, maxWait.toMillis());
+        return Duration.ofMillis(Math.max(0L, Math.min(wait, MAX_BORROW_WAIT_MILLIS)));
+    }
+
     public static boolean implementsPickUpPlace(Class<? extends Object> clazz) {
         return ClassComparator.isaImplementation(clazz, IPickUpPlace.class);
     }
@@ -0,0 +1,667 @@
+package emissary.pickup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+
+/**
+ * Outbound queue of {@link WorkBundle} objects for the {@link WorkSpace} that survives a restart and holds only a
+ * window of bundles in memory.
+ *
+ * <p>
+ * Every bundle added is appended to a log of segment files in the queue directory, and handing a bundle out and
+ * finishing it with it are appended as small records naming the bundle. The bundles at the head of the queue are kept
+ * in memory in sort order, up to the window size. The rest are kept only as their position in the log, by priority in
+ * the order they arrived, and read back as the window drains. A bundle of better priority than the worst in a full
+ * window takes its place, so priority order is always kept and the sort order within a priority is kept inside the
+ * window.
+ *
+ * <p>
+ * Each segment counts the bundles still live in it. Segments at the head of the log are deleted once nothing in them is
+ * live, and the few bundles left in a mostly finished head segment are copied to the end of the log so that it can be
+ * deleted. On startup the log is replayed to recover the outbound bundles and those handed out but not finished, which
+ * are available from {@link #recoveredPending()}. A record torn by a crash at the end of the log is dropped.
+ *
+ * <p>
+ * Records are written through to the operating system as they happen, so nothing is lost when the process dies, and
+ * forced to disk when a segment is finished and on {@link #close()}. This class is not thread safe, the
+ * {@link WorkSpace} uses it under its queue lock.
+ */
+public class WorkBundleQueue extends AbstractQueue<WorkBundle> implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkBundleQueue.class);
+
+    public static final int DEFAULT_WINDOW_SIZE = 1000;
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    static final String SEGMENT_PREFIX = "bundles-";
+    static final String SEGMENT_SUFFIX = ".log";
+
+    static final byte ADD = 1;
+    static final byte TAKE = 2;
+    static final byte DONE = 3;
+
+    // Length, type and checksum around each record payload
+    private static final int HEADER = 5;
+    private static final int TRAILER = 4;
+
+    protected final Path directory;
+    protected final Comparator<WorkBundle> sort;
+    protected final int windowSize;
+    protected final long segmentSize;
+
+    // Bundles at the head of the queue and the count of them at each priority
+    protected final PriorityQueue<WorkBundle> window;
+    protected final TreeMap<Integer, Integer> windowPriorities = new TreeMap<>();
+
+    // Log positions of bundles outside the window by priority, in the order they were added
+    protected final TreeMap<Integer, ArrayDeque<Long>> spilled = new TreeMap<>();
+    protected int spilledCount = 0;
+
+    // Log positions of the bundles in the window and those handed out
+    protected final Map<String, Long> locations = new HashMap<>();
+
+    // Where each bundle handed out was sent, carried along when it is copied forward
+    protected final Map<String, String> pendingSentTo = new HashMap<>();
+
+    // Live bundle and total bundle counts by segment number
+    protected final TreeMap<Integer, int[]> segments = new TreeMap<>();
+
+    protected final Map<Integer, FileChannel> readers = new HashMap<>();
+    @Nullable
+    protected FileChannel writer;
+    protected int writerSegment;
+
+    protected final List<WorkBundle> recoveredPending = new ArrayList<>();
+
+    /**
+     * Open the queue in a directory with the default window and segment sizes, recovering what is there
+     *
+     * @param directory where the segment files are kept, created if needed
+     * @param sort the order to hand out bundles, natural priority order when null
+     * @throws IOException when the directory cannot be used
+     */
+    public WorkBundleQueue(Path directory, @Nullable Comparator<WorkBundle> sort) throws IOException {
+        this(directory, sort, DEFAULT_WINDOW_SIZE, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open the queue in a directory, recovering what is there
+     *
+     * @param directory where the segment files are kept, created if needed
+     * @param sort the order to hand out bundles, natural priority order when null
+     * @param windowSize the most outbound bundles to keep in memory
+     * @param segmentSize size in bytes after which a new segment file is started
+     * @throws IOException when the directory cannot be used
+     */
+    public WorkBundleQueue(Path directory, @Nullable Comparator<WorkBundle> sort, int windowSize, long segmentSize) throws IOException {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        }
+        if (segmentSize < 1 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size out of range: " + segmentSize);
+        }
+        this.directory = directory;
+        this.sort = sort == null ? Comparator.naturalOrder() : sort;
+        this.windowSize = windowSize;
+        this.segmentSize = segmentSize;
+        this.window = new PriorityQueue<>(11, this.sort);
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Add a bundle to the queue. A bundle already in the queue under the same id, such as one handed out that failed, is
+     * replaced.
+     */
+    @Override
+    public boolean offer(WorkBundle wb) {
+        long location;
+        try {
+            location = append(ADD, encode(wb));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot add bundle " + wb.getBundleId() + " to " + directory, e);
+        }
+        pendingSentTo.remove(wb.getBundleId());
+        release(locations.remove(wb.getBundleId()));
+        place(wb, location);
+        return true;
+    }
+
+    /**
+     * Remove the next bundle to hand out. It stays in the log until {@link #completed(String)} is called and is recovered
+     * as outbound on restart unless {@link #taken(WorkBundle)} is called first.
+     */
+    @Override
+    @Nullable
+    public WorkBundle poll() {
+        WorkBundle wb = window.poll();
+        if (wb != null) {
+            removeWindowPriority(wb.getPriority());
+            refill();
+        }
+        return wb;
+    }
+
+    @Override
+    @Nullable
+    public WorkBundle peek() {
+        return window.peek();
+    }
+
+    @Override
+    public int size() {
+        return window.size() + spilledCount;
+    }
+
+    /**
+     * Iterate the outbound bundles, those outside the window are read from the log. Bundles cannot be removed through the
+     * iterator.
+     */
+    @Override
+    public Iterator<WorkBundle> iterator() {
+        List<Long> outside = new ArrayList<>(spilledCount);
+        for (ArrayDeque<Long> deque : spilled.values()) {
+            outside.addAll(deque);
+        }
+        Iterator<WorkBundle> inside = new ArrayList<>(window).iterator();
+        Iterator<Long> positions = outside.iterator();
+        return new Iterator<WorkBundle>() {
+            @Override
+            public boolean hasNext() {
+                return inside.hasNext() || positions.hasNext();
+            }
+
+            @Override
+            public WorkBundle next() {
+                if (inside.hasNext()) {
+                    return inside.next();
+                }
+                if (!positions.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return read(positions.next());
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot read bundle from " + directory, e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Record that a bundle taken from the queue was handed out to the place named in its sentTo
+     *
+     * @param wb the bundle taken
+     */
+    public void taken(WorkBundle wb) {
+        try {
+            appendTake(wb.getBundleId(), wb.getSentTo());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot record bundle " + wb.getBundleId() + " taken in " + directory, e);
+        }
+        if (wb.getSentTo() != null) {
+            pendingSentTo.put(wb.getBundleId(), wb.getSentTo());
+        }
+    }
+
+    private void appendTake(String bundleId, @Nullable String sentTo) throws IOException {
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream(); DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(bundleId);
+            WorkBundle.writeUTFOrNull(sentTo, out);
+            out.flush();
+            append(TAKE, bytes.toByteArray());
+        }
+    }
+
+    /**
+     * Record that a bundle is finished with, whether it worked or was given up on, so it is not recovered again
+     *
+     * @param bundleId the id of the bundle
+     */
+    public void completed(String bundleId) {
+        pendingSentTo.remove(bundleId);
+        Long location = locations.remove(bundleId);
+        if (location == null) {
+            return;
+        }
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream(); DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(bundleId);
+            out.flush();
+            append(DONE, bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot record bundle " + bundleId + " completed in " + directory, e);
+        }
+        release(location);
+    }
+
+    /**
+     * The bundles that were handed out and not finished when the queue was last closed, with the place they were sent to
+     */
+    public List<WorkBundle> recoveredPending() {
+        return Collections.unmodifiableList(recoveredPending);
+    }
+
+    /**
+     * Number of outbound bundles held in memory
+     */
+    public int getWindowCount() {
+        return window.size();
+    }
+
+    /**
+     * Number of segment files in the log
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Force the log to disk and close it
+     */
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.force(false);
+            writer.close();
+            writer = null;
+        }
+        for (FileChannel reader : readers.values()) {
+            reader.close();
+        }
+        readers.clear();
+    }
+
+    /**
+     * Put a bundle in the window if it belongs there, otherwise remember where it is in the log
+     */
+    protected void place(WorkBundle wb, long location) {
+        int priority = wb.getPriority();
+        if (window.size() >= windowSize) {
+            int worst = windowPriorities.lastKey();
+            if (priority >= worst) {
+                spilled.computeIfAbsent(priority, k -> new ArrayDeque<>()).addLast(location);
+                spilledCount++;
+                return;
+            }
+            evict(worst);
+        }
+        window.add(wb);
+        windowPriorities.merge(priority, 1, Integer::sum);
+        locations.put(wb.getBundleId(), location);
+    }
+
+    /**
+     * Move the last bundle of a priority in the window back to the front of the spilled bundles of that priority
+     */
+    private void evict(int priority) {
+        WorkBundle last = null;
+        for (WorkBundle wb : window) {
+            if (wb.getPriority() == priority && (last == null || sort.compare(wb, last) > 0)) {
+                last = wb;
+            }
+        }
+        if (last == null) {
+            return;
+        }
+        window.remove(last);
+        removeWindowPriority(priority);
+        spilled.computeIfAbsent(priority, k -> new ArrayDeque<>()).addFirst(locations.remove(last.getBundleId()));
+        spilledCount++;
+    }
+
+    private void removeWindowPriority(int priority) {
+        windowPriorities.computeIfPresent(priority, (k, v) -> v == 1 ? null : v - 1);
+    }
+
+    /**
+     * Read spilled bundles back into the window, best priority first, until it is full
+     */
+    protected void refill() {
+        while (window.size() < windowSize && spilledCount > 0) {
+            Map.Entry<Integer, ArrayDeque<Long>> best = spilled.firstEntry();
+            long location = best.getValue().removeFirst();
+            if (best.getValue().isEmpty()) {
+                spilled.remove(best.getKey());
+            }
+            spilledCount--;
+            WorkBundle wb;
+            try {
+                wb = read(location);
+            } catch (IOException e) {
+                logger.error("Cannot read spilled bundle from {}, it is lost", directory, e);
+                release(location);
+                continue;
+            }
+            window.add(wb);
+            windowPriorities.merge(wb.getPriority(), 1, Integer::sum);
+            locations.put(wb.getBundleId(), location);
+        }
+    }
+
+    /**
+     * A bundle at this location is no longer live, drop the log segments no longer needed
+     */
+    protected void release(@Nullable Long location) {
+        if (location == null) {
+            return;
+        }
+        int[] counts = segments.get(segment(location));
+        if (counts != null) {
+            counts[0]--;
+        }
+        trim();
+    }
+
+    /**
+     * Delete finished segments at the head of the log, and copy the last few live bundles out of a head segment that is
+     * mostly finished. Only the head is deleted so the completion records for bundles in older segments are never lost.
+     */
+    protected void trim() {
+        while (segments.size() > 1) {
+            Map.Entry<Integer, int[]> head = segments.firstEntry();
+            int[] counts = head.getValue();
+            if (head.getKey() == writerSegment) {
+                return;
+            }
+            if (counts[0] > 0) {
+                // Copy forward only once the log has moved well past the head
+                if (segments.size() <= 2 || counts[0] * 2 > counts[1]) {
+                    return;
+                }
+                try {
+                    copyForward(head.getKey());
+                } catch (IOException e) {
+                    logger.warn("Cannot copy live bundles out of segment {} in {}", head.getKey(), directory, e);
+                    return;
+                }
+                if (counts[0] > 0) {
+                    return;
+                }
+            }
+            segments.remove(head.getKey());
+            deleteSegment(head.getKey());
+        }
+    }
+
+    /**
+     * Append the live bundles from a segment to the end of the log
+     */
+    private void copyForward(int segment) throws IOException {
+        for (Map.Entry<String, Long> e : locations.entrySet()) {
+            if (segment(e.getValue()) == segment) {
+                e.setValue(copy(e.getValue(), e.getKey()));
+            }
+        }
+        for (ArrayDeque<Long> deque : spilled.values()) {
+            for (int i = deque.size(); i > 0; i--) {
+                long location = deque.removeFirst();
+                deque.addLast(segment(location) == segment ? copy(location, null) : location);
+            }
+        }
+    }
+
+    private long copy(long location, @Nullable String id) throws IOException {
+        WorkBundle wb = read(location);
+        long copied = append(ADD, encode(wb));
+        segments.get(segment(location))[0]--;
+        String to = id == null ? null : pendingSentTo.get(id);
+        if (to != null) {
+            // Handed out since it was added, carry that forward too
+            appendTake(id, to);
+        }
+        return copied;
+    }
+
+    /**
+     * Append a record to the log, starting a new segment when the current one is full
+     *
+     * @return the location of the record
+     */
+    protected long append(byte type, byte[] payload) throws IOException {
+        if (writer == null || writer.size() >= segmentSize) {
+            roll();
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER + payload.length + TRAILER);
+        record.putInt(payload.length + 1).put(type).put(payload).putInt(checksum(type, payload, 0, payload.length));
+        record.flip();
+        long offset = writer.size();
+        while (record.hasRemaining()) {
+            writer.write(record);
+        }
+        if (type == ADD) {
+            int[] counts = segments.get(writerSegment);
+            counts[0]++;
+            counts[1]++;
+        }
+        return location(writerSegment, offset);
+    }
+
+    private void roll() throws IOException {
+        if (writer != null) {
+            writer.force(false);
+            writer.close();
+        }
+        writerSegment = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        segments.put(writerSegment, new int[2]);
+        writer = FileChannel.open(segmentPath(writerSegment), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Read the bundle added at a location in the log
+     */
+    protected WorkBundle read(long location) throws IOException {
+        int segment = segment(location);
+        FileChannel reader = readers.get(segment);
+        if (reader == null) {
+            reader = FileChannel.open(segmentPath(segment), StandardOpenOption.READ);
+            readers.put(segment, reader);
+        }
+        long offset = offset(location);
+        ByteBuffer header = ByteBuffer.allocate(4);
+        readFully(reader, header, offset);
+        ByteBuffer body = ByteBuffer.allocate(header.getInt(0) + TRAILER);
+        readFully(reader, body, offset + 4);
+        byte[] bytes = body.array();
+        if (bytes[0] != ADD) {
+            throw new IOException("No bundle at " + offset + " in segment " + segment);
+        }
+        return WorkBundle.readFromStream(new DataInputStream(new ByteArrayInputStream(bytes, 1, bytes.length - 1 - TRAILER)));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Log ends at " + (position + buffer.position()));
+            }
+        }
+    }
+
+    /**
+     * Replay the segments in the directory to rebuild the queue, then start a new segment
+     */
+    protected void recover() throws IOException {
+        List<Integer> found = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                try {
+                    found.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring {} in {}", name, directory);
+                }
+            }
+        }
+        Collections.sort(found);
+
+        // Live bundles by id in the order they were last added, with where they were sent if handed out
+        Map<String, Long> live = new LinkedHashMap<>();
+        Map<String, String> sentTo = new HashMap<>();
+        for (int i = 0; i < found.size(); i++) {
+            int segment = found.get(i);
+            segments.put(segment, new int[2]);
+            replay(segment, i == found.size() - 1, live, sentTo);
+        }
+
+        for (Map.Entry<String, Long> e : live.entrySet()) {
+            long location = e.getValue();
+            WorkBundle wb;
+            try {
+                wb = read(location);
+            } catch (IOException ex) {
+                logger.error("Cannot recover bundle {} from {}", e.getKey(), directory, ex);
+                segments.get(segment(location))[0]--;
+                continue;
+            }
+            String to = sentTo.get(e.getKey());
+            if (to != null) {
+                wb.setSentTo(to);
+                recoveredPending.add(wb);
+                locations.put(wb.getBundleId(), location);
+                pendingSentTo.put(wb.getBundleId(), to);
+            } else {
+                place(wb, location);
+            }
+        }
+        if (!live.isEmpty()) {
+            logger.info("Recovered {} outbound and {} pending bundles from {} segments in {}", size(), recoveredPending.size(), found.size(),
+                    directory);
+        }
+        roll();
+        trim();
+    }
+
+    /**
+     * Read the records of one segment into the recovery state, truncating a torn record at the end of the last segment
+     */
+    private void replay(int segment, boolean last, Map<String, Long> live, Map<String, String> sentTo) throws IOException {
+        Path path = segmentPath(segment);
+        byte[] data = Files.readAllBytes(path);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int[] counts = segments.get(segment);
+        while (buffer.remaining() >= HEADER + TRAILER) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length < 1 || length > buffer.remaining() - TRAILER) {
+                buffer.position(start);
+                break;
+            }
+            byte type = buffer.get();
+            int payload = buffer.position();
+            buffer.position(payload + length - 1);
+            int crc = buffer.getInt();
+            if (crc != checksum(type, data, payload, length - 1)) {
+                buffer.position(start);
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, payload, length - 1));
+            String id = type == ADD ? WorkBundle.readUTFOrNull(in) : in.readUTF();
+            if (id == null) {
+                continue;
+            }
+            if (type == ADD) {
+                Long previous = live.remove(id);
+                if (previous != null) {
+                    segments.get(segment(previous))[0]--;
+                }
+                live.put(id, location(segment, start));
+                sentTo.remove(id);
+                counts[0]++;
+                counts[1]++;
+            } else if (type == TAKE) {
+                String to = WorkBundle.readUTFOrNull(in);
+                if (live.containsKey(id) && to != null) {
+                    sentTo.put(id, to);
+                }
+            } else if (type == DONE) {
+                Long previous = live.remove(id);
+                if (previous != null) {
+                    segments.get(segment(previous))[0]--;
+                }
+                sentTo.remove(id);
+            }
+        }
+        if (buffer.hasRemaining()) {
+            if (last) {
+                logger.warn("Dropping {} bytes of torn record at the end of {}", buffer.remaining(), path);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(buffer.position());
+                }
+            } else {
+                logger.error("Skipping {} unreadable bytes in {}", buffer.remaining(), path);
+            }
+        }
+    }
+
+    private void deleteSegment(int segment) {
+        FileChannel reader = readers.remove(segment);
+        try {
+            if (reader != null) {
+                reader.close();
+            }
+            Files.deleteIfExists(segmentPath(segment));
+        } catch (IOException e) {
+            logger.warn("Cannot delete segment {} in {}", segment, directory, e);
+        }
+    }
+
+    protected Path segmentPath(int segment) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private static byte[] encode(WorkBundle wb) throws IOException {
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream(); DataOutputStream out = new DataOutputStream(bytes)) {
+            wb.writeToStream(out);
+            out.flush();
+            return bytes.toByteArray();
+        }
+    }
+
+    private static int checksum(byte type, byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static long location(int segment, long offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int segment(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static long offset(long location) {
+        return location & 0xffffffffL;
+    }
+}
@@ -25,21 +25,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.lang.management.MemoryUsage;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import javax.annotation.Nullable;
@@ -123,7 +127,11 @@ public class WorkSpace implements Runnable {
     protected boolean caseClosed = false;
 
     // List of WorkBundle objects we are going to distribute
-    protected PriorityQueue<WorkBundle> outbound = new PriorityQueue<>();
+    protected Queue<WorkBundle> outbound = new PriorityQueue<>();
+
+    // Durable outbound queue when one is configured, also journals the pending state
+    @Nullable
+    protected WorkBundleQueue durableQueue;
 
     // List of WorkBundle objects that are pending completion notice
     // Keyed by bundleId to quickly remove items that are processed
@@ -190,6 +198,13 @@ public class WorkSpace implements Runnable {
         if (null != this.feedCommand.getSort()) {
             this.outbound = new PriorityQueue<>(11, this.feedCommand.getSort());
         }
+        if (null != this.feedCommand.getQueueDir()) {
+            try {
+                setQueueDirectory(this.feedCommand.getQueueDir(), this.feedCommand.getQueueWindow());
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot open the work bundle queue in " + this.feedCommand.getQueueDir(), e);
+            }
+        }
 
         configure();
         startJetty();
@@ -287,6 +302,15 @@ public class WorkSpace implements Runnable {
      */
     public void shutDown() {
         stop();
+        synchronized (this.QLOCK) {
+            if (this.durableQueue != null) {
+                try {
+                    this.durableQueue.close();
+                } catch (IOException e) {
+                    logger.error("Cannot close the work bundle queue", e);
+                }
+            }
+        }
         if (this.jettyStartedHere) {
             final EmissaryNode node = new EmissaryNode();
             if (node.isValid()) {
@@ -307,6 +331,31 @@ public class WorkSpace implements Runnable {
         }
     }
 
+    /**
+     * Keep the outbound bundles in a durable queue in a directory with only a window of them in memory, and journal which
+     * are pending there too. Bundles left in the directory by an earlier run are recovered, outbound ones to the outbound
+     * queue and those handed out but not completed to the pending list.
+     *
+     * @param dir the directory for the queue
+     * @param windowSize the most outbound bundles to keep in memory
+     * @throws IOException when the queue cannot be opened
+     */
+    public void setQueueDirectory(final Path dir, final int windowSize) throws IOException {
+        final Comparator<WorkBundle> sort = this.feedCommand != null ? this.feedCommand.getSort() : null;
+        final WorkBundleQueue queue = new WorkBundleQueue(dir, sort, windowSize, WorkBundleQueue.DEFAULT_SEGMENT_SIZE);
+        synchronized (this.QLOCK) {
+            this.durableQueue = queue;
+            this.outbound = queue;
+            for (final WorkBundle wb : queue) {
+                addFilesSeen(wb.getFileNameList());
+            }
+            for (final WorkBundle wb : queue.recoveredPending()) {
+                this.pending.put(wb.getBundleId(), wb);
+                addFilesSeen(wb.getFileNameList());
+            }
+        }
+    }
+
     /**
      * Set the pending hang time, how long to wait after outbound queue is empty
      *
@@ -727,6 +776,7 @@ public class WorkSpace implements Runnable {
                         this.bundlesProcessed--;
                     } else {
                         logger.error("Bundle {} associated with too many failures, permanently discarding", wb);
+                        completeDurably(id);
                     }
                 }
             }
@@ -760,6 +810,9 @@ public class WorkSpace implements Runnable {
                 item = this.outbound.poll();
                 item.setSentTo(remoteName);
                 this.pending.put(item.getBundleId(), item);
+                if (this.durableQueue != null) {
+                    this.durableQueue.taken(item);
+                }
                 logger.info("Gave bundle {} to {}", item, remoteName);
                 final WorkBundle nextItem = this.outbound.peek();
                 if (nextItem != null && logger.isInfoEnabled()) {
@@ -818,6 +871,7 @@ public class WorkSpace implements Runnable {
                 logger.debug("Clearing pending queue of {} items", size);
                 for (final Map.Entry<String, WorkBundle> entry : this.pending.entrySet()) {
                     removeFilesSeen(entry.getValue().getFileNameList());
+                    completeDurably(entry.getKey());
                 }
                 this.pending.clear();
                 logger.debug("Cleared filesSeen leaving {} items", this.filesSeen.size());
@@ -852,9 +906,12 @@ public class WorkSpace implements Runnable {
             item.setSentTo(null); // clear in progress indicator
             if (item.incrementErrorCount() > this.MAX_BUNDLE_RETRIES) {
                 logger.error("Bundle {} has too many errors, permanently discarded", item);
+                completeDurably(bundleId);
             } else {
                 addOutboundBundle(item); // send to outbound again
             }
+        } else {
+            completeDurably(bundleId);
         }
         if (logger.isDebugEnabled()) {
             logger.debug("Bundle {} completed by {}{}", bundleId, remoteName,
@@ -863,6 +920,19 @@ public class WorkSpace implements Runnable {
         return item != null;
     }
 
+    /**
+     * Record in the durable queue, if there is one, that a bundle no longer needs to be recovered
+     *
+     * @param bundleId the id of the finished bundle
+     */
+    protected void completeDurably(final String bundleId) {
+        synchronized (this.QLOCK) {
+            if (this.durableQueue != null) {
+                this.durableQueue.completed(bundleId);
+            }
+        }
+    }
+
     /**
      * begin the case processing, does nothing in this implementation
      */
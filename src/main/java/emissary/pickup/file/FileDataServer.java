@@ -85,80 +85,105 @@ public class FileDataServer extends Pausable {
                 continue;
             }
 
-            String holdDir = myParent.getInProcessArea();
-            String errDir = myParent.getErrorArea();
-
-            // Process files currently in the pickup directory, list
-            // the first bundleSize in a batch
-            String[] fileList = theDirectory.list(new FilenameFilter() {
-                final int MAXFILESTOLIST = bundleSize;
-                int filesInList = 0;
-
-                @Override
-                public boolean accept(File dir, String name) {
-                    return (!name.startsWith(".")) && ++filesInList <= MAXFILESTOLIST;
-                }
-            });
+            int processedCount = processFiles(nextBatch());
 
-            // Rename all of the selected files out of the
-            // polling area
-            for (int i = 0; fileList != null && i < fileList.length; i++) {
-                File f = new File(theDataDir, fileList[i]);
+            // Wait for more files if there was nothing to do
+            // for this last round, otherwise get right back in there...
+            if (processedCount == 0) {
+                waitForFiles();
+            }
 
-                if (!f.exists() || !f.isFile() || !f.canRead()) {
-                    reportProblem(f, errDir);
-                    continue;
-                }
+        } // end while
+    }
 
-                // Move to in process area
-                File newFile = new File(holdDir, fileList[i]);
-                if (!f.renameTo(newFile)) {
-                    // This is normal when many FileDataServers
-                    // on multiple machines are looking at the
-                    // same underlying filesystem space
-                    logger.warn("FileDataServer - file: " + f.getPath() + " Could not be renamed to: " + newFile.getPath());
-                    fileList[i] = null;
-                }
+    /**
+     * List the next batch of files to pick up, at most bundleSize of them
+     *
+     * @return names of files in the directory being monitored, possibly null
+     */
+    protected String[] nextBatch() {
+        return theDirectory.list(new FilenameFilter() {
+            final int MAXFILESTOLIST = bundleSize;
+            int filesInList = 0;
+
+            @Override
+            public boolean accept(File dir, String name) {
+                return (!name.startsWith(".")) && ++filesInList <= MAXFILESTOLIST;
             }
+        });
+    }
 
-            int processedCount = 0;
+    /**
+     * Wait before looking for files again after finding none
+     */
+    protected void waitForFiles() {
+        try {
+            Thread.sleep(pollingInterval);
+        } catch (InterruptedException e) { /* Dont care */
+        }
+    }
 
-            // Process the batch of files just collected, if any
-            for (int i = 0; fileList != null && i < fileList.length; i++) {
+    /**
+     * Move a batch of files out of the monitored directory and have the parent process them
+     *
+     * @param fileList names of files in the directory being monitored, entries may be null
+     * @return how many files were processed
+     */
+    protected int processFiles(String[] fileList) {
+        String holdDir = myParent.getInProcessArea();
+        String errDir = myParent.getErrorArea();
+
+        // Rename all of the selected files out of the
+        // polling area
+        for (int i = 0; fileList != null && i < fileList.length; i++) {
+            if (fileList[i] == null) {
+                continue;
+            }
+            File f = new File(theDataDir, fileList[i]);
 
-                if (fileList[i] == null) {
-                    continue;
-                }
+            if (!f.exists() || !f.isFile() || !f.canRead()) {
+                reportProblem(f, errDir);
+                fileList[i] = null;
+                continue;
+            }
 
-                // Notify parent to process file
-                File newFile = new File(holdDir, fileList[i]);
-                try {
-                    MDC.put(MDCConstants.SHORT_NAME, fileList[i]);
-                    myParent.processDataFile(newFile);
-                    processedCount++;
-                } catch (Exception e) {
-                    logger.warn("***Cannot process {}", newFile, e);
-                    boolean renamed = newFile.renameTo(new File(errDir, newFile.getName()));
-                    if (!renamed) {
-                        logger.warn("***Cannot move {} to the error directory {}", newFile, errDir);
-                    }
-                } finally {
-                    MDC.remove(MDCConstants.SHORT_NAME);
-                }
+            // Move to in process area
+            File newFile = new File(holdDir, fileList[i]);
+            if (!f.renameTo(newFile)) {
+                // This is normal when many FileDataServers
+                // on multiple machines are looking at the
+                // same underlying filesystem space
+                logger.warn("FileDataServer - file: " + f.getPath() + " Could not be renamed to: " + newFile.getPath());
+                fileList[i] = null;
             }
+        }
 
+        int processedCount = 0;
 
-            // Delay for the polling interval if there was
-            // nothing to do for this last round, otherwise
-            // get right back in there...
-            if (processedCount == 0) {
-                try {
-                    Thread.sleep(pollingInterval);
-                } catch (InterruptedException e) { /* Dont care */
-                }
+        // Process the batch of files just collected, if any
+        for (int i = 0; fileList != null && i < fileList.length; i++) {
+
+            if (fileList[i] == null) {
+                continue;
             }
 
-        } // end while
+            // Notify parent to process file
+            File newFile = new File(holdDir, fileList[i]);
+            try {
+                MDC.put(MDCConstants.SHORT_NAME, fileList[i]);
+                myParent.processDataFile(newFile);
+                processedCount++;
+            } catch (Exception e) {
+                logger.warn("***Cannot process {}", newFile, e);
+                boolean renamed = newFile.renameTo(new File(errDir, newFile.getName()));
+                if (!renamed) {
+                    logger.warn("***Cannot move {} to the error directory {}", newFile, errDir);
+                }
+            } finally {
+                MDC.remove(MDCConstants.SHORT_NAME);
+            }
+        }
+        return processedCount;
     }
 
     /**
@@ -25,6 +25,12 @@ public class FilePickUpPlace extends PickUpPlace implements IPickUp {
     // Input directories to poll
     protected String[] inputDataDirs;
 
+    // Watch the input directories for file events instead of polling them
+    protected boolean watchInput = false;
+
+    // How long a watched file must go unchanged before pickup in millis
+    protected long settleTime = 100;
+
     /**
      * Create using default configuration
      */
@@ -50,11 +56,15 @@ public class FilePickUpPlace extends PickUpPlace implements IPickUp {
      * <li>POLLING_INTERVAL: how long to sleep between directory polls</li>
      * <li>BUNDLE_SIZE: how many files to group in a bundle</li>
      * <li>INPUT_DATA: one or more directories to pull files from</li>
+     * <li>WATCH_INPUT: watch the directories for file events instead of polling them, default false</li>
+     * <li>WATCH_SETTLE_MILLIS: how long a watched file must go unchanged before it is picked up, default 100</li>
      * </ul>
      */
     protected void configurePlace() {
         pollingInterval = configG.findIntEntry("POLLING_INTERVAL", pollingInterval);
         BUNDLE_SIZE = configG.findIntEntry("BUNDLE_SIZE", BUNDLE_SIZE);
+        watchInput = configG.findBooleanEntry("WATCH_INPUT", watchInput);
+        settleTime = configG.findLongEntry("WATCH_SETTLE_MILLIS", settleTime);
         List<String> params = configG.findEntries("INPUT_DATA");
         inputDataDirs = params.toArray(new String[0]);
     }
@@ -113,7 +123,7 @@ public class FilePickUpPlace extends PickUpPlace implements IPickUp {
      */
     public void startDataServer() {
         for (int i = 0; i < inputDataDirs.length; i++) {
-            FileDataServer fds = new FileDataServer(inputDataDirs[i], this, pollingInterval);
+            FileDataServer fds = createDataServer(inputDataDirs[i]);
 
             // Tell it how many files to pick up at a time
             fds.setBundleSize(BUNDLE_SIZE);
@@ -129,6 +139,19 @@ public class FilePickUpPlace extends PickUpPlace implements IPickUp {
         }
     }
 
+    /**
+     * Create the server thread for one input directory
+     *
+     * @param inputDataDir the directory to monitor
+     * @return the unstarted server
+     */
+    protected FileDataServer createDataServer(String inputDataDir) {
+        if (watchInput) {
+            return new WatchingFileDataServer(inputDataDir, this, pollingInterval, settleTime);
+        }
+        return new FileDataServer(inputDataDir, this, pollingInterval);
+    }
+
     public static void main(String[] args) {
         mainRunner(FilePickUpPlace.class.getName(), args);
     }
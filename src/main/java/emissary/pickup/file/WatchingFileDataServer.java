@@ -0,0 +1,254 @@
+package emissary.pickup.file;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Thread to monitor a directory for files using file system events instead of listing the directory on every poll.
+ * Created and modified files are picked up once they have gone the settle time without being changed again, so files
+ * still being written are left alone. Files already in the directory at startup, and any that arrive while the event
+ * queue overflows, are found by walking the directory a bundle at a time alongside the events.
+ *
+ * <p>
+ * Falls back to polling like {@link FileDataServer} when the directory cannot be watched.
+ */
+public class WatchingFileDataServer extends FileDataServer {
+
+    // How long a file must go unchanged before it is picked up, in millis
+    protected long settleTime;
+
+    @Nullable
+    protected WatchService watcher;
+
+    // Files seen by name with when they last changed, in the order they were first seen
+    protected final Map<String, Long> pending = new LinkedHashMap<>();
+
+    // Directory walk in progress, at startup and after events were lost
+    @Nullable
+    protected DirectoryStream<Path> rescan;
+    @Nullable
+    protected Iterator<Path> rescanEntries;
+
+    // Fall back to polling after the watch cannot be set up or is lost
+    protected boolean polling = false;
+
+    /**
+     * Create the directory monitor
+     *
+     * @param inputDataDirectory directory path to monitor
+     * @param parent the FPP that created me
+     * @param pollingInterval longest to wait for an event before checking the directory state again, in millis
+     * @param settleTime how long a file must go unchanged before it is picked up, in millis
+     */
+    public WatchingFileDataServer(String inputDataDirectory, FilePickUpPlace parent, long pollingInterval, long settleTime) {
+        super(inputDataDirectory, parent, pollingInterval);
+        this.settleTime = settleTime;
+        try {
+            watcher = theDirectory.toPath().getFileSystem().newWatchService();
+            theDirectory.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            startRescan();
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.warn("Cannot watch {}, polling it instead", theDataDir, e);
+            stopWatching();
+        }
+    }
+
+    @Override
+    protected String[] nextBatch() {
+        if (polling) {
+            return super.nextBatch();
+        }
+        try {
+            WatchKey key;
+            while (watcher != null && (key = watcher.poll()) != null) {
+                handle(key);
+            }
+        } catch (ClosedWatchServiceException e) {
+            stopWatching();
+            return super.nextBatch();
+        }
+        continueRescan();
+        return settledFiles();
+    }
+
+    @Override
+    protected void waitForFiles() {
+        if (polling || watcher == null) {
+            super.waitForFiles();
+            return;
+        }
+        // Come back when the oldest pending file could be settled, keep walking without waiting
+        long wait = pollingInterval;
+        if (rescanEntries != null) {
+            wait = 0;
+        } else if (!pending.isEmpty()) {
+            long oldest = pending.values().stream().mapToLong(Long::longValue).min().orElse(0L);
+            wait = Math.max(1L, Math.min(wait, oldest + settleTime - System.currentTimeMillis()));
+        }
+        if (wait == 0) {
+            return;
+        }
+        try {
+            WatchKey key = watcher.poll(wait, TimeUnit.MILLISECONDS);
+            if (key != null) {
+                handle(key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            stopWatching();
+        }
+    }
+
+    /**
+     * Record the changes from one set of events
+     */
+    protected void handle(WatchKey key) {
+        long now = System.currentTimeMillis();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                logger.info("Lost file events for {}, walking the directory", theDataDir);
+                startRescan();
+                continue;
+            }
+            String name = event.context().toString();
+            if (name.startsWith(".")) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                pending.remove(name);
+            } else {
+                pending.put(name, now);
+            }
+        }
+        if (!key.reset()) {
+            logger.warn("Can no longer watch {}, polling it instead", theDataDir);
+            stopWatching();
+        }
+    }
+
+    /**
+     * Start walking the directory for files that have no events, restarting any walk in progress
+     */
+    protected void startRescan() {
+        closeRescan();
+        try {
+            rescan = Files.newDirectoryStream(theDirectory.toPath(), p -> !p.getFileName().toString().startsWith("."));
+            rescanEntries = rescan.iterator();
+        } catch (IOException e) {
+            logger.warn("Cannot walk {}", theDataDir, e);
+        }
+    }
+
+    /**
+     * Take the next bundle of names from the directory walk, finishing it when there are no more
+     */
+    protected void continueRescan() {
+        if (rescanEntries == null) {
+            return;
+        }
+        // Walked files may be complete already, let them settle from their last modification
+        long now = System.currentTimeMillis();
+        int added = 0;
+        try {
+            while (added < bundleSize && rescanEntries.hasNext()) {
+                Path p = rescanEntries.next();
+                String name = p.getFileName().toString();
+                if (!pending.containsKey(name)) {
+                    long modified = p.toFile().lastModified();
+                    pending.put(name, modified > 0 && modified < now ? modified : now);
+                    added++;
+                }
+            }
+            if (!rescanEntries.hasNext()) {
+                closeRescan();
+            }
+        } catch (RuntimeException e) {
+            // DirectoryIteratorException when the directory cannot be read
+            logger.warn("Stopped walking {}", theDataDir, e);
+            closeRescan();
+        }
+    }
+
+    private void closeRescan() {
+        if (rescan != null) {
+            try {
+                rescan.close();
+            } catch (IOException e) {
+                logger.debug("Cannot close walk of {}", theDataDir, e);
+            }
+        }
+        rescan = null;
+        rescanEntries = null;
+    }
+
+    /**
+     * Remove and return up to bundleSize names that have gone the settle time without changing
+     */
+    protected String[] settledFiles() {
+        long cutoff = System.currentTimeMillis() - settleTime;
+        List<String> batch = new ArrayList<>();
+        for (Iterator<Map.Entry<String, Long>> i = pending.entrySet().iterator(); i.hasNext() && batch.size() < bundleSize;) {
+            Map.Entry<String, Long> e = i.next();
+            if (e.getValue() <= cutoff) {
+                batch.add(e.getKey());
+                i.remove();
+            }
+        }
+        return batch.toArray(new String[0]);
+    }
+
+    /**
+     * Number of files seen but not yet picked up
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public boolean isPolling() {
+        return polling;
+    }
+
+    private void stopWatching() {
+        polling = true;
+        pending.clear();
+        closeRescan();
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                logger.debug("Cannot close watch service for {}", theDataDir, e);
+            }
+        }
+    }
+
+    /**
+     * Shutdown the thread, closing the watch service so a waiting thread wakes up
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                logger.debug("Cannot close watch service for {}", theDataDir, e);
+            }
+        }
+    }
+}
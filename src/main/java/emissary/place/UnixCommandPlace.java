@@ -4,7 +4,9 @@ import emissary.core.Form;
 import emissary.core.IBaseDataObject;
 import emissary.core.ResourceException;
 import emissary.directory.KeyManipulator;
+import emissary.util.shell.CoprocessPool;
 import emissary.util.shell.Executrix;
+import emissary.util.shell.StreamExecutor;
 
 import java.io.File;
 import java.io.IOException;
@@ -19,6 +21,19 @@ import static emissary.core.constants.Configurations.NEW_FORM;
  * Run a command external to the Emissary JVM to process data
  */
 public class UnixCommandPlace extends ServiceProviderPlace {
+
+    /**
+     * How the command is run on each payload
+     * <ul>
+     * <li>TEMPFILE: write the data to a temp directory and run a new process on it</li>
+     * <li>STREAM: run a new process with the data on standard input and the result on standard output</li>
+     * <li>COPROCESS: send the data to a pool of long running processes using the {@link CoprocessPool} framing</li>
+     * </ul>
+     */
+    public enum ExecMode {
+        TEMPFILE, STREAM, COPROCESS
+    }
+
     protected boolean doSynchronized;
     protected String newForm;
     protected String newFormOnError;
@@ -30,9 +45,16 @@ public class UnixCommandPlace extends ServiceProviderPlace {
     protected boolean keepFilesDebug = false;
     protected String charset = "8859_1";
     protected String logfilename;
+    protected ExecMode execMode = ExecMode.TEMPFILE;
+    protected int maxOutputSize = StreamExecutor.DEFAULT_MAX_OUTPUT;
+    protected int coprocessPoolSize = 1;
+    protected int coprocessMaxRequests = 0;
 
     protected Executrix executrix;
 
+    @Nullable
+    private CoprocessPool coprocessPool;
+
     /**
      * Create the place from the specified config file or resource
      * 
@@ -90,6 +112,11 @@ public class UnixCommandPlace extends ServiceProviderPlace {
      * <li>OUTPUT_CHARSET: charset of the process output, default 8859_1</li>
      * <li>KEEP_FILES_DEBUG: when true don't clean up after exec is finished, default false</li>
      * <li>LOG_FILE_NAME: name of output file to translate into logger commands, default: [servicename].log from key</li>
+     * <li>EXEC_MODE: one of {@link ExecMode}, default TEMPFILE. STREAM and COPROCESS ignore OUTPUT_TYPE, file names and
+     * LOG_FILE_NAME</li>
+     * <li>MAX_OUTPUT_SIZE: largest STREAM or COPROCESS output accepted, default 64MB</li>
+     * <li>COPROCESS_POOL_SIZE: number of coprocesses to run, default 1</li>
+     * <li>COPROCESS_MAX_REQUESTS: payloads a coprocess handles before it is replaced, default 0 for no limit</li>
      * </ul>
      * Also all of the config values read by emissary.util.shell.Executrix are needed here
      */
@@ -114,6 +141,10 @@ public class UnixCommandPlace extends ServiceProviderPlace {
         charset = configG.findStringEntry("OUTPUT_CHARSET", charset);
         executrix = new Executrix(configG);
         logfilename = configG.findStringEntry("LOG_FILE_NAME", KeyManipulator.getServiceName(keys.get(0)) + ".log");
+        execMode = ExecMode.valueOf(configG.findStringEntry("EXEC_MODE", ExecMode.TEMPFILE.name()));
+        maxOutputSize = configG.findIntEntry("MAX_OUTPUT_SIZE", maxOutputSize);
+        coprocessPoolSize = configG.findIntEntry("COPROCESS_POOL_SIZE", coprocessPoolSize);
+        coprocessMaxRequests = configG.findIntEntry("COPROCESS_MAX_REQUESTS", coprocessMaxRequests);
         logger.debug("Configured {} type process with charset {}", executrix.getOutput(), charset);
     }
 
@@ -142,6 +173,17 @@ public class UnixCommandPlace extends ServiceProviderPlace {
         logger.debug("Output type set to FILE");
     }
 
+    /**
+     * Set the execution mode programatically, stopping any running coprocesses
+     *
+     * @param mode the new execution mode
+     */
+    public void setExecMode(ExecMode mode) {
+        closeCoprocessPool();
+        execMode = mode;
+        logger.debug("Execution mode set to {}", mode);
+    }
+
     /**
      * get the log file name
      */
@@ -218,6 +260,72 @@ public class UnixCommandPlace extends ServiceProviderPlace {
         }
     }
 
+    /**
+     * Run the command with the data on standard input in a new process
+     *
+     * @param data the bytes to run the command on
+     * @param chop if true chomp CRLF from output
+     * @return bytes of output from command execution or null on error
+     */
+    public byte[] streamProcess(byte[] data, boolean chop) throws IOException, InterruptedException {
+        String[] cmd = executrix.getStreamCommand(true);
+        logger.debug("streamProcess({},{})", Arrays.asList(cmd), chop);
+        StreamExecutor.Result result = executrix.executeStreaming(cmd, data, maxOutputSize);
+        if (!result.isSuccess()) {
+            logger.warn("exec error in streamProcess: {} {}", Arrays.asList(cmd), result);
+            return null;
+        }
+        return chop ? chop(result.getOutput()) : result.getOutput();
+    }
+
+    /**
+     * Send the data through one of the pooled coprocesses
+     *
+     * @param data the bytes to run the command on
+     * @param chop if true chomp CRLF from output
+     * @return bytes of output from the coprocess or null on error
+     */
+    public byte[] coprocessProcess(byte[] data, boolean chop) throws IOException, InterruptedException {
+        StreamExecutor.Result result = getCoprocessPool().process(data);
+        if (!result.isSuccess()) {
+            logger.warn("exec error in coprocessProcess: {} {}", executrix.getCommand(), result);
+            return null;
+        }
+        return chop ? chop(result.getOutput()) : result.getOutput();
+    }
+
+    private synchronized CoprocessPool getCoprocessPool() {
+        if (coprocessPool == null) {
+            coprocessPool = new CoprocessPool(executrix.getStreamCommand(true), coprocessPoolSize, coprocessMaxRequests,
+                    executrix.getProcessMaxMillis(), maxOutputSize);
+        }
+        return coprocessPool;
+    }
+
+    private synchronized void closeCoprocessPool() {
+        if (coprocessPool != null) {
+            coprocessPool.close();
+            coprocessPool = null;
+        }
+    }
+
+    private static byte[] chop(byte[] output) {
+        int end = output.length;
+        while (end > 0 && (output[end - 1] == '\n' || output[end - 1] == '\r')) {
+            end--;
+        }
+        return end == output.length ? output : Arrays.copyOf(output, end);
+    }
+
+    /**
+     * Stop any running coprocesses along with the place
+     */
+    @Override
+    public void shutDown() {
+        closeCoprocessPool();
+        super.shutDown();
+    }
+
     /**
      * Validate that we should process this data
      */
@@ -270,6 +378,18 @@ public class UnixCommandPlace extends ServiceProviderPlace {
      * @return byte array of output
      */
     protected byte[] runCommandOn(byte[] data) throws ResourceException {
+        if (execMode != ExecMode.TEMPFILE) {
+            try {
+                return execMode == ExecMode.STREAM ? streamProcess(data, perlChop) : coprocessProcess(data, perlChop);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ResourceException(ex); // framework notification to stop
+            } catch (Exception ex) {
+                logger.warn("Bad execution of commands", ex);
+                return null;
+            }
+        }
+
         String[] names = executrix.makeTempFilenames();
         String tempDirName = names[Executrix.DIR];
         String inputFileName = names[Executrix.INPATH];
@@ -0,0 +1,206 @@
+package emissary.pool;
+
+import emissary.config.ConfigUtil;
+import emissary.config.Configurator;
+import emissary.util.DaemonThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Runs agents that do not own a thread, such as {@link emissary.core.ExecutorMobileAgent}. An agent is only handed to
+ * the executor after it has been borrowed from the {@link AgentPool} and given a payload, so the pool size still bounds
+ * the number of payloads in flight while the executor bounds how many of them are being worked at once. The task queue
+ * therefore never holds more than one entry per pooled agent.
+ *
+ * <p>
+ * When running on a JVM that supports virtual threads and <code>agent.executor.virtual</code> is true in AgentPool.cfg,
+ * each dispatch gets a virtual thread of its own. Otherwise a fixed number of daemon platform threads, set by
+ * <code>agent.executor.threads</code>, is shared by all agents. Idle platform threads time out so an unused runtime
+ * costs nothing.
+ */
+public class AgentExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(AgentExecutor.class);
+
+    /** Config entry for the number of platform threads */
+    public static final String THREADS_CONFIG = "agent.executor.threads";
+
+    /** Config entry to opt in to virtual threads when available, off by default */
+    public static final String VIRTUAL_CONFIG = "agent.executor.virtual";
+
+    /** Prefix of platform thread names */
+    public static final String THREAD_NAME = "AgentExecutor-";
+
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+
+    /**
+     * Platform threads go in an AgentThreadGroup so uncaught problems are logged the same as for dedicated agent threads
+     */
+    private static final ThreadGroup THREAD_GROUP = new AgentThreadGroup("Agent Executor Threads");
+
+    @Nullable
+    private static volatile AgentExecutor instance = null;
+
+    private final ExecutorService executor;
+
+    private final boolean virtual;
+
+    private final int threads;
+
+    /**
+     * Get the shared runtime, creating it from AgentPool.cfg if needed
+     */
+    public static AgentExecutor getInstance() {
+        AgentExecutor ae = instance;
+        if (ae == null || ae.isShutdown()) {
+            synchronized (AgentExecutor.class) {
+                ae = instance;
+                if (ae == null || ae.isShutdown()) {
+                    ae = configure();
+                    instance = ae;
+                }
+            }
+        }
+        return ae;
+    }
+
+    /**
+     * Stop the shared runtime if it was ever started. Work already submitted is allowed to finish.
+     */
+    public static void shutdownInstance() {
+        synchronized (AgentExecutor.class) {
+            if (instance != null) {
+                instance.shutdown();
+                instance = null;
+            }
+        }
+    }
+
+    private static AgentExecutor configure() {
+        // Same concurrency the thread per agent pool would have had
+        int threads = AgentPool.computePoolSize(Runtime.getRuntime().maxMemory(), null);
+        boolean useVirtual = false;
+        try {
+            Configurator conf = ConfigUtil.getConfigInfo(AgentPool.class);
+            threads = conf.findIntEntry(THREADS_CONFIG, threads);
+            useVirtual = conf.findBooleanEntry(VIRTUAL_CONFIG, useVirtual);
+        } catch (IOException e) {
+            logger.debug("Cannot read AgentPool.cfg, taking default values");
+        }
+        return new AgentExecutor(threads, useVirtual);
+    }
+
+    /**
+     * Create an agent runtime
+     *
+     * @param threads number of platform threads to use when virtual threads are not in use
+     * @param useVirtualThreads true to use virtual threads if the JVM supports them
+     */
+    public AgentExecutor(int threads, boolean useVirtualThreads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Agent executor needs at least one thread, not " + threads);
+        }
+        ExecutorService es = useVirtualThreads ? newVirtualThreadExecutor() : null;
+        if (es != null) {
+            this.executor = es;
+            this.virtual = true;
+            this.threads = 0;
+            logger.info("Agents will run on virtual threads");
+        } else {
+            ThreadPoolExecutor tpe = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new DaemonThreadFactory(THREAD_GROUP, THREAD_NAME));
+            tpe.allowCoreThreadTimeOut(true);
+            this.executor = tpe;
+            this.virtual = false;
+            this.threads = threads;
+            logger.info("Agents will run on {} platform threads", threads);
+        }
+    }
+
+    /**
+     * Create a virtual thread per task executor through reflection so we still run on older JVMs
+     *
+     * @return the executor or null if virtual threads are not available
+     */
+    @Nullable
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (NoSuchMethodException e) {
+            logger.debug("Virtual threads are not available on this JVM");
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // e.g. a preview feature that was not enabled
+            logger.debug("Virtual threads could not be used", e);
+        }
+        return null;
+    }
+
+    /**
+     * Run an agent
+     *
+     * @param agent the agent to run, already loaded with its payload
+     * @throws RejectedExecutionException if the runtime has been shut down
+     */
+    public void execute(Runnable agent) {
+        executor.execute(agent);
+    }
+
+    /**
+     * True if agents get a virtual thread each
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Number of platform threads shared by the agents, 0 when using virtual threads
+     */
+    public int getThreadCount() {
+        return threads;
+    }
+
+    /**
+     * Number of agents waiting for a platform thread, always 0 when using virtual threads
+     */
+    public int getQueuedCount() {
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+    }
+
+    /**
+     * Stop accepting agents, those already submitted are allowed to finish
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    /**
+     * Wait for submitted agents to finish after a shutdown
+     *
+     * @param timeout how long to wait
+     * @param unit units of the timeout
+     * @return true if everything finished in time
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return "AgentExecutor " + (virtual ? "virtual" : (threads + " threads, " + getQueuedCount() + " queued"));
+    }
+}
@@ -12,7 +12,9 @@ import java.time.Duration;
 import javax.annotation.Nullable;
 
 /**
- * Extends the GenericObjectPool to hold MobileAgents, each on it's own thread.
+ * Extends the GenericObjectPool to hold MobileAgents, each on it's own thread unless the configured agent class runs on
+ * the shared {@link AgentExecutor}. Borrowers block in the pool's wait queue while it is exhausted, which is what
+ * throttles the pick up places to the rate agents are being returned.
  */
 public class AgentPool extends GenericObjectPool<IMobileAgent> {
 
@@ -198,6 +200,23 @@ public class AgentPool extends GenericObjectPool<IMobileAgent> {
         }
     }
 
+    /**
+     * Get an agent from the pool, waiting no longer than specified for one to be returned if the pool is exhausted
+     *
+     * @param maxWait how long to wait for an agent
+     * @throws java.util.NoSuchElementException if no agent became available in time
+     */
+    public IMobileAgent borrowAgent(Duration maxWait) throws Exception {
+        try {
+            IMobileAgent a = borrowObject(maxWait);
+            logger.trace("POOL borrow active={}", getNumActive());
+            return a;
+        } catch (Exception e) {
+            logger.debug("AgentPool.borrowAgent did not get an agent within {}, stats={}", maxWait, this);
+            throw e;
+        }
+    }
+
     /*
      * Get the total current agents in the pool
      */
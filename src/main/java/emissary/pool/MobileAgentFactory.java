@@ -3,6 +3,7 @@ package emissary.pool;
 import emissary.config.ConfigUtil;
 import emissary.config.Configurator;
 import emissary.core.Factory;
+import emissary.core.HDMobileAgent;
 import emissary.core.IMobileAgent;
 
 import org.apache.commons.pool2.PooledObject;
@@ -12,6 +13,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import javax.annotation.Nullable;
 
 public class MobileAgentFactory implements PooledObjectFactory<IMobileAgent> {
 
@@ -31,6 +34,16 @@ public class MobileAgentFactory implements PooledObjectFactory<IMobileAgent> {
 
     int maxAgentItinerary = 100;
 
+    // Route sprouted children of HDMobileAgent families concurrently
+    boolean familyParallel = false;
+
+    // Threads shared by all family branches, 0 for one per processor
+    int familyParallelism = 0;
+
+    // Work stealing pool shared by every agent processing its family in parallel
+    @Nullable
+    private static ForkJoinPool familyPool = null;
+
     private static final Logger logger = LoggerFactory.getLogger(MobileAgentFactory.class);
 
     // Thread group for every agent produced by this factory
@@ -50,6 +63,8 @@ public class MobileAgentFactory implements PooledObjectFactory<IMobileAgent> {
 
             maxAgentMoveErrors = conf.findIntEntry("agent.move.errors", maxAgentMoveErrors);
             maxAgentItinerary = conf.findIntEntry("agent.max.itinerary", maxAgentItinerary);
+            familyParallel = conf.findBooleanEntry("agent.family.parallel", familyParallel);
+            familyParallelism = conf.findIntEntry("agent.family.parallelism", familyParallelism);
         } catch (IOException e) {
             logger.debug("Cannot read AgentPool.cfg, taking default values");
         }
@@ -103,6 +118,9 @@ public class MobileAgentFactory implements PooledObjectFactory<IMobileAgent> {
             }
             agent.setMaxItinerarySteps(maxAgentItinerary);
             agent.setMaxMoveErrors(maxAgentMoveErrors);
+            if (familyParallel && agent instanceof HDMobileAgent) {
+                ((HDMobileAgent) agent).setFamilyPool(getFamilyPool(familyParallelism));
+            }
         } catch (Throwable t) {
             logger.error("Unable to Factory.create(" + getClassString() + ") with a threadGroup argument", t);
             if (useNamespace) {
@@ -115,6 +133,20 @@ public class MobileAgentFactory implements PooledObjectFactory<IMobileAgent> {
         return new DefaultPooledObject<>(agent);
     }
 
+    /**
+     * Get the pool shared by all agents routing their families in parallel, creating it on first use
+     *
+     * @param parallelism number of threads, 0 for one per processor
+     * @return the shared pool
+     */
+    static synchronized ForkJoinPool getFamilyPool(int parallelism) {
+        if (familyPool == null) {
+            familyPool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+            logger.info("Created family branch pool with parallelism {}", familyPool.getParallelism());
+        }
+        return familyPool;
+    }
+
     /**
      * Called by the pool to activate an object
      *
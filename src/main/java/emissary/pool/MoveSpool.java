@@ -1,27 +1,52 @@
 package emissary.pool;
 
+import emissary.config.ConfigUtil;
+import emissary.config.Configurator;
 import emissary.core.IMobileAgent;
+import emissary.core.MetricsManager;
 import emissary.core.Namespace;
 import emissary.core.NamespaceException;
+import emissary.core.RoutingTrace;
 import emissary.directory.DirectoryEntry;
 import emissary.directory.IDirectoryPlace;
 import emissary.directory.KeyManipulator;
 import emissary.place.IServiceProviderPlace;
 import emissary.util.PayloadUtil;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.UniformReservoir;
+import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.Nullable;
 
 /**
  * Provide a storage area for incoming "moveTo(here)" payloads so that the http transfer can become more asnychronous.
  * This class provides a FIFO for payloads that are arriving and a thread that will put them into agents from the pool
  * as agents become available
+ *
+ * <p>
+ * The FIFO is a lock-free queue with many producers and the single spool thread consuming. It is bounded by
+ * {@code spool.capacity} in AgentPool.cfg, payloads offered while the spool is at capacity are rejected rather than
+ * queued and {@link #enqueue} returns {@link #REJECTED} so the caller can hand the payload to an agent itself or push
+ * back on the sender.
  */
 
 public class MoveSpool implements Runnable {
@@ -29,8 +54,31 @@ public class MoveSpool implements Runnable {
     // Our logger
     private static final Logger logger = LoggerFactory.getLogger(MoveSpool.class);
 
+    // Returned instead of the spool size when the spool is full
+    public static final int REJECTED = -1;
+
+    // Default for the high water mark at which new payloads are rejected
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    // Metric names
+    public static final String DEPTH_METRIC = "spool.depth";
+    public static final String WAIT_METRIC = "spool.wait.micros";
+    // From taking a payload off the spool until the agent's go or arrive returns
+    public static final String HANDOFF_METRIC = "spool.handoff.micros";
+    public static final String REJECTED_METRIC = "spool.rejected";
+    public static final String SIZE_METRIC = "spool.size";
+
+    // How long the spool thread sleeps when there is nothing to do
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(60);
+
     // The payload FIFO
-    protected final LinkedList<SpoolItem> spool = new LinkedList<SpoolItem>();
+    protected final Queue<SpoolItem> spool = new ConcurrentLinkedQueue<SpoolItem>();
+
+    // Items on the spool, the queue itself does not know its size in constant time
+    protected final AtomicInteger spoolSize = new AtomicInteger();
+
+    // Payloads beyond this many on the spool are rejected
+    protected final int capacity;
 
     // Reference to the agent pool
     protected AgentPool pool;
@@ -39,19 +87,34 @@ public class MoveSpool implements Runnable {
     Thread watcher;
 
     // thread quit control
-    boolean timeToQuit = false;
+    volatile boolean timeToQuit = false;
+
+    // True while the spool thread is parked waiting for work
+    private volatile boolean idle = false;
 
     // How we want to be registerd in the namespace
     public static final String NAMESPACE_NAME = "ArrivalSpool";
 
     // Stats on how many moves and for what types arrived here
-    public final Map<String, Integer> moveCountMap = new HashMap<String, Integer>();
+    private final ConcurrentHashMap<String, LongAdder> moveCounts = new ConcurrentHashMap<String, LongAdder>();
+
+    /**
+     * Read only live view of how many moves of each type arrived here
+     *
+     * @deprecated use {@link #getMoveCountMap()}, this view can no longer be changed or synchronized on to stop updates
+     */
+    @Deprecated
+    public final Map<String, Integer> moveCountMap = Collections.unmodifiableMap(Maps.transformValues(moveCounts, LongAdder::intValue));
 
     // Stats collection
-    private int highWaterMark = 0;
-    private static long lookupCount = 0;
-    private long enqueCount = 0;
-    private long dequeCount = 0;
+    private final AtomicInteger highWaterMark = new AtomicInteger();
+    private static final LongAdder lookupCount = new LongAdder();
+    private final LongAdder enqueCount = new LongAdder();
+    private final LongAdder dequeCount = new LongAdder();
+    private final Counter rejectCount;
+    private final Histogram depth;
+    private final Histogram waitTime;
+    private final Histogram handoffTime;
 
     // Cached ref to my local directory
     IDirectoryPlace localDirectory = null;
@@ -65,20 +128,65 @@ public class MoveSpool implements Runnable {
      * Make one and bind it in the namespace
      */
     public MoveSpool() {
-        configure();
+        this(null, readCapacity(), lookupRegistry());
+
+        // Get the agent pool
+        resetPool();
 
         // register this pool in the namespace
         Namespace.bind(NAMESPACE_NAME, this);
+
+        start();
     }
 
     /**
-     * Configure stuff
+     * Make one that is neither bound in the namespace nor started
+     *
+     * @param pool the agent pool to draw from
+     * @param capacity number of payloads at which the spool starts rejecting
+     * @param registry where to publish the spool metrics or null to keep them private
      */
-    private void configure() {
-        // Get the agent pool
-        resetPool();
+    MoveSpool(@Nullable AgentPool pool, int capacity, @Nullable MetricRegistry registry) {
+        this.pool = pool;
+        this.capacity = capacity > 0 ? capacity : Integer.MAX_VALUE;
+        if (registry != null) {
+            this.rejectCount = registry.counter(REJECTED_METRIC);
+            this.depth = registry.histogram(DEPTH_METRIC);
+            this.waitTime = registry.histogram(WAIT_METRIC);
+            this.handoffTime = registry.histogram(HANDOFF_METRIC);
+            registry.gauge(SIZE_METRIC, () -> (Gauge<Integer>) this::getCurrentSpoolSize);
+        } else {
+            this.rejectCount = new Counter();
+            this.depth = new Histogram(new UniformReservoir());
+            this.waitTime = new Histogram(new UniformReservoir());
+            this.handoffTime = new Histogram(new UniformReservoir());
+        }
+    }
+
+    private static int readCapacity() {
+        try {
+            Configurator conf = ConfigUtil.getConfigInfo(AgentPool.class);
+            return conf.findIntEntry("spool.capacity", DEFAULT_CAPACITY);
+        } catch (IOException e) {
+            logger.debug("Cannot read AgentPool.cfg, taking default spool capacity");
+            return DEFAULT_CAPACITY;
+        }
+    }
+
+    @Nullable
+    private static MetricRegistry lookupRegistry() {
+        try {
+            return MetricsManager.lookup().getMetricRegistry();
+        } catch (NamespaceException e) {
+            logger.debug("No MetricsManager available, spool metrics will not be published");
+            return null;
+        }
+    }
 
-        // start the watcher thread
+    /**
+     * Start the watcher thread
+     */
+    void start() {
         watcher = new Thread(this, "MoveSpool");
         watcher.setPriority(Thread.MAX_PRIORITY - 2);
         watcher.setDaemon(true);
@@ -100,13 +208,11 @@ public class MoveSpool implements Runnable {
      */
     public void quit() {
         logger.warn("Purging the spool...");
-        synchronized (spool) {
-            if (spool.size() > 0) {
-                spool.clear();
-            }
-            spool.notifyAll();
-        }
         timeToQuit = true;
+        while (removeFirstPayload() != null) {
+            // discard
+        }
+        wakeUp();
         Namespace.unbind(NAMESPACE_NAME);
         logger.info("Done stopping the move spool");
     }
@@ -134,6 +240,31 @@ public class MoveSpool implements Runnable {
         return localDirectory;
     }
 
+    /**
+     * Unpark the spool thread if it is waiting for work
+     */
+    private void wakeUp() {
+        Thread t = watcher;
+        if (idle && t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Park the spool thread until there is work or the idle time runs out
+     */
+    private void awaitWork(long nanos) {
+        idle = true;
+        try {
+            // Check again now that producers can see we are idle
+            if (spoolSize.get() == 0 && !timeToQuit) {
+                LockSupport.parkNanos(this, nanos);
+            }
+        } finally {
+            idle = false;
+        }
+    }
+
     /**
      * Run the thread to watch the spool
      */
@@ -144,28 +275,23 @@ public class MoveSpool implements Runnable {
         // Run until we are told to quit
         while (!timeToQuit) {
             // Check the spool for work to be done
-            int sz = 0;
-            synchronized (spool) {
-                sz = spool.size();
-            }
-
-            if (sz == 0) {
+            if (spoolSize.get() == 0) {
                 // No payloads to look at. Sleep a while
                 consecutiveSendCounter = 0;
-                try {
-                    logger.debug("Nothing in spool, time to wait...");
-                    Thread.yield();
-                    synchronized (spool) {
-                        if (spool.size() == 0) {
-                            spool.wait(60000);
-                        }
-                    }
-                } catch (InterruptedException ignore) {
-                    // empty catch block
-                }
+                logger.debug("Nothing in spool, time to wait...");
+                awaitWork(IDLE_NANOS);
                 continue;
             }
 
+            if (pool == null) {
+                // Nobody to hand the payloads to yet
+                resetPool();
+                if (pool == null) {
+                    awaitWork(TimeUnit.SECONDS.toNanos(1));
+                    continue;
+                }
+            }
+
             // Get an agent and a sool item
             IMobileAgent agent = null;
             SpoolItem item = null;
@@ -188,6 +314,7 @@ public class MoveSpool implements Runnable {
                     pool.returnAgent(agent);
                     continue;
                 }
+                final long dequeued = System.nanoTime();
 
                 // We have both an agent and a spool item
                 // so hook em up and send it on the way
@@ -211,6 +338,7 @@ public class MoveSpool implements Runnable {
                     logger.error("Illegal spooler method specified " + item.getMethod() + ", payload=" + item.getPayload()
                             + " will be irretreivably lost");
                 }
+                handoffTime.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - dequeued));
 
                 if (consecutiveSendCounter % 10 == 0) {
                     logger.debug("Sent 10 consecutive entries, " + "time to yield the MoveSpool");
@@ -238,18 +366,17 @@ public class MoveSpool implements Runnable {
     /**
      * Remove the oldest payload item on the spool
      *
-     * @return SpoolItem from the spool
+     * @return SpoolItem from the spool or null if it is empty
      */
+    @Nullable
     protected SpoolItem removeFirstPayload() {
-        SpoolItem s = null;
-        synchronized (spool) {
-            // Do some stats
-            if (spool.size() > highWaterMark) {
-                highWaterMark = spool.size();
-            }
-
-            s = spool.removeFirst();
-            dequeCount++;
+        SpoolItem s = spool.poll();
+        if (s != null) {
+            spoolSize.decrementAndGet();
+            dequeCount.increment();
+            final long waited = System.nanoTime() - s.enqueued;
+            waitTime.update(TimeUnit.NANOSECONDS.toMicros(waited));
+            RoutingTrace.getInstance().record(RoutingTrace.Phase.QUEUE, waited);
         }
         return s;
     }
@@ -259,7 +386,7 @@ public class MoveSpool implements Runnable {
      * arrivalPlace is null so we call MobileAgent.go rather than MobileAgent.arrive
      *
      * @param payload the dataObject or Collection to save
-     * @return number of items on the queue
+     * @return number of items on the queue or {@link #REJECTED} if the spool is full
      */
     public int send(Object payload) {
         return enqueue(Method.GO, payload, null, 0, (List<DirectoryEntry>) null);
@@ -271,7 +398,7 @@ public class MoveSpool implements Runnable {
      *
      * @param payload the dataObject or Collection to save
      * @param place the sending or sprouting place reference
-     * @return number of items on the queue
+     * @return number of items on the queue or {@link #REJECTED} if the spool is full
      */
     public int send(Object payload, IServiceProviderPlace place) {
         return enqueue(Method.GO, payload, place, 0, (List<DirectoryEntry>) null);
@@ -284,7 +411,7 @@ public class MoveSpool implements Runnable {
      * @param place IServiceProviderPlace ref for the agent to visit
      * @param errorCount state from the transferred MobileAgent
      * @param itineraryItems state from the transferred MobileAgent
-     * @return number of items in the queue
+     * @return number of items in the queue or {@link #REJECTED} if the spool is full
      */
     public int arrive(Object payload, IServiceProviderPlace place, int errorCount, List<DirectoryEntry> itineraryItems) {
         return enqueue(Method.ARRIVE, payload, place, errorCount, itineraryItems);
@@ -299,32 +426,35 @@ public class MoveSpool implements Runnable {
      * @param place IServiceProviderPlace ref for the agent to visit, possibly null
      * @param errorCount state from the transferred MobileAgent or null for GO
      * @param itineraryItems state from the transferred MobileAgent or empty for GO
-     * @return number of items on the queue
+     * @return number of items on the queue or {@link #REJECTED} if the spool is at capacity, in which case the payload was
+     *         not taken
      */
     protected int enqueue(Method method, Object payload, IServiceProviderPlace place, int errorCount, List<DirectoryEntry> itineraryItems) {
 
         String itemName = PayloadUtil.getName(payload);
         logger.debug("Enqueue item " + itemName + " for place " + place + ", method=" + method);
         SpoolItem s = new SpoolItem(method, payload, place, errorCount, itineraryItems);
-        int size = 0;
 
-        synchronized (spool) {
-            spool.addLast(s);
-            enqueCount++;
-            size = spool.size();
-            spool.notifyAll();
-        }
+        // Reserve a slot before publishing the item so the spool never goes over capacity
+        int size;
+        do {
+            size = spoolSize.get();
+            if (size >= capacity || timeToQuit) {
+                rejectCount.inc();
+                logger.debug("Spool full at " + size + ", rejecting " + itemName);
+                return REJECTED;
+            }
+        } while (!spoolSize.compareAndSet(size, size + 1));
+        size++;
+
+        spool.offer(s);
+        enqueCount.increment();
+        wakeUp();
 
         // Collect the stats
-        synchronized (moveCountMap) {
-            String serviceName = s.getServiceName();
-            if (moveCountMap.containsKey(serviceName)) {
-                Integer count = moveCountMap.get(serviceName);
-                moveCountMap.put(serviceName, Integer.valueOf(count.intValue() + 1));
-            } else {
-                moveCountMap.put(serviceName, Integer.valueOf(1));
-            }
-        }
+        highWaterMark.accumulateAndGet(size, Math::max);
+        depth.update(size);
+        moveCounts.computeIfAbsent(s.getServiceName(), k -> new LongAdder()).increment();
 
         logger.debug("Done enqueue of " + itemName + ", size=" + size);
         return size;
@@ -335,7 +465,7 @@ public class MoveSpool implements Runnable {
      * Look up the instance in the namespace
      */
     public static MoveSpool lookup() throws NamespaceException {
-        lookupCount++;
+        lookupCount.increment();
         return (MoveSpool) Namespace.lookup(NAMESPACE_NAME);
     }
 
@@ -344,9 +474,11 @@ public class MoveSpool implements Runnable {
      * on this node
      */
     public Map<String, Integer> getMoveCountMap() {
-        synchronized (moveCountMap) {
-            return new HashMap<String, Integer>(moveCountMap);
+        Map<String, Integer> m = new HashMap<String, Integer>();
+        for (Map.Entry<String, LongAdder> e : moveCounts.entrySet()) {
+            m.put(e.getKey(), e.getValue().intValue());
         }
+        return m;
     }
 
     /**
@@ -357,13 +489,11 @@ public class MoveSpool implements Runnable {
     public String getStatPairs() {
         StringBuilder sb = new StringBuilder();
         sb.append("{");
-        synchronized (moveCountMap) {
-            for (String key : moveCountMap.keySet()) {
-                if (sb.length() > 1) {
-                    sb.append(",");
-                }
-                sb.append(key).append("=").append(moveCountMap.get(key));
+        for (Map.Entry<String, LongAdder> e : moveCounts.entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(",");
             }
+            sb.append(e.getKey()).append("=").append(e.getValue().sum());
         }
         sb.append("}");
         return sb.toString();
@@ -375,8 +505,8 @@ public class MoveSpool implements Runnable {
      */
     @Override
     public String toString() {
-        // Spool size is deliberately not synchronized
-        return "MoveSpool current/high " + spool.size() + "/" + highWaterMark + ", en/dequeue " + enqueCount + "/" + dequeCount + ", serviceNames="
+        return "MoveSpool current/high " + getCurrentSpoolSize() + "/" + getHighWaterMark() + ", en/dequeue " + getEnqueCount() + "/"
+                + getDequeCount() + ", rejected " + getRejectedCount() + ", serviceNames="
                 + getStatPairs();
     }
 
@@ -390,6 +520,7 @@ public class MoveSpool implements Runnable {
         final IServiceProviderPlace place;
         final int errorCount;
         final List<DirectoryEntry> itineraryItems;
+        final long enqueued = System.nanoTime();
 
         public SpoolItem(Method method, Object payload, IServiceProviderPlace place, int errorCount, List<DirectoryEntry> itineraryItems) {
             this.method = method;
@@ -453,31 +584,45 @@ public class MoveSpool implements Runnable {
      * @return the lookupCount
      */
     public static long getLookupCount() {
-        return lookupCount;
+        return lookupCount.sum();
     }
 
     /**
      * @return the dequeCount
      */
     public long getDequeCount() {
-        return dequeCount;
+        return dequeCount.sum();
     }
 
     /**
      * @return the enqueCount
      */
     public long getEnqueCount() {
-        return enqueCount;
+        return enqueCount.sum();
     }
 
     /**
      * @return the highWaterMark
      */
     public int getHighWaterMark() {
-        return highWaterMark;
+        return highWaterMark.get();
     }
 
     public int getCurrentSpoolSize() {
-        return spool.size();
+        return spoolSize.get();
+    }
+
+    /**
+     * @return the capacity at which payloads are rejected
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of payloads rejected because the spool was full
+     */
+    public long getRejectedCount() {
+        return rejectCount.getCount();
     }
 }
@@ -38,9 +38,11 @@ public class PayloadLauncher {
 
             if (spool != null) {
                 int sz = spool.arrive(payload, place, errorCount, itineraryItems);
-                logger.debug("Payload " + payloadName + " spooled out, " + sz + " on the spool");
-
-                return true;
+                if (sz != MoveSpool.REJECTED) {
+                    logger.debug("Payload " + payloadName + " spooled out, " + sz + " on the spool");
+                    return true;
+                }
+                logger.debug("Spool is full, handing " + payloadName + " to an agent directly");
             }
             // Use the agent pool directly, this may block the caller
             AgentPool pool = null;
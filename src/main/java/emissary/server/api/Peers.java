@@ -1,14 +1,18 @@
 package emissary.server.api;
 
 import emissary.client.EmissaryClient;
+import emissary.client.response.MapResponseEntity;
 import emissary.client.response.PeerList;
 import emissary.client.response.PeersResponseEntity;
 import emissary.core.EmissaryException;
+import emissary.directory.DirectoryPlace;
+import emissary.directory.IDirectoryPlace;
 
 import org.apache.http.client.methods.HttpGet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Locale;
 import java.util.Set;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
@@ -21,7 +25,8 @@ import static emissary.server.api.ApiUtils.lookupPeers;
 import static emissary.server.api.ApiUtils.stripPeerString;
 
 /**
- * The peers Emissary API endpoint.
+ * The peers Emissary API endpoint. The /peers/health calls report whether each peer is answering heartbeats and the phi
+ * accrual suspicion that it has failed.
  */
 @Path("")
 // context is /api and is set in EmissaryServer.java
@@ -66,4 +71,49 @@ public class Peers {
 
         return Response.ok().entity(entity).build();
     }
+
+    @GET
+    @Path("/peers/health")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response peersHealth() {
+        return Response.ok().entity(lookupPeersHealth()).build();
+    }
+
+    @GET
+    @Path("/cluster/peers/health")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response clusterPeersHealth() {
+        MapResponseEntity entity = new MapResponseEntity();
+        try {
+            // Get our local view of the peers
+            entity.append(lookupPeersHealth());
+            // Get the view from each of our peers
+            EmissaryClient client = new EmissaryClient();
+            for (String peer : lookupPeers()) {
+                String remoteEndPoint = stripPeerString(peer) + "api/peers/health";
+                MapResponseEntity remoteEntity = client.send(new HttpGet(remoteEndPoint)).getContent(MapResponseEntity.class);
+                entity.append(remoteEntity);
+            }
+        } catch (EmissaryException e) {
+            logger.error("Error in clusterPeersHealth", e);
+            entity.addError(e.getMessage());
+        }
+        return Response.ok().entity(entity).build();
+    }
+
+    private MapResponseEntity lookupPeersHealth() {
+        MapResponseEntity entity = new MapResponseEntity();
+        try {
+            IDirectoryPlace directory = DirectoryPlace.lookup();
+            String host = getHostAndPort();
+            for (String peer : directory.getPeerDirectories()) {
+                entity.addKeyValue(host + " -> " + peer, String.format(Locale.ROOT, "healthy=%s phi=%.2f", directory.isRemoteDirectoryAvailable(peer),
+                        directory.getRemoteDirectoryPhi(peer)));
+            }
+        } catch (EmissaryException e) {
+            logger.error("Error in lookupPeersHealth", e);
+            entity.addError(e.getMessage());
+        }
+        return entity;
+    }
 }
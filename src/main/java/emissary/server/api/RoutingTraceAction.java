@@ -0,0 +1,31 @@
+package emissary.server.api;
+
+import emissary.core.RoutingTrace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Where agents spend their time on this node, the time by routing phase and the recent sampled payload itineraries
+ */
+@Path("")
+// context is /api, set in EmissaryServer
+public class RoutingTraceAction {
+
+    @GET
+    @Path("/routing")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response routing() {
+        final RoutingTrace trace = RoutingTrace.getInstance();
+        final Map<String, Object> entity = new LinkedHashMap<>();
+        entity.put("enabled", trace.isEnabled());
+        entity.put("phases", trace.getPhaseSummary());
+        entity.put("itineraries", trace.getRecentItineraries());
+        return Response.ok().entity(entity).build();
+    }
+}
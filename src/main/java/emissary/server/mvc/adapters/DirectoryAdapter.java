@@ -5,6 +5,8 @@ import emissary.client.EmissaryResponse;
 import emissary.config.ConfigUtil;
 import emissary.config.Configurator;
 import emissary.core.EmissaryException;
+import emissary.directory.DirectoryChangeLog;
+import emissary.directory.DirectoryDelta;
 import emissary.directory.DirectoryEntry;
 import emissary.directory.DirectoryEntryMap;
 import emissary.directory.DirectoryXmlContainer;
@@ -27,6 +29,7 @@ import org.slf4j.MDC;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
@@ -54,6 +57,8 @@ public class DirectoryAdapter extends EmissaryClient {
     public static final String FAILED_DIRECTORY_NAME = "dirFailName";
     public static final String DIRECTORY_NAME = "directoryName";
     public static final String ADD_ENTRIES = "dirAddEntries";
+    public static final String CHANGE_EPOCH = "dirChangeEpoch";
+    public static final String CHANGE_VERSION = "dirChangeVersion";
     public static final String DIRECTORY_KEY = "EMISSARY_DIRECTORY_SERVICES::STUDY";
     public static final String FILE_PICKUP_KEY = "INITIAL::INPUT";
     // These two parameters will cause each node to only have copies of its own places.
@@ -233,6 +238,54 @@ public class DirectoryAdapter extends EmissaryClient {
         return zoneTransfer(key, peerKey, "/RegisterPeer.action");
     }
 
+    /**
+     * Ask a remote directory peer for the changes to its entries since the position seen at the last sync, or a snapshot of
+     * its entries if there was no last sync or the peer no longer has all the changes since then. Registers the caller as a
+     * peer of the destination like {@link #outboundRegisterPeer(String, String)}.
+     *
+     * @param key the key of the remote directory to request the changes from
+     * @param peerKey the key of the peer requesting the changes
+     * @param since the position of the last sync with the remote directory or null for a snapshot
+     * @return the changes or snapshot, or null if the remote directory does not support change requests
+     * @throws EmissaryException if remote returns an error
+     */
+    @Nullable
+    public DirectoryDelta outboundDirectoryChanges(final String key, final String peerKey, @Nullable final DirectoryChangeLog.Position since)
+            throws EmissaryException {
+        final HttpPost method = createHttpPost(KeyManipulator.getServiceHostURL(key), CONTEXT, "/DirectoryChanges.action");
+
+        final List<NameValuePair> nvps = new ArrayList<>();
+        nvps.add(new BasicNameValuePair(TARGET_DIRECTORY, KeyManipulator.getServiceLocation(key)));
+        nvps.add(new BasicNameValuePair(DIRECTORY_NAME, peerKey));
+        nvps.add(new BasicNameValuePair(CHANGE_EPOCH, Long.toString(since == null ? -1L : since.getEpoch())));
+        nvps.add(new BasicNameValuePair(CHANGE_VERSION, Long.toString(since == null ? -1L : since.getVersion())));
+        method.setEntity(new UrlEncodedFormEntity(nvps, Charset.defaultCharset()));
+
+        final EmissaryResponse ws = send(method);
+        if (ws.getStatus() == HttpStatus.SC_NOT_FOUND || ws.getStatus() == HttpStatus.SC_METHOD_NOT_ALLOWED) {
+            logger.debug("Remote directory {} does not support change requests", key);
+            return null;
+        }
+        if (ws.getStatus() != HttpStatus.SC_OK) {
+            throw new EmissaryException("Unable to get directory changes from " + key + ", isError=" + ws.getStatus() + ", msgBody="
+                    + ws.getContentString());
+        }
+
+        final DirectoryDelta delta;
+        try {
+            delta = DirectoryDelta.fromJson(ws.getContentString());
+        } catch (IOException ex) {
+            throw new EmissaryException("Unable to read directory changes from " + key, ex);
+        }
+
+        // Same filtering as a zone transfer
+        if (filterDirectoryEntryMap) {
+            return delta.retainDataIds(Arrays.asList(DIRECTORY_KEY, FILE_PICKUP_KEY));
+        } else {
+            return delta;
+        }
+    }
+
     /**
      * Request the XML directory entry markup from a remote directory peer and turn the response XML into a Map of
      * String,DirectoryEntryList for return.
@@ -2,6 +2,7 @@ package emissary.server.mvc.internal;
 
 import emissary.core.Namespace;
 import emissary.core.NamespaceException;
+import emissary.directory.DirectoryDelta;
 import emissary.directory.DirectoryPlace;
 import emissary.directory.DirectoryXmlContainer;
 import emissary.directory.IRemoteDirectory;
@@ -17,14 +18,19 @@ import org.slf4j.MDC;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.function.Function;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
+import static emissary.server.mvc.adapters.DirectoryAdapter.CHANGE_EPOCH;
+import static emissary.server.mvc.adapters.DirectoryAdapter.CHANGE_VERSION;
 import static emissary.server.mvc.adapters.DirectoryAdapter.DIRECTORY_NAME;
 import static emissary.server.mvc.adapters.DirectoryAdapter.TARGET_DIRECTORY;
 
@@ -53,10 +59,39 @@ public class RegisterPeerAction {
             return Response.serverError().entity(HtmlEscaper.escapeHtml(
                     "Bad Params: " + DIRECTORY_NAME + " - " + cleanDirectoryName + ", " + TARGET_DIRECTORY + " - " + cleanTargetDirectory)).build();
         }
-        return processRegisterPeer(cleanDirectoryName, cleanTargetDirectory);
+        return processRegisterPeer(cleanDirectoryName, cleanTargetDirectory,
+                dir -> Response.ok().entity(DirectoryXmlContainer.toXmlString(dir)).build());
     }
 
-    private Response processRegisterPeer(String peerKey, String dirName) {
+    /**
+     * Register a peer with the local directory like RegisterPeer.action but answer with the changes to the directory since
+     * the version the peer last saw, or a snapshot of the directory, as json
+     */
+    @POST
+    @Path("/DirectoryChanges.action")
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response directoryChangesPost(@FormParam(DIRECTORY_NAME) String directoryName, @FormParam(TARGET_DIRECTORY) String targetDirectory,
+            @FormParam(CHANGE_EPOCH) @DefaultValue("-1") long epoch, @FormParam(CHANGE_VERSION) @DefaultValue("-1") long version) {
+        String cleanDirectoryName = RequestUtil.sanitizeParameter(directoryName);
+        String cleanTargetDirectory = RequestUtil.sanitizeParameter(targetDirectory);
+        if (StringUtils.isBlank(cleanDirectoryName) || StringUtils.isBlank(cleanTargetDirectory)) {
+            return Response.serverError().entity(HtmlEscaper.escapeHtml(
+                    "Bad Params: " + DIRECTORY_NAME + " - " + cleanDirectoryName + ", " + TARGET_DIRECTORY + " - " + cleanTargetDirectory)).build();
+        }
+        return processRegisterPeer(cleanDirectoryName, cleanTargetDirectory, dir -> {
+            final DirectoryDelta delta = dir.irdChangesSince(epoch, version);
+            if (delta == null) {
+                // Peers fall back to a zone transfer
+                return Response.status(Response.Status.NOT_FOUND).entity("Directory changes are not available from " + HtmlEscaper.escapeHtml(
+                        cleanTargetDirectory)).build();
+            }
+            logger.debug("Sending {} to {}", delta, cleanDirectoryName);
+            return Response.ok().entity((StreamingOutput) delta::writeJson).build();
+        });
+    }
+
+    private Response processRegisterPeer(String peerKey, String dirName, Function<IRemoteDirectory, Response> reply) {
         final IRemoteDirectory dir = new IRemoteDirectory.Lookup().getLocalDirectory(dirName);
         if (dir == null) {
             // If we get here, there was a problem looking up the IRemoteDirectory
@@ -90,6 +125,6 @@ public class RegisterPeerAction {
 
         logger.info("Registered peer {}", peerKey);
 
-        return Response.ok().entity(DirectoryXmlContainer.toXmlString(dir)).build();
+        return reply.apply(dir);
     }
 }
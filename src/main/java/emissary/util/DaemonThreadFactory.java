@@ -0,0 +1,47 @@
+package emissary.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Thread factory for background pools that must not keep the JVM running. Threads are named with a prefix and a
+ * counter, are daemon threads and run at normal priority.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Nullable
+    private final ThreadGroup group;
+
+    private final String prefix;
+
+    /**
+     * Create a factory for threads in the creating thread's group
+     *
+     * @param prefix start of each thread name, followed by a counter
+     */
+    public DaemonThreadFactory(final String prefix) {
+        this(null, prefix);
+    }
+
+    /**
+     * Create a factory for threads in the specified group
+     *
+     * @param group the group for the threads or null for the creating thread's group
+     * @param prefix start of each thread name, followed by a counter
+     */
+    public DaemonThreadFactory(@Nullable final ThreadGroup group, final String prefix) {
+        this.group = group;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(final Runnable r) {
+        final Thread t = new Thread(this.group, r, this.prefix + this.count.getAndIncrement());
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY);
+        return t;
+    }
+}
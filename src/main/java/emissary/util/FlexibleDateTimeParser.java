@@ -5,22 +5,26 @@ import emissary.config.ConfigUtil;
 import emissary.config.Configurator;
 
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.collections4.map.LRUMap;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.text.ParsePosition;
 import java.time.DateTimeException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.regex.Pattern;
 
@@ -28,7 +32,8 @@ import static java.util.stream.Collectors.toList;
 
 /**
  * Attempt to parse a date in an unknown format. This will loop through a set of configured formats and convert it into
- * a {@link ZonedDateTime}.
+ * a {@link ZonedDateTime}. The configured formats that can read a date are remembered by the shape of the date, so most
+ * dates are only handed to the one or two formats that fit.
  * <p>
  * Other parsing libs:
  * <p>
@@ -69,6 +74,10 @@ public class FlexibleDateTimeParser {
     /* date time formats - vars: FORMAT_DATETIME */
     private static List<DateTimeFormatter> dateFormats = new ArrayList<>();
 
+    /* Configured formats that can read each recently seen shape of date string - config var: SHAPE_CACHE_SIZE */
+    private static final String CFG_SHAPE_CACHE_SIZE = "SHAPE_CACHE_SIZE";
+    private static Map<String, List<DateTimeFormatter>> shapes = Collections.synchronizedMap(new LRUMap<>(1000));
+
     /** init */
     static {
         configure();
@@ -118,30 +127,116 @@ public class FlexibleDateTimeParser {
             return null;
         }
 
-        for (DateTimeFormatter formatter : formats) {
+        // The configured formats are narrowed down by the shape of the date, other lists are tried in full
+        final boolean screened = formats == dateFormats;
+        final List<DateTimeFormatter> candidates = screened ? getCandidates(cleanedDateString) : formats;
+        for (DateTimeFormatter formatter : candidates) {
             if (formatter == null) {
                 continue;
             }
+            ZonedDateTime date = parse(cleanedDateString, formatter, screened, dateString);
+            if (date != null) {
+                return date;
+            }
+        }
+        return null;
+    }
 
-            try {
-                // try for a zoned date (has timezone), local date time (no time zone), or just a local date (no time)
-                TemporalAccessor accessor = formatter.parseBest(cleanedDateString, ZonedDateTime::from, LocalDateTime::from, LocalDate::from);
-                if (accessor instanceof ZonedDateTime) {
-                    return (ZonedDateTime) accessor; // return the date time w/ timezone
-                } else if (accessor instanceof LocalDateTime) {
-                    return ((LocalDateTime) accessor).atZone(timezone); // set the timezone
-                } else if (accessor instanceof LocalDate) {
-                    return ((LocalDate) accessor).atStartOfDay(timezone); // add zeroed out time
+    /**
+     * Parse a cleaned date string with one format. Strings the format cannot read are rejected without building an
+     * exception, only strings that read but do not make a valid date go through the exception path.
+     *
+     * @param screened true when the format is known to read strings of this shape
+     */
+    private static ZonedDateTime parse(final String cleanedDateString, final DateTimeFormatter formatter, final boolean screened,
+            final String dateString) {
+        try {
+            if (!screened && !matches(cleanedDateString, formatter)) {
+                return null;
+            }
+            // a zoned date (has timezone), local date time (no time zone), or just a local date (no time), the same choice
+            // parseBest makes but without it throwing for each kind that is missing
+            final TemporalAccessor parsed = formatter.parse(cleanedDateString);
+            final LocalDate date = parsed.query(TemporalQueries.localDate());
+            if (date == null) {
+                return null;
+            }
+            final LocalTime time = parsed.query(TemporalQueries.localTime());
+            if (time == null) {
+                return date.atStartOfDay(timezone); // add zeroed out time
+            }
+            if (parsed.query(TemporalQueries.zone()) != null) {
+                try {
+                    return ZonedDateTime.from(parsed); // return the date time w/ timezone
+                } catch (DateTimeException e) {
+                    logger.trace("Using local time of {}", dateString);
                 }
-
-            } catch (NullPointerException | IllegalArgumentException | DateTimeParseException e) {
-                // Ignore b/c failures are expected -> set to trace otherwise will be noisy
-                logger.trace("Error parsing date {} with format {}", dateString, formatter);
             }
+            return LocalDateTime.of(date, time).atZone(timezone); // set the timezone
+        } catch (NullPointerException | IllegalArgumentException | DateTimeException e) {
+            // Ignore b/c failures are expected -> set to trace otherwise will be noisy
+            logger.trace("Error parsing date {} with format {}", dateString, formatter);
         }
         return null;
     }
 
+    /**
+     * Check that a format reads the whole string, without resolving the fields into a date
+     */
+    private static boolean matches(final String cleanedDateString, final DateTimeFormatter formatter) {
+        final ParsePosition position = new ParsePosition(0);
+        return formatter.parseUnresolved(cleanedDateString, position) != null && position.getErrorIndex() < 0
+                && position.getIndex() == cleanedDateString.length();
+    }
+
+    /**
+     * Get the configured formats that can read strings shaped like this one, in configured order
+     */
+    private static List<DateTimeFormatter> getCandidates(final String cleanedDateString) {
+        final String shape = shapeOf(cleanedDateString);
+        List<DateTimeFormatter> candidates = shapes.get(shape);
+        if (candidates == null) {
+            candidates = new ArrayList<>(2);
+            for (DateTimeFormatter formatter : dateFormats) {
+                try {
+                    if (matches(shape, formatter)) {
+                        candidates.add(formatter);
+                    }
+                } catch (NullPointerException | IllegalArgumentException | DateTimeException e) {
+                    // Keep it and let the real string decide
+                    candidates.add(formatter);
+                }
+            }
+            shapes.put(shape, candidates);
+        }
+        return candidates;
+    }
+
+    /**
+     * The shape of a date string is the string with every digit replaced by 0. Whether a format reads a string depends on
+     * the lengths of its digit runs, its separators and its words (month, day and zone names), so the formats are checked
+     * against the shape itself. Reading only rejects numbers that are too big, like the minutes of +0099, never zeros, so
+     * every format that reads a string also reads its shape.
+     */
+    static String shapeOf(final String cleanedDateString) {
+        final char[] shape = cleanedDateString.toCharArray();
+        for (int i = 0; i < shape.length; i++) {
+            if (shape[i] >= '0' && shape[i] <= '9') {
+                shape[i] = '0';
+            }
+        }
+        return new String(shape);
+    }
+
+    /**
+     * Get the configured formats
+     *
+     * @return the immutable list of formats
+     */
+    static List<DateTimeFormatter> getDateFormats() {
+        return dateFormats;
+    }
+
     /* Private Methods */
 
     /**
@@ -153,6 +248,7 @@ public class FlexibleDateTimeParser {
             Configurator configurator = ConfigUtil.getConfigInfo(FlexibleDateTimeParser.class);
             setupTimezone(configurator.findStringEntry(CFG_TIMEZONE, DEFAULT_TIMEZONE));
             setupDateFormats(configurator.findStringMatchEntries(CFG_FORMAT));
+            shapes = Collections.synchronizedMap(new LRUMap<>(Math.max(1, configurator.findIntEntry(CFG_SHAPE_CACHE_SIZE, 1000))));
         } catch (IOException e) {
             throw new IllegalArgumentException("Could not configure parser!!", e);
         }
@@ -233,11 +329,33 @@ public class FlexibleDateTimeParser {
         }
 
         String cleanedDateString = date;
-        cleanedDateString = REPLACE.matcher(cleanedDateString).replaceAll(SPACE);
-        cleanedDateString = REMOVE.matcher(cleanedDateString).replaceAll(EMPTY);
+        if (cleanedDateString.indexOf('\t') >= 0 || cleanedDateString.contains("  ")) {
+            cleanedDateString = REPLACE.matcher(cleanedDateString).replaceAll(SPACE);
+        }
+        if (mayNeedRemoval(cleanedDateString)) {
+            cleanedDateString = REMOVE.matcher(cleanedDateString).replaceAll(EMPTY);
+        }
         return StringUtils.trimToNull(cleanedDateString);
     }
 
+    /**
+     * Check for anything {@link #REMOVE} could match: a tag, =0D or three capital letters of a short time zone
+     */
+    private static boolean mayNeedRemoval(final String date) {
+        if (date.indexOf('<') >= 0 || date.contains("=0D")) {
+            return true;
+        }
+        int capitals = 0;
+        for (int i = 0; i < date.length(); i++) {
+            final char c = date.charAt(i);
+            capitals = (c >= 'A' && c <= 'Z') ? capitals + 1 : 0;
+            if (capitals == 3) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * This class is not meant to be instantiated
      */
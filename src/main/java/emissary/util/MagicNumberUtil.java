@@ -2,6 +2,7 @@ package emissary.util;
 
 import emissary.util.magic.MagicNumber;
 import emissary.util.magic.MagicNumberFactory;
+import emissary.util.magic.MagicNumberIndex;
 import emissary.util.shell.Executrix;
 
 import org.slf4j.Logger;
@@ -13,6 +14,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import javax.annotation.Nullable;
 
 /**
  * Magic entry rules when using the Java utility, MagicNumberUtil
@@ -82,6 +84,10 @@ public final class MagicNumberUtil {
     /** The magic number instances */
     private final List<MagicNumber> magicNumbers = new ArrayList<MagicNumber>();
 
+    /** The magic numbers compiled for identification, rebuilt on first use after a load */
+    @Nullable
+    private volatile MagicNumberIndex index = null;
+
     /**
      * Log flag for storing parse errors - they will just be discarded. Switching this on will allow erroneous entries to be
      * logged and can be retrieved using the method getErrorLog to find out which entries had parsing errors. Using the
@@ -161,16 +167,18 @@ public final class MagicNumberUtil {
      * @see #load(byte[])
      */
     public String describe(final byte[] data) {
-        log.debug("Checking against {} magic items", this.magicNumbers.size());
-        String description = null;
-        for (final MagicNumber item : this.magicNumbers) {
-            log.debug("Checking magic item {}", item);
-            description = item.describe(data);
-            if (description != null && !description.isEmpty()) {
-                break;
+        MagicNumberIndex idx = this.index;
+        if (idx == null) {
+            synchronized (this.magicNumbers) {
+                idx = this.index;
+                if (idx == null) {
+                    idx = new MagicNumberIndex(this.magicNumbers);
+                    log.debug("Compiled {} magic items, {} tested on every sample", idx.size(), idx.unindexedSize());
+                    this.index = idx;
+                }
             }
         }
-        return description;
+        return idx.describe(data);
     }
 
     /**
@@ -283,8 +291,12 @@ public final class MagicNumberUtil {
             mErrorList = this.errorList;
             mExtErrorMap = this.extErrorMap;
         }
-        this.magicNumbers.addAll(MagicNumberFactory.buildMagicNumberList(Executrix.readDataFromFile(config.getAbsolutePath()), mErrorList,
-                mExtErrorMap, swallowParseException));
+        final List<MagicNumber> loaded = MagicNumberFactory.buildMagicNumberList(Executrix.readDataFromFile(config.getAbsolutePath()), mErrorList,
+                mExtErrorMap, swallowParseException);
+        synchronized (this.magicNumbers) {
+            this.magicNumbers.addAll(loaded);
+            this.index = null;
+        }
     }
 
     /**
@@ -299,7 +311,11 @@ public final class MagicNumberUtil {
             mErrorList = this.errorList;
             mExtErrorMap = this.extErrorMap;
         }
-        this.magicNumbers.addAll(MagicNumberFactory.buildMagicNumberList(configData, mErrorList, mExtErrorMap));
+        final List<MagicNumber> loaded = MagicNumberFactory.buildMagicNumberList(configData, mErrorList, mExtErrorMap);
+        synchronized (this.magicNumbers) {
+            this.magicNumbers.addAll(loaded);
+            this.index = null;
+        }
     }
 
     public int size() {
@@ -173,7 +173,7 @@ public class MagicNumber {
                 Character subType = stack.pop();
                 try {
                     if (dataType == TYPE_STRING) {
-                        if (offset < (data.length - 2)) {
+                        if (offset >= 0 && offset < (data.length - 2)) {
                             String sub = new String(getElement(data, offset, 1), DEFAULT_CHARSET);
                             sb.append(sub);
                         }
@@ -344,7 +344,7 @@ public class MagicNumber {
     private static byte[] getElement(@Nullable byte[] data, int offset, int length) {
         if (data == null)
             return null;
-        if (data.length < (offset + length))
+        if (offset < 0 || data.length < (offset + length))
             return null;
         // log.info ("SAMPLE STATS - offset: {}, length: {}", offset, length);
         byte[] subject = new byte[length];
@@ -0,0 +1,148 @@
+package emissary.util.magic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * Identification engine compiled from the zero depth entries of a magic file. Testing every entry in turn means
+ * thousands of comparisons for each sample, but most entries are an exact match of a value at a fixed offset and can
+ * only match when the first byte of the value is found at that offset. Those entries are grouped by offset and indexed
+ * by that first byte so each offset costs one lookup and only the entries it leaves are tested. The rest, ranges, bit
+ * tests, negations and substitutions, are always tested.
+ *
+ * <p>
+ * Entries are still tried in the order they were loaded and the first one with a description wins, exactly as
+ * {@link emissary.util.MagicNumberUtil} does without the index. Continuations are only tested once their entry has
+ * matched. The index is immutable and can be shared between threads.
+ */
+public final class MagicNumberIndex {
+
+    private static final int[] NONE = new int[0];
+
+    /** The entries in load order */
+    private final MagicNumber[] entries;
+
+    /** The offsets that have indexed entries, ascending */
+    private final int[] offsets;
+
+    /** For each offset, the entry positions by the first byte of their value */
+    private final int[][][] byFirstByte;
+
+    /** Positions of the entries that cannot be indexed */
+    private final int[] unindexed;
+
+    /**
+     * Compile the index
+     *
+     * @param magicNumbers the zero depth entries in the order they should be tried
+     */
+    public MagicNumberIndex(final List<MagicNumber> magicNumbers) {
+        this.entries = magicNumbers.toArray(new MagicNumber[0]);
+
+        final Map<Integer, List<List<Integer>>> tables = new TreeMap<>();
+        final List<Integer> rest = new ArrayList<>();
+        for (int i = 0; i < this.entries.length; i++) {
+            final MagicNumber m = this.entries[i];
+            if (isIndexable(m)) {
+                final List<List<Integer>> table = tables.computeIfAbsent(m.offset, k -> new ArrayList<>(Collections.nCopies(256, null)));
+                final int b = m.value[0] & 0xff;
+                if (table.get(b) == null) {
+                    table.set(b, new ArrayList<>());
+                }
+                table.get(b).add(i);
+            } else {
+                rest.add(i);
+            }
+        }
+
+        this.offsets = new int[tables.size()];
+        this.byFirstByte = new int[tables.size()][][];
+        int o = 0;
+        for (final Map.Entry<Integer, List<List<Integer>>> e : tables.entrySet()) {
+            this.offsets[o] = e.getKey();
+            final int[][] table = new int[256][];
+            for (int b = 0; b < 256; b++) {
+                final List<Integer> positions = e.getValue().get(b);
+                table[b] = positions == null ? NONE : toArray(positions);
+            }
+            this.byFirstByte[o++] = table;
+        }
+        this.unindexed = toArray(rest);
+    }
+
+    /**
+     * Entries that can only match when the first byte of their value is at their offset
+     */
+    static boolean isIndexable(final MagicNumber m) {
+        return (m.unaryOperator == MagicNumber.MAGICOPERATOR_AND || m.unaryOperator == MagicNumber.MAGICOPERATOR_BWAND) && !m.substitute
+                && m.value != null && m.value.length > 0 && m.offset >= 0 && m.dataTypeLength > 0;
+    }
+
+    private static int[] toArray(final List<Integer> list) {
+        final int[] a = new int[list.size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = list.get(i);
+        }
+        return a;
+    }
+
+    /**
+     * Describe the sample with the first entry that matches it
+     *
+     * @param data the sample
+     * @return the description of the matching entry and its continuations, or null if none match
+     */
+    @Nullable
+    public String describe(@Nullable final byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        final int[] candidates = candidates(data);
+        for (final int c : candidates) {
+            final String description = this.entries[c].describe(data);
+            if (description != null && !description.isEmpty()) {
+                return description;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Positions of the entries that could match the sample, ascending
+     */
+    int[] candidates(final byte[] data) {
+        int count = this.unindexed.length;
+        for (int o = 0; o < this.offsets.length && this.offsets[o] < data.length; o++) {
+            count += this.byFirstByte[o][data[this.offsets[o]] & 0xff].length;
+        }
+        final int[] candidates = new int[count];
+        System.arraycopy(this.unindexed, 0, candidates, 0, this.unindexed.length);
+        int n = this.unindexed.length;
+        for (int o = 0; o < this.offsets.length && this.offsets[o] < data.length; o++) {
+            final int[] positions = this.byFirstByte[o][data[this.offsets[o]] & 0xff];
+            System.arraycopy(positions, 0, candidates, n, positions.length);
+            n += positions.length;
+        }
+        Arrays.sort(candidates);
+        return candidates;
+    }
+
+    /**
+     * Number of entries in the index
+     */
+    public int size() {
+        return this.entries.length;
+    }
+
+    /**
+     * Number of entries that are tested for every sample
+     */
+    public int unindexedSize() {
+        return this.unindexed.length;
+    }
+}
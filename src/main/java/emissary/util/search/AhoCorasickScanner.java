@@ -0,0 +1,545 @@
+package emissary.util.search;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import javax.annotation.Nullable;
+
+/**
+ * Finds every occurrence of a set of keywords in a single forward pass with an Aho-Corasick automaton. The keywords are
+ * compiled into flat arrays. States near the root or with many transitions get a dense row of 256 entries with the
+ * failure links already followed, so most bytes cost a single lookup. The rest keep their transitions sorted by byte
+ * and searched in place, so memory grows with the number of keyword bytes instead of 256 references per trie node as in
+ * {@link BackwardsTreeScanner}.
+ *
+ * <p>
+ * A compiled automaton is never changed. {@link #loadKeywords(String[])} compiles a new one and swaps it in, so one
+ * scanner can be shared by many threads without locking. The position remembered by {@link #findNext()} is kept per
+ * thread.
+ *
+ * <p>
+ * Hits are reported in the order their keyword ends and, for keywords ending at the same byte, shortest first. Each hit
+ * holds the offset where its keyword starts and the position of the keyword in the array that was loaded. Only hits
+ * that lie entirely inside the range being scanned are reported. Matching is on the UTF-8 bytes of the keywords,
+ * ignoring the case of ASCII letters when the scanner is not case sensitive. Empty keywords never match.
+ */
+public class AhoCorasickScanner implements IMultiKeywordScanner {
+
+    /** States with at least this many transitions get a dense row */
+    static final int DENSE_FANOUT = 16;
+
+    /** States this close to the root get a dense row, scanning spends most of its time in them */
+    static final int DENSE_DEPTH = 2;
+
+    /** Bytes read from a channel at a time */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String[] NO_KEYWORDS = new String[0];
+
+    private final boolean caseSensitive;
+
+    private volatile Automaton automaton;
+
+    private final ThreadLocal<Cursor> cursors = ThreadLocal.withInitial(Cursor::new);
+
+    public AhoCorasickScanner() {
+        this(NO_KEYWORDS, true);
+    }
+
+    /**
+     * Create a scanner with no keywords
+     *
+     * @param caseSensitive false to ignore the case of ASCII letters
+     */
+    public AhoCorasickScanner(final boolean caseSensitive) {
+        this(NO_KEYWORDS, caseSensitive);
+    }
+
+    public AhoCorasickScanner(final String[] keywords) {
+        this(keywords, true);
+    }
+
+    /**
+     * Create a scanner and compile the keywords
+     *
+     * @param keywords the keywords, hits are identified by position in this array
+     * @param caseSensitive false to ignore the case of ASCII letters
+     */
+    public AhoCorasickScanner(final String[] keywords, final boolean caseSensitive) {
+        this.caseSensitive = caseSensitive;
+        this.automaton = new Automaton(keywords, caseSensitive);
+    }
+
+    @Override
+    public void loadKeywords(final String[] keywords) {
+        this.automaton = new Automaton(keywords, caseSensitive);
+    }
+
+    public boolean isCaseSensitive() {
+        return caseSensitive;
+    }
+
+    /**
+     * Number of keywords loaded, including any that are empty
+     */
+    public int getKeywordCount() {
+        return automaton.lengths.length;
+    }
+
+    /**
+     * Number of states in the compiled automaton
+     */
+    public int getStateCount() {
+        return automaton.fail.length;
+    }
+
+    @Override
+    public HitList findAll(@Nullable final byte[] data) {
+        if (data != null) {
+            return findAll(data, 0, data.length);
+        }
+        return new HitList();
+    }
+
+    @Override
+    public HitList findAll(@Nullable final byte[] data, final int start) {
+        if (data != null) {
+            return findAll(data, start, data.length);
+        }
+        return new HitList();
+    }
+
+    @Override
+    public HitList findAll(@Nullable final byte[] data, final int start, final int stop) {
+        final HitList hits = new HitList();
+        if (data == null) {
+            return hits;
+        }
+        final Automaton a = automaton;
+        final int from = Math.max(start, 0);
+        final int to = Math.min(stop, data.length);
+        int state = 0;
+        for (int i = from; i < to; i++) {
+            state = a.next(state, a.fold[data[i] & 0xff]);
+            if (a.outStart[state] != a.outStart[state + 1]) {
+                a.report(state, i, from, hits);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Find all keywords in the remaining content of a channel, reading it a buffer at a time. The automaton state is
+     * carried from one buffer to the next so keywords that span a buffer boundary are found without copying.
+     *
+     * @param channel the channel to read from its current position to the end
+     * @return the hits with offsets counted from where reading started
+     * @throws IOException if the channel cannot be read
+     * @throws ArithmeticException if a hit starts beyond the largest offset a {@link Hit} can hold
+     */
+    public HitList findAll(final SeekableByteChannel channel) throws IOException {
+        final HitList hits = new HitList();
+        final Automaton a = automaton;
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        final byte[] bytes = buffer.array();
+        long base = 0;
+        int state = 0;
+        int n;
+        while ((n = channel.read(buffer)) >= 0) {
+            for (int i = 0; i < n; i++) {
+                state = a.next(state, a.fold[bytes[i] & 0xff]);
+                if (a.outStart[state] != a.outStart[state + 1]) {
+                    a.report(state, base + i, hits);
+                }
+            }
+            base += n;
+            buffer.clear();
+        }
+        return hits;
+    }
+
+    @Override
+    public HitList findNext() {
+        final Cursor c = cursors.get();
+        if (c.data != null) {
+            return findNext(c.data);
+        }
+        return new HitList();
+    }
+
+    @Override
+    public HitList findNext(@Nullable final byte[] data) {
+        if (data == null) {
+            return new HitList();
+        }
+        final Cursor c = cursors.get();
+        final Automaton a = automaton;
+        if (c.data == data && c.automaton == a) {
+            return scanNext(a, c, data, c.position + 1, data.length, c.state, c.floor);
+        }
+        final int from = Math.max(c.position + 1, 0);
+        return scanNext(a, c, data, from, data.length, 0, from);
+    }
+
+    @Override
+    public HitList findNext(@Nullable final byte[] data, final int start) {
+        if (data != null) {
+            return findNext(data, start, data.length);
+        }
+        return new HitList();
+    }
+
+    @Override
+    public HitList findNext(@Nullable final byte[] data, final int start, final int stop) {
+        if (data == null) {
+            return new HitList();
+        }
+        final int from = Math.max(start, 0);
+        return scanNext(automaton, cursors.get(), data, from, stop, 0, from);
+    }
+
+    /**
+     * Scan until the first byte where any keyword ends and remember where to carry on from
+     */
+    private static HitList scanNext(final Automaton a, final Cursor c, final byte[] data, final int from, final int stop, final int startState,
+            final int floor) {
+        final HitList hits = new HitList();
+        final int to = Math.min(stop, data.length);
+        int state = startState;
+        int i = from;
+        for (; i < to; i++) {
+            state = a.next(state, a.fold[data[i] & 0xff]);
+            if (a.outStart[state] != a.outStart[state + 1]) {
+                a.report(state, i, floor, hits);
+                if (!hits.isEmpty()) {
+                    break;
+                }
+            }
+        }
+        c.automaton = a;
+        c.data = data;
+        c.position = Math.min(i, to - 1);
+        c.state = state;
+        c.floor = floor;
+        return hits;
+    }
+
+    /**
+     * Where the last {@link #findNext()} on a thread stopped
+     */
+    private static final class Cursor {
+        @Nullable
+        Automaton automaton;
+        @Nullable
+        byte[] data;
+        int position = -1;
+        int state;
+        int floor;
+    }
+
+    /**
+     * The compiled keywords. States are numbered breadth first from the root at 0, so a state's failure link always has a
+     * lower number.
+     */
+    static final class Automaton {
+
+        /** Byte value to the value matched, folds ASCII case when not case sensitive */
+        final int[] fold = new int[256];
+
+        /** Length in bytes of each keyword */
+        final int[] lengths;
+
+        /** Failure link of each state */
+        final int[] fail;
+
+        /** Transitions of state s are at edgeStart[s] up to edgeStart[s + 1], sorted by byte */
+        final int[] edgeStart;
+        final byte[] edgeLabel;
+        final int[] edgeTarget;
+
+        /** Row in dense of each state, -1 when its transitions are only in the sorted edges. Dense rows never fail over. */
+        final int[] denseRow;
+        final int[] dense;
+
+        /** Keywords ending at state s are at outStart[s] up to outStart[s + 1], shortest first */
+        final int[] outStart;
+        final int[] outIds;
+
+        Automaton(@Nullable final String[] keywords, final boolean caseSensitive) {
+            for (int b = 0; b < 256; b++) {
+                fold[b] = !caseSensitive && b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+            }
+            final String[] words = keywords == null ? NO_KEYWORDS : keywords;
+            final byte[][] bytes = new byte[words.length][];
+            lengths = new int[words.length];
+            for (int i = 0; i < words.length; i++) {
+                final byte[] w = words[i] == null ? new byte[0] : words[i].getBytes(StandardCharsets.UTF_8);
+                for (int j = 0; j < w.length; j++) {
+                    w[j] = (byte) fold[w[j] & 0xff];
+                }
+                bytes[i] = w;
+                lengths[i] = w.length;
+            }
+
+            // Build the trie from the sorted keywords so children are always added in byte order after the last child
+            final Integer[] sorted = new Integer[words.length];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = i;
+            }
+            Arrays.sort(sorted, Comparator.comparing(i -> bytes[i], AhoCorasickScanner::compareUnsigned));
+
+            final Trie trie = new Trie();
+            for (final int id : sorted) {
+                trie.add(bytes[id], id);
+            }
+            final int n = trie.size;
+
+            // Breadth first order, failure links and the renumbering into that order
+            final int[] order = new int[n];
+            final int[] number = new int[n];
+            final int[] trieFail = new int[n];
+            final int[] depth = new int[n];
+            int head = 0;
+            int tail = 0;
+            order[tail++] = 0;
+            while (head < tail) {
+                final int u = order[head];
+                number[u] = head++;
+                for (int v = trie.firstChild[u]; v >= 0; v = trie.nextSibling[v]) {
+                    depth[v] = depth[u] + 1;
+                    if (u != 0) {
+                        final int c = trie.label[v] & 0xff;
+                        int f = trieFail[u];
+                        int t;
+                        while ((t = trie.child(f, c)) < 0 && f != 0) {
+                            f = trieFail[f];
+                        }
+                        trieFail[v] = t < 0 ? 0 : t;
+                    }
+                    order[tail++] = v;
+                }
+            }
+
+            fail = new int[n];
+            edgeStart = new int[n + 1];
+            edgeLabel = new byte[n - 1];
+            edgeTarget = new int[n - 1];
+            denseRow = new int[n];
+            outStart = new int[n + 1];
+            int rows = 0;
+            int edges = 0;
+            int outs = 0;
+            int[] out = new int[Math.max(16, words.length)];
+            for (int s = 0; s < n; s++) {
+                final int u = order[s];
+                fail[s] = number[trieFail[u]];
+                edgeStart[s] = edges;
+                for (int v = trie.firstChild[u]; v >= 0; v = trie.nextSibling[v]) {
+                    edgeLabel[edges] = trie.label[v];
+                    edgeTarget[edges++] = number[v];
+                }
+                denseRow[s] = depth[u] <= DENSE_DEPTH || edges - edgeStart[s] >= DENSE_FANOUT ? rows++ : -1;
+
+                // The keywords ending here are those of the failure state, which are all shorter, then this state's own
+                outStart[s] = outs;
+                final int inherited = s == 0 ? 0 : outStart[fail[s] + 1] - outStart[fail[s]];
+                final int own = trie.idCount(u);
+                if (outs + inherited + own > out.length) {
+                    out = Arrays.copyOf(out, Math.max(out.length * 2, outs + inherited + own));
+                }
+                if (inherited > 0) {
+                    System.arraycopy(out, outStart[fail[s]], out, outs, inherited);
+                    outs += inherited;
+                }
+                for (int id = trie.firstId[u]; id >= 0; id = trie.nextId[id]) {
+                    out[outs++] = id;
+                }
+            }
+            edgeStart[n] = edges;
+            outStart[n] = outs;
+            outIds = Arrays.copyOf(out, outs);
+
+            // Fill dense rows in state order so the failure state of each row can already answer for its missing bytes
+            dense = new int[rows << 8];
+            for (int s = 0; s < n; s++) {
+                final int row = denseRow[s];
+                if (row >= 0) {
+                    for (int c = 0; c < 256; c++) {
+                        dense[(row << 8) | c] = s == 0 ? 0 : next(fail[s], c);
+                    }
+                    for (int e = edgeStart[s]; e < edgeStart[s + 1]; e++) {
+                        dense[(row << 8) | (edgeLabel[e] & 0xff)] = edgeTarget[e];
+                    }
+                }
+            }
+        }
+
+        /**
+         * The state reached from a state on a byte, following failure links as needed
+         */
+        int next(final int state, final int c) {
+            int s = state;
+            while (true) {
+                final int t = transition(s, c);
+                if (t >= 0) {
+                    return t;
+                }
+                s = fail[s];
+            }
+        }
+
+        private int transition(final int s, final int c) {
+            final int row = denseRow[s];
+            if (row >= 0) {
+                return dense[(row << 8) | c];
+            }
+            int lo = edgeStart[s];
+            int hi = edgeStart[s + 1] - 1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                final int label = edgeLabel[mid] & 0xff;
+                if (label < c) {
+                    lo = mid + 1;
+                } else if (label > c) {
+                    hi = mid - 1;
+                } else {
+                    return edgeTarget[mid];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Add a hit for each keyword ending at a state that starts no earlier than floor
+         */
+        void report(final int state, final int end, final int floor, final HitList hits) {
+            for (int k = outStart[state]; k < outStart[state + 1]; k++) {
+                final int id = outIds[k];
+                final int offset = end - lengths[id] + 1;
+                if (offset >= floor) {
+                    hits.add(new Hit(offset, id));
+                }
+            }
+        }
+
+        void report(final int state, final long end, final HitList hits) {
+            for (int k = outStart[state]; k < outStart[state + 1]; k++) {
+                final int id = outIds[k];
+                hits.add(new Hit(Math.toIntExact(end - lengths[id] + 1), id));
+            }
+        }
+    }
+
+    private static int compareUnsigned(final byte[] a, final byte[] b) {
+        final int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            if (a[i] != b[i]) {
+                return (a[i] & 0xff) - (b[i] & 0xff);
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Growable trie used only while compiling
+     */
+    private static final class Trie {
+        int size = 1;
+        int[] firstChild = {-1};
+        int[] lastChild = {-1};
+        int[] nextSibling = {-1};
+        byte[] label = {0};
+        int[] firstId = {-1};
+        int[] lastId = {-1};
+        int[] nextId = new int[0];
+
+        // Children of the root by byte, the root has the most and is searched the most while linking
+        final int[] rootChild = new int[256];
+
+        Trie() {
+            Arrays.fill(rootChild, -1);
+        }
+
+        void add(final byte[] word, final int id) {
+            if (word.length == 0) {
+                return;
+            }
+            int u = 0;
+            for (final byte b : word) {
+                final int last = lastChild[u];
+                if (last >= 0 && label[last] == b) {
+                    u = last;
+                } else {
+                    u = newChild(u, b);
+                }
+            }
+            if (id >= nextId.length) {
+                final int old = nextId.length;
+                nextId = Arrays.copyOf(nextId, Math.max(id + 1, old * 2));
+                Arrays.fill(nextId, old, nextId.length, -1);
+            }
+            if (firstId[u] < 0) {
+                firstId[u] = id;
+            } else {
+                nextId[lastId[u]] = id;
+            }
+            lastId[u] = id;
+        }
+
+        private int newChild(final int parent, final byte b) {
+            if (size == firstChild.length) {
+                final int cap = size * 2;
+                firstChild = grow(firstChild, cap);
+                lastChild = grow(lastChild, cap);
+                nextSibling = grow(nextSibling, cap);
+                firstId = grow(firstId, cap);
+                lastId = grow(lastId, cap);
+                label = Arrays.copyOf(label, cap);
+            }
+            final int v = size++;
+            firstChild[v] = -1;
+            lastChild[v] = -1;
+            nextSibling[v] = -1;
+            firstId[v] = -1;
+            lastId[v] = -1;
+            label[v] = b;
+            if (lastChild[parent] < 0) {
+                firstChild[parent] = v;
+            } else {
+                nextSibling[lastChild[parent]] = v;
+            }
+            lastChild[parent] = v;
+            if (parent == 0) {
+                rootChild[b & 0xff] = v;
+            }
+            return v;
+        }
+
+        private static int[] grow(final int[] a, final int cap) {
+            return Arrays.copyOf(a, cap);
+        }
+
+        int child(final int u, final int c) {
+            if (u == 0) {
+                return rootChild[c];
+            }
+            for (int v = firstChild[u]; v >= 0; v = nextSibling[v]) {
+                if ((label[v] & 0xff) == c) {
+                    return v;
+                }
+            }
+            return -1;
+        }
+
+        int idCount(final int u) {
+            int count = 0;
+            for (int id = firstId[u]; id >= 0; id = nextId[id]) {
+                count++;
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package emissary.util.shell;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * A pool of long running external processes that each serve many requests, saving the fork and exec of a new process
+ * for every payload.
+ * <p>
+ * Requests and responses are framed on the standard input and output of the coprocess. A request is a 4 byte big endian
+ * length followed by that many bytes of data. The coprocess must read the whole request before it answers with a 4 byte
+ * status, where 0 is success, a 4 byte length and that many bytes of output. End of input means the coprocess should
+ * exit. Standard error is logged.
+ * <p>
+ * Coprocesses are started on demand up to the pool size. One that times out, overflows the output limit or breaks the
+ * protocol is killed and replaced on the next request, and each is retired after a configurable number of requests.
+ */
+public class CoprocessPool implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(CoprocessPool.class);
+
+    private final String[] cmd;
+    private final int maxRequests;
+    private final long processMaxMillis;
+    private final int maxOutput;
+    private final Semaphore permits;
+    private final ConcurrentLinkedQueue<Coprocess> idle = new ConcurrentLinkedQueue<>();
+    private final Set<Coprocess> running = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    /**
+     * Create a pool, no process is started until the first request
+     *
+     * @param cmd the command and arguments that start one coprocess
+     * @param size the most coprocesses to run at once
+     * @param maxRequests requests served before a coprocess is replaced, 0 for no limit
+     * @param processMaxMillis time limit for one request, 0 for no limit
+     * @param maxOutput largest response accepted
+     */
+    public CoprocessPool(String[] cmd, int size, int maxRequests, long processMaxMillis, int maxOutput) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be positive, was " + size);
+        }
+        this.cmd = cmd.clone();
+        this.maxRequests = maxRequests;
+        this.processMaxMillis = processMaxMillis;
+        this.maxOutput = maxOutput;
+        this.permits = new Semaphore(size, true);
+    }
+
+    /**
+     * Send the data to an idle coprocess and wait for its response
+     *
+     * @param data the request bytes
+     * @return the response status and bytes, timing out or overflowing does not throw
+     * @throws IOException when a coprocess cannot be started or fails the protocol
+     * @throws InterruptedException if interrupted waiting for a coprocess or its response
+     */
+    public StreamExecutor.Result process(byte[] data) throws IOException, InterruptedException {
+        this.permits.acquire();
+        Coprocess cp = null;
+        boolean reuse = false;
+        try {
+            if (this.closed) {
+                throw new IOException("Coprocess pool is closed");
+            }
+            cp = this.idle.poll();
+            if (cp == null || !cp.process.isAlive()) {
+                if (cp != null) {
+                    logger.debug("Coprocess {} died while idle", cp);
+                    destroy(cp);
+                }
+                cp = start();
+            }
+            StreamExecutor.Result result = cp.exchange(data);
+            reuse = !result.isTimedOut() && !result.isOverflow() && (this.maxRequests < 1 || cp.requests < this.maxRequests);
+            return result;
+        } finally {
+            if (cp != null) {
+                if (reuse && !this.closed) {
+                    this.idle.offer(cp);
+                } else {
+                    destroy(cp);
+                }
+            }
+            this.permits.release();
+        }
+    }
+
+    /**
+     * Number of coprocesses currently running
+     */
+    public int getRunningCount() {
+        return this.running.size();
+    }
+
+    /**
+     * Kill all coprocesses, requests in flight fail
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        Coprocess cp;
+        while ((cp = this.idle.poll()) != null) {
+            destroy(cp);
+        }
+        for (Coprocess busy : this.running) {
+            destroy(busy);
+        }
+    }
+
+    private Coprocess start() throws IOException {
+        logger.debug("Starting coprocess {}", Arrays.asList(this.cmd));
+        Coprocess cp = new Coprocess(new ProcessBuilder(this.cmd).start());
+        this.running.add(cp);
+        StreamExecutor.IO_POOL.submit(cp::logErrors);
+        return cp;
+    }
+
+    private void destroy(Coprocess cp) {
+        this.running.remove(cp);
+        cp.process.destroyForcibly();
+    }
+
+    private final class Coprocess {
+        final Process process;
+        final DataOutputStream out;
+        final DataInputStream in;
+        int requests = 0;
+
+        Coprocess(Process process) {
+            this.process = process;
+            this.out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+
+        StreamExecutor.Result exchange(@Nullable byte[] data) throws IOException {
+            this.requests++;
+            final AtomicBoolean timedOut = new AtomicBoolean();
+            ScheduledFuture<?> dog = null;
+            if (processMaxMillis > 0) {
+                dog = StreamExecutor.TIMER.schedule(() -> {
+                    timedOut.set(true);
+                    this.process.destroyForcibly();
+                }, processMaxMillis, TimeUnit.MILLISECONDS);
+            }
+            try {
+                int length = data == null ? 0 : data.length;
+                this.out.writeInt(length);
+                if (length > 0) {
+                    this.out.write(data);
+                }
+                this.out.flush();
+
+                int status = this.in.readInt();
+                int size = this.in.readInt();
+                if (size < 0) {
+                    throw new IOException("Coprocess sent a negative response length " + size);
+                }
+                if (size > maxOutput) {
+                    logger.warn("Coprocess {} response of {} bytes is over the limit of {}", Arrays.asList(cmd), size, maxOutput);
+                    return new StreamExecutor.Result(status, new byte[0], "", false, true);
+                }
+                byte[] response = new byte[size];
+                this.in.readFully(response);
+                return new StreamExecutor.Result(status, response, "", false, false);
+            } catch (IOException e) {
+                if (timedOut.get()) {
+                    return new StreamExecutor.Result(-1, new byte[0], "", true, false);
+                }
+                throw e;
+            } finally {
+                if (dog != null) {
+                    dog.cancel(false);
+                }
+            }
+        }
+
+        void logErrors() {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(this.process.getErrorStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    logger.info("{}: {}", cmd[cmd.length - 1], line);
+                }
+            } catch (IOException e) {
+                logger.debug("Stopped reading coprocess standard error: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -989,9 +989,56 @@ public class Executrix {
         return cmd;
     }
 
+    /**
+     * Gets the value of command that this instance will execute with its data on standard input, adding configured limits
+     * and running it in the configured temp directory. No file names are substituted.
+     *
+     * @param exec if true the shell is replaced by the command so that killing the process kills the command
+     * @return the value of command
+     */
+    public String[] getStreamCommand(final boolean exec) {
+        return getStreamCommand(getCommand(), exec, this.vmSizeLimit);
+    }
+
+    /**
+     * Gets the value of a command that reads its data from standard input adding the supplied vm limit
+     *
+     * @param commandArg a command string to work with
+     * @param exec if true the shell is replaced by the command so that killing the process kills the command
+     * @param vmSzLimit for the ulimit command
+     * @return the value of command
+     */
+    public String[] getStreamCommand(final String commandArg, final boolean exec, final int vmSzLimit) {
+        final String c = (exec ? "exec " : "") + commandArg;
+        if (System.getProperty("os.name").startsWith("Windows")) {
+            return new String[] {"cmd", "/c", "cd " + this.tmpDir + " && " + CYGHOME + "/bin/bash -c '" + c + "'"};
+        }
+        String ulimitv = "";
+        if (!SystemUtils.IS_OS_MAC) {
+            ulimitv = "ulimit -v " + vmSzLimit + "; ";
+        }
+        return new String[] {"/bin/sh", "-c", "ulimit -c 0; " + ulimitv + "cd " + this.tmpDir + "; " + c};
+    }
+
+    /**
+     * Executes a command piping the data through its standard input and output with no temp files
+     *
+     * @param cmd the command and arguments to execute
+     * @param data the input data to the command
+     * @param maxOutput the most bytes of output accepted before the process is killed
+     * @return the exit status and output of the command
+     * @throws IOException if the process cannot be run
+     * @throws InterruptedException if interrupted waiting for the process
+     * @see StreamExecutor
+     */
+    public StreamExecutor.Result executeStreaming(final String[] cmd, @Nullable final byte[] data, final int maxOutput)
+            throws IOException, InterruptedException {
+        return new StreamExecutor(this.processMaxMillis, maxOutput).run(cmd, data);
+    }
+
     /**
      * Sets the value of command that this instance will execute
-     * 
+     *
      * @param argCommand Value to assign to this.command
      */
     public void setCommand(final String argCommand) {
@@ -0,0 +1,231 @@
+package emissary.util.shell;
+
+import emissary.util.DaemonThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * Run an external command by piping the data through its standard input and output, without the temp files and the
+ * reader threads per stream that {@link Executrix#execute(String[], byte[], StringBuilder, StringBuilder, String)}
+ * uses.
+ * <p>
+ * Standard output is read on the calling thread into a buffer bounded by the configured maximum, which kills the
+ * process when exceeded. Writing standard input and draining standard error run on a shared pool of daemon threads, and
+ * the process time limit is enforced from a shared timer instead of a watchdog thread per process.
+ */
+public class StreamExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(StreamExecutor.class);
+
+    public static final int DEFAULT_MAX_OUTPUT = 64 * 1024 * 1024;
+
+    /** How much standard error is kept for reporting */
+    static final int MAX_ERROR = 8 * 1024;
+
+    private static final int CHUNK = 8 * 1024;
+
+    static final ExecutorService IO_POOL = Executors.newCachedThreadPool(new DaemonThreadFactory("StreamExecutor-io-"));
+
+    static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("StreamExecutor-timer-"));
+
+    private final long processMaxMillis;
+    private final int maxOutput;
+
+    /**
+     * Create an executor
+     *
+     * @param processMaxMillis kill the process after this many millis, 0 to wait forever
+     * @param maxOutput most bytes of standard output to accept before the process is killed
+     */
+    public StreamExecutor(long processMaxMillis, int maxOutput) {
+        if (maxOutput < 0 || maxOutput == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid maximum output " + maxOutput);
+        }
+        this.processMaxMillis = processMaxMillis;
+        this.maxOutput = maxOutput;
+    }
+
+    /**
+     * Run the command with the data on its standard input
+     *
+     * @param cmd the command and arguments to execute
+     * @param data the bytes to write to standard input, may be null
+     * @return the exit status and output of the command
+     * @throws IOException when the process cannot be started
+     * @throws InterruptedException when interrupted waiting on the process, which is killed
+     */
+    public Result run(String[] cmd, @Nullable byte[] data) throws IOException, InterruptedException {
+        logger.debug("Streaming command: {}", Arrays.asList(cmd));
+        final Process p = new ProcessBuilder(cmd).start();
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> dog = null;
+        try {
+            if (this.processMaxMillis > 0) {
+                dog = TIMER.schedule(() -> {
+                    timedOut.set(true);
+                    p.destroyForcibly();
+                }, this.processMaxMillis, TimeUnit.MILLISECONDS);
+            }
+            Future<?> writer = IO_POOL.submit(() -> feed(p.getOutputStream(), data));
+            Future<String> error = IO_POOL.submit(() -> drain(p.getErrorStream()));
+
+            ByteBuffer out;
+            try (ReadableByteChannel channel = Channels.newChannel(p.getInputStream())) {
+                out = read(channel, this.maxOutput);
+            }
+            boolean overflow = out.remaining() > this.maxOutput;
+            if (overflow) {
+                logger.warn("Command {} produced more than {} bytes, killing it", Arrays.asList(cmd), this.maxOutput);
+                p.destroyForcibly();
+            }
+            int exitValue = p.waitFor();
+            String err = get(error);
+            get(writer);
+            byte[] output = new byte[overflow ? 0 : out.remaining()];
+            out.get(output);
+            return new Result(exitValue, output, err, timedOut.get(), overflow);
+        } catch (InterruptedException | IOException e) {
+            p.destroyForcibly();
+            throw e;
+        } finally {
+            if (dog != null) {
+                dog.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Read the channel to the end or until more than limit bytes arrive, growing the buffer as needed
+     *
+     * @return flipped buffer holding at most limit + 1 bytes
+     */
+    static ByteBuffer read(ReadableByteChannel channel, int limit) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(Math.min(CHUNK, limit + 1));
+        while (true) {
+            if (!buf.hasRemaining()) {
+                if (buf.capacity() > limit) {
+                    break;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(limit + 1L, buf.capacity() * 2L));
+                buf.flip();
+                bigger.put(buf);
+                buf = bigger;
+            }
+            if (channel.read(buf) < 0) {
+                break;
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static Void feed(OutputStream os, @Nullable byte[] data) {
+        try (OutputStream in = os) {
+            if (data != null && data.length > 0) {
+                in.write(data);
+            }
+        } catch (IOException e) {
+            // Commands that stop reading early close the pipe on us
+            logger.debug("Command did not take all of its input: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Read a stream to the end keeping only the first {@link #MAX_ERROR} bytes
+     */
+    static String drain(InputStream is) {
+        byte[] kept = new byte[MAX_ERROR];
+        byte[] chunk = new byte[CHUNK];
+        int length = 0;
+        try (InputStream in = is) {
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                int keep = Math.min(n, kept.length - length);
+                System.arraycopy(chunk, 0, kept, length, keep);
+                length += keep;
+            }
+        } catch (IOException e) {
+            logger.debug("Error reading standard error: {}", e.getMessage());
+        }
+        return new String(kept, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static <T> T get(Future<T> future) throws InterruptedException, IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * The outcome of one execution
+     */
+    public static class Result {
+        private final int exitValue;
+        private final byte[] output;
+        private final String error;
+        private final boolean timedOut;
+        private final boolean overflow;
+
+        public Result(int exitValue, byte[] output, String error, boolean timedOut, boolean overflow) {
+            this.exitValue = exitValue;
+            this.output = output;
+            this.error = error;
+            this.timedOut = timedOut;
+            this.overflow = overflow;
+        }
+
+        /**
+         * True when the command exited with status 0 inside its limits
+         */
+        public boolean isSuccess() {
+            return this.exitValue == 0 && !this.timedOut && !this.overflow;
+        }
+
+        public int getExitValue() {
+            return this.exitValue;
+        }
+
+        public byte[] getOutput() {
+            return this.output;
+        }
+
+        public String getError() {
+            return this.error;
+        }
+
+        public boolean isTimedOut() {
+            return this.timedOut;
+        }
+
+        public boolean isOverflow() {
+            return this.overflow;
+        }
+
+        @Override
+        public String toString() {
+            return "exit=" + this.exitValue + (this.timedOut ? " timed out" : "") + (this.overflow ? " output overflow" : "") + " stderr="
+                    + this.error;
+        }
+    }
+}
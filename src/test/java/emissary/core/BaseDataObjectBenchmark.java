@@ -0,0 +1,89 @@
+package emissary.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of creating the BaseDataObjects an archive explodes into. Runs with the GC profiler, gc.alloc.rate.norm is the
+ * bytes allocated to create each object. Before the benchmarks run the retained heap of a large batch of children is
+ * printed as bytes per object. Run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=emissary.core.BaseDataObjectBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BaseDataObjectBenchmark {
+
+    private static final byte[] DATA = new byte[64];
+
+    @Benchmark
+    public IBaseDataObject empty() {
+        return new BaseDataObject(DATA, "parent-att-1", "UNKNOWN");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public IBaseDataObject emptyContended() {
+        return new BaseDataObject(DATA, "parent-att-1", "UNKNOWN");
+    }
+
+    @Benchmark
+    public IBaseDataObject child() {
+        return makeChild(1);
+    }
+
+    static IBaseDataObject makeChild(int i) {
+        IBaseDataObject d = new BaseDataObject(DATA, "parent-att-" + i, "UNKNOWN");
+        d.putParameter("PARENT_FILETYPE", "ZIP");
+        d.putParameter("FILEXT", "txt");
+        d.putParameter("Original-Filename", "report.txt");
+        d.appendTransformHistory("UNKNOWN.UNIXFILE.ID.http://localhost:8001/UnixFilePlace$5050");
+        d.setFileType("TEXT");
+        d.setBirthOrder(i);
+        return d;
+    }
+
+    /**
+     * Retained bytes per child object, measured over a large batch
+     */
+    static long footprint(int count) {
+        System.gc();
+        long before = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+        List<IBaseDataObject> children = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            children.add(makeChild(i));
+        }
+        System.gc();
+        long after = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+        if (children.size() != count) {
+            throw new IllegalStateException();
+        }
+        return (after - before) / count;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("Retained bytes per child: " + footprint(200_000));
+        new Runner(new OptionsBuilder().include(BaseDataObjectBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+    }
+}
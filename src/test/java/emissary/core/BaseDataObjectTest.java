@@ -31,10 +31,12 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Stream;
 
@@ -190,6 +192,51 @@ class BaseDataObjectTest extends UnitTest {
         }
     }
 
+    @Test
+    void testChannelSizeKnownUntilReplaced() throws IOException {
+        final SeekableByteChannelFactory sbcf = Mockito.spy(SeekableByteChannelHelper.memory("Test data".getBytes()));
+        this.b.setChannelFactory(sbcf);
+        assertEquals(9, this.b.getChannelSize());
+        assertEquals(9, this.b.dataLength());
+        assertEquals(9, this.b.getChannelSize());
+        Mockito.verify(sbcf, Mockito.times(1)).create();
+
+        this.b.setChannelFactory(SeekableByteChannelHelper.memory("Other".getBytes()));
+        assertEquals(5, this.b.getChannelSize());
+    }
+
+    @Test
+    void testMaterializedDataShared() {
+        final MaterializationCache cache = new MaterializationCache(1024, null);
+        MaterializationCache.setInstance(cache);
+        try {
+            this.b.setChannelFactory(SeekableByteChannelHelper.memory("Test data".getBytes()));
+            final byte[] first = this.b.data();
+            assertEquals("Test data", new String(first));
+            assertTrue(first == this.b.data(), "Data read from the channel should be reused");
+            assertEquals(1, cache.getMissCount());
+            assertEquals(1, cache.getHitCount());
+            assertEquals(9, cache.getHeldBytes());
+
+            // A clone reads its own copy and leaves ours alone
+            final IBaseDataObject copy = this.b.clone();
+            assertArrayEquals(first, copy.data());
+            assertTrue(first == this.b.data());
+            assertEquals(18, cache.getHeldBytes());
+
+            this.b.setChannelFactory(SeekableByteChannelHelper.memory("Other".getBytes()));
+            assertEquals(9, cache.getHeldBytes());
+            assertEquals("Other", new String(this.b.data()));
+            this.b.setData("bytes".getBytes());
+            copy.setData(null);
+            assertEquals(0, cache.getHeldBytes());
+        } catch (CloneNotSupportedException e) {
+            fail(e);
+        } finally {
+            MaterializationCache.setInstance(null);
+        }
+    }
+
     @Test
     void testDataLengthBothNull() {
         BaseDataObject bdo = new BaseDataObject();
@@ -535,6 +582,32 @@ class BaseDataObjectTest extends UnitTest {
         assertEquals(2, this.b.getNumAlternateViews(), "Number of alternate views failed to increment");
     }
 
+    @Test
+    void testAlternateViewsCreatedWhenAdded() {
+        assertEquals(0, this.b.getNumAlternateViews());
+        assertNull(this.b.getAlternateView("FOO"));
+        assertTrue(this.b.getAlternateViewNames().isEmpty());
+        this.b.addAlternateView("FOO", null);
+
+        // the map handed out is live even before any view is added
+        this.b.getAlternateViews().put("FOO", "abcd".getBytes());
+        assertArrayEquals("abcd".getBytes(), this.b.getAlternateView("FOO"));
+        this.b.addAlternateView("FOO", null);
+        assertEquals(0, this.b.getNumAlternateViews());
+    }
+
+    @Test
+    void testInternalIds() {
+        final Set<UUID> ids = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            final UUID id = new BaseDataObject().getInternalId();
+            assertEquals(4, id.version());
+            assertEquals(2, id.variant());
+            ids.add(id);
+        }
+        assertEquals(10000, ids.size(), "Internal ids must be unique");
+    }
+
     @Test
     void testSetBroken() {
         this.b.setBroken("This is broken");
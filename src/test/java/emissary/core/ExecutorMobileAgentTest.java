@@ -0,0 +1,147 @@
+package emissary.core;
+
+import emissary.admin.PlaceStarter;
+import emissary.place.IServiceProviderPlace;
+import emissary.pool.AgentExecutor;
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExecutorMobileAgentTest extends UnitTest {
+    private AgentExecutor executor;
+    private IServiceProviderPlace place;
+
+    @Override
+    @BeforeEach
+    public void setUp() throws Exception {
+        super.setUp();
+        executor = new AgentExecutor(2, false);
+        place = PlaceStarter.createPlace("http://localhost:8006/ToUpperPlace", null, "emissary.place.sample.ToUpperPlace", null);
+    }
+
+    @Override
+    @AfterEach
+    public void tearDown() throws Exception {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        place.shutDown();
+        super.tearDown();
+    }
+
+    private static IBaseDataObject payload(String name) {
+        IBaseDataObject d = DataObjectFactory.getInstance();
+        d.setCurrentForm("THECF");
+        d.setFilename(name);
+        return d;
+    }
+
+    @Test
+    void testNoDedicatedThread() {
+        RecordingAgent agent = new RecordingAgent(executor, "agent-0", new CountDownLatch(1));
+        assertNull(agent.thread, "Agent must not own a thread");
+        assertEquals("agent-0", agent.getName());
+        assertFalse(agent.isInUse());
+    }
+
+    @Test
+    void testRunsOnExecutorThread() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        RecordingAgent agent = new RecordingAgent(executor, "agent-0", done);
+        agent.go(payload("one"), place);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS), "Agent was never run");
+        assertEquals(1, agent.threadNames.size());
+        assertTrue(agent.threadNames.iterator().next().startsWith(AgentExecutor.THREAD_NAME));
+        assertNull(agent.thread, "Agent should release the executor thread when done");
+        assertFalse(agent.isInUse(), "Agent should be cleared when done");
+    }
+
+    @Test
+    void testManyAgentsFewThreads() throws Exception {
+        int count = 200;
+        CountDownLatch done = new CountDownLatch(count);
+        List<RecordingAgent> agents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            RecordingAgent agent = new RecordingAgent(executor, "agent-" + i, done);
+            agents.add(agent);
+            agent.go(payload("p" + i), place);
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS), "Not all agents ran");
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        for (RecordingAgent agent : agents) {
+            threads.addAll(agent.threadNames);
+        }
+        assertTrue(threads.size() <= 2, "Agents should share the executor threads: " + threads);
+    }
+
+    @Test
+    void testRejectedWhenShutdown() {
+        executor.shutdown();
+        RecordingAgent agent = new RecordingAgent(executor, "agent-0", new CountDownLatch(1));
+        assertThrows(IllegalStateException.class, () -> agent.go(payload("one"), place));
+        assertFalse(agent.isInUse(), "Rejected agent should be cleared");
+        assertEquals(1, agent.returned);
+    }
+
+    @Test
+    void testInterruptDoesNotLeakToNextAgent() throws Exception {
+        CountDownLatch first = new CountDownLatch(1);
+        RecordingAgent agent = new RecordingAgent(executor, "agent-0", first);
+        agent.go(payload("one"), place);
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+
+        // Late interrupt from the resource watcher after the agent is done
+        agent.interrupt();
+
+        CountDownLatch second = new CountDownLatch(1);
+        RecordingAgent next = new RecordingAgent(executor, "agent-1", second);
+        next.go(payload("two"), place);
+        assertTrue(second.await(10, TimeUnit.SECONDS));
+        assertFalse(next.interrupted, "Next agent on the thread must not see the interrupt");
+    }
+
+    static final class RecordingAgent extends ExecutorMobileAgent {
+        static final long serialVersionUID = 1L;
+
+        final Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        final CountDownLatch done;
+        volatile boolean interrupted = false;
+        int returned = 0;
+
+        RecordingAgent(AgentExecutor executor, String name, CountDownLatch done) {
+            super(executor, name);
+            this.done = done;
+        }
+
+        @Override
+        protected void agentControl(final IServiceProviderPlace currentPlaceArg) {
+            threadNames.add(Thread.currentThread().getName());
+            interrupted = Thread.currentThread().isInterrupted();
+        }
+
+        @Override
+        protected synchronized void agentReturn() {
+            // no pool in this test
+            clear();
+            setArrivalPlace(null);
+            returned++;
+            done.countDown();
+        }
+    }
+}
@@ -1,16 +1,35 @@
 package emissary.core;
 
+import emissary.directory.DirectoryEntry;
+import emissary.place.IServiceProviderPlace;
 import emissary.place.ServiceProviderPlace;
 import emissary.test.core.junit5.UnitTest;
 
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.ObjectName;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  *
@@ -38,6 +57,245 @@ class HDMobileAgentTest extends UnitTest {
         assertEquals(2, ret.size());
     }
 
+    @Test
+    void testFamilyBranchIsNotAnMBean() throws Exception {
+        final HDMobileAgent family = new HDMobileAgent();
+        try {
+            final HDMobileAgent branch = new HDMobileAgent.FamilyBranch(family);
+            assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("emissary:name=" + branch.getClass().getName())));
+        } finally {
+            family.killAgent();
+        }
+    }
+
+    @Test
+    void testFamilySerial() throws Exception {
+        final SproutPlace sprouter = new SproutPlace(4);
+        final ChildPlace children = new ChildPlace(null);
+        final RoutingAgent agent = new RoutingAgent(sprouter, children);
+        assertFalse(agent.isFamilyParallel());
+
+        agent.addPayload(DataObjectFactory.getInstance(new byte[] {}, "parent", "PARENT"));
+        agent.agentControl(children);
+
+        assertEquals(5, agent.payloadCount());
+        assertEquals(1, children.calls.get(), "Children with the same form and last place ride together");
+        for (IBaseDataObject d : agent.payloadList) {
+            assertEquals("DONE", d.currentForm());
+        }
+    }
+
+    @Test
+    void testRoutingTrace() throws Exception {
+        final RoutingTrace trace = new RoutingTrace(true, 1, 5);
+        RoutingTrace.setInstance(trace);
+        try {
+            final ChildPlace children = new ChildPlace(null);
+            final RoutingAgent agent = new RoutingAgent(new SproutPlace(2), children);
+            agent.addPayload(DataObjectFactory.getInstance(new byte[] {}, "parent", "PARENT"));
+            agent.agentControl(children);
+
+            final Map<String, Map<String, Long>> phases = trace.getPhaseSummary();
+            assertTrue(phases.get("ROUTE").get("count") > 0);
+            assertTrue(phases.get("PLACE").get("count") >= 2, "Both places should be timed");
+            final List<RoutingTrace.Itinerary> itineraries = trace.getRecentItineraries();
+            assertEquals(1, itineraries.size());
+            assertEquals("parent", itineraries.get(0).getPayload());
+            assertTrue(itineraries.get(0).getMicrosByPhase().containsKey("PLACE"));
+            assertNull(agent.itinerary);
+        } finally {
+            RoutingTrace.setInstance(null);
+        }
+    }
+
+    @Test
+    void testFamilyParallel() throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final SproutPlace sprouter = new SproutPlace(4);
+            final ChildPlace children = new ChildPlace(new CyclicBarrier(4));
+            final RoutingAgent agent = new RoutingAgent(sprouter, children);
+            agent.setFamilyPool(pool);
+            assertTrue(agent.isFamilyParallel());
+
+            agent.addPayload(DataObjectFactory.getInstance(new byte[] {}, "parent", "PARENT"));
+            agent.agentControl(children);
+
+            // the barrier only trips if all four branches are in the place at once
+            assertEquals(4, children.calls.get(), "Each child should be routed on its own branch");
+            assertEquals(4, children.threads.size());
+            assertEquals(5, agent.payloadCount(), "Every branch should rejoin the family");
+            assertEquals("parent", agent.getPayload(0).getFilename());
+            final Set<String> names = new HashSet<>();
+            for (IBaseDataObject d : agent.payloadList) {
+                assertEquals("DONE", d.currentForm());
+                names.add(d.getFilename());
+            }
+            assertEquals(5, names.size());
+        } finally {
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testFamilyBranchCanBeInterrupted() throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            final HangingPlace hanging = new HangingPlace();
+            final List<HDMobileAgent> branches = new CopyOnWriteArrayList<>();
+            final RoutingAgent agent = new RoutingAgent(new SproutPlace(1), hanging) {
+                static final long serialVersionUID = 1L;
+
+                @Override
+                protected HDMobileAgent newFamilyBranch() {
+                    final HDMobileAgent branch = super.newFamilyBranch();
+                    branches.add(branch);
+                    return branch;
+                }
+            };
+            agent.setFamilyPool(pool);
+            agent.addPayload(DataObjectFactory.getInstance(new byte[] {}, "parent", "PARENT"));
+
+            final Thread family = new Thread(() -> agent.agentControl(hanging));
+            family.start();
+            assertTrue(hanging.entered.await(10, TimeUnit.SECONDS));
+
+            // What the ResourceWatcher does when a place times out
+            branches.get(0).interrupt();
+            family.join(10000L);
+            assertFalse(family.isAlive(), "An interrupted branch must let the family finish");
+            assertTrue(hanging.interrupted.get());
+            assertFalse(pool.submit(() -> Thread.currentThread().isInterrupted()).get(), "The worker must not stay interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Routes by current form instead of asking the directory
+     */
+    static class RoutingAgent extends HDMobileAgent {
+        static final long serialVersionUID = 1L;
+
+        final transient Map<String, IServiceProviderPlace> routes = new HashMap<>();
+
+        RoutingAgent(IServiceProviderPlace sprouter, IServiceProviderPlace children) {
+            routes.put("PARENT", sprouter);
+            routes.put("CHILD", children);
+        }
+
+        @Override
+        protected DirectoryEntry getNextKey(final IServiceProviderPlace place, final IBaseDataObject payload) {
+            final IServiceProviderPlace next = routes.get(payload.currentForm());
+            return next == null ? null : new LocalEntry(next);
+        }
+
+        @Override
+        protected HDMobileAgent newFamilyBranch() {
+            final RoutingAgent family = this;
+            return new FamilyBranch(this) {
+                static final long serialVersionUID = 1L;
+
+                @Override
+                protected DirectoryEntry getNextKey(final IServiceProviderPlace place, final IBaseDataObject payload) {
+                    final IServiceProviderPlace next = family.routes.get(payload.currentForm());
+                    return next == null ? null : new LocalEntry(next);
+                }
+            };
+        }
+    }
+
+    static final class LocalEntry extends DirectoryEntry {
+        static final long serialVersionUID = 1L;
+
+        private final transient IServiceProviderPlace place;
+
+        LocalEntry(IServiceProviderPlace place) {
+            super(place.getDirectoryEntry());
+            this.place = place;
+        }
+
+        @Override
+        public boolean isLocal() {
+            return true;
+        }
+
+        @Override
+        public IServiceProviderPlace getLocalPlace() {
+            return place;
+        }
+    }
+
+    static final class SproutPlace extends ServiceProviderPlace {
+        private final int count;
+
+        SproutPlace(int count) throws IOException {
+            super("emissary.core.FakePlace.cfg", "SproutPlace.www.example.com:8001");
+            this.count = count;
+        }
+
+        @Override
+        public List<IBaseDataObject> agentProcessHeavyDuty(List<IBaseDataObject> payloadListArg) {
+            final List<IBaseDataObject> sprouts = new ArrayList<>();
+            for (IBaseDataObject d : payloadListArg) {
+                d.setCurrentForm("DONE");
+                for (int i = 1; i <= count; i++) {
+                    sprouts.add(DataObjectFactory.getInstance(new byte[] {}, d.getFilename() + "-att-" + i, "CHILD"));
+                }
+            }
+            return sprouts;
+        }
+    }
+
+    static final class ChildPlace extends ServiceProviderPlace {
+        final AtomicInteger calls = new AtomicInteger();
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        private final CyclicBarrier barrier;
+
+        ChildPlace(CyclicBarrier barrier) throws IOException {
+            super("emissary.core.FakePlace.cfg", "ChildPlace.www.example.com:8001");
+            this.barrier = barrier;
+        }
+
+        @Override
+        public List<IBaseDataObject> agentProcessHeavyDuty(List<IBaseDataObject> payloadListArg) throws Exception {
+            calls.incrementAndGet();
+            threads.add(Thread.currentThread().getName());
+            if (barrier != null) {
+                barrier.await(10, TimeUnit.SECONDS);
+            }
+            for (IBaseDataObject d : payloadListArg) {
+                d.setCurrentForm("DONE");
+            }
+            return Collections.emptyList();
+        }
+    }
+
+    static final class HangingPlace extends ServiceProviderPlace {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+
+        HangingPlace() throws IOException {
+            super("emissary.core.FakePlace.cfg", "HangingPlace.www.example.com:8001");
+        }
+
+        @Override
+        public List<IBaseDataObject> agentProcessHeavyDuty(List<IBaseDataObject> payloadListArg) {
+            entered.countDown();
+            try {
+                Thread.sleep(60000L);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+                Thread.currentThread().interrupt();
+            }
+            for (IBaseDataObject d : payloadListArg) {
+                d.setCurrentForm("DONE");
+            }
+            return Collections.emptyList();
+        }
+    }
+
     static final class SimplePlace extends ServiceProviderPlace {
 
         private List<IBaseDataObject> children = Collections.emptyList();
@@ -0,0 +1,105 @@
+package emissary.core;
+
+import emissary.core.channels.SeekableByteChannelHelper;
+import emissary.test.core.junit5.UnitTest;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MaterializationCacheTest extends UnitTest {
+
+    @Test
+    void testBudget() {
+        MaterializationCache cache = new MaterializationCache(100, null);
+        assertTrue(cache.isEnabled());
+        MaterializationCache.Entry a = cache.retain(new byte[60], this);
+        assertNotNull(a);
+        assertNull(cache.retain(new byte[50], this), "Over the budget");
+        assertEquals(1, cache.getOverBudgetCount());
+        MaterializationCache.Entry b = cache.retain(new byte[40], this);
+        assertNotNull(b);
+        assertEquals(100, cache.getHeldBytes());
+
+        cache.release(a);
+        cache.release(a);
+        assertNull(a.get());
+        assertEquals(40, cache.getHeldBytes());
+        assertNotNull(cache.retain(new byte[50], this));
+        assertEquals(90, cache.getHeldBytes());
+    }
+
+    @Test
+    void testClearedEntriesGiveBackBudget() {
+        MaterializationCache cache = new MaterializationCache(100, null);
+        MaterializationCache.Entry a = cache.retain(new byte[80], this);
+        assertNotNull(a);
+        // what the collector does under memory pressure
+        a.clear();
+        a.enqueue();
+        assertEquals(0, cache.getHeldBytes());
+        assertNotNull(cache.retain(new byte[80], this));
+    }
+
+    @Test
+    void testCollectedPayloadsGiveBackBudget() throws InterruptedException {
+        MaterializationCache cache = new MaterializationCache(1000, null);
+        MaterializationCache.setInstance(cache);
+        try {
+            for (int i = 0; i < 10; i++) {
+                IBaseDataObject d = new BaseDataObject();
+                d.setChannelFactory(SeekableByteChannelHelper.memory(new byte[100]));
+                assertEquals(100, d.data().length);
+            }
+            assertEquals(1000, cache.getHeldBytes(), "Budget used by the payloads");
+
+            // The payloads are gone without dropping their data
+            for (int i = 0; i < 50 && cache.getHeldBytes() > 0; i++) {
+                System.gc();
+                Thread.sleep(20);
+            }
+            assertEquals(0, cache.getHeldBytes(), "Collected payloads give their bytes back");
+
+            IBaseDataObject d = new BaseDataObject();
+            d.setChannelFactory(SeekableByteChannelHelper.memory(new byte[100]));
+            d.data();
+            assertEquals(100, cache.getHeldBytes(), "Cache still caches");
+        } finally {
+            MaterializationCache.setInstance(null);
+        }
+    }
+
+    @Test
+    void testDisabled() {
+        MaterializationCache cache = new MaterializationCache(0, null);
+        assertFalse(cache.isEnabled());
+        assertNull(cache.retain(new byte[1], this));
+        assertNotNull(cache.retain(new byte[0], this));
+    }
+
+    @Test
+    void testPlaceMetrics() {
+        MetricRegistry registry = new MetricRegistry();
+        MaterializationCache cache = new MaterializationCache(100, registry);
+        String place = "UNKNOWN.TEST_PLACE.ID.http://localhost:8001/TestPlace$5050";
+        cache.miss(place, 42);
+        cache.hit(place);
+        cache.hit(place);
+        cache.miss(null, 3);
+        cache.retain(new byte[10], this);
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(45, cache.getBytesMaterialized());
+        assertEquals(2, registry.counter(MaterializationCache.HITS_METRIC + ".TEST_PLACE").getCount());
+        assertEquals(1, registry.counter(MaterializationCache.MISSES_METRIC + ".TEST_PLACE").getCount());
+        assertEquals(42, registry.counter(MaterializationCache.BYTES_METRIC + ".TEST_PLACE").getCount());
+        assertEquals(3, registry.counter(MaterializationCache.BYTES_METRIC + "." + MaterializationCache.NO_PLACE).getCount());
+        assertEquals(10L, registry.getGauges().get(MaterializationCache.HELD_METRIC).getValue());
+    }
+}
@@ -7,6 +7,7 @@ import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -63,6 +64,15 @@ class NamespaceTest extends UnitTest {
         assertThrows(NamespaceException.class, () -> Namespace.lookup("BadStuffPlace"));
     }
 
+    @Test
+    void testFind() {
+        final Object thePlace = new Object();
+        Namespace.bind("http://machine:8001/StuffPlace", thePlace);
+        assertEquals(thePlace, Namespace.find("http://machine:8001/StuffPlace"), "Full key find");
+        assertEquals(thePlace, Namespace.find("StuffPlace"), "Tail find");
+        assertNull(Namespace.find("BadStuffPlace"), "Missing items are null");
+    }
+
     @Test
     void testExists() {
         final Object thePlace = new Object();
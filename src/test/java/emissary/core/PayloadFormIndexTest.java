@@ -0,0 +1,88 @@
+package emissary.core;
+
+import emissary.directory.DirectoryEntry;
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PayloadFormIndexTest extends UnitTest {
+
+    private static final DirectoryEntry FOO = new DirectoryEntry("UNKNOWN.FOO.ID.http://localhost:8001/FooPlace$5050");
+    private static final DirectoryEntry BAR = new DirectoryEntry("UNKNOWN.BAR.ID.http://localhost:8001/BarPlace$5050");
+
+    private static IBaseDataObject payload(String name, String... forms) {
+        IBaseDataObject d = DataObjectFactory.getInstance(new byte[0], name);
+        for (int i = forms.length - 1; i >= 0; i--) {
+            d.pushCurrentForm(forms[i]);
+        }
+        return d;
+    }
+
+    @Test
+    void testMatchingFormAndLastPlace() {
+        IBaseDataObject primary = payload("primary", "PDF");
+        IBaseDataObject same = payload("same", "PDF");
+        IBaseDataObject deeper = payload("deeper", "TEXT", "PDF");
+        IBaseDataObject otherForm = payload("otherForm", "WORD");
+        IBaseDataObject otherPlace = payload("otherPlace", "PDF");
+        otherPlace.appendTransformHistory(BAR.getKey());
+
+        PayloadFormIndex index = new PayloadFormIndex(Arrays.asList(primary, same, deeper, otherForm, otherPlace));
+        assertEquals(5, index.size());
+        assertEquals(Arrays.asList(same, deeper), index.matching("PDF", null, primary));
+        assertEquals(Collections.singletonList(otherPlace), index.matching("PDF", otherPlace.getLastPlaceVisited(), primary));
+        assertTrue(index.matching("WORD", null, otherForm).isEmpty());
+        assertTrue(index.matching("NOPE", null, primary).isEmpty());
+    }
+
+    @Test
+    void testUpdate() {
+        IBaseDataObject primary = payload("primary", "PDF");
+        IBaseDataObject child = payload("child", "PDF");
+        PayloadFormIndex index = new PayloadFormIndex(Arrays.asList(primary, child));
+
+        child.appendTransformHistory(FOO.getKey());
+        child.setCurrentForm("TEXT");
+        // not noticed until updated
+        assertEquals(Collections.singletonList(child), index.matching("PDF", null, primary));
+
+        index.update(child);
+        assertTrue(index.matching("PDF", null, primary).isEmpty());
+        assertEquals(Collections.singletonList(child), index.matching("TEXT", child.getLastPlaceVisited(), primary));
+    }
+
+    @Test
+    void testFamilyOrder() {
+        IBaseDataObject a = payload("a", "PDF");
+        IBaseDataObject b = payload("b", "PDF");
+        IBaseDataObject c = payload("c", "PDF");
+        IBaseDataObject d = payload("d", "PDF");
+        PayloadFormIndex index = new PayloadFormIndex(Arrays.asList(a, b));
+        index.addAll(Arrays.asList(c, d));
+        index.add(b);
+        assertEquals(4, index.size());
+        assertEquals(Arrays.asList(b, c, d), index.matching("PDF", null, a));
+
+        index.swap(a, c);
+        List<IBaseDataObject> found = index.matching("PDF", null, c);
+        assertEquals(Arrays.asList(b, a, d), found);
+    }
+
+    @Test
+    void testUnknownPayloadIgnored() {
+        IBaseDataObject a = payload("a", "PDF");
+        IBaseDataObject stranger = payload("stranger", "PDF");
+        PayloadFormIndex index = new PayloadFormIndex(Collections.singletonList(a));
+        index.update(stranger);
+        index.swap(a, stranger);
+        assertEquals(1, index.size());
+        assertTrue(index.matching("PDF", null, a).isEmpty());
+    }
+}
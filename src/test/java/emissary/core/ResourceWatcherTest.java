@@ -14,10 +14,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 class ResourceWatcherTest extends UnitTest {
 
@@ -75,6 +79,42 @@ class ResourceWatcherTest extends UnitTest {
         this.resourceWatcher.quit();
     }
 
+    @Test
+    void testTimeoutInterruptsAgent() throws Exception {
+        this.resourceWatcher = new ResourceWatcher();
+        IServiceProviderPlace slow = mock(IServiceProviderPlace.class);
+        when(slow.getPlaceName()).thenReturn("SlowPlace");
+        when(slow.getResourceLimitMillis()).thenReturn(50L);
+
+        TimedResourceTest.TestMobileAgent agent = new TimedResourceTest.TestMobileAgent();
+        try (TimedResource tr = this.resourceWatcher.starting(agent, slow)) {
+            assertTrue(agent.latch.await(5, TimeUnit.SECONDS), "Agent must be interrupted");
+            assertTrue(agent.interrupted);
+        }
+        assertEquals(1, this.resourceWatcher.getTimeoutCount("SlowPlace"));
+        assertEquals(1, this.resourceWatcher.getStat("SlowPlace").getCount());
+        this.resourceWatcher.quit();
+    }
+
+    @Test
+    void testResourcesAreReused() throws Exception {
+        this.resourceWatcher = new ResourceWatcher();
+        this.place = new DevNullPlace();
+        ResourceConsumer agent = new ResourceConsumer(0, 0, new CountDownLatch(0));
+
+        TimedResource first = this.resourceWatcher.starting(agent, this.place);
+        first.close();
+        TimedResource second = this.resourceWatcher.starting(agent, this.place);
+        assertSame(first, second, "Closed resources should be pooled");
+        assertTrue(this.resourceWatcher.toString().startsWith("Watching 1 agents"), this.resourceWatcher.toString());
+        second.close();
+        assertTrue(this.resourceWatcher.toString().startsWith("Watching 0 agents"), this.resourceWatcher.toString());
+
+        assertEquals(2, this.resourceWatcher.getStat("DevNullPlace").getCount());
+        assertEquals(0, this.resourceWatcher.getTimeoutCount("DevNullPlace"));
+        this.resourceWatcher.quit();
+    }
+
     // I was not able to get this to work by extending the current agent implementations
     // due to an uspecified issue where the thread is started during object construction
     // given the refactor forces us to operate on MobileAgent object, this was a necessity
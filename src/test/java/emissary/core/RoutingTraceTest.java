@@ -0,0 +1,81 @@
+package emissary.core;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RoutingTraceTest extends UnitTest {
+
+    @Test
+    void testPhaseSummary() {
+        RoutingTrace trace = new RoutingTrace(true, 0, 10);
+        trace.record(RoutingTrace.Phase.ROUTE, 1_000L);
+        trace.record(RoutingTrace.Phase.ROUTE, 5_000L);
+        trace.record(RoutingTrace.Phase.PLACE, 3_000_000L);
+
+        Map<String, Map<String, Long>> summary = trace.getPhaseSummary();
+        assertEquals(RoutingTrace.Phase.values().length, summary.size());
+        assertEquals(2L, summary.get("ROUTE").get("count"));
+        assertEquals(6L, summary.get("ROUTE").get("totalMicros"));
+        assertEquals(3L, summary.get("ROUTE").get("meanMicros"));
+        assertEquals(5L, summary.get("ROUTE").get("maxMicros"));
+        assertEquals(3000L, summary.get("PLACE").get("totalMicros"));
+        assertEquals(0L, summary.get("HISTORY").get("meanMicros"));
+
+        trace.reset();
+        assertEquals(0L, trace.getPhaseSummary().get("ROUTE").get("count"));
+    }
+
+    @Test
+    void testDisabled() {
+        RoutingTrace trace = new RoutingTrace(false, 1, 10);
+        assertFalse(trace.isEnabled());
+        trace.record(RoutingTrace.Phase.ROUTE, 1_000L);
+        assertEquals(0L, trace.getPhaseSummary().get("ROUTE").get("count"));
+        assertNull(trace.startItinerary("payload"));
+    }
+
+    @Test
+    void testItinerarySampling() {
+        RoutingTrace trace = new RoutingTrace(true, 3, 2);
+        int sampled = 0;
+        for (int i = 1; i <= 9; i++) {
+            RoutingTrace.Itinerary itinerary = trace.startItinerary("payload" + i);
+            if (itinerary != null) {
+                sampled++;
+                itinerary.add(RoutingTrace.Phase.ROUTE, "UNKNOWN.FOO.ID", 2_000L);
+                itinerary.add(RoutingTrace.Phase.PLACE, null, 10_000L);
+                itinerary.add(RoutingTrace.Phase.PLACE, null, 5_000L);
+                trace.finish(itinerary);
+            }
+        }
+        assertEquals(3, sampled);
+
+        // only the two most recent are kept
+        List<RoutingTrace.Itinerary> recent = trace.getRecentItineraries();
+        assertEquals(2, recent.size());
+        assertEquals("payload6", recent.get(0).getPayload());
+        assertEquals("payload9", recent.get(1).getPayload());
+        assertEquals(3, recent.get(1).getHops().size());
+        assertEquals(15L, recent.get(1).getMicrosByPhase().get("PLACE"));
+        assertEquals("UNKNOWN.FOO.ID", recent.get(1).getHops().get(0).getWhere());
+    }
+
+    @Test
+    void testItineraryBounded() {
+        RoutingTrace.Itinerary itinerary = new RoutingTrace(true, 1, 1).startItinerary("payload");
+        assertNotNull(itinerary);
+        for (int i = 0; i < RoutingTrace.MAX_HOPS + 10; i++) {
+            itinerary.add(RoutingTrace.Phase.ROUTE, null, 1L);
+        }
+        assertEquals(RoutingTrace.MAX_HOPS, itinerary.getHops().size());
+    }
+}
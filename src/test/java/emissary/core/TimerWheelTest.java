@@ -0,0 +1,89 @@
+package emissary.core;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimerWheelTest extends UnitTest {
+
+    @Test
+    void testExpiresOnTheDueTick() {
+        TimerWheel wheel = new TimerWheel(10, 1000);
+        Random random = new Random(3);
+        Map<TimedResource, Long> deadlines = new HashMap<>();
+        // Spread over every level, including past the end of the last one
+        long[] ranges = {500, 50_000, 3_000_000, 200_000_000, 400_000_000};
+        for (long range : ranges) {
+            for (int i = 0; i < 200; i++) {
+                TimedResource tr = new TimedResource((ResourceWatcher) null);
+                long deadline = 1000 + 1 + (long) (random.nextDouble() * range);
+                deadlines.put(tr, deadline);
+                wheel.add(tr, deadline);
+            }
+        }
+        assertEquals(1000, wheel.size());
+
+        List<TimedResource> expired = new ArrayList<>();
+        long[] now = {1000};
+        TimerWheel.Expiry check = (tr, t) -> {
+            long deadline = deadlines.get(tr);
+            assertTrue(deadline <= t, "Expired early");
+            assertTrue(deadline > t - 10, "Expired late " + deadline + " at " + t);
+            expired.add(tr);
+        };
+        // Advance a tick at a time at first, then in bigger jumps once only the long deadlines are left
+        while (now[0] < 1000 + 60_000) {
+            now[0] += 10;
+            wheel.advance(now[0], check);
+        }
+        TimerWheel.Expiry late = (tr, t) -> {
+            assertTrue(deadlines.get(tr) <= t, "Expired early");
+            expired.add(tr);
+        };
+        while (wheel.size() > 0) {
+            now[0] += 1_000_000;
+            wheel.advance(now[0], late);
+        }
+        assertEquals(1000, expired.size());
+    }
+
+    @Test
+    void testRemove() {
+        TimerWheel wheel = new TimerWheel(10, 0);
+        TimedResource first = new TimedResource((ResourceWatcher) null);
+        TimedResource second = new TimedResource((ResourceWatcher) null);
+        TimedResource third = new TimedResource((ResourceWatcher) null);
+        wheel.add(first, 50);
+        wheel.add(second, 50);
+        wheel.add(third, 100_000);
+        wheel.remove(second);
+        wheel.remove(second);
+        wheel.remove(third);
+        assertEquals(1, wheel.size());
+        assertNull(second.wheelNext);
+
+        List<TimedResource> expired = new ArrayList<>();
+        wheel.advance(200_000, (tr, t) -> expired.add(tr));
+        assertEquals(1, expired.size());
+        assertEquals(first, expired.get(0));
+        assertEquals(0, wheel.size());
+
+        // Deadlines already passed fire on the next tick
+        wheel.add(second, 0);
+        wheel.advance(200_010, (tr, t) -> expired.add(tr));
+        assertEquals(2, expired.size());
+
+        assertThrows(IllegalArgumentException.class, () -> new TimerWheel(0, 0));
+    }
+}
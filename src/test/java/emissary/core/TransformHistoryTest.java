@@ -0,0 +1,125 @@
+package emissary.core;
+
+import emissary.directory.DirectoryEntry;
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransformHistoryTest extends UnitTest {
+
+    private static final String ID = "UNKNOWN.UNIXFILE.ID.http://localhost:8001/UnixFilePlace";
+    private static final String COORD = "UNKNOWN.HASH.ANALYZE.http://localhost:8001/HashPlace";
+    private static final String UPPER = "LOWER_CASE.TO_UPPER.TRANSFORM.http://localhost:8001/ToUpperPlace";
+
+    @Test
+    void testSizesAndVisits() {
+        TransformHistory th = new TransformHistory();
+        assertEquals(0, th.size());
+        assertNull(th.lastVisit());
+        assertNull(th.lastVisitEntry());
+        assertTrue(th.beforeStart());
+
+        th.append(ID);
+        th.append(COORD, true);
+        assertEquals(1, th.size());
+        assertEquals(2, th.size(true));
+        assertEquals(ID, th.lastVisit());
+        assertNull(th.penultimateVisit());
+
+        th.append(UPPER);
+        assertEquals(2, th.size());
+        assertEquals(3, th.size(true));
+        assertEquals(UPPER, th.lastVisit());
+        assertEquals(ID, th.penultimateVisit());
+        assertEquals(UPPER, th.lastVisitEntry().getKey());
+        assertEquals(ID, th.penultimateVisitEntry().getKey());
+        assertTrue(th.hasVisited("*.TO_UPPER.*.*"));
+        assertFalse(th.hasVisited("*.HASH.*.*"));
+        assertFalse(th.beforeStart());
+
+        th.clear();
+        assertEquals(0, th.size(true));
+        assertNull(th.lastVisit());
+    }
+
+    @Test
+    void testHistoryFilledByDeserialization() throws Exception {
+        // What Kryo does, the no-arg constructor then the fields set directly
+        TransformHistory th = new TransformHistory();
+        Field history = TransformHistory.class.getDeclaredField("history");
+        history.setAccessible(true);
+        history.set(th, new ArrayList<>(Arrays.asList(new TransformHistory.History(ID), new TransformHistory.History(COORD, true),
+                new TransformHistory.History(UPPER))));
+
+        assertEquals(2, th.size());
+        assertEquals(3, th.size(true));
+        assertEquals(UPPER, th.lastVisit());
+        assertEquals(ID, th.penultimateVisit());
+        assertEquals(UPPER, th.lastVisitEntry().getKey());
+
+        th.append(ID);
+        assertEquals(3, th.size());
+        assertEquals(ID, th.lastVisit());
+    }
+
+    @Test
+    void testViewsFollowHistory() {
+        TransformHistory th = new TransformHistory();
+        List<String> visits = th.view();
+        List<String> all = th.view(true);
+        th.append(ID);
+        th.append(COORD, true);
+        th.append(UPPER);
+        assertEquals(th.get(), visits);
+        assertEquals(th.get(true), all);
+        assertThrows(UnsupportedOperationException.class, () -> visits.add(ID));
+        assertThrows(IndexOutOfBoundsException.class, () -> visits.get(2));
+    }
+
+    @Test
+    void testEntriesAreCopies() {
+        TransformHistory th = new TransformHistory();
+        th.append(ID);
+        DirectoryEntry first = th.lastVisitEntry();
+        first.setCost(99);
+        DirectoryEntry second = th.lastVisitEntry();
+        assertNotSame(first, second);
+        assertEquals(new DirectoryEntry(ID).getCost(), second.getCost());
+    }
+
+    @Test
+    void testCopyAndSetAreIndependent() {
+        TransformHistory th = new TransformHistory();
+        for (int i = 0; i < 20; i++) {
+            th.append(ID + i, i % 3 == 0);
+        }
+        TransformHistory copy = new TransformHistory(th);
+        copy.append(UPPER);
+        assertEquals(13, th.size());
+        assertEquals(14, copy.size());
+        assertEquals(UPPER, copy.lastVisit());
+        assertEquals(ID + "19", th.lastVisit());
+
+        TransformHistory replaced = new TransformHistory();
+        replaced.append(COORD, true);
+        replaced.set(th);
+        assertEquals(th.get(true), replaced.get(true));
+        assertEquals(th.get(), replaced.view());
+
+        replaced.set(Arrays.asList(ID, UPPER));
+        assertEquals(2, replaced.size());
+        assertEquals(ID, replaced.penultimateVisit());
+    }
+}
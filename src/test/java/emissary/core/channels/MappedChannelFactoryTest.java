@@ -0,0 +1,98 @@
+package emissary.core.channels;
+
+import com.google.common.io.Files;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedChannelFactoryTest {
+    private static final String TEST_STRING = "test data";
+    private static final byte[] TEST_BYTES = TEST_STRING.getBytes(StandardCharsets.US_ASCII);
+
+    private static SeekableByteChannelFactory sbcf;
+
+    @BeforeAll
+    static void setup(final @TempDir Path tempDir) throws IOException {
+        final Path path = tempDir.resolve("testBytes");
+
+        Files.write(TEST_BYTES, path.toFile());
+
+        sbcf = MappedChannelFactory.create(path);
+    }
+
+    @Test
+    void testCanCreateMultipleIndependentChannelsForTheSameFile() throws IOException {
+        final SeekableByteChannel sbc = sbcf.create();
+        final SeekableByteChannel sbc2 = sbcf.create();
+
+        final ByteBuffer buff = ByteBuffer.allocate(4);
+        sbc.read(buff);
+        assertEquals("test", new String(buff.array()));
+        buff.clear();
+        sbc2.position(5).read(buff);
+        assertEquals("data", new String(buff.array()));
+        assertEquals(4, sbc.position());
+    }
+
+    @Test
+    void testCannotCreateFactoryWithNull() {
+        assertThrows(NullPointerException.class, () -> MappedChannelFactory.create((Path) null));
+        assertThrows(NullPointerException.class, () -> MappedChannelFactory.create((ByteBuffer) null));
+    }
+
+    @Test
+    void testNormalPath() throws IOException {
+        final ByteBuffer buff = ByteBuffer.allocate(TEST_STRING.length());
+        try (SeekableByteChannel sbc = sbcf.create()) {
+            assertEquals(TEST_BYTES.length, sbc.size());
+            assertEquals(TEST_BYTES.length, sbc.read(buff));
+            assertEquals(-1, sbc.read(ByteBuffer.allocate(1)));
+        }
+        assertEquals(TEST_STRING, new String(buff.array()));
+    }
+
+    @Test
+    void testOversizeBuffer() throws IOException {
+        final ByteBuffer buff = ByteBuffer.allocate(TEST_STRING.length() + 10);
+        assertEquals(TEST_BYTES.length - 2, sbcf.create().position(2).read(buff));
+        assertEquals(TEST_STRING.substring(2), new String(buff.array(), 0, buff.position()));
+    }
+
+    @Test
+    void testBufferPosition() throws IOException {
+        final ByteBuffer source = ByteBuffer.wrap(TEST_BYTES);
+        source.position(5);
+        final SeekableByteChannelFactory fromBuffer = MappedChannelFactory.create(source);
+        final ByteBuffer buff = ByteBuffer.allocate(4);
+        try (SeekableByteChannel sbc = fromBuffer.create()) {
+            assertEquals(4, sbc.size());
+            sbc.read(buff);
+        }
+        assertEquals("data", new String(buff.array()));
+        assertEquals(5, source.position(), "Source buffer must not be disturbed");
+    }
+
+    @Test
+    void testSegment() throws IOException {
+        final SeekableByteChannelFactory segment = SegmentChannelFactory.create(sbcf, 5, 4);
+        final ByteBuffer buff = ByteBuffer.allocate(4);
+        segment.create().read(buff);
+        assertEquals("data", new String(buff.array()));
+    }
+
+    @Test
+    void testCannotWrite() {
+        assertThrows(NonWritableChannelException.class, () -> sbcf.create().write(ByteBuffer.wrap(TEST_BYTES)));
+        assertThrows(NonWritableChannelException.class, () -> sbcf.create().truncate(2));
+    }
+}
@@ -0,0 +1,114 @@
+package emissary.directory;
+
+import emissary.test.core.junit5.UnitTest;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompiledRoutingTableTest extends UnitTest {
+
+    private DirectoryEntryMap map;
+    private MetricRegistry registry;
+    private CompiledRoutingTable table;
+
+    @Override
+    @BeforeEach
+    public void setUp() throws Exception {
+        super.setUp();
+        this.map = new DirectoryEntryMap();
+        this.map.addEntry(new DirectoryEntry("FOO-BAR.s1.ID.http://example.com:8001/A$5050"));
+        this.map.addEntry(new DirectoryEntry("FOO-*.s2.ID.http://example.com:8001/B$4050"));
+        this.registry = new MetricRegistry();
+        this.table = new CompiledRoutingTable(this.registry);
+    }
+
+    @Test
+    void testLookupIsCached() {
+        final DirectoryEntryList first = this.table.lookup("FOO-BAR::ID", this.map);
+        assertEquals(2, first.size(), "Both wildcard matches should be compiled");
+        assertEquals("s2", first.getEntry(0).getServiceName(), "Compiled list should be expense sorted");
+
+        final DirectoryEntryList second = this.table.lookup("FOO-BAR::ID", this.map);
+        assertSame(first, second, "Second lookup should be served from the cache");
+        assertEquals(1, this.table.getMissCount());
+        assertEquals(1, this.table.getHitCount());
+        assertEquals(1, this.registry.counter(CompiledRoutingTable.HIT_METRIC).getCount());
+        assertEquals(1, this.registry.counter(CompiledRoutingTable.MISS_METRIC).getCount());
+    }
+
+    @Test
+    void testMissingDataIdCachesEmptyList() {
+        assertTrue(this.table.lookup("NOPE::ID", this.map).isEmpty());
+        assertTrue(this.table.lookup("NOPE::ID", this.map).isEmpty());
+        assertEquals(1, this.table.getHitCount());
+        assertEquals(1, this.table.size());
+    }
+
+    @Test
+    void testInvalidationThroughObserverManager() {
+        final DirectoryObserverManager manager = new DirectoryObserverManager("http://example.com:8001/DirectoryPlace");
+        manager.addObserver(this.table);
+        this.table.lookup("FOO-BAR::ID", this.map);
+        assertEquals(1, this.table.size());
+
+        final DirectoryEntry added = new DirectoryEntry("FOO-BAR.s3.ID.http://example.com:8001/C$1050");
+        this.map.addEntry(added);
+        manager.placeAdd(added.getFullKey());
+        assertEquals(0, this.table.size(), "Place add must clear compiled routes");
+        assertEquals(0, this.table.getRebuildCount());
+
+        final DirectoryEntryList rebuilt = this.table.lookup("FOO-BAR::ID", this.map);
+        assertEquals(1, this.table.getRebuildCount());
+        assertEquals(3, rebuilt.size());
+        assertEquals("s3", rebuilt.getEntry(0).getServiceName(), "Cheapest new entry should be first");
+
+        this.map.removeEntry(added.getKey());
+        manager.placeRemove(added.getFullKey());
+        assertEquals(2, this.table.lookup("FOO-BAR::ID", this.map).size());
+
+        manager.placeCostChange(added.getFullKey());
+        assertEquals(2, this.table.getRebuildCount(), "Only routes compiled again count as rebuilds");
+        this.table.lookup("FOO-BAR::ID", this.map);
+        assertEquals(3, this.table.getRebuildCount());
+    }
+
+    @Test
+    void testLookupCannotChangeTheCache() {
+        final DirectoryEntryList first = this.table.lookup("FOO-BAR::ID", this.map);
+        final DirectoryEntry extra = new DirectoryEntry("FOO-BAR.s9.ID.http://example.com:8001/Z$100");
+        assertThrows(UnsupportedOperationException.class, first::clear);
+        assertThrows(UnsupportedOperationException.class, () -> first.add(extra));
+        assertThrows(UnsupportedOperationException.class, () -> first.remove(0));
+        assertThrows(UnsupportedOperationException.class, () -> first.set(0, extra));
+        assertThrows(UnsupportedOperationException.class, () -> first.subList(0, 1).clear());
+        assertThrows(UnsupportedOperationException.class, first::sort);
+        assertEquals(2, this.table.lookup("FOO-BAR::ID", this.map).size());
+        assertEquals("s2", first.pickOneOf(first.getEntry(0).getExpense()).getServiceName(), "Reads still work");
+    }
+
+    @Test
+    void testBatchRemovalClearsOnce() {
+        final DirectoryObserverManager manager = new DirectoryObserverManager("http://example.com:8001/DirectoryPlace");
+        manager.addObserver(this.table);
+        this.table.lookup("FOO-BAR::ID", this.map);
+        this.table.lookup("NOPE::ID", this.map);
+
+        final List<DirectoryEntry> removed = this.map.removeAllMatching("*.*.*.http://example.com:8001/*");
+        assertEquals(2, removed.size());
+        manager.placeRemoveEntries(removed);
+        assertEquals(0, this.table.size(), "Place removal must clear compiled routes");
+
+        assertTrue(this.table.lookup("FOO-BAR::ID", this.map).isEmpty());
+        assertEquals(1, this.table.getRebuildCount());
+        assertTrue(this.table.lookup("FOO-BAR::ID", this.map).isEmpty());
+        assertEquals(1, this.table.getRebuildCount(), "A cached route is not a rebuild");
+    }
+}
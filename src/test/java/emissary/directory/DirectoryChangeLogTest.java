@@ -0,0 +1,120 @@
+package emissary.directory;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirectoryChangeLogTest extends UnitTest {
+
+    private static final String key = "UNKNOWN.FOOPLACE.ID.http://host.domain.com:8001/ThePlace";
+    private static final String key2 = "UNKNOWN.FOOPLACE.ID.http://host2.domain.com:9001/ThePlace";
+    private static final String key3 = "UNKNOWN.FOOPLACE.TRANSFORM.http://host.domain.com:8001/ThePlace";
+
+    @Test
+    void testVersions() {
+        final DirectoryChangeLog log = new DirectoryChangeLog(10, 42L);
+        assertEquals(0L, log.getVersion());
+        log.added(new DirectoryEntry(key));
+        log.added(new DirectoryEntry(key2));
+        log.removed(new DirectoryEntry(key));
+        assertEquals(3L, log.getVersion());
+        assertEquals(42L, log.getPosition().getEpoch());
+        assertEquals(3L, log.getPosition().getVersion());
+        assertEquals(3, log.size());
+    }
+
+    @Test
+    void testChangesSince() {
+        final DirectoryChangeLog log = new DirectoryChangeLog(10, 42L);
+        log.added(new DirectoryEntry(key));
+        log.added(new DirectoryEntry(key2));
+        log.added(new DirectoryEntry(key3));
+
+        final List<DirectoryChangeLog.Change> changes = log.changesSince(42L, 1L);
+        assertNotNull(changes);
+        assertEquals(2, changes.size());
+        assertEquals(key2, changes.get(0).getEntry().getKey());
+        assertEquals(2L, changes.get(0).getVersion());
+        assertEquals(key3, changes.get(1).getEntry().getKey());
+
+        assertTrue(log.changesSince(42L, 3L).isEmpty(), "Up to date peer gets no changes");
+        assertEquals(3, log.changesSince(42L, 0L).size());
+    }
+
+    @Test
+    void testChangesCollapsePerKey() {
+        final DirectoryChangeLog log = new DirectoryChangeLog(10, 42L);
+        log.added(new DirectoryEntry(key));
+        log.added(new DirectoryEntry(key2));
+        log.removed(new DirectoryEntry(key));
+
+        final List<DirectoryChangeLog.Change> changes = log.changesSince(42L, 0L);
+        assertNotNull(changes);
+        assertEquals(2, changes.size());
+        assertEquals(key2, changes.get(0).getEntry().getKey());
+        assertEquals(DirectoryChangeLog.Op.ADD, changes.get(0).getOp());
+        assertEquals(key, changes.get(1).getEntry().getKey());
+        assertEquals(DirectoryChangeLog.Op.REMOVE, changes.get(1).getOp());
+        assertEquals(3L, changes.get(1).getVersion());
+    }
+
+    @Test
+    void testChangesNoLongerKept() {
+        final DirectoryChangeLog log = new DirectoryChangeLog(2, 42L);
+        log.added(new DirectoryEntry(key));
+        log.added(new DirectoryEntry(key2));
+        log.added(new DirectoryEntry(key3));
+        assertEquals(2, log.size());
+
+        assertNull(log.changesSince(42L, 0L), "Version 1 was dropped so a snapshot is needed");
+        assertEquals(2, log.changesSince(42L, 1L).size());
+    }
+
+    @Test
+    void testUnknownPositions() {
+        final DirectoryChangeLog log = new DirectoryChangeLog(10, 42L);
+        log.added(new DirectoryEntry(key));
+        assertNull(log.changesSince(41L, 0L), "Different epoch");
+        assertNull(log.changesSince(42L, -1L), "Never synced");
+        assertNull(log.changesSince(42L, 5L), "Ahead of the log");
+    }
+
+    @Test
+    void testBadCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new DirectoryChangeLog(0));
+    }
+
+    @Test
+    void testEntryMapRecordsChanges() {
+        final DirectoryEntryMap dm = new DirectoryEntryMap();
+        final DirectoryChangeLog log = new DirectoryChangeLog(10, 42L);
+        dm.setChangeLog(log);
+
+        dm.addEntry(new DirectoryEntry(key));
+        dm.addEntry(new DirectoryEntry(key2));
+        assertEquals(2L, log.getVersion());
+
+        assertNotNull(dm.removeEntry(key));
+        assertEquals(3L, log.getVersion());
+        assertNull(dm.removeEntry(key));
+        assertEquals(3L, log.getVersion(), "Removing a missing entry is not a change");
+
+        final DirectoryEntryMap more = new DirectoryEntryMap();
+        more.addEntry(new DirectoryEntry(key3));
+        dm.addEntries(more);
+        assertEquals(4L, log.getVersion());
+
+        final List<DirectoryChangeLog.Change> changes = log.changesSince(42L, 2L);
+        assertNotNull(changes);
+        assertEquals(DirectoryChangeLog.Op.REMOVE, changes.get(0).getOp());
+        assertEquals(key3, changes.get(1).getEntry().getKey());
+    }
+}
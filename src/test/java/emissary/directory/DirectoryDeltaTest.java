@@ -0,0 +1,98 @@
+package emissary.directory;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirectoryDeltaTest extends UnitTest {
+
+    private static final String location = "EMISSARY_DIRECTORY_SERVICES.DIRECTORY.STUDY.http://host.domain.com:8001/DirectoryPlace";
+    private static final String key = "UNKNOWN.FOOPLACE.ID.http://host.domain.com:8001/ThePlace";
+    private static final String key2 = "UNKNOWN.FOOPLACE.TRANSFORM.http://host.domain.com:8001/ThePlace";
+    private static final String dirKey = "EMISSARY_DIRECTORY_SERVICES.DIRECTORY.STUDY.http://host.domain.com:8001/DirectoryPlace";
+
+    @Test
+    void testChangesRoundTrip() throws IOException {
+        final DirectoryChangeLog log = new DirectoryChangeLog(10, 7L);
+        log.added(new DirectoryEntry(key, "A place", 20, 80));
+        log.added(new DirectoryEntry(key2, "Another place", 30, 70));
+        log.removed(new DirectoryEntry(key2));
+
+        final DirectoryDelta delta = DirectoryDelta.changes(location, log.getEpoch(), 0L, log.changesSince(log.getEpoch(), 0L));
+        assertFalse(delta.isSnapshot());
+        assertEquals(3L, delta.getVersion());
+
+        final String json = delta.toJson();
+        final DirectoryDelta read = DirectoryDelta.fromJson(json);
+        assertEquals(location, read.getLocation());
+        assertEquals(7L, read.getEpoch());
+        assertEquals(3L, read.getVersion());
+        assertFalse(read.isSnapshot());
+        assertEquals(json.getBytes(StandardCharsets.UTF_8).length, read.getWireBytes());
+        assertEquals(2, read.getChanges().size());
+
+        final DirectoryEntry added = read.getChanges().get(0).getEntry();
+        assertEquals(DirectoryChangeLog.Op.ADD, read.getChanges().get(0).getOp());
+        assertEquals(key, added.getKey());
+        assertEquals("A place", added.getDescription());
+        assertEquals(20, added.getCost());
+        assertEquals(80, added.getQuality());
+        assertEquals(DirectoryChangeLog.Op.REMOVE, read.getChanges().get(1).getOp());
+        assertEquals(key2, read.getChanges().get(1).getEntry().getKey());
+
+        final DirectoryEntryMap map = read.toEntryMap();
+        assertEquals(1, map.entryCount());
+        assertEquals(key, map.collectAllMatching("*.*.*.*").get(0).getKey());
+    }
+
+    @Test
+    void testEmptyChangesKeepVersion() throws IOException {
+        final DirectoryDelta delta = DirectoryDelta.changes(location, 7L, 12L, Collections.emptyList());
+        assertEquals(12L, delta.getVersion());
+        final DirectoryDelta read = DirectoryDelta.fromJson(delta.toJson());
+        assertEquals(12L, read.getPosition().getVersion());
+        assertTrue(read.getChanges().isEmpty());
+    }
+
+    @Test
+    void testSnapshot() throws IOException {
+        final DirectoryDelta delta = DirectoryDelta.snapshot(location, 7L, 5L,
+                Arrays.asList(new DirectoryEntry(key), new DirectoryEntry(dirKey)));
+        final DirectoryDelta read = DirectoryDelta.fromJson(delta.toJson());
+        assertTrue(read.isSnapshot());
+        assertEquals(5L, read.getVersion());
+        assertEquals(2, read.toEntryMap().entryCount());
+
+        final DirectoryDelta dirsOnly = read.retainDataIds(Collections.singletonList(KeyManipulator.getDataID(dirKey)));
+        assertEquals(1, dirsOnly.getChanges().size());
+        assertEquals(dirKey, dirsOnly.getChanges().get(0).getEntry().getKey());
+        assertEquals(read.getWireBytes(), dirsOnly.getWireBytes());
+        assertEquals(5L, dirsOnly.getVersion());
+    }
+
+    @Test
+    void testBadJson() {
+        assertThrows(IOException.class, () -> DirectoryDelta.fromJson("[]"));
+        assertThrows(IOException.class, () -> DirectoryDelta.fromJson("{\"epoch\":1,\"version\":2}"));
+        assertThrows(IOException.class, () -> DirectoryDelta.fromJson(
+                "{\"location\":\"" + location + "\",\"epoch\":1,\"version\":2,\"changes\":[{\"op\":\"MOVE\",\"key\":\"" + key + "\"}]}"));
+        assertThrows(IOException.class,
+                () -> DirectoryDelta
+                        .fromJson("{\"location\":\"" + location + "\",\"epoch\":1,\"version\":2,\"changes\":[{\"op\":\"ADD\",\"key\":\"bogus\"}]}"));
+    }
+
+    @Test
+    void testWireBytesUnknownUntilRead() {
+        assertEquals(-1L, DirectoryDelta.changes(location, 7L, 0L, Collections.emptyList()).getWireBytes());
+    }
+}
@@ -0,0 +1,110 @@
+package emissary.directory;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirectoryEntryIndexTest extends UnitTest {
+
+    private static final String key = "UNKNOWN.FOOPLACE.ID.http://host.domain.com:8001/ThePlace";
+    private static final String key2 = "UNKNOWN.BARPLACE.ID.http://host.domain.com:8001/ThePlace";
+    private static final String key3 = "PDF.FOOPLACE.TRANSFORM.http://host2.domain.com:9001/ThePlace";
+    private static final String odd = "X.Y.Z.NoSchemePlace";
+
+    private DirectoryEntryIndex index;
+
+    @Override
+    @BeforeEach
+    public void setUp() throws Exception {
+        this.index = new DirectoryEntryIndex();
+        this.index.add(new DirectoryEntry(key));
+        this.index.add(new DirectoryEntry(key2));
+        this.index.add(new DirectoryEntry(key3));
+    }
+
+    @Nullable
+    private Set<String> candidateKeys(final String pattern) {
+        final Collection<DirectoryEntry> entries = this.index.candidates(pattern);
+        if (entries == null) {
+            return null;
+        }
+        final Set<String> keys = new HashSet<>();
+        for (final DirectoryEntry e : entries) {
+            keys.add(e.getKey());
+        }
+        return keys;
+    }
+
+    @Test
+    void testServiceHost() {
+        assertEquals("http://host.domain.com:8001/", DirectoryEntryIndex.getServiceHost(key));
+        assertEquals("http://host.domain.com:8001/", DirectoryEntryIndex.getServiceHost("A.B.C.http://host.domain.com:8001/sub/Place"));
+        assertNull(DirectoryEntryIndex.getServiceHost(odd), "No scheme");
+        assertNull(DirectoryEntryIndex.getServiceHost("A.B.C.tcp://h:1/http://host:2/Place"), "Two schemes");
+        assertNull(DirectoryEntryIndex.getServiceHost("A.B.C.D.http://h:1/Place"), "Scheme not after the third separator");
+    }
+
+    @Test
+    void testHostCandidates() {
+        final Set<String> c = candidateKeys("*.*.*.http://host.domain.com:8001/*");
+        assertNotNull(c, "Host pattern is indexed");
+        assertEquals(2, c.size());
+        assertTrue(c.contains(key) && c.contains(key2));
+        assertEquals(Collections.emptySet(), candidateKeys("*.*.*.http://nowhere:1/*"));
+    }
+
+    @Test
+    void testIntersection() {
+        assertEquals(Collections.singleton(key), candidateKeys("*.FOOPLACE.*.http://host.domain.com:8001/*"));
+        assertEquals(Collections.singleton(key3), candidateKeys("PDF.FOOPLACE.TRANSFORM.*"));
+        assertEquals(2, candidateKeys("UNKNOWN.*.ID.http://host.domain.com:8001/*").size());
+    }
+
+    @Test
+    void testUnindexablePatterns() {
+        assertNull(candidateKeys("*.*.*.*"));
+        assertNull(candidateKeys("*.FOOPLACE.*.*"), "Leading wildcard can span separators");
+        assertNull(candidateKeys("*.*.ID.*"));
+        assertNull(candidateKeys("*.*.*.http://host*"), "Host is not literal");
+        assertNull(candidateKeys("UNKNOWN"));
+    }
+
+    @Test
+    void testOddKeysAlwaysCandidates() {
+        this.index.add(new DirectoryEntry(odd));
+        assertTrue(candidateKeys("*.*.*.http://nowhere:1/*").contains(odd));
+        this.index.remove(odd);
+        assertTrue(candidateKeys("*.*.*.http://nowhere:1/*").isEmpty());
+    }
+
+    @Test
+    void testRemoveAndClear() {
+        this.index.remove(key);
+        assertEquals(Collections.singleton(key2), candidateKeys("*.*.*.http://host.domain.com:8001/*"));
+        this.index.clear();
+        assertTrue(candidateKeys("*.*.*.http://host.domain.com:8001/*").isEmpty());
+    }
+
+    @Test
+    void testCandidatesAreTheLiveEntries() {
+        final DirectoryEntry better = new DirectoryEntry(key, "cheaper", 10, 90);
+        this.index.add(better);
+        final Collection<DirectoryEntry> c = this.index.candidates("*.FOOPLACE.*.http://host.domain.com:8001/*");
+        assertNotNull(c);
+        assertEquals(1, c.size());
+        assertSame(better, c.iterator().next(), "Latest entry for the key is indexed");
+    }
+}
@@ -7,9 +7,14 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -243,4 +248,102 @@ class DirectoryEntryMapTest extends UnitTest {
             assertEquals(s1.size(), s2.size(), "Size of maps is same");
         }
     }
+
+    @Test
+    void testIndexedMatchesAgreeWithScan() {
+        final List<String> keys = Arrays.asList(
+                "UNKNOWN.FOOPLACE.ID.http://host.domain.com:8001/ThePlace",
+                "UNKNOWN.BARPLACE.ID.http://host.domain.com:8001/OtherPlace",
+                "PDF.FOOPLACE.TRANSFORM.http://host2.domain.com:9001/ThePlace",
+                "PDF.BARPLACE.ANALYZE.http://host.domain.com:8001/sub/Place",
+                // wildcards can match across the separators of these
+                "X.FOO.FOOPLACE.http://host.domain.com:8001/ThePlace",
+                "X.Y.Z.http://host.FOOPLACE.ID.com:8001/ThePlace",
+                "X.Y.Z.tcp://other.domain.com:8001/http://host.domain.com:8001/Place",
+                "X.Y.Z.NoSchemePlace");
+        for (final String k : keys) {
+            this.dm.addEntry(new DirectoryEntry(k, "indexed", cost, quality));
+        }
+
+        final String[] patterns = new String[] {"*.*.*.http://host.domain.com:8001/*", "*.FOOPLACE.*.http://host.domain.com:8001/*",
+                "*.*.ID.http://host.domain.com:8001/*", "UNKNOWN.FOOPLACE.*.*", "PDF.FOOPLACE.TRANSFORM.*", "*.FOOPLACE.*.*",
+                "*.*.ID.*", "*.*.*.*", "?.*.*.http://host.domain.com:8001/*", "*.*.*.http://nowhere:1/*",
+                "*.FOO?LACE.*.http://host2.domain.com:9001/*",
+                "*.*.*.http://host.domain.com:8001/sub/*"};
+        for (final String pattern : patterns) {
+            final Set<String> expected = new TreeSet<>();
+            for (final DirectoryEntry e : this.dm.allEntries()) {
+                if (KeyManipulator.gmatch(e.getKey(), pattern)) {
+                    expected.add(e.getKey());
+                }
+            }
+            final Set<String> actual = new TreeSet<>();
+            for (final DirectoryEntry e : this.dm.collectAllMatching(pattern)) {
+                actual.add(e.getKey());
+            }
+            assertEquals(expected, actual, "Matches for " + pattern);
+            assertEquals(expected.size(), this.dm.countAllMatching(pattern), "Count for " + pattern);
+        }
+    }
+
+    @Test
+    void testIndexFollowsRemovals() {
+        final String hostPattern = "*.*.*.http://host.domain.com:8001/*";
+        assertEquals(2, this.dm.countAllMatching(hostPattern), "Count on host");
+
+        this.dm.removeEntry(key);
+        assertEquals(1, this.dm.countAllMatching(hostPattern), "Count on host after remove");
+
+        final List<DirectoryEntry> removed = this.dm.removeAllOnDirectory(key);
+        assertEquals(1, removed.size(), "Removed on host");
+        assertEquals(0, this.dm.countAllMatching(hostPattern), "Count on host after remove all");
+        assertEquals(1, this.dm.countAllMatching("*.*.*.http://host2.domain.com:9001/*"), "Other host untouched");
+
+        // Add back with a better cost, the duplicate key is replaced but still indexed once
+        this.dm.addEntry(new DirectoryEntry(key3, "Transform place", cost, quality));
+        this.dm.addEntry(new DirectoryEntry(key3, "Cheaper transform place", cost - 10, quality));
+        assertEquals(1, this.dm.countAllMatching(hostPattern), "Duplicate key counted once");
+        assertEquals(cost - 10, this.dm.collectAllMatching(hostPattern).get(0).getCost(), "Live entry returned");
+    }
+
+    @Test
+    void testIndexFollowsWholeLists() {
+        final String hostPattern = "*.*.*.http://host.domain.com:8001/*";
+        final DirectoryEntryList list = this.dm.remove("UNKNOWN::ID");
+        assertNotNull(list, "Removed list");
+        assertEquals(1, this.dm.countAllMatching(hostPattern), "Removed list is not indexed");
+
+        this.dm.put("UNKNOWN::ID", list);
+        assertEquals(2, this.dm.countAllMatching(hostPattern), "Put list is indexed");
+
+        // Replace the list with one holding just the other host
+        final DirectoryEntryList other = new DirectoryEntryList();
+        other.add(this.d2);
+        this.dm.put("UNKNOWN::ID", other);
+        assertEquals(1, this.dm.countAllMatching(hostPattern), "Replaced list is not indexed");
+
+        final DirectoryEntryMap copy = new DirectoryEntryMap(this.dm, DirectoryEntryMap.DEEP_COPY);
+        assertEquals(1, copy.countAllMatching(hostPattern), "Copy is indexed");
+
+        this.dm.clear();
+        assertEquals(0, this.dm.countAllMatching(hostPattern), "Cleared");
+        assertFalse(copy.collectAllMatching("*.*.*.http://host2.domain.com:9001/*").isEmpty(), "Copy is not cleared");
+    }
+
+    @Test
+    void testRemoveAllOnDirectoryIndexed() {
+        for (int i = 0; i < 1000; i++) {
+            this.dm.addEntry(
+                    new DirectoryEntry("UNKNOWN.PLACE" + i + ".ID.http://host-" + (i % 10) + ".domain.com:7001/ThePlace", "blah", cost, quality));
+        }
+        final List<DirectoryEntry> removed =
+                this.dm.removeAllOnDirectory("EMISSARY_DIRECTORY_SERVICES.DIRECTORY.STUDY.http://host-3.domain.com:7001/DirectoryPlace");
+        assertEquals(100, removed.size(), "Removed on directory");
+        final List<String> hosts = new ArrayList<>();
+        for (final DirectoryEntry e : removed) {
+            hosts.add(KeyManipulator.getServiceHost(e.getKey()));
+        }
+        assertTrue(hosts.stream().allMatch("host-3.domain.com:7001"::equals), "Only entries on the directory removed");
+        assertEquals(1003 - 100, this.dm.entryCount(), "Others remain");
+    }
 }
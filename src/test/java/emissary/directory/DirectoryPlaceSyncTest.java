@@ -0,0 +1,207 @@
+package emissary.directory;
+
+import emissary.config.ConfigUtil;
+import emissary.core.EmissaryException;
+import emissary.server.mvc.adapters.DirectoryAdapter;
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Pulling entries from a peer directory, with the remote side played by a mock adapter
+ */
+class DirectoryPlaceSyncTest extends UnitTest {
+
+    private static final String DIRNAME = "EMISSARY_DIRECTORY_SERVICES.DIRECTORY.STUDY.http://localhost:9999/DirectoryPlace$5050";
+    private static final String PEER = "*.*.*.http://remoteHost:8888/DirectoryPlace";
+    private static final String PEER_LOCATION = "EMISSARY_DIRECTORY_SERVICES.DIRECTORY.STUDY.http://remoteHost:8888/DirectoryPlace$5050";
+    private static final long EPOCH = 12345L;
+
+    private final DirectoryEntry peerEntry = new DirectoryEntry("UNKNOWN.TO_LOWER.TRANSFORM.http://remoteHost:8888/ToLowerPlace$5050");
+    private final DirectoryEntry otherPeerEntry = new DirectoryEntry("UNKNOWN.TO_UPPER.TRANSFORM.http://remoteHost:8888/ToUpperPlace$5050");
+    private final DirectoryEntry relayedEntry = new DirectoryEntry("UNKNOWN.TO_LOWER.TRANSFORM.http://otherHost:8888/ToLowerPlace$5050");
+
+    private DirectoryAdapter adapter;
+    private DirectoryPlace place;
+
+    @Override
+    @BeforeEach
+    public void setUp() throws Exception {
+        adapter = mock(DirectoryAdapter.class);
+        final EmissaryNode node = mock(EmissaryNode.class);
+        when(node.isValid()).thenReturn(true);
+        when(node.getPeerConfigurator()).thenReturn(ConfigUtil.getConfigInfo("peer-TESTING.cfg"));
+        place = new DirectoryPlace("peer-TESTING.cfg", DIRNAME, node) {
+            @Override
+            protected DirectoryAdapter newDirectoryAdapter() {
+                return adapter;
+            }
+        };
+    }
+
+    @Override
+    @AfterEach
+    public void tearDown() throws Exception {
+        super.tearDown();
+        place.shutDown();
+    }
+
+    @Test
+    void testSnapshotThenChanges() throws Exception {
+        when(adapter.outboundDirectoryChanges(eq(PEER), anyString(), isNull()))
+                .thenReturn(DirectoryDelta.snapshot(PEER_LOCATION, EPOCH, 3L, Collections.singletonList(peerEntry)));
+        place.loadPeerEntries(PEER);
+
+        assertTrue(hasEntry(peerEntry), "Snapshot entries should be loaded");
+        assertPosition(3L);
+        assertEquals(1L, place.getSyncMetrics().getSnapshotCount());
+
+        when(adapter.outboundDirectoryChanges(eq(PEER), anyString(), any(DirectoryChangeLog.Position.class)))
+                .thenReturn(changes(3L, new DirectoryChangeLog.Change(4L, DirectoryChangeLog.Op.ADD, otherPeerEntry)));
+        place.loadPeerEntries(PEER);
+
+        assertTrue(hasEntry(peerEntry), "Earlier entries should be kept");
+        assertTrue(hasEntry(otherPeerEntry), "Added entries should be loaded");
+        assertPosition(4L);
+        assertEquals(1L, place.getSyncMetrics().getDeltaCount());
+        assertEquals(0L, place.getSyncMetrics().getLegacyCount());
+        verify(adapter, never()).outboundRegisterPeer(anyString(), anyString());
+    }
+
+    @Test
+    void testAddedEntriesCarryRemoteCost() throws Exception {
+        loadSnapshot();
+        when(adapter.outboundDirectoryChanges(eq(PEER), anyString(), any(DirectoryChangeLog.Position.class)))
+                .thenReturn(changes(3L, new DirectoryChangeLog.Change(4L, DirectoryChangeLog.Op.ADD, otherPeerEntry)));
+        place.loadPeerEntries(PEER);
+
+        for (final DirectoryEntry e : place.getEntries()) {
+            if (e.getKey().equals(otherPeerEntry.getKey())) {
+                assertTrue(e.getExpense() > otherPeerEntry.getExpense(), "Remote overhead should be added to delta entries");
+                return;
+            }
+        }
+        throw new AssertionError("Added entry was not loaded");
+    }
+
+    @Test
+    void testRemovalsOnlyForRemoteHost() throws Exception {
+        loadSnapshot();
+        assertTrue(hasEntry(relayedEntry), "Relayed entries should be loaded from a snapshot");
+
+        when(adapter.outboundDirectoryChanges(eq(PEER), anyString(), any(DirectoryChangeLog.Position.class)))
+                .thenReturn(changes(3L, new DirectoryChangeLog.Change(4L, DirectoryChangeLog.Op.REMOVE, peerEntry),
+                        new DirectoryChangeLog.Change(5L, DirectoryChangeLog.Op.REMOVE, relayedEntry)));
+        place.loadPeerEntries(PEER);
+
+        assertFalse(hasEntry(peerEntry), "Removals on the remote host should be applied");
+        assertTrue(hasEntry(relayedEntry), "Removals for other hosts should be left to their own directories");
+        assertPosition(5L);
+    }
+
+    @Test
+    void testFallbackToZoneTransfer() throws Exception {
+        final DirectoryEntryMap map = new DirectoryEntryMap();
+        map.addEntry(new DirectoryEntry(peerEntry));
+        when(adapter.outboundRegisterPeer(eq(PEER), anyString())).thenReturn(map);
+        place.loadPeerEntries(PEER);
+
+        verify(adapter).outboundDirectoryChanges(eq(PEER), anyString(), isNull());
+        assertTrue(hasEntry(peerEntry), "Zone transfer entries should be loaded");
+        assertNull(place.peerPositions.get(PEER), "Nothing to remember after a zone transfer");
+        assertEquals(1L, place.getSyncMetrics().getLegacyCount());
+        assertEquals(0L, place.getSyncMetrics().getDeltaCount());
+        assertEquals(0L, place.getSyncMetrics().getSnapshotCount());
+    }
+
+    @Test
+    void testDeltaSyncDisabled() throws Exception {
+        place.deltaSyncEnabled = false;
+        when(adapter.outboundRegisterPeer(eq(PEER), anyString())).thenReturn(new DirectoryEntryMap());
+        place.loadPeerEntries(PEER);
+
+        verify(adapter, never()).outboundDirectoryChanges(anyString(), anyString(), any());
+        verify(adapter).outboundRegisterPeer(eq(PEER), anyString());
+        assertEquals(1L, place.getSyncMetrics().getLegacyCount());
+    }
+
+    @Test
+    void testPositionKeptOnTransientFailure() throws Exception {
+        loadSnapshot();
+        place.irdFailDirectory(PEER, false);
+        assertPosition(3L);
+    }
+
+    @Test
+    void testPositionResetOnPermanentFailure() throws Exception {
+        loadSnapshot();
+        place.irdFailDirectory(PEER, true);
+        assertNull(place.peerPositions.get(PEER), "Permanent failure should start the next sync over");
+        assertFalse(hasEntry(peerEntry), "Permanent failure should remove the peer entries");
+
+        // Next contact asks for everything again
+        place.loadPeerEntries(PEER);
+        verify(adapter, times(2)).outboundDirectoryChanges(eq(PEER), anyString(), isNull());
+        assertTrue(hasEntry(peerEntry), "Snapshot entries should be loaded again");
+        assertPosition(3L);
+    }
+
+    @Test
+    void testPositionKeptOnFailedSync() throws Exception {
+        loadSnapshot();
+        when(adapter.outboundDirectoryChanges(eq(PEER), anyString(), any(DirectoryChangeLog.Position.class)))
+                .thenThrow(new EmissaryException("unreachable"));
+        place.loadPeerEntries(PEER);
+        assertPosition(3L);
+        assertEquals(1L, place.getSyncMetrics().getSnapshotCount());
+        assertEquals(0L, place.getSyncMetrics().getDeltaCount());
+    }
+
+    private void loadSnapshot() throws Exception {
+        when(adapter.outboundDirectoryChanges(eq(PEER), anyString(), isNull()))
+                .thenReturn(DirectoryDelta.snapshot(PEER_LOCATION, EPOCH, 3L, Arrays.asList(peerEntry, relayedEntry)));
+        place.loadPeerEntries(PEER);
+        assertPosition(3L);
+    }
+
+    private static DirectoryDelta changes(final long since, final DirectoryChangeLog.Change... changes) {
+        final List<DirectoryChangeLog.Change> list = new ArrayList<>(Arrays.asList(changes));
+        return DirectoryDelta.changes(PEER_LOCATION, EPOCH, since, list);
+    }
+
+    private void assertPosition(final long version) {
+        final DirectoryChangeLog.Position position = place.peerPositions.get(PEER);
+        assertEquals(EPOCH, position.getEpoch());
+        assertEquals(version, position.getVersion());
+    }
+
+    private boolean hasEntry(final DirectoryEntry entry) {
+        for (final DirectoryEntry e : place.getEntries()) {
+            if (e.getKey().equals(entry.getKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -15,12 +15,27 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.protocol.HttpContext;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.core.MediaType;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -29,6 +44,198 @@ import static org.mockito.Mockito.when;
 
 class HeartbeatManagerTest extends UnitTest {
 
+    private static final String SELF = "EMISSARY_DIRECTORY_SERVICES.DIRECTORY.STUDY.http://localhost:8001/DirectoryPlace";
+
+    private final List<Peer> peers = new ArrayList<>();
+    private final List<HeartbeatManager> managers = new ArrayList<>();
+
+    /**
+     * In process stand in for a remote directory that answers heartbeats
+     */
+    private static class Peer extends AbstractHandler {
+        final Server server = new Server(0);
+        final AtomicInteger heartbeats = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile int status = 200;
+        volatile boolean hang = false;
+        final String key;
+
+        Peer() throws Exception {
+            server.setHandler(this);
+            server.setStopTimeout(1000);
+            server.start();
+            key = "*.*.*.http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/DirectoryPlace";
+        }
+
+        String key() {
+            return key;
+        }
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            heartbeats.incrementAndGet();
+            if (hang) {
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            response.setStatus(status);
+            response.setContentType(MediaType.TEXT_PLAIN);
+            response.getWriter().write("heartbeat " + target);
+            baseRequest.setHandled(true);
+        }
+
+        void shutDown() throws Exception {
+            release.countDown();
+            server.stop();
+        }
+    }
+
+    /**
+     * Manager that records the transitions instead of telling a directory about them
+     */
+    private static class RecordingManager extends HeartbeatManager {
+        final List<String> failed = new ArrayList<>();
+        final List<String> contacted = new ArrayList<>();
+
+        RecordingManager(long initialDelayMillis, long intervalMillis, String... keys) {
+            super(SELF, Arrays.asList(keys), initialDelayMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public synchronized void takeFailureAction(String key, boolean permanent) {
+            failed.add(KeyManipulator.getDefaultDirectoryKey(key));
+        }
+
+        @Override
+        synchronized void takeSuccessAction(String key) {
+            contacted.add(KeyManipulator.getDefaultDirectoryKey(key));
+        }
+    }
+
+    private Peer peer() throws Exception {
+        Peer peer = new Peer();
+        peers.add(peer);
+        return peer;
+    }
+
+    private RecordingManager manager(long initialDelayMillis, long intervalMillis, String... keys) {
+        RecordingManager mgr = new RecordingManager(initialDelayMillis, intervalMillis, keys);
+        managers.add(mgr);
+        return mgr;
+    }
+
+    private static void waitFor(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for " + what);
+            Thread.sleep(20);
+        }
+    }
+
+    @AfterEach
+    public void stopPeers() throws Exception {
+        for (HeartbeatManager mgr : managers) {
+            mgr.shutDown();
+        }
+        for (Peer peer : peers) {
+            peer.shutDown();
+        }
+    }
+
+    @Test
+    void testSlowPeerDoesNotHoldUpOthers() throws Exception {
+        Peer fast1 = peer();
+        Peer fast2 = peer();
+        Peer slow = peer();
+        slow.hang = true;
+
+        RecordingManager mgr = manager(0, 100, fast1.key(), slow.key(), fast2.key());
+        mgr.setProbeTimeoutMillis(300);
+        mgr.setFailThreshold(2);
+
+        // The fast peers keep being probed while the slow one hangs past its deadline
+        waitFor("slow peer to be failed", () -> !mgr.isHealthy(slow.key()));
+        assertTrue(fast1.heartbeats.get() >= 3, "fast peer probed " + fast1.heartbeats.get() + " times");
+        assertTrue(fast2.heartbeats.get() >= 3, "fast peer probed " + fast2.heartbeats.get() + " times");
+        assertTrue(mgr.isHealthy(fast1.key()));
+        assertTrue(mgr.isHealthy(fast2.key()));
+        synchronized (mgr) {
+            assertEquals(Arrays.asList(KeyManipulator.getDefaultDirectoryKey(slow.key())), mgr.failed);
+        }
+
+        // Once it answers again it is contacted
+        slow.hang = false;
+        waitFor("slow peer to recover", () -> mgr.isHealthy(slow.key()));
+        synchronized (mgr) {
+            assertEquals(Arrays.asList(KeyManipulator.getDefaultDirectoryKey(slow.key())), mgr.contacted);
+        }
+    }
+
+    @Test
+    void testAdaptiveIntervals() throws Exception {
+        Peer good = peer();
+        Peer bad = peer();
+        bad.status = 500;
+
+        // Probes are driven by hand
+        RecordingManager mgr = manager(TimeUnit.HOURS.toMillis(1), 1000, good.key(), bad.key());
+        mgr.setMaxIntervalMillis(2000);
+        mgr.setRetryIntervalMillis(100);
+        HeartbeatManager.Health goodHealth = mgr.directories.get(KeyManipulator.getDefaultDirectoryKey(good.key()));
+        HeartbeatManager.Health badHealth = mgr.directories.get(KeyManipulator.getDefaultDirectoryKey(bad.key()));
+
+        // Healthy peers are probed less and less often up to the max
+        List<Long> intervals = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(mgr.heartbeat(good.key()));
+            goodHealth.setInterval(mgr.nextInterval(goodHealth));
+            intervals.add(mgr.getProbeIntervalMillis(good.key()));
+        }
+        assertEquals(Arrays.asList(1250L, 1562L, 1952L, 2000L, 2000L), intervals);
+
+        // Failing peers are retried soon and then backed off up to the max
+        intervals.clear();
+        for (int i = 0; i < 7; i++) {
+            assertFalse(mgr.heartbeat(bad.key()));
+            badHealth.setInterval(mgr.nextInterval(badHealth));
+            intervals.add(mgr.getProbeIntervalMillis(bad.key()));
+        }
+        assertEquals(Arrays.asList(100L, 200L, 400L, 800L, 1600L, 2000L, 2000L), intervals);
+
+        // A recovered peer goes back to the normal interval
+        bad.status = 200;
+        assertTrue(mgr.heartbeat(bad.key()));
+        assertEquals(1000L, mgr.nextInterval(badHealth));
+
+        assertEquals(-1L, mgr.getProbeIntervalMillis("*.*.*.http://localhost:1/DirectoryPlace"));
+        for (int i = 0; i < 100; i++) {
+            long jittered = mgr.jittered(1000);
+            assertTrue(jittered >= 900 && jittered <= 1100, "jittered to " + jittered);
+        }
+    }
+
+    @Test
+    void testPhiRisesForDeadPeer() throws Exception {
+        Peer peer = peer();
+        RecordingManager mgr = manager(0, 100, peer.key());
+        mgr.setJitter(0);
+        assertEquals(0.0, mgr.getPhi(peer.key()), "No phi before the first answer");
+
+        waitFor("heartbeats", () -> peer.heartbeats.get() >= 6);
+        double alive = mgr.getPhi(peer.key());
+        assertTrue(alive < 3.0, "phi of a live peer was " + alive);
+
+        peer.shutDown();
+        waitFor("phi to rise", () -> mgr.getPhi(peer.key()) > 8.0);
+        assertEquals(0.0, mgr.getPhi("*.*.*.http://localhost:1/DirectoryPlace"));
+
+        mgr.removeRemoteDirectory(peer.key());
+        assertEquals(0.0, mgr.getPhi(peer.key()));
+    }
+
     @Test
     void testBadGetHearbeatHasBAD_RESPONSE() {
         String fromPlace = "EMISSARY_DIRECTORY_SERVICES.DIRECTORY.STUDY.http://localhost:8001/DirectoryPlace";
@@ -1,6 +1,7 @@
 package emissary.kff;
 
 import emissary.core.channels.FillChannelFactory;
+import emissary.core.channels.InMemoryChannelFactory;
 import emissary.core.channels.SeekableByteChannelFactory;
 import emissary.test.core.junit5.UnitTest;
 
@@ -8,6 +9,7 @@ import org.junit.jupiter.api.Test;
 
 import java.security.NoSuchAlgorithmException;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
@@ -168,4 +170,28 @@ class ChecksumCalculatorTest extends UnitTest {
             assertArrayEquals(crByte.getHash("SHA-256"), crSbcf.getHash("SHA-256"), "SHA-256's do not match!");
         }
     }
+
+    @Test
+    void testSinglePassSbcDigestMatchesByteArray() throws Exception {
+        final ChecksumCalculator cc = new ChecksumCalculator(new String[] {"CRC32", "MD5", "SHA-1", "SHA-256", "SSDEEP"});
+        final Random rng = new Random(1234);
+        final int[] sizes = {0, 1, 100, 4096, ChecksumCalculator.CHANNEL_BUFFER_SIZE, ChecksumCalculator.CHANNEL_BUFFER_SIZE * 2 + 17};
+
+        for (final boolean parallel : new boolean[] {false, true}) {
+            cc.setUseParallel(parallel);
+            assertEquals(parallel, cc.getUseParallel());
+            for (final int size : sizes) {
+                final byte[] b = new byte[size];
+                rng.nextBytes(b);
+                final ChecksumResults crByte = cc.digest(b);
+                final ChecksumResults crSbcf = cc.digest(InMemoryChannelFactory.create(b));
+
+                assertEquals(crByte.getCrc(), crSbcf.getCrc(), "CRC's do not match for size " + size);
+                assertEquals(crByte.getSsdeep(), crSbcf.getSsdeep(), "SSDEEP's do not match for size " + size);
+                assertArrayEquals(crByte.getHash("MD5"), crSbcf.getHash("MD5"), "MD5's do not match for size " + size);
+                assertArrayEquals(crByte.getHash("SHA-1"), crSbcf.getHash("SHA-1"), "SHA-1's do not match for size " + size);
+                assertArrayEquals(crByte.getHash("SHA-256"), crSbcf.getHash("SHA-256"), "SHA-256's do not match for size " + size);
+            }
+        }
+    }
 }
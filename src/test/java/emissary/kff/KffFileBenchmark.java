@@ -0,0 +1,139 @@
+package emissary.kff;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare KffFile lookups through the shared RandomAccessFile with the memory mapped search, with and without the bloom
+ * filter. Run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=emissary.kff.KffFileBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KffFileBenchmark {
+
+    private static final int HASH_LENGTH = 20;
+    private static final int RECORD_LENGTH = 24;
+    private static final int QUERY_COUNT = 4096;
+
+    @Param({"100000", "1000000"})
+    public int records;
+
+    @Param({"RAF", "MAPPED", "BLOOM"})
+    public String mode;
+
+    private File file;
+    private KffFile kff;
+    private ChecksumResults[] known;
+    private ChecksumResults[] unknown;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Random random = new Random(42);
+        byte[][] recs = new byte[records][RECORD_LENGTH];
+        for (byte[] rec : recs) {
+            random.nextBytes(rec);
+        }
+        Arrays.sort(recs, unsignedOrder());
+
+        file = File.createTempFile("kff", ".bin");
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+            for (byte[] rec : recs) {
+                os.write(rec);
+            }
+        }
+
+        kff = new KffFile(file.getPath(), "BENCH", KffFilter.FilterType.Ignore, RECORD_LENGTH);
+        kff.setPreferredAlgorithm("SHA-1");
+        if ("MAPPED".equals(mode)) {
+            kff.setMemoryMapped(true);
+        } else if ("BLOOM".equals(mode)) {
+            kff.loadBloomFilter(0.01);
+        }
+
+        known = new ChecksumResults[QUERY_COUNT];
+        unknown = new ChecksumResults[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            known[i] = new ChecksumResults();
+            known[i].setHash("SHA-1", Arrays.copyOf(recs[random.nextInt(records)], HASH_LENGTH));
+            byte[] miss = new byte[HASH_LENGTH];
+            random.nextBytes(miss);
+            unknown[i] = new ChecksumResults();
+            unknown[i].setHash("SHA-1", miss);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        kff.knownFile.close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    private static Comparator<byte[]> unsignedOrder() {
+        return (a, b) -> {
+            for (int i = 0; i < a.length; i++) {
+                int c = (a[i] & 0xff) - (b[i] & 0xff);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        };
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean knownLookup(Cursor cursor) throws Exception {
+        return kff.check("bench", known[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean unknownLookup(Cursor cursor) throws Exception {
+        return kff.check("bench", unknown[cursor.next()]);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int pos;
+
+        int next() {
+            pos = (pos + 1) & (QUERY_COUNT - 1);
+            return pos;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(KffFileBenchmark.class.getSimpleName()).build()).run();
+    }
+}
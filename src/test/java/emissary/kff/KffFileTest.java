@@ -6,9 +6,12 @@ import emissary.util.io.ResourceReader;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -60,6 +63,64 @@ class KffFileTest extends UnitTest {
         }
     }
 
+    @Test
+    void testKffFileMappedCheck() throws Exception {
+        kffFile.setMemoryMapped(true);
+        assertTrue(kffFile.isMemoryMapped());
+        assertKnownAndUnknown();
+    }
+
+    @Test
+    void testKffFileBloomFilterCheck() throws Exception {
+        kffFile.loadBloomFilter(0.01);
+        assertTrue(kffFile.isMemoryMapped(), "Loading a bloom filter maps the file");
+        assertKnownAndUnknown();
+
+        kffFile.clearBloomFilter();
+        kffFile.setMemoryMapped(false);
+        assertFalse(kffFile.isMemoryMapped());
+        assertKnownAndUnknown();
+    }
+
+    @Test
+    void testKffFileBloomFilterWithoutMapping() throws Exception {
+        KffChainLoader.configureSearch(kffFile, false, 0.01);
+        assertFalse(kffFile.isMemoryMapped(), "The mapping used to build the filter is dropped");
+        assertNotNull(kffFile.bloomFilter);
+        assertKnownAndUnknown();
+    }
+
+    @Test
+    void testKffFileSearchedWhenMappingFails() throws Exception {
+        KffFile unmappable = new KffFile(resourcePath, "testFilter", KffFilter.FilterType.Unknown) {
+            @Override
+            public synchronized void setMemoryMapped(boolean mapped) throws IOException {
+                if (mapped) {
+                    throw new IOException("Cannot allocate memory");
+                }
+                super.setMemoryMapped(false);
+            }
+        };
+        unmappable.setPreferredAlgorithm("SHA-1");
+        KffChainLoader.configureSearch(unmappable, true, 0.01);
+        assertFalse(unmappable.isMemoryMapped());
+        kffFile = unmappable;
+        assertKnownAndUnknown();
+    }
+
+    private static void assertKnownAndUnknown() throws Exception {
+        ChecksumResults results = new ChecksumResults();
+        results.setHash("SHA-1", expectedSha1Bytes);
+        results.setHash("CRC32", expectedCrcBytes);
+        assertTrue(kffFile.check(expectedShaHash, results));
+
+        byte[] incorrectSha1Bytes = expectedSha1Bytes.clone();
+        incorrectSha1Bytes[19] = (byte) 70;
+        results = new ChecksumResults();
+        results.setHash("SHA-1", incorrectSha1Bytes);
+        assertFalse(kffFile.check(expectedShaHash, results));
+    }
+
     @Test
     void testKffFileMain() {
         String[] args = {resourcePath, resourcePath};
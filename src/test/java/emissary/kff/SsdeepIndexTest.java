@@ -0,0 +1,202 @@
+package emissary.kff;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SsdeepIndexTest extends UnitTest {
+
+    private final Ssdeep ss = new Ssdeep();
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Random text documents, with every other one a lightly edited copy of an earlier one
+     */
+    private List<SpamSumSignature> signatures(int count, long seed) {
+        Random random = new Random(seed);
+        List<byte[]> docs = new ArrayList<>();
+        List<SpamSumSignature> sigs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] doc;
+            if (i % 2 == 1) {
+                doc = docs.get(random.nextInt(docs.size())).clone();
+                for (int j = 0; j < 1 + random.nextInt(20); j++) {
+                    doc[random.nextInt(doc.length)] = (byte) ('a' + random.nextInt(26));
+                }
+            } else {
+                doc = new byte[1000 + random.nextInt(30000)];
+                for (int j = 0; j < doc.length; j++) {
+                    doc[j] = (byte) ('a' + random.nextInt(26));
+                }
+            }
+            docs.add(doc);
+            sigs.add(new SpamSumSignature(ss.fuzzy_hash(doc)));
+        }
+        return sigs;
+    }
+
+    @Test
+    void testMatchesBruteForce() throws Exception {
+        List<SpamSumSignature> sigs = signatures(200, 7);
+        SsdeepIndex index = new SsdeepIndex();
+        for (int i = 0; i < 100; i++) {
+            index.add("doc" + i, sigs.get(i));
+        }
+        assertEquals(100, index.size());
+
+        int found = 0;
+        for (SpamSumSignature query : sigs) {
+            int best = 0;
+            for (int i = 0; i < 100; i++) {
+                best = Math.max(best, ss.Compare(query, sigs.get(i)));
+            }
+            List<SsdeepIndex.Match> matches = index.findAll(query, 1);
+            SsdeepIndex.Match match = index.findBest(query, 1);
+            if (best == 0) {
+                assertNull(match, "No match for " + query);
+                assertTrue(matches.isEmpty());
+            } else {
+                found++;
+                assertNotNull(match, "Missed match for " + query);
+                assertEquals(best, match.getScore());
+                assertEquals(best, matches.get(0).getScore());
+                int index1 = Integer.parseInt(match.getId().substring(3));
+                assertEquals(best, ss.Compare(query, sigs.get(index1)));
+                for (SsdeepIndex.Match m : matches) {
+                    assertEquals(ss.Compare(query, sigs.get(Integer.parseInt(m.getId().substring(3)))), m.getScore());
+                }
+            }
+        }
+        assertTrue(found >= 100, "Every indexed signature should at least find itself");
+    }
+
+    @Test
+    void testPersistence() throws Exception {
+        Path file = tempDir.resolve("ssdeep.idx");
+        List<SpamSumSignature> sigs = signatures(20, 11);
+        try (SsdeepIndex index = SsdeepIndex.open(file)) {
+            for (int i = 0; i < 10; i++) {
+                index.add("doc" + i, sigs.get(i));
+            }
+        }
+        try (SsdeepIndex index = SsdeepIndex.open(file)) {
+            assertEquals(10, index.size());
+            assertEquals("doc4", index.findBest(sigs.get(4), 100).getId());
+            index.add("doc10", sigs.get(10));
+        }
+
+        // A record cut short by a crash is dropped
+        long length = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(length - 3);
+        }
+        try (SsdeepIndex index = SsdeepIndex.open(file)) {
+            assertEquals(10, index.size());
+            assertNull(index.findBest(sigs.get(10), 100));
+            index.add("doc10", sigs.get(10));
+        }
+        try (SsdeepIndex index = SsdeepIndex.open(file)) {
+            assertEquals(11, index.size());
+            assertEquals("doc10", index.findBest(sigs.get(10), 100).getId());
+        }
+
+        // Saving writes a compact copy
+        Path copy = tempDir.resolve("copy.idx");
+        try (SsdeepIndex index = SsdeepIndex.open(file)) {
+            index.save(copy);
+        }
+        try (SsdeepIndex index = SsdeepIndex.open(copy)) {
+            assertEquals(11, index.size());
+        }
+
+        Path bad = tempDir.resolve("bad.idx");
+        Files.write(bad, "not an index".getBytes());
+        assertThrows(java.io.IOException.class, () -> SsdeepIndex.open(bad));
+    }
+
+    @Test
+    void testAddAll() throws Exception {
+        List<SpamSumSignature> sigs = signatures(3, 5);
+        String output = "ssdeep,1.1--blocksize:hash:hash,filename\n" + sigs.get(0) + ",\"/data/one.txt\"\n" + sigs.get(2) + ",\"/data/two.txt\"\n"
+                + "garbage\n";
+        SsdeepIndex index = new SsdeepIndex();
+        assertEquals(2, index.addAll(new BufferedReader(new StringReader(output))));
+        assertEquals("/data/two.txt", index.findBest(sigs.get(2), 100).getId());
+    }
+
+    @Test
+    void testFilter() throws Exception {
+        List<SpamSumSignature> sigs = signatures(2, 13);
+        SsdeepIndex index = new SsdeepIndex();
+        index.add("original", sigs.get(0));
+        int score = ss.Compare(sigs.get(0), sigs.get(1));
+        assertTrue(score > 0 && score < 100, "Edited copy should be similar, was " + score);
+
+        KffSsdeepIndex filter = new KffSsdeepIndex(index, "SIMILAR", KffFilter.FilterType.Duplicate);
+        filter.setMinScore(100);
+        ChecksumResults sums = new ChecksumResults();
+        sums.setSsdeep(sigs.get(1).toString());
+        assertFalse(filter.check("copy", sums));
+        assertEquals("original", sums.getSsdeepMatch());
+        assertEquals(score, sums.getSsdeepScore());
+
+        filter.setMinScore(score);
+        assertTrue(filter.check("copy", new ChecksumResults() {
+            {
+                setSsdeep(sigs.get(1).toString());
+            }
+        }));
+
+        // Unmatched signatures can be learned
+        filter.setMinScore(100);
+        filter.setAddUnmatched(true);
+        assertFalse(filter.check("copy", sums));
+        assertTrue(filter.check("copy", sums));
+        assertEquals(2, index.size());
+
+        ChecksumResults none = new ChecksumResults();
+        assertFalse(filter.check("empty", none));
+        assertEquals(-1, none.getSsdeepScore());
+    }
+
+    @Test
+    void testChainReportsScore() throws Exception {
+        Random random = new Random(17);
+        byte[] doc = new byte[20000];
+        for (int i = 0; i < doc.length; i++) {
+            doc[i] = (byte) ('a' + random.nextInt(26));
+        }
+        SsdeepIndex index = new SsdeepIndex();
+        index.add("known", new SpamSumSignature(ss.fuzzy_hash(doc)));
+
+        KffChain chain = new KffChain();
+        chain.addAlgorithm("SSDEEP");
+        chain.addFilter(new KffSsdeepIndex(index, "SIMILAR", KffFilter.FilterType.Duplicate));
+        doc[100] = 'A';
+        KffResult result = chain.check("item", doc);
+        assertTrue(result.isHit());
+        assertEquals("SIMILAR", result.getFilterName());
+        assertEquals("known", result.getSsdeepMatch());
+        assertTrue(result.getSsdeepScore() >= 90);
+    }
+}
@@ -12,6 +12,7 @@ import java.util.Random;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.fail;
 
 /**
@@ -130,6 +131,37 @@ final class SsdeepTest extends UnitTest {
         assertEquals(MANY_RANDOM_EXPECTED_HEX_DIGEST, digestHex, "Digest hex does not match");
     }
 
+    @Test
+    void testFuzzyHasherMatchesOneShot() {
+        final Random rng = new Random(MANY_RANDOM_SEED);
+        for (int i = 0; i < 200; i++) {
+            final byte[] input = new byte[rng.nextInt(200000)];
+            rng.nextBytes(input);
+
+            // Feed it in uneven pieces like a channel would
+            final Ssdeep.FuzzyHasher hasher = new Ssdeep.FuzzyHasher(input.length);
+            int pos = 0;
+            while (pos < input.length) {
+                final int end = Math.min(input.length, pos + 1 + rng.nextInt(8192));
+                hasher.update(input, pos, end);
+                pos = end;
+            }
+            assertEquals(ss.fuzzy_hash(input), hasher.digest(), "Incremental hash differs for length " + input.length);
+        }
+    }
+
+    @Test
+    void testFuzzyHasherDegenerateInput() {
+        final byte[] input = new byte[100000];
+        final Ssdeep.FuzzyHasher hasher = new Ssdeep.FuzzyHasher(input.length);
+        hasher.update(input, 0, input.length);
+        assertNull(hasher.digest(), "Uniform input needs more block sizes than are tracked");
+
+        final Ssdeep.FuzzyHasher all = new Ssdeep.FuzzyHasher(input.length, 64);
+        all.update(input, 0, input.length);
+        assertEquals(ss.fuzzy_hash(input), all.digest());
+    }
+
     @Test
     void testCompareEqualHashes() {
         final SpamSumSignature hash1 = new SpamSumSignature(ss.fuzzy_hash(getStringAsUtf8(LOREM_IPSUM)));
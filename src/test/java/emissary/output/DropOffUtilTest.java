@@ -11,7 +11,10 @@ import emissary.util.TimeUtil;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -609,6 +612,101 @@ class DropOffUtilTest extends UnitTest {
         assertEquals("/this/./././/./is/fine", util.cleanSpecPath("/this/....../../..//./is/fine"));
     }
 
+    @Test
+    void testGetPathFromSpec() {
+        final Configurator cfg = new ServiceConfigGuide();
+        cfg.addEntry("UNIX_ROOT", "/root/out");
+        cfg.addEntry("ID", "MY_ID");
+        cfg.addEntry("OUTPUT_SPEC_FOO", "%R%/%B%/%S%");
+        final DropOffUtil specUtil = new DropOffUtil(cfg);
+        assertEquals(1, specUtil.compiledSpecs.size(), "Configured spec is compiled");
+
+        final IBaseDataObject tld = DataObjectFactory.getInstance("This is a test".getBytes(), "/eat/prefix/testPath", "UNKNOWN");
+        final IBaseDataObject child = DataObjectFactory.getInstance("child".getBytes(), "/eat/prefix/testPath-att-1", "UNKNOWN");
+        tld.setParameter("TARGETBIN", "bin.x");
+        tld.setParameter("MY_ID", "ID..1");
+        child.setParameter("FOO", "bar");
+
+        assertEquals("/root/out/bin.x/testPath", specUtil.getPathFromSpec(null, tld, tld));
+        assertEquals("/root/out/bin.x/testPath", specUtil.getPathFromSpec("%R%/@TLD{'TARGETBIN'}/%S%", tld));
+        assertEquals("/root/out/ID.1/testPath-att-1", specUtil.getPathFromSpec("%R%/%B%/%S%", child, tld));
+        assertEquals("ID.1-att-1", specUtil.getPathFromSpec("%b%", child, tld));
+        assertEquals("/eat/prefix/testPath-att-1|_eat_prefix_testPath-att-1|/eat/prefix/|_eat_prefix_",
+                specUtil.getPathFromSpec("%I%|%i%|%P%|%p%", child, tld));
+        assertEquals("bar/NO-BAZ/NONE/no-userid", specUtil.getPathFromSpec("@META{'FOO'}/@META{'BAZ'}/%L%/%U%", child, tld));
+
+        // Without a TLD the TLD token is literal text
+        assertEquals("x/@TLD{'TARGETBIN'}/testPath-att-1", specUtil.getPathFromSpec("x/@TLD{'TARGETBIN'}/%S%", child, null));
+        assertEquals("NO-TARGETBIN", specUtil.getPathFromSpec("@TLD{'TARGETBIN'}", child, child));
+
+        // Anything not understood is literal
+        assertEquals("%Q%/100%/%S/@META{''}/@TLD{", specUtil.getPathFromSpec("%Q%/100%/%S/@META{''}/@TLD{", child, tld));
+
+        // A dot ending a directory name is replaced and separators are fixed for the platform
+        tld.setParameter("TARGETBIN", "bin.");
+        assertEquals("/root/out/bin_/a/testPath", specUtil.getPathFromSpec("%R%/@TLD{'TARGETBIN'}/a\\%S%", tld));
+        try {
+            specUtil.setWindows(true);
+            assertEquals("x\\bin_\\testPath", specUtil.getPathFromSpec("x/@TLD{'TARGETBIN'}/%S%", tld));
+        } finally {
+            specUtil.setWindows(false);
+        }
+    }
+
+    @Test
+    void testGetPathFromSpecGeneratesIdOnce() {
+        final Configurator cfg = new ServiceConfigGuide();
+        cfg.addEntry("ID", "AUTO_GENERATED_ID");
+        final DropOffUtil specUtil = new DropOffUtil(cfg);
+        final String path = specUtil.getPathFromSpec("%B%/%B%", this.payload, this.payload);
+        final String[] parts = path.split("/");
+        assertEquals(2, parts.length);
+        assertEquals(parts[0], parts[1]);
+        assertEquals(parts[0], this.payload.getStringParameter("PARENT_AUTO_GENERATED_ID"));
+    }
+
+    @Test
+    void testSetupPathRemembersDirectories(@TempDir Path tempDir) throws Exception {
+        final Path dir = tempDir.resolve("a").resolve("b");
+        final String fileName = dir.resolve("file.txt").toString();
+        assertTrue(this.util.setupPath(fileName));
+        assertTrue(Files.isDirectory(dir));
+
+        // A known directory is not checked again until it is forgotten
+        Files.delete(dir);
+        assertTrue(this.util.setupPath(fileName));
+        assertFalse(Files.exists(dir));
+        this.util.forgetPath(fileName);
+        assertTrue(this.util.setupPath(fileName));
+        assertTrue(Files.isDirectory(dir));
+
+        final Configurator cfg = new ServiceConfigGuide();
+        cfg.addEntry("OUTPUT_DIR_CACHE_SIZE", "0");
+        final DropOffUtil uncached = new DropOffUtil(cfg);
+        assertTrue(uncached.setupPath(fileName));
+        Files.delete(dir);
+        assertTrue(uncached.setupPath(fileName));
+        assertTrue(Files.isDirectory(dir));
+    }
+
+    @Test
+    void testSetupPathKeepsRecentlyUsedDirectories(@TempDir Path tempDir) throws Exception {
+        final Configurator cfg = new ServiceConfigGuide();
+        cfg.addEntry("OUTPUT_DIR_CACHE_SIZE", "2");
+        final DropOffUtil small = new DropOffUtil(cfg);
+        final String a = tempDir.resolve("a").resolve("file.txt").toString();
+        final String b = tempDir.resolve("b").resolve("file.txt").toString();
+        final String c = tempDir.resolve("c").resolve("file.txt").toString();
+        assertTrue(small.setupPath(a));
+        assertTrue(small.setupPath(b));
+
+        // Using a again makes b the eldest, so c pushes b out
+        assertTrue(small.setupPath(a));
+        assertTrue(small.setupPath(c));
+        assertTrue(small.knownDirectories.containsKey(tempDir.resolve("a").toString()));
+        assertFalse(small.knownDirectories.containsKey(tempDir.resolve("b").toString()));
+    }
+
     private void setupMetadata(IBaseDataObject bdo, String fieldValue, DropOffUtil.FileTypeCheckParameter fileTypeCheckParameter) {
         bdo.clearParameters();
         bdo.putParameter(fileTypeCheckParameter.getFieldName(), fieldValue);
@@ -4,17 +4,22 @@ import emissary.config.Configurator;
 import emissary.config.ServiceConfigGuide;
 import emissary.core.DataObjectFactory;
 import emissary.core.IBaseDataObject;
+import emissary.core.channels.InMemoryChannelFactory;
 import emissary.test.core.junit5.UnitTest;
 import emissary.util.shell.Executrix;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -61,4 +66,60 @@ class DataFilterTest extends UnitTest {
         expected.delete();
     }
 
+    @Test
+    void testStreamOutputFromChannel() {
+        Configurator config = new ServiceConfigGuide();
+        config.addEntry("OUTPUT_SPEC_FOO", "/tmp/%S%.%F%");
+        config.addEntry("OUTPUT_TYPE", "FTYPE.PrimaryView");
+
+        IDropOffFilter f = new DataFilter();
+        f.initialize(config, "FOO", config);
+
+        byte[] data = new byte[200 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        IBaseDataObject payload = DataObjectFactory.getInstance();
+        payload.setChannelFactory(InMemoryChannelFactory.create(data));
+        payload.setFileType("FTYPE");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int status = f.filter(payload, new HashMap<>(), output);
+
+        assertEquals(IDropOffFilter.STATUS_SUCCESS, status, "Status of filter should be success");
+        assertArrayEquals(data, output.toByteArray(), "Output must be the channel contents and nothing else");
+    }
+
+    @Test
+    void testStreamOutputToOverriddenByteArrayWriter() {
+        Configurator config = new ServiceConfigGuide();
+        config.addEntry("OUTPUT_SPEC_FOO", "/tmp/%S%.%F%");
+        config.addEntry("OUTPUT_TYPE", "FTYPE.PrimaryView");
+
+        final List<byte[]> seen = new ArrayList<>();
+        IDropOffFilter f = new DataFilter() {
+            @Override
+            protected boolean streamPrimaryView() {
+                return false;
+            }
+
+            @Override
+            protected boolean writeDataStream(IBaseDataObject d, IBaseDataObject tld, OutputStream output, byte[] data, String type) {
+                seen.add(data);
+                return super.writeDataStream(d, tld, output, data, type);
+            }
+        };
+        f.initialize(config, "FOO", config);
+
+        byte[] data = "primary view".getBytes(StandardCharsets.UTF_8);
+        IBaseDataObject payload = DataObjectFactory.getInstance();
+        payload.setChannelFactory(InMemoryChannelFactory.create(data));
+        payload.setFileType("FTYPE");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(IDropOffFilter.STATUS_SUCCESS, f.filter(payload, new HashMap<>(), output));
+        assertEquals(1, seen.size(), "Overridden writer sees the primary view");
+        assertArrayEquals(data, seen.get(0));
+        assertArrayEquals(data, output.toByteArray());
+    }
 }
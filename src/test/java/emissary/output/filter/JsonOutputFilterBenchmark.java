@@ -0,0 +1,105 @@
+package emissary.output.filter;
+
+import emissary.config.ServiceConfigGuide;
+import emissary.core.DataObjectFactory;
+import emissary.core.IBaseDataObject;
+import emissary.roll.RollManager;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare serializing a family with {@link JsonOutputFilter} into a materialized byte array against streaming it to the
+ * output. Runs with the GC profiler, compare gc.alloc.rate.norm (bytes allocated per family) between the two. Run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=emissary.output.filter.JsonOutputFilterBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonOutputFilterBenchmark {
+
+    @Param({"10", "500"})
+    public int children;
+
+    @Param({"16384", "1048576"})
+    public int payloadSize;
+
+    private Path outputDir;
+    private JsonOutputFilter filter;
+    private List<IBaseDataObject> family;
+    private final Map<String, Object> params = new HashMap<>();
+    private final OutputStream sink = NullOutputStream.NULL_OUTPUT_STREAM;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        outputDir = Files.createTempDirectory("jsonbench");
+        ServiceConfigGuide config = new ServiceConfigGuide();
+        config.addEntry("OUTPUT_PATH", outputDir.toString());
+        filter = new JsonOutputFilter();
+        filter.initialize(config, "BENCH", config);
+
+        Random random = new Random(42);
+        family = new ArrayList<>();
+        for (int i = 0; i <= children; i++) {
+            byte[] data = new byte[payloadSize];
+            random.nextBytes(data);
+            IBaseDataObject d = DataObjectFactory.getInstance(data, "bench-" + i, "FTYPE");
+            d.putParameter("FILETYPE", "FTYPE");
+            d.putParameter("CHILD", Integer.toString(i));
+            family.add(d);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        RollManager.shutdown();
+        FileUtils.deleteDirectory(outputDir.toFile());
+    }
+
+    @Benchmark
+    public void materialized() throws IOException {
+        sink.write(filter.convert(family, params));
+    }
+
+    @Benchmark
+    public void streaming() throws IOException {
+        filter.convert(family, params, sink);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(JsonOutputFilterBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+    }
+}
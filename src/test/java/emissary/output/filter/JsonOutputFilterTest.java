@@ -3,6 +3,7 @@ package emissary.output.filter;
 import emissary.config.ServiceConfigGuide;
 import emissary.core.DataObjectFactory;
 import emissary.core.IBaseDataObject;
+import emissary.core.channels.InMemoryChannelFactory;
 import emissary.test.core.junit5.UnitTest;
 
 import org.apache.commons.lang3.StringUtils;
@@ -12,6 +13,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -22,6 +24,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -386,4 +389,49 @@ class JsonOutputFilterTest extends UnitTest {
         assertTrue(s.contains("\"FOO\":[\"ONE\"]"), "Output should have prefix stripped parameter " + s);
         assertTrue(s.contains("\"BAR\":[\"TWO\"]"), "Output should have prefix stripped parameter " + s);
     }
+
+    @Test
+    void testStreamingMatchesConvert() throws IOException {
+        f.initialize(config, "FOO", config);
+        JsonOutputFilter jf = (JsonOutputFilter) f;
+
+        IBaseDataObject child = DataObjectFactory.getInstance();
+        child.setChannelFactory(InMemoryChannelFactory.create("This is the data".getBytes()));
+        child.addAlternateView("VIEW", "view data".getBytes());
+        List<IBaseDataObject> payloadList = Arrays.asList(payload, child);
+
+        boolean[] closed = new boolean[1];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (FilterOutputStream output = new FilterOutputStream(bytes) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        }) {
+            jf.convert(payloadList, new HashMap<>(), output);
+            assertFalse(closed[0], "Streaming convert must not close the output");
+        }
+
+        // strip the generated ids and timestamps so the two serializations can be compared
+        String volatileFields = "\"(id|processedTimestamp|PARENT_AUTO_GENERATED_ID)\":(\"[^\"]*\"|\\[[^\\]]*\\])";
+        String streamed = bytes.toString().replaceAll(volatileFields, "");
+        String converted = new String(jf.convert(payloadList, new HashMap<>())).replaceAll(volatileFields, "");
+        assertEquals(converted, streamed, "Streaming and materialized output should match");
+        assertEquals(2, StringUtils.countMatches(streamed, "\"payload\":\"VGhpcyBpcyB0aGUgZGF0YQ==\""),
+                "Channel backed payload should be written from the channel");
+    }
+
+    @Test
+    void testEmptyPayloadOmitted() {
+        f.initialize(config, "FOO", config);
+        IBaseDataObject empty = DataObjectFactory.getInstance();
+        empty.setChannelFactory(InMemoryChannelFactory.create(new byte[0]));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int status = f.filter(Collections.singletonList(empty), new HashMap<>(), output);
+
+        assertEquals(IDropOffFilter.STATUS_SUCCESS, status, "Filter should return success");
+        assertFalse(output.toString().contains("\"payload\":"), "Empty payload should be left out");
+        assertArrayEquals("\n".getBytes(), Arrays.copyOfRange(output.toByteArray(), output.size() - 1, output.size()));
+    }
 }
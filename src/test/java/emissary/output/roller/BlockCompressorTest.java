@@ -0,0 +1,128 @@
+package emissary.output.roller;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockCompressorTest extends UnitTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testGzipRoundTrip() throws Exception {
+        byte[] data = data(100_000);
+        Path compressed = compress(data, BlockCompressor.Format.GZIP, 8192, true);
+        assertTrue(Files.size(compressed) < data.length);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(compressed))) {
+            assertArrayEquals(data, IOUtils.toByteArray(in));
+        }
+        checkIndex(data, compressed, BlockCompressor.Format.GZIP, 8192);
+    }
+
+    @Test
+    void testDeflateRoundTrip() throws Exception {
+        byte[] data = data(100_000);
+        Path compressed = compress(data, BlockCompressor.Format.DEFLATE, 8192, true);
+        try (InputStream in = new InflaterInputStream(Files.newInputStream(compressed), new Inflater(true))) {
+            byte[] out = new byte[data.length];
+            IOUtils.readFully(in, out);
+            assertArrayEquals(data, out);
+        }
+        checkIndex(data, compressed, BlockCompressor.Format.DEFLATE, 8192);
+    }
+
+    @Test
+    void testSingleShortBlock() throws Exception {
+        byte[] data = "short".getBytes(StandardCharsets.UTF_8);
+        Path compressed = compress(data, BlockCompressor.Format.GZIP, 8192, false);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(compressed))) {
+            assertArrayEquals(data, IOUtils.toByteArray(in));
+        }
+        checkIndex(data, compressed, BlockCompressor.Format.GZIP, 8192);
+    }
+
+    @Test
+    void testNoIndex() throws Exception {
+        Path plain = Files.write(dir.resolve("plain"), data(1000));
+        try (FileChannel in = FileChannel.open(plain, READ)) {
+            assertThrows(IOException.class, () -> BlockCompressor.readIndex(in, BlockCompressor.Format.GZIP));
+            assertThrows(IOException.class, () -> BlockCompressor.readIndex(in, BlockCompressor.Format.DEFLATE));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new BlockCompressor(BlockCompressor.Format.NONE, 10));
+    }
+
+    /**
+     * Each block must decompress on its own from the offset in the index
+     */
+    private static void checkIndex(byte[] data, Path compressed, BlockCompressor.Format format, int blockSize) throws IOException {
+        long[][] index;
+        try (FileChannel in = FileChannel.open(compressed, READ)) {
+            index = BlockCompressor.readIndex(in, format);
+        }
+        int blocks = index.length - 1;
+        assertEquals((data.length + blockSize - 1) / blockSize, blocks);
+        assertEquals(data.length, index[blocks][0]);
+        byte[] file = Files.readAllBytes(compressed);
+        for (int i = 0; i < blocks; i++) {
+            int start = (int) index[i][0];
+            int end = Math.min(data.length, start + blockSize);
+            int from = (int) index[i][1];
+            int to = (int) (i + 1 < blocks ? index[i + 1][1] : index[blocks][1]);
+            InputStream in = new ByteArrayInputStream(file, from, to - from);
+            in = format == BlockCompressor.Format.GZIP ? new GZIPInputStream(in) : new InflaterInputStream(in, new Inflater(true));
+            byte[] block = new byte[end - start];
+            IOUtils.readFully(in, block);
+            assertArrayEquals(Arrays.copyOfRange(data, start, end), block, "Block " + i);
+        }
+    }
+
+    private Path compress(byte[] data, BlockCompressor.Format format, int blockSize, boolean parallel) throws Exception {
+        Path input = Files.write(dir.resolve("input-" + format), data);
+        Path output = dir.resolve("output-" + format);
+        ExecutorService pool = parallel ? Executors.newFixedThreadPool(3) : null;
+        try (FileChannel in = FileChannel.open(input, READ); FileChannel out = FileChannel.open(output, CREATE, WRITE)) {
+            long written = new BlockCompressor(format, blockSize).compress(in, data.length, out, pool, 4);
+            assertEquals(written, out.size());
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        return output;
+    }
+
+    private static byte[] data(int size) {
+        Random random = new Random(11);
+        StringBuilder sb = new StringBuilder(size + 16);
+        while (sb.length() < size) {
+            sb.append("line ").append(random.nextInt(1000)).append(' ').append(Long.toHexString(random.nextLong())).append('\n');
+        }
+        return sb.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -11,6 +11,8 @@ import emissary.test.core.junit5.UnitTest;
 import emissary.util.io.FileNameGenerator;
 import emissary.util.io.UnitTestFileUtils;
 
+import com.codahale.metrics.MetricRegistry;
+import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -33,6 +35,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import static emissary.output.roller.JournaledCoalescer.ROLLING_EXT;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -322,6 +325,48 @@ class JournaledCoalescerTest extends UnitTest {
         assertFalse(Files.exists(finalBudOutput));
     }
 
+    @Test
+    void testParallelCompressedRoll() throws Exception {
+        // Several destination files left to roll at once
+        List<String> keys = Arrays.asList("keyA", "keyB", "keyC");
+        long totalSize = 0L;
+        for (String key : keys) {
+            Path part = Files.createTempFile(targetBUDPath, key, JournaledChannelPool.EXTENSION);
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                lines.add(key + " line " + i);
+            }
+            Files.write(part, lines, Charset.defaultCharset(), StandardOpenOption.WRITE);
+            try (JournalWriter jw = new JournalWriter(targetBUDPath, key)) {
+                jw.write(new JournalEntry(part.toString(), Files.size(part)));
+            }
+            totalSize += Files.size(part);
+        }
+
+        MetricRegistry registry = new MetricRegistry();
+        try (JournaledCoalescer jc =
+                new JournaledCoalescer(targetBUDPath, fileNameGenerator, 2, 3, new BlockCompressor(BlockCompressor.Format.GZIP, 1024))) {
+            jc.setMetricRegistry(registry);
+            jc.roll();
+
+            for (String key : keys) {
+                try (GZIPInputStream in = new GZIPInputStream(Files.newInputStream(targetBUDPath.resolve(key)))) {
+                    List<String> lines = IOUtils.readLines(in, Charset.defaultCharset());
+                    assertEquals(500, lines.size());
+                    assertEquals(key + " line 499", lines.get(499));
+                }
+                assertFalse(Files.exists(targetBUDPath.resolve(key + Journal.EXT)));
+            }
+            assertEquals(totalSize, jc.getLastRollBytesIn());
+            assertTrue(jc.getCompressionRatio() < 0.5, "Compression ratio " + jc.getCompressionRatio());
+        }
+        String prefix = JournaledCoalescer.METRIC_PREFIX + "." + targetBUDPath.getFileName();
+        assertEquals(1, registry.timer(prefix + ".roll").getCount());
+        assertEquals(totalSize, registry.counter(prefix + ".bytesIn").getCount());
+        assertTrue(registry.counter(prefix + ".bytesOut").getCount() < totalSize);
+        assertTrue(registry.getGauges().containsKey(prefix + ".compressionRatio"));
+    }
+
     @Test
     void testRollBadFiles() throws Exception {
         // setup
@@ -0,0 +1,87 @@
+package emissary.parser;
+
+import emissary.core.IBaseDataObject;
+import emissary.core.channels.MappedChannelFactory;
+import emissary.core.channels.SeekableByteChannelFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare parsing a session out of an input file the way PickUpPlace does with the file read through a channel against
+ * the mapped mode, where the session data is left in a mapping of the file. Runs with the GC profiler, compare
+ * gc.alloc.rate.norm (bytes allocated per file) between the two. Run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=emissary.parser.SessionParsingBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class SessionParsingBenchmark {
+
+    @Param({"4194304", "134217728"})
+    public int fileSize;
+
+    private Path input;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        input = Files.createTempFile("sessionbench", ".dat");
+        byte[] data = new byte[fileSize];
+        new Random(42).nextBytes(data);
+        Files.write(input, data);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        Files.deleteIfExists(input);
+    }
+
+    @Benchmark
+    public long read() throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(input.toFile(), "r")) {
+            SessionProducer producer = new SessionProducer(new SimpleNioParser(raf.getChannel()), "BENCH", null);
+            IBaseDataObject d = producer.getNextSession("bench");
+            return d.getChannelSize();
+        }
+    }
+
+    @Benchmark
+    public long mapped() throws Exception {
+        SeekableByteChannelFactory mapped = MappedChannelFactory.create(input);
+        SimpleNioParser parser = new SimpleNioParser(mapped.create());
+        parser.setChannelFactory(mapped);
+        IBaseDataObject d = new SessionProducer(parser, "BENCH", null).getNextSession("bench");
+        return d.getChannelSize();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(SessionParsingBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+    }
+}
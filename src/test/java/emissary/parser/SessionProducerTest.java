@@ -1,6 +1,7 @@
 package emissary.parser;
 
 import emissary.core.IBaseDataObject;
+import emissary.core.channels.InMemoryChannelFactory;
 import emissary.test.core.junit5.UnitTest;
 
 import org.junit.jupiter.api.Test;
@@ -8,6 +9,7 @@ import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SuppressWarnings("deprecation")
 // TODO: either remove these tests or test the new Parser
@@ -56,4 +58,16 @@ class SessionProducerTest extends UnitTest {
         assertNull(payload.getParameter("ALT_VIEW_BARVIEW"), "View data must be removed from normal metadata");
     }
 
+    @Test
+    void testDataChannelFactoryAttached() throws Exception {
+        SimpleParser parser = new SimpleParser("This is a test".getBytes());
+        SessionProducer sp = new SessionProducer(parser, "UNKNOWN");
+        DecomposedSession d = new DecomposedSession();
+        d.setDataChannelFactory(InMemoryChannelFactory.create("The Data".getBytes()));
+        assertTrue(d.hasData());
+        IBaseDataObject payload = sp.createAndLoadDataObject(d, "name");
+        assertEquals(8, payload.getChannelSize());
+        assertEquals("The Data", new String(payload.data()), "Data should be read from the channel factory");
+    }
+
 }
@@ -1,5 +1,7 @@
 package emissary.parser;
 
+import emissary.core.channels.MappedChannelFactory;
+import emissary.core.channels.SeekableByteChannelFactory;
 import emissary.test.core.junit5.UnitTest;
 
 import org.junit.jupiter.api.AfterEach;
@@ -10,12 +12,14 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -49,6 +53,21 @@ class SimpleNioParserTest extends UnitTest {
         assertEquals(DATALEN, sd.getData().length, "Data size");
     }
 
+    @Test
+    void testDataWindowFromChannelFactory() throws Exception {
+        SeekableByteChannelFactory mapped = MappedChannelFactory.create(testDataFile);
+        SimpleNioParser sp = new SimpleNioParser(mapped.create());
+        sp.setChannelFactory(mapped);
+        DecomposedSession sd = sp.getNextSession();
+        assertTrue(sd.isValid(), "Session decomposed");
+        assertNull(sd.getData(), "Data should not be copied");
+        assertNotNull(sd.getDataChannelFactory());
+        try (SeekableByteChannel sbc = sd.getDataChannelFactory().create()) {
+            assertEquals(DATALEN, sbc.size(), "Data size");
+        }
+        assertEquals(Integer.toString(DATALEN), sd.getStringMetadataItem(SessionParser.ORIG_DOC_SIZE_KEY));
+    }
+
     @Test
     void testNonExistingSession() throws ParserException {
         SimpleNioParser sp = new SimpleNioParser(channel);
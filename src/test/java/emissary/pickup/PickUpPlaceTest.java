@@ -1,14 +1,27 @@
 package emissary.pickup;
 
+import emissary.core.DataObjectFactory;
+import emissary.core.EmissaryException;
 import emissary.core.IMobileAgent;
+import emissary.core.Namespace;
 import emissary.pickup.file.FilePickUpClient;
 import emissary.pickup.file.FilePickUpPlace;
+import emissary.pool.AgentPool;
+import emissary.pool.MobileAgentFactory;
 import emissary.server.EmissaryServer;
 import emissary.test.core.junit5.UnitTest;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class PickUpPlaceTest extends UnitTest {
@@ -38,4 +51,43 @@ class PickUpPlaceTest extends UnitTest {
         assertTrue(PickUpPlace.implementsPickUpPlace(PickUpSpace.class));
     }
 
+    @Test
+    void testAssignToPooledAgentTimesOut() throws Exception {
+        MobileAgentFactory factory = new MobileAgentFactory("emissary.core.ExecutorMobileAgent");
+        factory.setUseNamespace(false);
+        AgentPool pool = new AgentPool(factory, 1, "PickUpPlaceTestPool");
+        IMobileAgent busy = pool.borrowAgent();
+        try {
+            long start = System.currentTimeMillis();
+            assertThrows(EmissaryException.class,
+                    () -> PickUpPlace.assignToPooledAgent(DataObjectFactory.getInstance(), pool, null, 200L));
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue(elapsed >= 200L && elapsed < 30000L, "Should block for about the timeout, took " + elapsed);
+        } finally {
+            pool.returnAgent(busy);
+            Namespace.unbind(pool.getPoolName());
+        }
+    }
+
+    @Test
+    void testOnlyFilesInTheAreaAreInIt(@TempDir Path tmp) {
+        File area = tmp.resolve("holding").toFile();
+        assertTrue(PickUpPlace.isInArea(new File(area, "claimed.dat"), area.getPath()));
+        assertTrue(PickUpPlace.isInArea(new File(area, "sub/claimed.dat"), area.getPath() + "/"));
+        assertFalse(PickUpPlace.isInArea(tmp.resolve("input/unclaimed.dat").toFile(), area.getPath()));
+        assertFalse(PickUpPlace.isInArea(tmp.resolve("holding2/unclaimed.dat").toFile(), area.getPath()));
+        assertFalse(PickUpPlace.isInArea(new File(area, "../escaped.dat"), area.getPath()));
+        assertFalse(PickUpPlace.isInArea(new File(area, "claimed.dat"), null));
+    }
+
+    @Test
+    void testBorrowWaitIsClamped() {
+        assertEquals(Duration.ofMillis(200L), PickUpPlace.borrowWait(200L, Duration.ofSeconds(1L)));
+        assertEquals(Duration.ofMillis(1000L), PickUpPlace.borrowWait(5000L, Duration.ofSeconds(1L)));
+        // A pool that waits forever leaves it to the caller's remaining time
+        assertEquals(Duration.ofMillis(5000L), PickUpPlace.borrowWait(5000L, Duration.ofMillis(-1L)));
+        assertEquals(Duration.ZERO, PickUpPlace.borrowWait(-5L, Duration.ofMillis(-1L)));
+        // Waiting forever on both sides still has to fit the pool's nanoseconds
+        assertDoesNotThrow(() -> PickUpPlace.borrowWait(Long.MAX_VALUE, Duration.ofMillis(-1L)).toNanos());
+    }
 }
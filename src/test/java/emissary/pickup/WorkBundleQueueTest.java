@@ -0,0 +1,155 @@
+package emissary.pickup;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkBundleQueueTest extends UnitTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testPriorityOrderBeyondWindow() throws IOException {
+        try (WorkBundleQueue queue = new WorkBundleQueue(dir, null, 3, WorkBundleQueue.DEFAULT_SEGMENT_SIZE)) {
+            int[] priorities = {5, 5, 5, 5, 9, 1, 5, 2};
+            for (int i = 0; i < priorities.length; i++) {
+                queue.add(bundle("file-" + i, priorities[i]));
+            }
+            assertEquals(8, queue.size());
+            assertEquals(3, queue.getWindowCount());
+
+            List<Integer> taken = new ArrayList<>();
+            WorkBundle wb;
+            while ((wb = queue.poll()) != null) {
+                taken.add(wb.getPriority());
+                assertTrue(queue.getWindowCount() <= 3);
+            }
+            assertEquals(Arrays.asList(1, 2, 5, 5, 5, 5, 5, 9), taken);
+            assertEquals(0, queue.size());
+        }
+    }
+
+    @Test
+    void testRecoversOutboundAndPending() throws IOException {
+        WorkBundle done;
+        WorkBundle pending;
+        try (WorkBundleQueue queue = new WorkBundleQueue(dir, null, 2, WorkBundleQueue.DEFAULT_SEGMENT_SIZE)) {
+            for (int i = 0; i < 6; i++) {
+                queue.add(bundle("file-" + i, 10));
+            }
+            done = take(queue, "host-a");
+            pending = take(queue, "host-b");
+            queue.completed(done.getBundleId());
+
+            // A failed bundle goes back outbound
+            WorkBundle failed = take(queue, "host-c");
+            failed.setSentTo(null);
+            failed.incrementErrorCount();
+            queue.add(failed);
+        }
+
+        try (WorkBundleQueue queue = new WorkBundleQueue(dir, null, 2, WorkBundleQueue.DEFAULT_SEGMENT_SIZE)) {
+            assertEquals(4, queue.size());
+            assertEquals(2, queue.getWindowCount());
+            assertEquals(1, queue.recoveredPending().size());
+            WorkBundle recovered = queue.recoveredPending().get(0);
+            assertEquals(pending.getBundleId(), recovered.getBundleId());
+            assertEquals("host-b", recovered.getSentTo());
+            assertEquals(pending.getFileNameList(), recovered.getFileNameList());
+
+            List<String> files = new ArrayList<>();
+            int errors = 0;
+            for (WorkBundle wb : queue) {
+                files.addAll(wb.getFileNameList());
+                errors += wb.getErrorCount();
+            }
+            assertEquals(4, files.size());
+            assertEquals(1, errors);
+            assertFalse(files.contains(done.getFileNameList().get(0)));
+        }
+    }
+
+    @Test
+    void testDropsTornRecord() throws IOException {
+        try (WorkBundleQueue queue = new WorkBundleQueue(dir, null)) {
+            queue.add(bundle("first", 10));
+            queue.add(bundle("second", 10));
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.sorted().filter(p -> {
+                try {
+                    return Files.size(p) > 0;
+                } catch (IOException e) {
+                    return false;
+                }
+            }).findFirst().get();
+        }
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3);
+        }
+
+        try (WorkBundleQueue queue = new WorkBundleQueue(dir, null)) {
+            assertEquals(1, queue.size());
+            assertEquals("first", queue.poll().getFileNameList().get(0));
+            queue.add(bundle("third", 10));
+        }
+        try (WorkBundleQueue queue = new WorkBundleQueue(dir, null)) {
+            assertEquals(2, queue.size());
+        }
+    }
+
+    @Test
+    void testFinishedSegmentsAreDeleted() throws IOException {
+        try (WorkBundleQueue queue = new WorkBundleQueue(dir, null, 10, 512)) {
+            // One bundle that is never finished must not keep the log from being trimmed
+            WorkBundle stuck = bundle("stuck", 1);
+            queue.add(stuck);
+            take(queue, "host-a");
+            for (int i = 0; i < 200; i++) {
+                queue.add(bundle("file-" + i, 10));
+                queue.completed(take(queue, "host-b").getBundleId());
+            }
+            assertTrue(queue.getSegmentCount() <= 3, "Segments left " + queue.getSegmentCount());
+            assertNull(queue.peek());
+        }
+        try (WorkBundleQueue queue = new WorkBundleQueue(dir, null)) {
+            assertEquals(0, queue.size());
+            assertEquals(1, queue.recoveredPending().size());
+            assertEquals("stuck", queue.recoveredPending().get(0).getFileNameList().get(0));
+            assertEquals("host-a", queue.recoveredPending().get(0).getSentTo());
+        }
+    }
+
+    private static WorkBundle take(WorkBundleQueue queue, String host) {
+        WorkBundle wb = queue.poll();
+        wb.setSentTo(host);
+        queue.taken(wb);
+        return wb;
+    }
+
+    private static WorkBundle bundle(String file, int priority) {
+        WorkBundle wb = new WorkBundle("/fake/root", "/fake/eat");
+        wb.addFileName(file);
+        wb.setPriority(priority);
+        return wb;
+    }
+}
@@ -6,7 +6,9 @@ import emissary.test.core.junit5.UnitTest;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -389,6 +391,28 @@ class WorkSpaceTest extends UnitTest {
         assertEquals(0, mws.getPendingQueueSize(), "Failed item no longer pending");
     }
 
+    @Test
+    void testDurableQueueRecoversAfterRestart(@TempDir Path queueDir) throws Exception {
+        String C1 = "INITIAL.INPUT.A.http://otherhost:7001/FilePickUpClient";
+        mws.setQueueDirectory(queueDir, 2);
+        for (int i = 0; i < 5; i++) {
+            WorkBundle wb = new WorkBundle("/fake/root", "/fake/eat");
+            wb.addFileName("faker-" + i + ".txt");
+            mws.addOutboundBundle_(wb);
+        }
+        WorkBundle done = mws.take(C1);
+        WorkBundle pending = mws.take(C1);
+        assertTrue(mws.workCompleted("otherhost", done.getBundleId(), true));
+        mws.shutDown();
+
+        mws = new MyWorkSpace();
+        mws.setQueueDirectory(queueDir, 2);
+        assertEquals(3, mws.getOutboundQueueSize(), "Outbound bundles recovered");
+        assertEquals(1, mws.getPendingQueueSize(), "Pending bundle recovered");
+        assertTrue(mws.workCompleted("otherhost", pending.getBundleId(), true), "Recovered pending bundle can be completed");
+        assertEquals(3, mws.filesSeen.size(), "Recovered files are seen");
+    }
+
     @Test
     void testArgumentParsing() throws Exception {
         List<String> args = new ArrayList<>();
@@ -0,0 +1,109 @@
+package emissary.pickup.file;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compare pickup latency and CPU of polling and watching an input directory that already holds many entries the pickup
+ * has to step over, such as files still being written under a dot name. Files are dropped one at a time and the time
+ * from writing each to the parent being asked to process it is recorded, along with the CPU used by the server thread.
+ * Run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=emissary.pickup.file.FileDataServerBenchmark -Dexec.args="100000"
+ * </pre>
+ *
+ * The arguments are directory sizes, 10000 and 100000 by default.
+ */
+public class FileDataServerBenchmark {
+
+    private static final int FILES = 50;
+    private static final long POLLING_INTERVAL = 1000;
+    private static final long SETTLE_TIME = 100;
+    private static final long DROP_INTERVAL = 20;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[] {10000, 100000} : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        for (int size : sizes) {
+            run("poll", size);
+            run("watch", size);
+        }
+    }
+
+    private static void run(String mode, int size) throws Exception {
+        Path base = Files.createTempDirectory("fds-bench");
+        try {
+            Path input = Files.createDirectory(base.resolve("input"));
+            Path hold = Files.createDirectory(base.resolve("hold"));
+            Path error = Files.createDirectory(base.resolve("error"));
+            for (int i = 0; i < size; i++) {
+                Files.createFile(input.resolve(".partial-" + i));
+            }
+
+            Map<String, Long> pickedUp = new ConcurrentHashMap<>();
+            CountDownLatch done = new CountDownLatch(FILES);
+            FilePickUpPlace parent = mock(FilePickUpPlace.class);
+            when(parent.getInProcessArea()).thenReturn(hold.toString());
+            when(parent.getErrorArea()).thenReturn(error.toString());
+            when(parent.processDataFile(any(File.class))).thenAnswer(inv -> {
+                pickedUp.put(((File) inv.getArgument(0)).getName(), System.nanoTime());
+                done.countDown();
+                return true;
+            });
+
+            FileDataServer server = "watch".equals(mode) ? new WatchingFileDataServer(input.toString(), parent, POLLING_INTERVAL, SETTLE_TIME)
+                    : new FileDataServer(input.toString(), parent, POLLING_INTERVAL);
+            server.start();
+            // Let the server settle into its idle loop before measuring
+            Thread.sleep(2 * POLLING_INTERVAL);
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long cpuStart = threads.getThreadCpuTime(server.getId());
+            long wallStart = System.nanoTime();
+            long[] written = new long[FILES];
+            for (int i = 0; i < FILES; i++) {
+                written[i] = System.nanoTime();
+                Files.write(input.resolve("file-" + i), "data".getBytes(StandardCharsets.UTF_8));
+                Thread.sleep(DROP_INTERVAL);
+            }
+            boolean finished = done.await(60, TimeUnit.SECONDS);
+            long cpu = threads.getThreadCpuTime(server.getId()) - cpuStart;
+            long wall = System.nanoTime() - wallStart;
+            server.shutdown();
+            server.interrupt();
+            server.join(5000);
+
+            long[] latency = new long[FILES];
+            for (int i = 0; i < FILES; i++) {
+                Long t = pickedUp.get("file-" + i);
+                latency[i] = t == null ? Long.MAX_VALUE : TimeUnit.NANOSECONDS.toMillis(t - written[i]);
+            }
+            Arrays.sort(latency);
+            System.out.printf("%-5s size=%7d picked=%2d/%d latency ms p50=%d p90=%d max=%d server cpu=%dms over %dms%n", mode, size,
+                    pickedUp.size(), FILES, latency[FILES / 2], latency[FILES * 9 / 10], latency[FILES - 1], TimeUnit.NANOSECONDS.toMillis(cpu),
+                    TimeUnit.NANOSECONDS.toMillis(wall));
+            if (!finished) {
+                System.out.println("  not every file was picked up");
+            }
+        } finally {
+            try (Stream<Path> walk = Files.walk(base)) {
+                walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+}
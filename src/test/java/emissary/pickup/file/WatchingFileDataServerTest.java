@@ -0,0 +1,107 @@
+package emissary.pickup.file;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WatchingFileDataServerTest extends UnitTest {
+
+    @TempDir
+    Path base;
+
+    private Path input;
+    private Path hold;
+    private FilePickUpPlace parent;
+    private WatchingFileDataServer server;
+
+    @BeforeEach
+    void makeDirectories() throws IOException {
+        input = Files.createDirectory(base.resolve("input"));
+        hold = Files.createDirectory(base.resolve("hold"));
+        Path error = Files.createDirectory(base.resolve("error"));
+        parent = mock(FilePickUpPlace.class);
+        when(parent.getInProcessArea()).thenReturn(hold.toString());
+        when(parent.getErrorArea()).thenReturn(error.toString());
+    }
+
+    @AfterEach
+    void stopServer() {
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    void testPicksUpExistingAndNewFiles() throws Exception {
+        write(input.resolve("existing.txt"));
+        server = new WatchingFileDataServer(input.toString(), parent, 5000, 50);
+        assertFalse(server.isPolling());
+        server.start();
+        verify(parent, timeout(5000)).processDataFile(hold.resolve("existing.txt").toFile());
+
+        write(input.resolve("new.txt"));
+        write(input.resolve(".hidden"));
+        verify(parent, timeout(5000)).processDataFile(hold.resolve("new.txt").toFile());
+        verify(parent, never()).processDataFile(hold.resolve(".hidden").toFile());
+    }
+
+    @Test
+    void testWaitsForFilesToSettle() throws Exception {
+        server = new WatchingFileDataServer(input.toString(), parent, 5000, 1500);
+        server.start();
+        write(input.resolve("slow.txt"));
+        Thread.sleep(300);
+        verify(parent, never()).processDataFile(any(File.class));
+        verify(parent, timeout(5000)).processDataFile(hold.resolve("slow.txt").toFile());
+    }
+
+    @Test
+    void testOverflowWalksDirectory() throws Exception {
+        for (String name : Arrays.asList("a", "b", "c")) {
+            write(input.resolve(name));
+        }
+        server = new WatchingFileDataServer(input.toString(), parent, 5000, 0);
+        server.setBundleSize(2);
+        assertEquals(2, server.nextBatch().length);
+        assertEquals(1, server.nextBatch().length);
+        assertEquals(0, server.nextBatch().length);
+
+        // The files were not moved, losing events must find them again
+        WatchEvent<?> overflow = mock(WatchEvent.class);
+        when(overflow.kind()).thenAnswer(i -> StandardWatchEventKinds.OVERFLOW);
+        WatchKey key = mock(WatchKey.class);
+        when(key.pollEvents()).thenReturn(Collections.singletonList(overflow));
+        when(key.reset()).thenReturn(true);
+        server.handle(key);
+        assertEquals(2, server.nextBatch().length);
+        assertEquals(1, server.nextBatch().length);
+        assertEquals(0, server.getPendingCount());
+    }
+
+    private static void write(Path p) throws IOException {
+        Files.write(p, "data".getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -22,8 +22,10 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isA;
@@ -152,6 +154,90 @@ class UnixCommandPlaceTest extends UnitTest {
         assertEquals("", new String(place.stdOutProcess(new String[] {"zero"}, false)));
     }
 
+    @Test
+    void testUnixCommandPlaceStream() throws Exception {
+        place.setExecMode(UnixCommandPlace.ExecMode.STREAM);
+        place.executrix.setCommand("tr a-z A-Z");
+
+        place.process(payload);
+        assertEquals("ABCDEFG", new String(payload.getAlternateView("TEST_VIEW"), StandardCharsets.UTF_8));
+        assertEquals(FORM, payload.currentForm(), "Payload should have same current form");
+    }
+
+    @Test
+    void testStreamLimits() throws Exception {
+        place.setExecMode(UnixCommandPlace.ExecMode.STREAM);
+        place.executrix.setCommand("cat");
+        place.maxOutputSize = 3;
+        assertNull(place.streamProcess("abcdefg".getBytes(StandardCharsets.UTF_8), false), "Output over the limit is an error");
+
+        place.maxOutputSize = 100;
+        place.executrix.setCommand("printf 'abc\\r\\n\\n'");
+        assertEquals("abc", new String(place.streamProcess(null, true), StandardCharsets.UTF_8));
+        place.executrix.setCommand("false");
+        assertNull(place.streamProcess(null, false), "Non-zero exit is an error");
+
+        place.executrix.setCommand("sleep 10");
+        place.executrix.setProcessMaxMillis(200);
+        long start = System.currentTimeMillis();
+        assertNull(place.streamProcess("abcdefg".getBytes(StandardCharsets.UTF_8), false), "Timeout is an error");
+        assertTrue(System.currentTimeMillis() - start < 5000, "Process must be killed at the time limit");
+    }
+
+    @Test
+    void testUnixCommandPlaceCoprocess() throws Exception {
+        createCoprocessScript();
+        place.setExecMode(UnixCommandPlace.ExecMode.COPROCESS);
+        place.executrix.setCommand(scriptFile.toString());
+
+        place.process(payload);
+        String first = new String(payload.getAlternateView("TEST_VIEW"), StandardCharsets.UTF_8);
+        assertTrue(first.endsWith(":ABCDEFG"), first);
+
+        IBaseDataObject second = DataObjectFactory.getInstance(new Object[] {"hijk".getBytes(), "second", FORM});
+        place.process(second);
+        String output = new String(second.getAlternateView("TEST_VIEW"), StandardCharsets.UTF_8);
+        assertEquals(pid(first) + ":HIJK", output, "The same coprocess should serve both payloads");
+
+        // Retire the coprocess after every request
+        place.coprocessMaxRequests = 1;
+        place.setExecMode(UnixCommandPlace.ExecMode.COPROCESS);
+        String one = new String(place.coprocessProcess("x".getBytes(StandardCharsets.UTF_8), false), StandardCharsets.UTF_8);
+        String two = new String(place.coprocessProcess("y".getBytes(StandardCharsets.UTF_8), false), StandardCharsets.UTF_8);
+        assertNotEquals(pid(one), pid(two));
+
+        // A hung coprocess is killed and replaced
+        place.coprocessMaxRequests = 0;
+        place.executrix.setProcessMaxMillis(300);
+        place.setExecMode(UnixCommandPlace.ExecMode.COPROCESS);
+        assertNull(place.coprocessProcess("sleep".getBytes(StandardCharsets.UTF_8), false));
+        assertTrue(new String(place.coprocessProcess("z".getBytes(StandardCharsets.UTF_8), false), StandardCharsets.UTF_8).endsWith(":Z"));
+    }
+
+    private static String pid(String output) {
+        return output.substring(0, output.indexOf(':'));
+    }
+
+    /**
+     * Answer each framed request with the pid and the upper cased request, hanging on the request "sleep"
+     */
+    private void createCoprocessScript() throws IOException {
+        try (OutputStream fos = startScript()) {
+            fos.write(("byte() { printf \"\\\\$(printf %03o $(( $1 & 255 )))\"; }\n"
+                    + "while header=$(head -c 4 | od -An -tu1) && [ -n \"$header\" ]; do\n"
+                    + "  set -- $header\n"
+                    + "  data=$(head -c $(( ($1 << 24) | ($2 << 16) | ($3 << 8) | $4 )))\n"
+                    + "  [ \"$data\" = sleep ] && sleep 10\n"
+                    + "  out=\"$$:$(printf %s \"$data\" | tr a-z A-Z)\"\n"
+                    + "  len=${#out}\n"
+                    + "  printf '\\000\\000\\000\\000'\n"
+                    + "  byte $(( len >> 24 )); byte $(( len >> 16 )); byte $(( len >> 8 )); byte $len\n"
+                    + "  printf %s \"$out\"\n"
+                    + "done\n").getBytes(StandardCharsets.UTF_8));
+            scriptFile.toFile().setExecutable(true);
+        }
+    }
+
     private static final String[] LOG_MSGS = {"ERROR script error message", "WARN script warn message", "INFO script info message",
             "DEBUG script debug message"};
 
@@ -0,0 +1,156 @@
+package emissary.pool;
+
+import emissary.core.ExecutorMobileAgent;
+import emissary.directory.DirectoryEntry;
+import emissary.place.IServiceProviderPlace;
+import emissary.test.core.junit5.UnitTest;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MoveSpoolTest extends UnitTest {
+
+    static final Queue<Object> handled = new ConcurrentLinkedQueue<>();
+    static volatile AgentPool agentPool;
+    static volatile CountDownLatch done;
+
+    private MoveSpool spool;
+
+    @Override
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (spool != null) {
+            spool.quit();
+        }
+        if (agentPool != null) {
+            agentPool.clear();
+            agentPool = null;
+        }
+        handled.clear();
+        super.tearDown();
+    }
+
+    @Test
+    void testRejectsAtCapacity() {
+        MetricRegistry registry = new MetricRegistry();
+        spool = new MoveSpool(null, 3, registry);
+
+        assertEquals(1, spool.send("one"));
+        assertEquals(2, spool.send("two"));
+        assertEquals(3, spool.arrive("three", null, 0, new ArrayList<DirectoryEntry>()));
+        assertEquals(MoveSpool.REJECTED, spool.send("four"));
+        assertEquals(MoveSpool.REJECTED, spool.arrive("five", null, 0, new ArrayList<DirectoryEntry>()));
+
+        assertEquals(3, spool.getCurrentSpoolSize());
+        assertEquals(3, spool.getHighWaterMark());
+        assertEquals(3, spool.getEnqueCount());
+        assertEquals(2, spool.getRejectedCount());
+        assertEquals(2, registry.counter(MoveSpool.REJECTED_METRIC).getCount());
+        assertEquals(3, registry.histogram(MoveSpool.DEPTH_METRIC).getCount());
+        assertEquals(3, registry.getGauges().get(MoveSpool.SIZE_METRIC).getValue());
+
+        // Draining makes room again, in order
+        assertEquals("one", spool.removeFirstPayload().getPayload());
+        assertEquals(1, spool.getDequeCount());
+        assertEquals(1, registry.histogram(MoveSpool.WAIT_METRIC).getCount());
+        assertEquals(3, spool.send("six"));
+        assertEquals("two", spool.removeFirstPayload().getPayload());
+        assertEquals("three", spool.removeFirstPayload().getPayload());
+        assertEquals("six", spool.removeFirstPayload().getPayload());
+        assertNull(spool.removeFirstPayload());
+        assertEquals(0, spool.getCurrentSpoolSize());
+        assertEquals(3, spool.getHighWaterMark());
+    }
+
+    @Test
+    void testMoveCounts() {
+        spool = new MoveSpool(null, 0, null);
+        assertEquals(Integer.MAX_VALUE, spool.getCapacity());
+        for (int i = 0; i < 5; i++) {
+            spool.send("p" + i);
+        }
+        Map<String, Integer> counts = spool.getMoveCountMap();
+        assertEquals(1, counts.size());
+        assertEquals(5, counts.get("sprout"));
+        assertEquals("{sprout=5}", spool.getStatPairs());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void testDeprecatedMoveCountMap() {
+        spool = new MoveSpool(null, 0, null);
+        spool.send("p0");
+        spool.send("p1");
+        assertEquals(2, spool.moveCountMap.get("sprout"));
+        spool.send("p2");
+        assertEquals(3, spool.moveCountMap.get("sprout"), "Live view of the counts");
+    }
+
+    @Test
+    void testConcurrentProducersHandedToAgents() throws Exception {
+        int producers = 8;
+        int perProducer = 250;
+        done = new CountDownLatch(producers * perProducer);
+        agentPool = new AgentPool(new MobileAgentFactory(SpoolAgent.class.getName()), 4, "MoveSpoolTestPool");
+        MetricRegistry registry = new MetricRegistry();
+        spool = new MoveSpool(agentPool, producers * perProducer, registry);
+        spool.start();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < producers; t++) {
+            final int id = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    spool.send(id + "-" + i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS), "Spool did not drain, " + spool);
+        assertEquals(producers * perProducer, handled.size());
+        assertEquals(0, spool.getRejectedCount());
+        assertEquals(producers * perProducer, spool.getDequeCount());
+        // the hand off latency is recorded once the last agent has returned from go()
+        long deadline = System.currentTimeMillis() + 5000;
+        while (registry.histogram(MoveSpool.HANDOFF_METRIC).getCount() < producers * perProducer && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(producers * perProducer, registry.histogram(MoveSpool.HANDOFF_METRIC).getCount());
+    }
+
+    /**
+     * Agent that just records what it was handed and goes back to the pool
+     */
+    public static class SpoolAgent extends ExecutorMobileAgent {
+        static final long serialVersionUID = 1L;
+
+        public SpoolAgent(ThreadGroup threadGroup, String name) {
+            super(threadGroup, name);
+        }
+
+        @Override
+        public void go(Object payload, IServiceProviderPlace sourcePlace) {
+            handled.add(payload);
+            agentPool.returnAgent(this);
+            done.countDown();
+        }
+    }
+}
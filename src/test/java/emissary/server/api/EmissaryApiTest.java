@@ -8,6 +8,7 @@ import emissary.command.ServerCommand;
 import emissary.core.EmissaryException;
 import emissary.core.MetricsManager;
 import emissary.core.Namespace;
+import emissary.core.RoutingTrace;
 import emissary.directory.DirectoryPlace;
 import emissary.directory.EmissaryNode;
 import emissary.pool.AgentPool;
@@ -30,10 +31,12 @@ import org.junit.jupiter.api.Test;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.Response;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -236,6 +239,36 @@ class EmissaryApiTest extends EndpointTestBase {
         }
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void routing() {
+        RoutingTrace trace = new RoutingTrace(true, 1, 5);
+        trace.record(RoutingTrace.Phase.PLACE, 2_000_000L);
+        RoutingTrace.Itinerary itinerary = trace.startItinerary("payload");
+        itinerary.add(RoutingTrace.Phase.PLACE, "UNKNOWN.FOO.ID.http://localhost:8001/FooPlace$5050", 2_000_000L);
+        trace.finish(itinerary);
+        RoutingTrace.setInstance(trace);
+        try (Response response = target("routing").request().get()) {
+            assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+            Map<String, Object> entity = response.readEntity(new GenericType<Map<String, Object>>() {});
+            assertEquals(Boolean.TRUE, entity.get("enabled"));
+            Map<String, Map<String, Number>> phases = (Map<String, Map<String, Number>>) entity.get("phases");
+            assertEquals(1L, phases.get("PLACE").get("count").longValue());
+            assertEquals(2000L, phases.get("PLACE").get("totalMicros").longValue());
+            assertEquals(0L, phases.get("QUEUE").get("count").longValue());
+            List<Map<String, Object>> itineraries = (List<Map<String, Object>>) entity.get("itineraries");
+            assertEquals(1, itineraries.size());
+            assertEquals("payload", itineraries.get(0).get("payload"));
+            List<Map<String, Object>> hops = (List<Map<String, Object>>) itineraries.get(0).get("hops");
+            assertEquals(1, hops.size());
+            assertEquals("PLACE", hops.get(0).get("phase"));
+            assertEquals("UNKNOWN.FOO.ID.http://localhost:8001/FooPlace$5050", hops.get(0).get("where"));
+            assertEquals(2000L, ((Number) hops.get(0).get("micros")).longValue());
+        } finally {
+            RoutingTrace.setInstance(null);
+        }
+    }
+
     @Test
     void healthcheck() {
         HealthCheckAction health = new HealthCheckAction();
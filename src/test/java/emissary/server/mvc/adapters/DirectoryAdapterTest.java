@@ -0,0 +1,80 @@
+package emissary.server.mvc.adapters;
+
+import emissary.client.EmissaryResponse;
+import emissary.core.EmissaryException;
+import emissary.directory.DirectoryDelta;
+import emissary.directory.DirectoryEntry;
+import emissary.test.core.junit5.UnitTest;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+class DirectoryAdapterTest extends UnitTest {
+
+    private static final String PEER = "*.*.*.http://remoteHost:8888/DirectoryPlace";
+    private static final String MY_KEY = "EMISSARY_DIRECTORY_SERVICES.DIRECTORY.STUDY.http://localhost:9999/DirectoryPlace$5050";
+
+    private DirectoryAdapter adapter;
+
+    @Override
+    @BeforeEach
+    public void setUp() throws Exception {
+        super.setUp();
+        adapter = spy(new DirectoryAdapter());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {404, 405})
+    void testChangesNotSupported(final int status) throws Exception {
+        respond(status, "");
+        assertNull(adapter.outboundDirectoryChanges(PEER, MY_KEY, null), "Old peers should be asked for a zone transfer instead");
+    }
+
+    @Test
+    void testChangesFailed() {
+        respond(500, "boom");
+        assertThrows(EmissaryException.class, () -> adapter.outboundDirectoryChanges(PEER, MY_KEY, null));
+    }
+
+    @Test
+    void testChangesUnreadable() {
+        respond(200, "not json");
+        assertThrows(EmissaryException.class, () -> adapter.outboundDirectoryChanges(PEER, MY_KEY, null));
+    }
+
+    @Test
+    void testChangesFiltered() throws Exception {
+        final DirectoryEntry dir = new DirectoryEntry("EMISSARY_DIRECTORY_SERVICES.DIRECTORY.STUDY.http://remoteHost:8888/DirectoryPlace$5050");
+        final DirectoryEntry place = new DirectoryEntry("UNKNOWN.TO_LOWER.TRANSFORM.http://remoteHost:8888/ToLowerPlace$5050");
+        respond(200, DirectoryDelta.snapshot(PEER, 7L, 3L, Arrays.asList(dir, place)).toJson());
+
+        final DirectoryDelta delta = adapter.outboundDirectoryChanges(PEER, MY_KEY, null);
+        assertTrue(delta.isSnapshot());
+        assertEquals(7L, delta.getEpoch());
+        assertEquals(3L, delta.getVersion());
+        assertEquals(1, delta.getChanges().size(), "Changes should be filtered like a zone transfer");
+        assertEquals(dir.getKey(), delta.getChanges().get(0).getEntry().getKey());
+    }
+
+    private void respond(final int status, final String content) {
+        final EmissaryResponse response = mock(EmissaryResponse.class);
+        when(response.getStatus()).thenReturn(status);
+        when(response.getContentString()).thenReturn(content);
+        doReturn(response).when(adapter).send(any(HttpRequestBase.class));
+    }
+}
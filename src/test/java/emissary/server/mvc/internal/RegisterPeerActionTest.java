@@ -2,6 +2,7 @@ package emissary.server.mvc.internal;
 
 import emissary.config.ConfigUtil;
 import emissary.core.Namespace;
+import emissary.directory.DirectoryDelta;
 import emissary.directory.DirectoryPlace;
 import emissary.directory.EmissaryNode;
 import emissary.server.mvc.EndpointTestBase;
@@ -19,9 +20,12 @@ import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.Response;
 
+import static emissary.server.mvc.adapters.DirectoryAdapter.CHANGE_EPOCH;
+import static emissary.server.mvc.adapters.DirectoryAdapter.CHANGE_VERSION;
 import static emissary.server.mvc.adapters.DirectoryAdapter.DIRECTORY_NAME;
 import static emissary.server.mvc.adapters.DirectoryAdapter.TARGET_DIRECTORY;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -33,6 +37,7 @@ class RegisterPeerActionTest extends EndpointTestBase {
     private static final String PEER_KEY_BAD = "EMISSARY_DIRECTORY_SERVICES.DIRECTORY.STUDY.http://otherRemoteHost:8888/DirectoryPlace";
     private static final String DIRNAME = "EMISSARY_DIRECTORY_SERVICES.DIRECTORY.STUDY.http://localhost:9999/DirectoryPlace$5050";
     private static final String REGISTER_PEER_ACTION = "RegisterPeer.action";
+    private static final String DIRECTORY_CHANGES_ACTION = "DirectoryChanges.action";
     private static final String SUCCESS_RESULT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
             + "<directory location=\"EMISSARY_DIRECTORY_SERVICES.DIRECTORY.STUDY.http://localhost:9999/DirectoryPlace\">\r\n"
             + "  <entryList dataid=\"EMISSARY_DIRECTORY_SERVICES::STUDY\">\r\n" + "    <entry>\r\n"
@@ -40,6 +45,7 @@ class RegisterPeerActionTest extends EndpointTestBase {
             + "      <cost>50</cost>\r\n" + "      <quality>50</quality>\r\n" + "      <expense>5050</expense>\r\n" + "    </entry>\r\n"
             + "  </entryList>\r\n" + "</directory>\r\n";
     private EmissaryNode node;
+    private DirectoryPlace directoryPlace;
 
     @BeforeEach
     public void setup() throws IOException {
@@ -51,7 +57,7 @@ class RegisterPeerActionTest extends EndpointTestBase {
         when(node.isValid()).thenReturn(true);
         when(node.getPeerConfigurator()).thenReturn(ConfigUtil.getConfigInfo("peer-TESTING.cfg"));
         // make a new directory place and register it in the Namespace @ dirName
-        DirectoryPlace directoryPlace = new DirectoryPlace("peer-TESTING.cfg", DIRNAME, node);
+        directoryPlace = new DirectoryPlace("peer-TESTING.cfg", DIRNAME, node);
         Namespace.bind(DIRNAME, directoryPlace);
     }
 
@@ -138,4 +144,64 @@ class RegisterPeerActionTest extends EndpointTestBase {
             assertEquals("Remote directory lookup failed for dirName: " + DIRNAME, result);
         }
     }
+
+    @Test
+    void directoryChangesSnapshotForNewPeer() throws IOException {
+        // test
+        try (Response response = target(DIRECTORY_CHANGES_ACTION).request().post(Entity.form(formParams))) {
+            // verify
+            assertEquals(200, response.getStatus());
+            final DirectoryDelta delta = DirectoryDelta.fromJson(response.readEntity(String.class));
+            assertTrue(delta.isSnapshot());
+            assertEquals(1, delta.getChanges().size());
+            assertEquals(directoryPlace.getKey(), delta.getLocation());
+        }
+    }
+
+    @Test
+    void directoryChangesSinceLastSync() throws IOException {
+        final DirectoryDelta snapshot = directoryPlace.irdChangesSince(-1L, -1L);
+        formParams.put(CHANGE_EPOCH, Collections.singletonList(Long.toString(snapshot.getEpoch())));
+        formParams.put(CHANGE_VERSION, Collections.singletonList(Long.toString(snapshot.getVersion())));
+
+        // test
+        try (Response response = target(DIRECTORY_CHANGES_ACTION).request().post(Entity.form(formParams))) {
+            // verify
+            assertEquals(200, response.getStatus());
+            final DirectoryDelta delta = DirectoryDelta.fromJson(response.readEntity(String.class));
+            assertFalse(delta.isSnapshot());
+            assertTrue(delta.getChanges().isEmpty());
+            assertEquals(snapshot.getVersion(), delta.getVersion());
+        }
+    }
+
+    @Test
+    void directoryChangesUnknownPeer() {
+        formParams.replace(DIRECTORY_NAME, Collections.singletonList(PEER_KEY_BAD));
+
+        // test
+        try (Response response = target(DIRECTORY_CHANGES_ACTION).request().post(Entity.form(formParams))) {
+            // verify
+            assertEquals(500, response.getStatus());
+            assertTrue(response.readEntity(String.class).startsWith("Registration failed"));
+        }
+    }
+
+    @Test
+    void directoryChangesNotTracked() throws IOException {
+        Namespace.unbind(DIRNAME);
+        final DirectoryPlace untracked = new DirectoryPlace("peer-TESTING.cfg", DIRNAME, node) {
+            @Override
+            public DirectoryDelta irdChangesSince(final long epoch, final long version) {
+                return null;
+            }
+        };
+        Namespace.bind(DIRNAME, untracked);
+
+        // test
+        try (Response response = target(DIRECTORY_CHANGES_ACTION).request().post(Entity.form(formParams))) {
+            // verify
+            assertEquals(404, response.getStatus(), "Peers fall back to a zone transfer on a 404");
+        }
+    }
 }
@@ -0,0 +1,35 @@
+package emissary.util;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DaemonThreadFactoryTest extends UnitTest {
+
+    @Test
+    void testThreadsAreNamedDaemons() {
+        final DaemonThreadFactory factory = new DaemonThreadFactory("test-");
+        final Thread first = factory.newThread(() -> {
+        });
+        final Thread second = factory.newThread(() -> {
+        });
+        assertEquals("test-0", first.getName());
+        assertEquals("test-1", second.getName());
+        assertTrue(first.isDaemon());
+        assertEquals(Thread.NORM_PRIORITY, first.getPriority());
+        assertSame(Thread.currentThread().getThreadGroup(), first.getThreadGroup());
+    }
+
+    @Test
+    void testThreadsJoinTheGroup() {
+        final ThreadGroup group = new ThreadGroup("DaemonThreadFactoryTest");
+        final Thread t = new DaemonThreadFactory(group, "grouped-").newThread(() -> {
+        });
+        assertSame(group, t.getThreadGroup());
+        assertEquals("grouped-0", t.getName());
+    }
+}
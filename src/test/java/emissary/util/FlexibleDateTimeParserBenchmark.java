@@ -0,0 +1,91 @@
+package emissary.util;
+
+import emissary.config.ConfigUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare parsing a mix of date strings, as found in mail headers, file metadata and event dates, with the shape cache
+ * in FlexibleDateTimeParser against trying every configured format and catching the failures. Run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=emissary.util.FlexibleDateTimeParserBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FlexibleDateTimeParserBenchmark {
+
+    private static final String[] DATES = {"2016-01-04T18:20:30Z", "2016-01-04 18:20:30", "2016-01-04", "Mon, 4 Jan 2016 18:20:30 +0000",
+            "Mon, 4 Jan 2016 13:20:30 -0500 (EST)", "4 Jan 2016 18:20:30 GMT", "Jan 4, 2016 6:20:30 PM", "01/04/16 18:20", "1/4/16 6:20 PM",
+            "04-Jan-2016 18:20:30", "2016/01/04 18:20:30", "2016:01:04 18:20:30", "20160104182030", "20160104", "2016004182030",
+            "2016004", "Mon Jan 4 18:20:30 2016", "not a date", "12345"};
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // FlexibleDateTimeParser reads its formats through ConfigUtil, which falls back to the classpath
+        if (System.getProperty(ConfigUtil.CONFIG_DIR_PROPERTY) == null) {
+            System.setProperty(ConfigUtil.CONFIG_DIR_PROPERTY, "target/test-classes");
+        }
+    }
+
+    @Benchmark
+    public void shapes(Blackhole bh) {
+        for (String date : DATES) {
+            bh.consume(FlexibleDateTimeParser.parse(date));
+        }
+    }
+
+    @Benchmark
+    public void everyFormat(Blackhole bh) {
+        for (String date : DATES) {
+            ZonedDateTime parsed = null;
+            for (DateTimeFormatter formatter : FlexibleDateTimeParser.getDateFormats()) {
+                try {
+                    TemporalAccessor accessor = formatter.parseBest(date, ZonedDateTime::from, LocalDateTime::from, LocalDate::from);
+                    if (accessor instanceof ZonedDateTime) {
+                        parsed = (ZonedDateTime) accessor;
+                    } else if (accessor instanceof LocalDateTime) {
+                        parsed = ((LocalDateTime) accessor).atZone(FlexibleDateTimeParser.getTimezone());
+                    } else {
+                        parsed = ((LocalDate) accessor).atStartOfDay(FlexibleDateTimeParser.getTimezone());
+                    }
+                    break;
+                } catch (DateTimeParseException e) {
+                    // try the next one
+                }
+            }
+            bh.consume(parsed);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(FlexibleDateTimeParserBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+    }
+}
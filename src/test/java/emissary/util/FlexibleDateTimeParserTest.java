@@ -416,4 +416,21 @@ class FlexibleDateTimeParserTest extends UnitTest {
         test("17.Mar.2016", 0L, "UNKNOWN");
         test("Mon, 2 Feb 2017 06:20:30 PM +0000", 0L, "UNKNOWN");
     }
+
+    @Test
+    void testShapeOf() {
+        assertEquals("0000-00-00 00:00", FlexibleDateTimeParser.shapeOf("2016-01-04 18:20"));
+        assertEquals("Mon, 0 Jan 0000 00:00:00 +0000", FlexibleDateTimeParser.shapeOf("Mon, 4 Jan 2016 18:20:30 +0000"));
+    }
+
+    @Test
+    void testSameShapeDifferentValues() {
+        // Values that fail on a string do not rule the formats out for the next string of the same shape
+        test("Mon, 4 Jan 2016 18:20:30 +0099", 0L, "Offset out of range");
+        test("Mon, 4 Jan 2016 18:20:30 +0000", EXPECTED_FULL, "Offset in range");
+        test("2016-13-04 18:20", 0L, "No such month");
+        test("2016-01-04 18:20", EXPECTED_NO_SECS, "Valid month");
+        test("Mon, 4 Foo 2016 18:20:30 +0000", 0L, "Not a month");
+        test("Mon, 4 Jan 2016 18:20:30 +0000", EXPECTED_FULL, "Month");
+    }
 }
@@ -0,0 +1,106 @@
+package emissary.util;
+
+import emissary.util.magic.MagicNumber;
+import emissary.util.magic.MagicNumberFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare identifying a corpus of common file headers with the compiled index in MagicNumberUtil against testing every
+ * entry of the shipped magic file in turn. Run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=emissary.util.MagicNumberBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MagicNumberBenchmark {
+
+    private static final String MAGIC = "src/main/config/magic";
+
+    private MagicNumberUtil util;
+    private List<MagicNumber> magicNumbers;
+    private final List<byte[]> corpus = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        util = new MagicNumberUtil();
+        util.load(new File(MAGIC), true);
+        magicNumbers = MagicNumberFactory.buildMagicNumberList(Files.readAllBytes(Paths.get(MAGIC)), null, null, true);
+
+        String[] headers = {"%PDF-1.7\n%\u00e2\u00e3\u00cf\u00d3\n", "PK\u0003\u0004\u0014\u0000\u0006\u0000\u0008\u0000",
+                "GIF89a\u0001\u0000\u0001\u0000",
+                "\u0089PNG\r\n\u001a\n\u0000\u0000\u0000\rIHDR", "\u00ff\u00d8\u00ff\u00e0\u0000\u0010JFIF\u0000",
+                "\u007fELF\u0002\u0001\u0001\u0000",
+                "\u00ca\u00fe\u00ba\u00be\u0000\u0000\u00004", "\u001f\u008b\u0008\u0000\u0000\u0000\u0000\u0000", "<?xml version=\"1.0\"?>\n<root/>",
+                "From: someone@example.com\nTo: other@example.com\nSubject: hi\n", "#!/bin/sh\necho hello\n",
+                "\u00d0\u00cf\u0011\u00e0\u00a1\u00b1\u001a\u00e1\u0000\u0000"};
+        Random random = new Random(11);
+        for (String header : headers) {
+            byte[] data = new byte[512];
+            random.nextBytes(data);
+            byte[] h = header.getBytes(StandardCharsets.ISO_8859_1);
+            System.arraycopy(h, 0, data, 0, h.length);
+            corpus.add(data);
+        }
+        for (int i = 0; i < 4; i++) {
+            byte[] data = new byte[512];
+            random.nextBytes(data);
+            corpus.add(data);
+        }
+    }
+
+    @Benchmark
+    public void indexed(Blackhole bh) {
+        for (byte[] data : corpus) {
+            bh.consume(util.describe(data));
+        }
+    }
+
+    @Benchmark
+    public void linear(Blackhole bh) {
+        for (byte[] data : corpus) {
+            String description = null;
+            for (MagicNumber item : magicNumbers) {
+                description = item.describe(data);
+                if (description != null && !description.isEmpty()) {
+                    break;
+                }
+            }
+            bh.consume(description);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(MagicNumberBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+    }
+}
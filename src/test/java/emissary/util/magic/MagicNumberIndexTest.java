@@ -0,0 +1,100 @@
+package emissary.util.magic;
+
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MagicNumberIndexTest extends UnitTest {
+
+    private static List<MagicNumber> build(String... entries) {
+        return MagicNumberFactory.buildMagicNumberList(String.join("\n", entries).getBytes(StandardCharsets.ISO_8859_1), null, null);
+    }
+
+    private static String linear(List<MagicNumber> magicNumbers, byte[] data) {
+        for (MagicNumber m : magicNumbers) {
+            String description = m.describe(data);
+            if (description != null && !description.isEmpty()) {
+                return description;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    void testLoadOrderWins() {
+        List<MagicNumber> magic = build("0 string ABC First", "2 byte >0x43 Ranged", "0 string AB Second", "1 string BC Offset");
+        MagicNumberIndex index = new MagicNumberIndex(magic);
+        assertEquals(4, index.size());
+        assertEquals(1, index.unindexedSize());
+
+        assertEquals("First", index.describe("ABCD".getBytes()));
+        assertEquals("Ranged", index.describe("ABD".getBytes()));
+        assertEquals("Second", index.describe("AB".getBytes()));
+        assertEquals("Offset", index.describe("XBC".getBytes()));
+        assertNull(index.describe("ZZ".getBytes()));
+        assertNull(index.describe(null));
+        assertNull(index.describe(new byte[0]));
+    }
+
+    @Test
+    void testCandidatesNarrowed() {
+        List<MagicNumber> magic = build("0 string PK\\003\\004 Zip", "0 string %PDF- PDF", "0 belong 0xcafebabe Java", "4 string moov QuickTime");
+        MagicNumberIndex index = new MagicNumberIndex(magic);
+        assertEquals(1, index.candidates("%PDF-1.4".getBytes()).length);
+        assertEquals(0, index.candidates("hello".getBytes()).length);
+        assertEquals(Arrays.toString(new int[] {0, 3}), Arrays.toString(index.candidates("PK\003\004moov".getBytes())));
+        assertEquals("Zip", index.describe("PK\003\004moov".getBytes()));
+    }
+
+    @Test
+    void testContinuations() {
+        List<MagicNumber> magic = build("0 string GIF8 GIF image data", ">4 string 7a \\b, version 8%s", ">4 string 9a \\b, version 8%s");
+        MagicNumberIndex index = new MagicNumberIndex(magic);
+        assertEquals(linear(magic, "GIF89a".getBytes()), index.describe("GIF89a".getBytes()));
+        assertTrue(index.describe("GIF89a".getBytes()).startsWith("GIF image data"));
+    }
+
+    @Test
+    void testSameAnswersAsLinearScan() throws IOException {
+        List<MagicNumber> magic = MagicNumberFactory.buildMagicNumberList(Files.readAllBytes(Paths.get("src/main/config/magic")), null, null, true);
+        MagicNumberIndex index = new MagicNumberIndex(magic);
+        assertTrue(index.unindexedSize() < index.size() / 2, "Most entries should be indexed");
+
+        Random random = new Random(7);
+        int found = 0;
+        for (int i = 0; i < 2000; i++) {
+            byte[] sample;
+            if (i % 2 == 0) {
+                // the value of an entry at its offset followed by noise, so there are plenty of hits
+                MagicNumber m = magic.get(random.nextInt(magic.size()));
+                int offset = Math.max(m.offset, 0);
+                sample = new byte[offset + 64];
+                random.nextBytes(sample);
+                if (m.value != null && offset + m.value.length <= sample.length) {
+                    System.arraycopy(m.value, 0, sample, offset, m.value.length);
+                }
+            } else {
+                sample = new byte[random.nextInt(128)];
+                random.nextBytes(sample);
+            }
+            String expected = linear(magic, sample);
+            if (expected != null) {
+                found++;
+            }
+            assertEquals(expected, index.describe(sample), "Sample " + i);
+        }
+        assertTrue(found > 500, "Samples should mostly be identified, found " + found);
+    }
+}
@@ -0,0 +1,154 @@
+package emissary.util.search;
+
+import emissary.core.channels.InMemoryChannelFactory;
+import emissary.test.core.junit5.UnitTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AhoCorasickScannerTest extends UnitTest {
+
+    private final String[] defaultKeywords = {"fox", "dog"};
+    private final byte[] defaultData = "the quick brown fox jumped over the lazy dog".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void testFindAll() {
+        AhoCorasickScanner scanner = new AhoCorasickScanner(defaultKeywords);
+        HitList hits = scanner.findAll(defaultData);
+        assertEquals(2, hits.size());
+        assertHit(hits.get(0), 16, 0);
+        assertHit(hits.get(1), 41, 1);
+
+        hits = scanner.findAll(defaultData, 28);
+        assertEquals(1, hits.size());
+        assertHit(hits.get(0), 41, 1);
+
+        hits = scanner.findAll(defaultData, 0, 24);
+        assertEquals(1, hits.size());
+        assertHit(hits.get(0), 16, 0);
+
+        assertTrue(scanner.findAll((byte[]) null).isEmpty());
+        assertTrue(scanner.findAll(defaultData, 17, 24).isEmpty(), "hits must lie inside the range");
+    }
+
+    @Test
+    void testFindNext() {
+        AhoCorasickScanner scanner = new AhoCorasickScanner();
+        scanner.loadKeywords(defaultKeywords);
+        HitList hits = scanner.findNext(defaultData);
+        assertEquals(1, hits.size());
+        assertHit(hits.get(0), 16, 0);
+
+        hits = scanner.findNext();
+        assertEquals(1, hits.size());
+        assertHit(hits.get(0), 41, 1);
+
+        assertTrue(scanner.findNext(defaultData).isEmpty());
+        assertTrue(scanner.findNext(null).isEmpty());
+
+        hits = scanner.findNext(defaultData, 20);
+        assertEquals(1, hits.size());
+        assertHit(hits.get(0), 41, 1);
+    }
+
+    @Test
+    void testOverlappingKeywordsMatchBackwardsTreeScanner() throws Exception {
+        String[] keywords = {"he", "she", "his", "hers", "she", "", "s"};
+        byte[] data = "ushers and his sheep shed hershey".getBytes(StandardCharsets.UTF_8);
+        assertSameHits(keywords, data);
+
+        Random random = new Random(42);
+        String[] randomKeywords = new String[500];
+        for (int i = 0; i < randomKeywords.length; i++) {
+            randomKeywords[i] = randomWord(random, 1 + random.nextInt(6));
+        }
+        assertSameHits(randomKeywords, randomWord(random, 20000).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testCaseInsensitive() {
+        AhoCorasickScanner scanner = new AhoCorasickScanner(new String[] {"Fox", "DOG"}, false);
+        HitList hits = scanner.findAll("THE FOX and the dOg".getBytes(StandardCharsets.UTF_8));
+        assertEquals(2, hits.size());
+        assertHit(hits.get(0), 4, 0);
+        assertHit(hits.get(1), 16, 1);
+
+        assertTrue(new AhoCorasickScanner(new String[] {"Fox"}).findAll("fox FOX".getBytes(StandardCharsets.UTF_8)).isEmpty());
+    }
+
+    @Test
+    void testChannelAcrossBufferBoundary() throws IOException {
+        byte[] data = new byte[AhoCorasickScanner.BUFFER_SIZE * 2 + 10];
+        byte[] keyword = "boundary".getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(keyword, 0, data, AhoCorasickScanner.BUFFER_SIZE - 3, keyword.length);
+        System.arraycopy(keyword, 0, data, data.length - keyword.length, keyword.length);
+        AhoCorasickScanner scanner = new AhoCorasickScanner(new String[] {"boundary"});
+        try (SeekableByteChannel channel = InMemoryChannelFactory.create(data).create()) {
+            HitList hits = scanner.findAll(channel);
+            assertEquals(2, hits.size());
+            assertHit(hits.get(0), AhoCorasickScanner.BUFFER_SIZE - 3, 0);
+            assertHit(hits.get(1), data.length - keyword.length, 0);
+        }
+    }
+
+    @Test
+    void testSharedBetweenThreads() throws Exception {
+        AhoCorasickScanner scanner = new AhoCorasickScanner(defaultKeywords);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(pool.submit(() -> {
+                    int total = 0;
+                    for (int j = 0; j < 500; j++) {
+                        total += scanner.findAll(defaultData).size();
+                    }
+                    return total;
+                }));
+            }
+            for (Future<Integer> f : results) {
+                assertEquals(1000, f.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void assertSameHits(String[] keywords, byte[] data) throws Exception {
+        List<String> expected = new ArrayList<>();
+        BackwardsTreeScanner tree = new BackwardsTreeScanner(keywords);
+        for (int i = 0; i < data.length; i++) {
+            HitList h = new HitList();
+            tree.scan(data, i, h);
+            h.forEach(x -> expected.add(x.getOffset() + ":" + x.getID()));
+        }
+        List<String> actual = new ArrayList<>();
+        new AhoCorasickScanner(keywords).findAll(data).forEach(x -> actual.add(x.getOffset() + ":" + x.getID()));
+        assertEquals(expected, actual);
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(4)));
+        }
+        return sb.toString();
+    }
+
+    private static void assertHit(Hit hit, int offset, int id) {
+        assertEquals(offset, hit.getOffset());
+        assertEquals(id, hit.getID());
+    }
+}
@@ -0,0 +1,116 @@
+package emissary.util.search;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare finding every keyword in a buffer of text with the compiled Aho-Corasick automaton against the existing tree
+ * based scanners, across keyword counts and data sizes. The load benchmarks show what compiling each keyword list
+ * costs, the GC profiler shows the bytes allocated doing it. Run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=emissary.util.search.MultiKeywordScannerBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MultiKeywordScannerBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int keywordCount;
+
+    @Param({"4096", "1048576"})
+    public int dataSize;
+
+    private String[] keywords;
+    private byte[] data;
+
+    private MultiKeywordScanner multiKeywordScanner;
+    private FastBoyerMoore fastBoyerMoore;
+    private AhoCorasickScanner ahoCorasickScanner;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Random random = new Random(7);
+        keywords = new String[keywordCount];
+        for (int i = 0; i < keywordCount; i++) {
+            keywords[i] = word(random, 4 + random.nextInt(7));
+        }
+
+        StringBuilder sb = new StringBuilder(dataSize + 16);
+        while (sb.length() < dataSize) {
+            // About one word in twenty is a keyword
+            sb.append(random.nextInt(20) == 0 ? keywords[random.nextInt(keywordCount)] : word(random, 2 + random.nextInt(8))).append(' ');
+        }
+        data = sb.substring(0, dataSize).getBytes(StandardCharsets.UTF_8);
+
+        multiKeywordScanner = new MultiKeywordScanner();
+        multiKeywordScanner.loadKeywords(keywords);
+        fastBoyerMoore = new FastBoyerMoore(keywords);
+        ahoCorasickScanner = new AhoCorasickScanner(keywords);
+    }
+
+    private static String word(Random random, int length) {
+        char[] c = new char[length];
+        for (int i = 0; i < length; i++) {
+            c[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(c);
+    }
+
+    @Benchmark
+    public HitList multiKeywordScanner() {
+        return multiKeywordScanner.findAll(data);
+    }
+
+    @Benchmark
+    public List<int[]> fastBoyerMoore() {
+        List<int[]> result = new ArrayList<>();
+        fastBoyerMoore.scan(data, 0, data.length, result);
+        return result;
+    }
+
+    @Benchmark
+    public HitList ahoCorasick() {
+        return ahoCorasickScanner.findAll(data);
+    }
+
+    @Benchmark
+    public MultiKeywordScanner loadMultiKeywordScanner() {
+        MultiKeywordScanner scanner = new MultiKeywordScanner();
+        scanner.loadKeywords(keywords);
+        return scanner;
+    }
+
+    @Benchmark
+    public AhoCorasickScanner loadAhoCorasick() {
+        return new AhoCorasickScanner(keywords);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(MultiKeywordScannerBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -19,6 +19,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.stream.IntStream;
 
@@ -424,6 +425,22 @@ class ExecutrixTest extends UnitTest {
         sout.setLength(0);
     }
 
+    @Test
+    void testExecuteStreaming() throws Exception {
+        // More than a pipe buffer each way, written and read at the same time
+        final byte[] data = new byte[1024 * 1024];
+        new Random(7).nextBytes(data);
+        final String[] cmd = this.e.getStreamCommand("cat; echo oops >&2", false, 4000000);
+        StreamExecutor.Result result = this.e.executeStreaming(cmd, data, data.length);
+        assertTrue(result.isSuccess(), result.toString());
+        assertTrue(Arrays.equals(data, result.getOutput()), "Output must match input");
+        assertEquals("oops\n", result.getError());
+
+        result = this.e.executeStreaming(cmd, data, data.length - 1);
+        assertTrue(result.isOverflow());
+        assertFalse(result.isSuccess());
+    }
+
     private void readAndNuke(final String name) throws IOException {
         final File f = new File(name);
         assertTrue(f.exists(), "File " + name + " must exist");